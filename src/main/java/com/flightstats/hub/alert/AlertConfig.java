@@ -53,7 +53,7 @@ public class AlertConfig {
                 || StringUtils.isBlank(getServiceName())) {
             return false;
         }
-        if (isChannelAlert() && StringUtils.isBlank(getOperator())) {
+        if (isChannelAlert() && AlertOperator.parse(getOperator()) == null) {
             return false;
         }
         return true;
@@ -0,0 +1,68 @@
+package com.flightstats.hub.alert;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The comparisons a channel alert can make between its volume and its threshold.
+ */
+enum AlertOperator {
+    GREATER(">") {
+        @Override
+        boolean test(long count, long threshold) {
+            return count > threshold;
+        }
+    },
+    GREATER_OR_EQUAL(">=") {
+        @Override
+        boolean test(long count, long threshold) {
+            return count >= threshold;
+        }
+    },
+    LESS("<") {
+        @Override
+        boolean test(long count, long threshold) {
+            return count < threshold;
+        }
+    },
+    LESS_OR_EQUAL("<=") {
+        @Override
+        boolean test(long count, long threshold) {
+            return count <= threshold;
+        }
+    },
+    EQUAL("==", "===") {
+        @Override
+        boolean test(long count, long threshold) {
+            return count == threshold;
+        }
+    },
+    NOT_EQUAL("!=", "!==") {
+        @Override
+        boolean test(long count, long threshold) {
+            return count != threshold;
+        }
+    };
+
+    private final String[] symbols;
+
+    AlertOperator(String... symbols) {
+        this.symbols = symbols;
+    }
+
+    abstract boolean test(long count, long threshold);
+
+    /**
+     * @return the operator, or null if it isn't one
+     */
+    static AlertOperator parse(String operator) {
+        String symbol = StringUtils.trimToEmpty(operator);
+        for (AlertOperator alertOperator : values()) {
+            for (String candidate : alertOperator.symbols) {
+                if (candidate.equals(symbol)) {
+                    return alertOperator;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -3,20 +3,23 @@ package com.flightstats.hub.alert;
 
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.channel.ChannelVolumes;
 import com.flightstats.hub.cluster.CuratorLeader;
 import com.flightstats.hub.cluster.Leader;
 import com.flightstats.hub.cluster.Leadership;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.util.TimeUtil;
 import com.flightstats.hub.util.Sleeper;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.timgroup.statsd.StatsDClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -26,12 +29,18 @@ import java.util.concurrent.ThreadFactory;
 public class AlertRunner implements Leader {
 
     private final static Logger logger = LoggerFactory.getLogger(AlertRunner.class);
+    private final static StatsDClient statsd = DataDog.statsd;
 
     private final int sleepPeriod;
     private final String hubAppUrl;
     private final ExecutorService threadPool;
     private CuratorLeader leader;
 
+    @Inject
+    private ChannelService channelService;
+    @Inject
+    private ChannelVolumes channelVolumes;
+
     public AlertRunner() {
         ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("AlertRunner-%d").build();
         threadPool = Executors.newFixedThreadPool(20, threadFactory);
@@ -69,16 +78,21 @@ public class AlertRunner implements Leader {
         Map<String, AlertConfig> alertConfigsLatest = AlertConfigs.getLatest();
         Map<String, AlertStatus> existingAlertStatus = AlertStatuses.getLatestMap();
         List<Future<AlertStatus>> futures = new ArrayList<>();
+        List<ChannelAlertUpdater> channelUpdaters = new ArrayList<>();
         for (AlertConfig alertConfig : alertConfigsLatest.values()) {
             AlertStatus alertStatus = existingAlertStatus.get(alertConfig.getName());
             if (!alertConfig.isValid()) {
-                logger.warn("source is blank {}", alertConfig);
+                logger.warn("invalid alert {}", alertConfig);
             } else if (alertConfig.isChannelAlert()) {
-                futures.add(threadPool.submit(new ChannelAlertUpdater(alertConfig, alertStatus)));
+                channelUpdaters.add(new ChannelAlertUpdater(alertConfig, alertStatus, channelService));
             } else {
                 futures.add(threadPool.submit(new WebhookAlertUpdater(alertConfig, alertStatus)));
             }
         }
+        setVolumes(channelUpdaters);
+        for (ChannelAlertUpdater updater : channelUpdaters) {
+            futures.add(threadPool.submit(updater));
+        }
         Map<String, AlertStatus> updatedAlertStatus = new HashMap<>();
         for (Future<AlertStatus> future : futures) {
             try {
@@ -89,9 +103,21 @@ public class AlertRunner implements Leader {
             }
         }
         AlertStatuses.saveStatus(updatedAlertStatus);
+        long time = System.currentTimeMillis() - start;
+        statsd.time("alert.cycle", time);
+        statsd.gauge("alert.count", futures.size());
         doSleep(start);
     }
 
+    /**
+     * This server's volumes count the whole cluster, as every spoke server stores every item.
+     */
+    private void setVolumes(List<ChannelAlertUpdater> updaters) {
+        Map<TimeUtil.Unit, ChannelVolumes.Volumes> volumes = new HashMap<>();
+        for (ChannelAlertUpdater updater : updaters) {
+            updater.setVolumes(volumes.computeIfAbsent(updater.getUnit(), channelVolumes::getVolumes));
+        }
+    }
 
     private void doSleep(long start) {
         long time = System.currentTimeMillis() - start;
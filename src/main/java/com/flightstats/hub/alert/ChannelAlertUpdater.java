@@ -1,32 +1,37 @@
 package com.flightstats.hub.alert;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.flightstats.hub.rest.RestClient;
-import com.sun.jersey.api.client.Client;
-import com.sun.jersey.api.client.ClientResponse;
+import com.flightstats.hub.channel.ChannelVolumes;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.model.Location;
+import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.TimeUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
-import java.io.IOException;
 import java.util.LinkedList;
 import java.util.concurrent.Callable;
 
+/**
+ * Keeps the item counts of a channel's last complete minutes, or hours for windows of 120 minutes or more,
+ * from the ChannelVolumes.  Periods the volumes don't cover are queried from the ChannelService.
+ */
 class ChannelAlertUpdater implements Callable<AlertStatus> {
 
     private final static Logger logger = LoggerFactory.getLogger(ChannelAlertUpdater.class);
-    private static final ScriptEngine jsEngine = createJsEngine();
-    private static final Client client = RestClient.defaultClient();
-    private static final ObjectMapper mapper = new ObjectMapper();
 
     private final AlertConfig alertConfig;
     private final AlertStatus alertStatus;
+    private final ChannelService channelService;
+    private final TimeUtil.Unit unit;
+    private final int historyCount;
+    private final DateTime current;
+    private ChannelVolumes.Volumes volumes;
 
-    ChannelAlertUpdater(AlertConfig alertConfig, AlertStatus alertStatus) {
+    ChannelAlertUpdater(AlertConfig alertConfig, AlertStatus alertStatus, ChannelService channelService) {
         this.alertConfig = alertConfig;
+        this.channelService = channelService;
         if (alertStatus == null) {
             alertStatus = AlertStatus.builder()
                     .name(alertConfig.getName())
@@ -37,50 +42,55 @@ class ChannelAlertUpdater implements Callable<AlertStatus> {
         }
         this.alertStatus = alertStatus;
         alertStatus.setType(AlertConfig.AlertType.channel.name());
+        if (alertConfig.getTimeWindowMinutes() < 120) {
+            unit = TimeUtil.Unit.MINUTES;
+            historyCount = alertConfig.getTimeWindowMinutes();
+        } else {
+            unit = TimeUtil.Unit.HOURS;
+            historyCount = (int) Math.ceil(alertConfig.getTimeWindowMinutes() / 60.0);
+        }
+        checkPeriod(unit.getName());
+        current = unit.round(TimeUtil.stable());
+        DateTime first = current.minus(unit.getDuration().multipliedBy(historyCount));
+        alertStatus.getHistory().removeIf(history -> {
+            DateTime time = getTime(history);
+            return time == null || time.isBefore(first) || !time.isBefore(current);
+        });
     }
 
-    private static ScriptEngine createJsEngine() {
-        ScriptEngineManager engineManager = new ScriptEngineManager();
-        return engineManager.getEngineByName("nashorn");
+    TimeUtil.Unit getUnit() {
+        return unit;
+    }
+
+    /**
+     * @return the first period the history needs
+     */
+    DateTime getStart() {
+        LinkedList<AlertStatusHistory> history = alertStatus.getHistory();
+        if (history.isEmpty()) {
+            return current.minus(unit.getDuration().multipliedBy(historyCount));
+        }
+        return getTime(history.getLast()).plus(unit.getDuration());
+    }
+
+    void setVolumes(ChannelVolumes.Volumes volumes) {
+        this.volumes = volumes;
     }
 
     @Override
     public AlertStatus call() throws Exception {
         try {
-            int historyCount = alertConfig.getTimeWindowMinutes();
-            if (alertConfig.getTimeWindowMinutes() < 120) {
-                checkPeriod(AlertStatus.MINUTE);
-            } else {
-                checkPeriod(AlertStatus.HOUR);
-                historyCount = (int) Math.ceil(alertConfig.getTimeWindowMinutes() / 60.0);
-            }
-            while (alertStatus.getHistory().size() > historyCount) {
-                alertStatus.getHistory().removeFirst();
-            }
-
             LinkedList<AlertStatusHistory> history = alertStatus.getHistory();
-            if (history.isEmpty()) {
-                AlertStatusHistory alertStatusHistory = getAlertHistory(alertConfig.getHubDomain() +
-                        "channel/" + alertConfig.getSource() + "/time/" + alertStatus.getPeriod());
-                while (history.size() < historyCount) {
-                    alertStatusHistory = getAlertHistory(alertStatusHistory.getPrevious());
-                    history.addFirst(alertStatusHistory);
-                }
-                checkForAlert();
-            } else {
-                AlertStatusHistory alertHistory = getAlertHistory(history.getLast().getHref());
-                while (alertHistory.getNext() != null) {
-                    alertHistory = getAlertHistory(alertHistory.getNext());
-                    if (alertHistory.getNext() != null) {
-                        history.addLast(alertHistory);
-                        if (history.size() > historyCount) {
-                            history.removeFirst();
-                        }
-                    }
-                }
-                checkForAlert();
+            for (DateTime time = getStart(); time.isBefore(current); time = time.plus(unit.getDuration())) {
+                history.addLast(AlertStatusHistory.builder()
+                        .href(alertConfig.getHubDomain() + "channel/" + alertConfig.getSource() + "/" + unit.format(time))
+                        .items(getItems(time))
+                        .build());
             }
-
+            while (history.size() > historyCount) {
+                history.removeFirst();
+            }
+            checkForAlert();
             return alertStatus;
         } catch (Exception e) {
             logger.warn("unable to process " + alertConfig, e);
@@ -88,13 +98,29 @@ class ChannelAlertUpdater implements Callable<AlertStatus> {
         }
     }
 
-    private boolean checkForAlert() throws ScriptException {
+    private int getItems(DateTime time) {
+        long items = volumes == null ? -1 : volumes.getItems(alertConfig.getSource(), time);
+        if (items >= 0) {
+            return (int) items;
+        }
+        logger.debug("querying {} {}", alertConfig.getSource(), time);
+        TimeQuery query = TimeQuery.builder()
+                .channelName(alertConfig.getSource())
+                .startTime(time)
+                .unit(unit)
+                .stable(true)
+                .location(Location.ALL)
+                .build();
+        return channelService.queryByTime(query).size();
+    }
+
+    private boolean checkForAlert() {
         int count = alertStatus.getHistory().stream()
                 .mapToInt(AlertStatusHistory::getItems)
                 .sum();
-        String script = count + " " + alertConfig.getOperator() + " " + alertConfig.getThreshold();
-        Boolean evaluate = (Boolean) jsEngine.eval(script);
-        logger.debug("check for alert {} {} {}", alertConfig.getName(), script, evaluate);
+        boolean evaluate = AlertOperator.parse(alertConfig.getOperator()).test(count, alertConfig.getThreshold());
+        logger.debug("check for alert {} {} {} {} {}", alertConfig.getName(), count, alertConfig.getOperator(),
+                alertConfig.getThreshold(), evaluate);
         if (evaluate && !alertStatus.isAlert()) {
             alertStatus.setAlert(true);
             AlertSender.sendAlert(alertConfig, alertStatus, count);
@@ -111,20 +137,13 @@ class ChannelAlertUpdater implements Callable<AlertStatus> {
         alertStatus.setPeriod(period);
     }
 
-    private AlertStatusHistory getAlertHistory(String url) throws IOException {
-        logger.debug("calling {}", url);
-        ClientResponse response = client.resource(url).get(ClientResponse.class);
-        JsonNode jsonNode = mapper.readTree(response.getEntity(String.class));
-        logger.trace("called {} response {} {}", url, response.getStatus(), jsonNode);
-        JsonNode links = jsonNode.get("_links");
-        AlertStatusHistory.AlertStatusHistoryBuilder builder = AlertStatusHistory.builder()
-                .items(links.get("uris").size())
-                .previous(links.get("previous").get("href").asText())
-                .href(links.get("self").get("href").asText());
-        if (links.has("next")) {
-            builder.next(links.get("next").get("href").asText());
+    private DateTime getTime(AlertStatusHistory history) {
+        String path = StringUtils.substringAfter(history.getHref(), "channel/" + alertConfig.getSource() + "/");
+        path = StringUtils.substringBefore(path, "?");
+        try {
+            return unit == TimeUtil.Unit.MINUTES ? TimeUtil.minutes(path) : TimeUtil.hours(path);
+        } catch (Exception e) {
+            return null;
         }
-
-        return builder.build();
     }
 }
@@ -7,6 +7,7 @@ import com.flightstats.hub.cluster.WatchManager;
 import com.flightstats.hub.dao.*;
 import com.flightstats.hub.dao.aws.*;
 import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.NamedType;
 import com.flightstats.hub.spoke.*;
 import com.flightstats.hub.webhook.Webhook;
 import com.google.inject.AbstractModule;
@@ -30,6 +31,7 @@ public class AwsBindings extends AbstractModule {
         bind(SpokeTtlEnforcer.class).asEagerSingleton();
         bind(FileSpokeStore.class).asEagerSingleton();
         bind(SpokeClusterRegister.class).asEagerSingleton();
+        bind(SpokeRepair.class).asEagerSingleton();
         bind(FinalCheck.class).to(SpokeFinalCheck.class).asEagerSingleton();
         bind(ChannelService.class).to(GlobalChannelService.class).asEagerSingleton();
         bind(AwsConnectorFactory.class).asEagerSingleton();
@@ -59,7 +61,7 @@ public class AwsBindings extends AbstractModule {
     @Provides
     @Named("ChannelConfig")
     public static Dao<ChannelConfig> buildChannelConfigDao(WatchManager watchManager, DynamoChannelConfigDao dao) {
-        return new CachedDao<>(dao, watchManager, "/channels/cache");
+        return new CachedDao<>(dao, watchManager, "/channels/cache", getSnapshot(dao.snapshot()));
     }
 
     @Inject
@@ -67,7 +69,11 @@ public class AwsBindings extends AbstractModule {
     @Provides
     @Named("Webhook")
     public static Dao<Webhook> buildWebhookDao(WatchManager watchManager, DynamoWebhookDao dao) {
-        return new CachedDao<>(dao, watchManager, "/webhooks/cache");
+        return new CachedDao<>(dao, watchManager, "/webhooks/cache", getSnapshot(dao.snapshot()));
+    }
+
+    private static <T extends NamedType> ConfigSnapshot<T> getSnapshot(ConfigSnapshot<T> snapshot) {
+        return HubProperties.getProperty("dynamo.snapshot", true) ? snapshot : null;
     }
 
     @Named("SpokeCuratorCluster")
@@ -0,0 +1,101 @@
+package com.flightstats.hub.app;
+
+import com.flightstats.hub.util.Sleeper;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+/**
+ * Tracks the work a node still has to finish before it can exit: requests being handled,
+ * and whatever each registered source reports as pending, such as webhook calls or queued S3 writes.
+ * A node is drained once nothing is pending and no requests have arrived for the quiet period,
+ * which is how we know the load balancer has stopped sending traffic.
+ */
+public class DrainCoordinator {
+
+    private final static Logger logger = LoggerFactory.getLogger(DrainCoordinator.class);
+
+    static final String REQUESTS = "requests";
+
+    private static final AtomicInteger activeRequests = new AtomicInteger();
+    private static volatile long lastRequestMillis = System.currentTimeMillis();
+    private static final Map<String, IntSupplier> sources = new ConcurrentHashMap<>();
+
+    static {
+        register(REQUESTS, activeRequests::get);
+    }
+
+    public static void register(String name, IntSupplier pending) {
+        sources.put(name, pending);
+    }
+
+    static void requestStarted() {
+        lastRequestMillis = System.currentTimeMillis();
+        activeRequests.incrementAndGet();
+    }
+
+    static void requestEnded() {
+        activeRequests.decrementAndGet();
+    }
+
+    /**
+     * @return the work pending for each source
+     */
+    public static Map<String, Integer> getPending() {
+        Map<String, Integer> pending = new TreeMap<>();
+        sources.forEach((name, supplier) -> pending.put(name, supplier.getAsInt()));
+        return pending;
+    }
+
+    /**
+     * Waits until the node is drained, or until the deadline.
+     * Anything still pending at the deadline is reported as dropped.
+     */
+    static Report drain(long deadlineMillis, long quietMillis) {
+        long start = System.currentTimeMillis();
+        Map<String, Integer> pending = getPending();
+        while (!isDrained(pending, quietMillis)) {
+            if (System.currentTimeMillis() >= deadlineMillis) {
+                pending.values().removeIf(count -> count <= 0);
+                logger.warn("unable to drain in {} ms, dropping {}", System.currentTimeMillis() - start, pending);
+                return new Report(System.currentTimeMillis() - start, false, pending);
+            }
+            logger.debug("draining {}", pending);
+            Sleeper.sleepQuietly(100);
+            pending = getPending();
+        }
+        logger.info("drained in {} ms", System.currentTimeMillis() - start);
+        return new Report(System.currentTimeMillis() - start, true, new TreeMap<>());
+    }
+
+    private static boolean isDrained(Map<String, Integer> pending, long quietMillis) {
+        if (System.currentTimeMillis() - lastRequestMillis < quietMillis) {
+            return false;
+        }
+        return pending.values().stream().allMatch(count -> count <= 0);
+    }
+
+    @Getter
+    static class Report {
+        private final long millis;
+        private final boolean drained;
+        private final Map<String, Integer> dropped;
+
+        Report(long millis, boolean drained, Map<String, Integer> dropped) {
+            this.millis = millis;
+            this.drained = drained;
+            this.dropped = dropped;
+        }
+
+        @Override
+        public String toString() {
+            return (drained ? "drained" : "not drained") + " in " + millis + " ms, dropped " + dropped;
+        }
+    }
+}
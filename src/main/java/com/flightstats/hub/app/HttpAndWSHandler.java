@@ -18,6 +18,7 @@ class HttpAndWSHandler extends HandlerCollection {
 
     private Handler httpHandler;
     private Handler wsHandler;
+    private final LoadShedder loadShedder = HubProperties.getProperty("http.loadShedding", true) ? new LoadShedder() : null;
 
     void addHttpHandler(Handler httpHandler) {
         this.httpHandler = httpHandler;
@@ -35,9 +36,50 @@ class HttpAndWSHandler extends HandlerCollection {
         if (isStarted()) {
             if (baseRequest.getHttpFields().contains("Upgrade", "websocket")) {
                 wsHandler.handle(target, baseRequest, request, response);
+            } else if (loadShedder == null) {
+                handleHttp(target, baseRequest, request, response, LoadShedder.Priority.classify(request.getMethod(), target));
             } else {
-                httpHandler.handle(target, baseRequest, request, response);
-                DataDogRequestFilter.finalStats();
+                LoadShedder.Priority priority = LoadShedder.Priority.classify(request.getMethod(), target);
+                if (!acquire(priority)) {
+                    logger.debug("shedding {} {} {}", priority, request.getMethod(), target);
+                    baseRequest.setHandled(true);
+                    response.setHeader("Retry-After", "1");
+                    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "too busy for " + priority + " requests");
+                    return;
+                }
+                try {
+                    handleHttp(target, baseRequest, request, response, priority);
+                } finally {
+                    loadShedder.release(priority);
+                }
+            }
+        }
+    }
+
+    private boolean acquire(LoadShedder.Priority priority) throws ServletException {
+        try {
+            return loadShedder.acquire(priority);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(e);
+        }
+    }
+
+    /**
+     * Admin and event stream requests are not drained, as they either come from the node itself or never end.
+     */
+    private void handleHttp(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response,
+                            LoadShedder.Priority priority) throws IOException, ServletException {
+        boolean drained = priority != LoadShedder.Priority.ADMIN && priority != LoadShedder.Priority.EVENTS;
+        if (drained) {
+            DrainCoordinator.requestStarted();
+        }
+        try {
+            httpHandler.handle(target, baseRequest, request, response);
+            DataDogRequestFilter.finalStats();
+        } finally {
+            if (drained) {
+                DrainCoordinator.requestEnded();
             }
         }
     }
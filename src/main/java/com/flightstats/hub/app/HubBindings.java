@@ -6,18 +6,21 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.flightstats.hub.alert.AlertRunner;
 import com.flightstats.hub.channel.ChannelValidator;
+import com.flightstats.hub.channel.ChannelVolumes;
+import com.flightstats.hub.channel.WriteLimiter;
 import com.flightstats.hub.cluster.*;
 import com.flightstats.hub.health.HubHealthCheck;
 import com.flightstats.hub.metrics.HostedGraphiteSender;
 import com.flightstats.hub.metrics.MetricsRunner;
 import com.flightstats.hub.metrics.MetricsSender;
 import com.flightstats.hub.metrics.NoOpMetricsSender;
+import com.flightstats.hub.metrics.StackSampler;
 import com.flightstats.hub.replication.ReplicationGlobalManager;
+import com.flightstats.hub.replication.ReplicationLagMonitor;
 import com.flightstats.hub.rest.HalLinks;
 import com.flightstats.hub.rest.HalLinksSerializer;
 import com.flightstats.hub.rest.RetryClientFilter;
 import com.flightstats.hub.rest.Rfc3339DateSerializer;
-import com.flightstats.hub.spoke.GCRunner;
 import com.flightstats.hub.time.NtpMonitor;
 import com.flightstats.hub.time.TimeService;
 import com.flightstats.hub.util.HubUtils;
@@ -138,15 +141,18 @@ public class HubBindings extends AbstractModule {
         bind(HubClusterRegister.class).asEagerSingleton();
         bind(ZooKeeperState.class).asEagerSingleton();
         bind(ReplicationGlobalManager.class).asEagerSingleton();
+        bind(ReplicationLagMonitor.class).asEagerSingleton();
         bind(HubUtils.class).asEagerSingleton();
         bind(CuratorLock.class).asEagerSingleton();
-        bind(GCRunner.class).asEagerSingleton();
         bind(MetricsRunner.class).asEagerSingleton();
+        bind(StackSampler.class).asEagerSingleton();
         bind(ChannelValidator.class).asEagerSingleton();
         bind(WebhookValidator.class).asEagerSingleton();
         bind(WebhookManager.class).asEagerSingleton();
         bind(LastContentPath.class).asEagerSingleton();
         bind(WatchManager.class).asEagerSingleton();
+        bind(WriteLimiter.class).asEagerSingleton();
+        bind(ChannelVolumes.class).asEagerSingleton();
 
         if (HubProperties.getProperty("hosted_graphite.enable", false)) {
             bind(MetricsSender.class).to(HostedGraphiteSender.class).asEagerSingleton();
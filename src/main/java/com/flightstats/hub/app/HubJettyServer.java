@@ -6,6 +6,7 @@ import com.google.common.io.Resources;
 import org.eclipse.jetty.server.*;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.websocket.jsr356.server.deploy.WebSocketServerContainerInitializer;
 import org.glassfish.jersey.jetty.JettyHttpContainer;
 import org.glassfish.jersey.server.ContainerFactory;
@@ -37,7 +38,7 @@ public class HubJettyServer {
         checkState(server == null, "Server has already been started");
         try {
 
-            server = new Server();
+            server = new Server(new QueuedThreadPool(HubProperties.getProperty("http.maxThreads", 400)));
             HttpConfiguration httpConfig = new HttpConfiguration();
             SslContextFactory sslContextFactory = getSslContextFactory();
             if (null != sslContextFactory) {
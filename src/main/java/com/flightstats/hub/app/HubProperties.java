@@ -99,6 +99,7 @@ public class HubProperties {
             properties.put("app.url", "http://localhost:9080/");
             properties.put("spoke.path", "/tmp/spoke/test");
             properties.put("spoke.ttlMinutes", "240");
+            properties.put("channel.volumePath", "/tmp/hub/volumes");
             properties.put("http.bind_port", "9080");
             properties.put("hosted_graphite.enable", "false");
             properties.put("zookeeper.connection", "localhost:2181");
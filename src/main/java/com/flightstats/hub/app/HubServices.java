@@ -1,21 +1,30 @@
 package com.flightstats.hub.app;
 
 import com.google.common.util.concurrent.Service;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
- * Services is the class to register for startup and shutdown hooks
+ * Services is the class to register for startup and shutdown hooks.
+ * A service can depend on other services, or on every service registered by a class, and is only started
+ * once its dependencies within the same phase are running.  Services without dependencies between them are
+ * started concurrently, unless app.parallelStart is false.
  */
 public class HubServices {
     private final static Logger logger = LoggerFactory.getLogger(HubServices.class);
-    private static Map<TYPE, List<Service>> serviceMap = new HashMap<>();
+    private static final boolean parallelStart = HubProperties.getProperty("app.parallelStart", true);
+    private static Map<TYPE, List<Registration>> serviceMap = new HashMap<>();
+    private static Map<TYPE, StartupReport> reports = new ConcurrentHashMap<>();
 
     static {
         for (TYPE type : TYPE.values()) {
@@ -23,43 +32,124 @@ public class HubServices {
         }
     }
 
-    public static void registerPreStop(Service service) {
-        register(service, TYPE.PRE_STOP, TYPE.PRE_START);
+    public static Registration registerPreStop(Service service) {
+        return register(service, TYPE.PRE_STOP, TYPE.PRE_START);
     }
 
-    public static void register(Service service) {
-        register(service, TYPE.PRE_START);
+    public static Registration register(Service service) {
+        return register(service, TYPE.PRE_START);
     }
 
-    public static void register(Service service, TYPE... types) {
-        for (TYPE type : types) {
-            logger.info("registering " + service.getClass().getName() + " for " + type);
-            serviceMap.get(type).add(service);
+    public static Registration register(Service service, TYPE... types) {
+        Registration registration = new Registration(service);
+        synchronized (serviceMap) {
+            for (TYPE type : types) {
+                logger.info("registering " + service.getClass().getName() + " for " + type);
+                serviceMap.get(type).add(registration);
+            }
         }
+        return registration;
     }
 
     public static void start(TYPE type) {
         try {
-            for (Service service : serviceMap.get(type)) {
-                logger.info("starting service " + service.getClass().getName());
-                service.startAsync();
-                service.awaitRunning();
-                logger.info("running service " + service.getClass().getName());
+            List<Registration> registrations;
+            synchronized (serviceMap) {
+                registrations = new ArrayList<>(serviceMap.get(type));
             }
+            StartupReport report = start(type, registrations, parallelStart);
+            reports.put(type, report);
+            logger.info("started {} services in {} ms, critical path {}", type, report.getMillis(),
+                    report.getCriticalPath().stream().map(StartupReport.Timing::getName).collect(Collectors.toList()));
         } catch (Exception e) {
             logger.error("unable to start services, exiting", e);
             System.exit(-1);
         }
     }
 
+    static StartupReport start(TYPE type, List<Registration> registrations, boolean parallel) throws Exception {
+        List<Registration> sorted = sort(registrations);
+        StartupReport report = new StartupReport(type, parallel);
+        if (!parallel) {
+            for (Registration registration : sorted) {
+                start(registration, registrations, report);
+            }
+            report.complete();
+            return report;
+        }
+        ExecutorService executor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("HubServices-" + type + "-%d").setDaemon(true).build());
+        try {
+            Map<Registration, CompletableFuture<Void>> futures = new HashMap<>();
+            for (Registration registration : sorted) {
+                CompletableFuture<?>[] dependencies = registration.getDependencies(registrations).stream()
+                        .map(futures::get)
+                        .toArray(CompletableFuture<?>[]::new);
+                futures.put(registration, CompletableFuture.allOf(dependencies)
+                        .thenRunAsync(() -> start(registration, registrations, report), executor));
+            }
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("unable to start " + type, e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        report.complete();
+        return report;
+    }
+
+    private static void start(Registration registration, List<Registration> registrations, StartupReport report) {
+        Service service = registration.getService();
+        logger.info("starting service " + service.getClass().getName());
+        long start = System.currentTimeMillis();
+        service.startAsync();
+        service.awaitRunning();
+        report.add(registration, registration.getDependencies(registrations), start, System.currentTimeMillis());
+        logger.info("running service " + service.getClass().getName());
+    }
+
+    /**
+     * @return the registrations in registration order, except each is after its dependencies
+     */
+    static List<Registration> sort(List<Registration> registrations) {
+        List<Registration> sorted = new ArrayList<>();
+        Set<Registration> remaining = new LinkedHashSet<>(registrations);
+        while (!remaining.isEmpty()) {
+            Registration next = null;
+            for (Registration registration : remaining) {
+                if (sorted.containsAll(registration.getDependencies(registrations))) {
+                    next = registration;
+                    break;
+                }
+            }
+            if (next == null) {
+                throw new IllegalStateException("circular service dependencies between " +
+                        remaining.stream().map(Registration::getName).collect(Collectors.toList()));
+            }
+            sorted.add(next);
+            remaining.remove(next);
+        }
+        return sorted;
+    }
+
+    public static Map<TYPE, StartupReport> getReports() {
+        return new TreeMap<>(reports);
+    }
+
     public static void stopAll() {
         for (TYPE type : TYPE.values()) {
-            stop(serviceMap.get(type));
+            stop(getServices(type));
         }
     }
 
     public static void preStop() {
-        stop(serviceMap.get(TYPE.PRE_STOP));
+        stop(getServices(TYPE.PRE_STOP));
+    }
+
+    private static List<Service> getServices(TYPE type) {
+        synchronized (serviceMap) {
+            return serviceMap.get(type).stream().map(Registration::getService).collect(Collectors.toList());
+        }
     }
 
     private static void stop(List<Service> services) {
@@ -88,4 +178,66 @@ public class HubServices {
         PRE_STOP,
         STOP
     }
+
+    /**
+     * A registered service, which is known by the class which declares it.
+     */
+    public static class Registration {
+        private final Service service;
+        private final Class<?> owner;
+        private final Set<Class<?>> ownerDependencies = new HashSet<>();
+        private final Set<Service> serviceDependencies = new HashSet<>();
+
+        Registration(Service service) {
+            this.service = service;
+            Class<?> enclosing = service.getClass().getEnclosingClass();
+            this.owner = enclosing == null ? service.getClass() : enclosing;
+        }
+
+        /**
+         * Starts after every service registered by these classes in the same phase.
+         */
+        public Registration dependsOn(Class<?>... owners) {
+            ownerDependencies.addAll(Arrays.asList(owners));
+            return this;
+        }
+
+        /**
+         * Starts after these services, if they are registered in the same phase.
+         */
+        public Registration dependsOn(Service... services) {
+            serviceDependencies.addAll(Arrays.asList(services));
+            return this;
+        }
+
+        Service getService() {
+            return service;
+        }
+
+        String getName() {
+            return owner.getSimpleName() + "." + service.getClass().getSimpleName();
+        }
+
+        List<Registration> getDependencies(List<Registration> registrations) {
+            List<Registration> dependencies = new ArrayList<>();
+            for (Registration registration : registrations) {
+                if (registration != this && dependsOn(registration)) {
+                    dependencies.add(registration);
+                }
+            }
+            return dependencies;
+        }
+
+        private boolean dependsOn(Registration registration) {
+            if (serviceDependencies.contains(registration.service)) {
+                return true;
+            }
+            for (Class<?> ownerDependency : ownerDependencies) {
+                if (ownerDependency.isAssignableFrom(registration.owner) && !ownerDependency.isAssignableFrom(owner)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
@@ -6,8 +6,10 @@ import com.flightstats.hub.channel.InternalChannelResource;
 import com.flightstats.hub.cluster.InternalCuratorResource;
 import com.flightstats.hub.cluster.InternalZookeeperResource;
 import com.flightstats.hub.health.InternalHealthResource;
+import com.flightstats.hub.metrics.InternalProfilerResource;
 import com.flightstats.hub.metrics.InternalStacktraceResource;
 import com.flightstats.hub.metrics.InternalTracesResource;
+import com.flightstats.hub.replication.InternalReplicationLagResource;
 import org.apache.commons.lang3.StringUtils;
 
 import javax.ws.rs.GET;
@@ -42,8 +44,11 @@ public class InternalResource {
         addLink("channel", InternalChannelResource.DESCRIPTION);
         addLink("curator", InternalCuratorResource.DESCRIPTION);
         addLink("health", InternalHealthResource.DESCRIPTION);
+        addLink("profiler", InternalProfilerResource.DESCRIPTION);
+        addLink("replication", InternalReplicationLagResource.DESCRIPTION);
         addLink("shutdown", InternalShutdownResource.DESCRIPTION);
         addLink("stacktrace", InternalStacktraceResource.DESCRIPTION);
+        addLink("startup", InternalStartupResource.DESCRIPTION);
         addLink("traces", InternalTracesResource.DESCRIPTION);
         addLink("zookeeper", InternalZookeeperResource.DESCRIPTION);
         return Response.ok(root).build();
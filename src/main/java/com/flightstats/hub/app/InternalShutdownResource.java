@@ -22,7 +22,7 @@ import java.net.URI;
 public class InternalShutdownResource {
     private final static ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
 
-    public static final String DESCRIPTION = "See if any server is being shutdown, shutdown a node, and reset the shutdown lock.";
+    public static final String DESCRIPTION = "See if any server is being shutdown and the work this node has pending, shutdown a node, and reset the shutdown lock.";
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
@@ -36,6 +36,8 @@ public class InternalShutdownResource {
         } catch (Exception e) {
             root.put("shutdownLock", "none");
         }
+        ObjectNode pending = root.putObject("pending");
+        DrainCoordinator.getPending().forEach(pending::put);
         String localhostLink = HubHost.getLocalhostUri() + requestUri.getPath();
         Linked.Builder<?> links = Linked.linked(root);
         links.withLink("self", requestUri);
@@ -0,0 +1,46 @@
+package com.flightstats.hub.app;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+
+@SuppressWarnings("WeakerAccess")
+@Path("/internal/startup")
+public class InternalStartupResource {
+
+    private static final ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
+    public static final String DESCRIPTION = "Get how long each service took to start, and the critical path of each startup phase.";
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getStartup() {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("startTime", HubMain.getStartTime().toString());
+        for (Map.Entry<HubServices.TYPE, StartupReport> entry : HubServices.getReports().entrySet()) {
+            StartupReport report = entry.getValue();
+            ObjectNode phase = root.putObject(entry.getKey().toString());
+            phase.put("millis", report.getMillis());
+            phase.put("parallel", report.isParallel());
+            ArrayNode criticalPath = phase.putArray("criticalPath");
+            report.getCriticalPath().forEach(timing -> criticalPath.add(timing.getName()));
+            ArrayNode services = phase.putArray("services");
+            for (StartupReport.Timing timing : report.getTimings()) {
+                ObjectNode service = services.addObject();
+                service.put("name", timing.getName());
+                service.put("starting", timing.getStarting());
+                service.put("running", timing.getRunning());
+                service.put("millis", timing.getMillis());
+                ArrayNode dependencies = service.putArray("dependencies");
+                timing.getDependencies().forEach(dependency -> dependencies.add(dependency.getName()));
+            }
+        }
+        return Response.ok(root).build();
+    }
+}
@@ -0,0 +1,169 @@
+package com.flightstats.hub.app;
+
+import com.flightstats.hub.metrics.DataDog;
+import com.timgroup.statsd.StatsDClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds how many Jetty threads each class of request can hold, so public reads can not take the threads
+ * spoke writes need to reach a quorum.  Internal S3 archiving and replication callbacks have their own class,
+ * apart from the admin calls.
+ * A request without a free slot waits for one, up to its class's target queue time.
+ * Once a class's requests are timing out, new requests in that class are rejected without waiting
+ * until the queue time is back under the target.
+ * Waiting requests hold Jetty threads too, so the limits of the other classes are scaled down when their
+ * concurrent and queued requests could take more than http.maxThreads less http.spoke.reserveThreads.
+ */
+class LoadShedder {
+
+    private final static Logger logger = LoggerFactory.getLogger(LoadShedder.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    enum Priority {
+        SPOKE(0, 0, 0),
+        INTERNAL(80, 40, 5000),
+        ADMIN(10, 10, 5000),
+        EVENTS(40, 0, 0),
+        WRITE(50, 25, 1000),
+        READ(25, 10, 250);
+
+        private final int maxConcurrent;
+        private final int maxQueued;
+        private final int targetQueueMillis;
+
+        Priority(int maxConcurrent, int maxQueued, int targetQueueMillis) {
+            this.maxConcurrent = maxConcurrent;
+            this.maxQueued = maxQueued;
+            this.targetQueueMillis = targetQueueMillis;
+        }
+
+        static Priority classify(String method, String path) {
+            if (path.startsWith("/internal/spoke")) {
+                return SPOKE;
+            }
+            if (path.startsWith("/internal/events") || path.startsWith("/internal/ws")) {
+                return EVENTS;
+            }
+            if (isInternalWrite(path)) {
+                return INTERNAL;
+            }
+            if (path.startsWith("/internal") || path.startsWith("/health") || path.startsWith("/shutdown")) {
+                return ADMIN;
+            }
+            if (method.equals("GET") || method.equals("HEAD") || method.equals("OPTIONS")) {
+                return READ;
+            }
+            return WRITE;
+        }
+
+        /**
+         * The webhook and replication targets which archive to S3 and replicate every channel on the node.
+         */
+        private static boolean isInternalWrite(String path) {
+            return path.startsWith("/internal/s3Batch/") || path.startsWith("/internal/s3Digest/")
+                    || path.startsWith("/internal/repls/") || path.startsWith("/internal/global/repl/");
+        }
+    }
+
+    private final Map<Priority, Bulkhead> bulkheads = new EnumMap<>(Priority.class);
+
+    LoadShedder() {
+        Map<Priority, int[]> limits = new EnumMap<>(Priority.class);
+        int total = 0;
+        for (Priority priority : Priority.values()) {
+            String prefix = "http." + priority.name().toLowerCase() + ".";
+            int maxConcurrent = HubProperties.getProperty(prefix + "maxConcurrent", priority.maxConcurrent);
+            if (maxConcurrent > 0) {
+                int maxQueued = HubProperties.getProperty(prefix + "maxQueued", priority.maxQueued);
+                int targetQueueMillis = HubProperties.getProperty(prefix + "targetQueueMillis", priority.targetQueueMillis);
+                limits.put(priority, new int[]{maxConcurrent, maxQueued, targetQueueMillis});
+                total += maxConcurrent + (targetQueueMillis > 0 ? maxQueued : 0);
+            } else if (priority != Priority.SPOKE) {
+                logger.warn("{} requests are not limited, and can take the threads spoke needs", priority);
+            }
+        }
+        int available = HubProperties.getProperty("http.maxThreads", 400)
+                - HubProperties.getProperty("http.spoke.reserveThreads", 100);
+        double scale = total > available ? Math.max(0, available) / (double) total : 1;
+        if (scale < 1) {
+            logger.warn("request limits total {} threads, more than the {} available, scaling them by {}",
+                    total, available, scale);
+        }
+        for (Map.Entry<Priority, int[]> entry : limits.entrySet()) {
+            int maxConcurrent = Math.max(1, (int) (entry.getValue()[0] * scale));
+            int maxQueued = (int) (entry.getValue()[1] * scale);
+            int targetQueueMillis = entry.getValue()[2];
+            bulkheads.put(entry.getKey(), new Bulkhead(maxConcurrent, maxQueued, targetQueueMillis));
+            logger.info("{} requests are limited to {} concurrent, {} queued for {} ms",
+                    entry.getKey(), maxConcurrent, maxQueued, targetQueueMillis);
+        }
+    }
+
+    int getMaxConcurrent(Priority priority) {
+        Bulkhead bulkhead = bulkheads.get(priority);
+        return bulkhead == null ? 0 : bulkhead.maxConcurrent;
+    }
+
+    /**
+     * @return false if the request should be rejected, otherwise release must be called once it is handled.
+     */
+    boolean acquire(Priority priority) throws InterruptedException {
+        Bulkhead bulkhead = bulkheads.get(priority);
+        if (bulkhead == null || bulkhead.acquire()) {
+            return true;
+        }
+        statsd.increment("request.shed", "priority:" + priority.name().toLowerCase());
+        return false;
+    }
+
+    void release(Priority priority) {
+        Bulkhead bulkhead = bulkheads.get(priority);
+        if (bulkhead != null) {
+            bulkhead.permits.release();
+        }
+    }
+
+    private static class Bulkhead {
+        private final Semaphore permits;
+        private final int maxConcurrent;
+        private final AtomicInteger queued = new AtomicInteger();
+        private final int maxQueued;
+        private final long targetQueueMillis;
+        private volatile long overloadedUntil;
+
+        private Bulkhead(int maxConcurrent, int maxQueued, long targetQueueMillis) {
+            this.permits = new Semaphore(maxConcurrent);
+            this.maxConcurrent = maxConcurrent;
+            this.maxQueued = maxQueued;
+            this.targetQueueMillis = targetQueueMillis;
+        }
+
+        private boolean acquire() throws InterruptedException {
+            if (permits.tryAcquire()) {
+                return true;
+            }
+            if (targetQueueMillis <= 0 || System.currentTimeMillis() < overloadedUntil) {
+                return false;
+            }
+            try {
+                if (queued.incrementAndGet() > maxQueued) {
+                    return false;
+                }
+                if (permits.tryAcquire(targetQueueMillis, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+                overloadedUntil = System.currentTimeMillis() + targetQueueMillis;
+                return false;
+            } finally {
+                queued.decrementAndGet();
+            }
+        }
+    }
+}
@@ -24,6 +24,9 @@ public class ShutdownManager {
 
     private static final String PATH = "/ShutdownManager";
 
+    private final int shutdown_delay_seconds = HubProperties.getProperty("app.shutdown_delay_seconds", 60);
+    private final int shutdown_quiet_seconds = HubProperties.getProperty("app.shutdown_quiet_seconds", 5);
+
     public ShutdownManager() {
         HubServices.register(new ShutdownManagerService(), HubServices.TYPE.AFTER_HEALTHY_START);
     }
@@ -62,15 +65,17 @@ public class ShutdownManager {
                 .build();
         DataDog.statsd.recordEvent(event, "restart", "shutdown");
         logger.warn("shutting down!");
+        long deadline = System.currentTimeMillis() + shutdown_delay_seconds * 1000;
         //this call will get the node removed from the Load Balancer
         healthCheck.shutdown();
 
+        //webhooks give up leadership here, so other nodes take over while in-flight calls complete
         HubServices.preStop();
 
-        //wait until it's likely the node is removed from the Load Balancer
-        int shutdown_delay_seconds = HubProperties.getProperty("app.shutdown_delay_seconds", 60);
-        logger.warn("sleeping for " + shutdown_delay_seconds);
-        Sleeper.sleep(shutdown_delay_seconds * 1000);
+        //wait until requests stop arriving, and requests, webhook calls and writes in-flight complete
+        logger.warn("draining for up to {} seconds", shutdown_delay_seconds);
+        DrainCoordinator.Report report = DrainCoordinator.drain(deadline, shutdown_quiet_seconds * 1000);
+        report(report);
 
         HubServices.stopAll();
         logger.warn("completed shutdown tasks, exiting JVM");
@@ -78,6 +83,17 @@ public class ShutdownManager {
         return true;
     }
 
+    private void report(DrainCoordinator.Report report) {
+        logger.warn("shutdown {}", report);
+        DataDog.statsd.time("shutdown.drain", report.getMillis(), "drained:" + report.isDrained());
+        report.getDropped().forEach((source, count) -> DataDog.statsd.count("shutdown.dropped", count, "source:" + source));
+        Event event = DataDog.getEventBuilder()
+                .withTitle("Hub Restart Drain")
+                .withText(report.toString())
+                .build();
+        DataDog.statsd.recordEvent(event, "restart", "drain");
+    }
+
     public String getLockData() throws Exception {
         byte[] bytes = getCurator().getData().forPath(PATH);
         return new String(bytes);
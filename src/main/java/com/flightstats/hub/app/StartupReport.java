@@ -0,0 +1,73 @@
+package com.flightstats.hub.app;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * The start and running times of each service in one phase, relative to the start of the phase.
+ */
+@Getter
+public class StartupReport {
+
+    private final HubServices.TYPE type;
+    private final boolean parallel;
+    private final long startMillis = System.currentTimeMillis();
+    private long millis;
+    private final Map<HubServices.Registration, Timing> timings = new LinkedHashMap<>();
+
+    StartupReport(HubServices.TYPE type, boolean parallel) {
+        this.type = type;
+        this.parallel = parallel;
+    }
+
+    synchronized void add(HubServices.Registration registration, List<HubServices.Registration> dependencies,
+                          long start, long end) {
+        String name = registration.getName();
+        Set<String> names = timings.values().stream().map(Timing::getName).collect(Collectors.toSet());
+        for (int i = 2; names.contains(name); i++) {
+            name = registration.getName() + "#" + i;
+        }
+        List<Timing> dependencyTimings = dependencies.stream()
+                .map(timings::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        timings.put(registration, new Timing(name, dependencyTimings, start - startMillis, end - startMillis));
+    }
+
+    synchronized void complete() {
+        millis = System.currentTimeMillis() - startMillis;
+    }
+
+    public synchronized List<Timing> getTimings() {
+        return new ArrayList<>(timings.values());
+    }
+
+    /**
+     * @return the chain of services, each waiting on the one before it, which ended with the last service running
+     */
+    public synchronized List<Timing> getCriticalPath() {
+        LinkedList<Timing> path = new LinkedList<>();
+        Optional<Timing> next = timings.values().stream().max(Comparator.comparingLong(Timing::getRunning));
+        while (next.isPresent()) {
+            path.addFirst(next.get());
+            next = next.get().getDependencies().stream().max(Comparator.comparingLong(Timing::getRunning));
+        }
+        return path;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Timing {
+        private final String name;
+        private final List<Timing> dependencies;
+        private final long starting;
+        private final long running;
+
+        public long getMillis() {
+            return running - starting;
+        }
+    }
+}
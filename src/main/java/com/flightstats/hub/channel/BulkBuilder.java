@@ -1,19 +1,31 @@
 package com.flightstats.hub.channel;
 
+import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.dao.Request;
 import com.flightstats.hub.model.ChannelContentKey;
+import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.PrefetchWindow;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import java.util.SortedSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 class BulkBuilder {
 
     private final static Logger logger = LoggerFactory.getLogger(BulkBuilder.class);
+    private static final int prefetch = HubProperties.getProperty("app.bulkPrefetch", 10);
+    private static final ExecutorService executorService = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("BulkBuilder-%d").setDaemon(true).build());
 
     public static Response build(SortedSet<ContentKey> keys, String channel,
                                  ChannelService channelService, UriInfo uriInfo, String accept) {
@@ -47,4 +59,44 @@ class BulkBuilder {
         }
     }
 
+    /**
+     * Tag items can come from any channel, so each one is a separate lookup.
+     * The lookups run ahead of the consumer, which sees the items in key order.
+     */
+    static void getTag(SortedSet<ChannelContentKey> keys, ChannelService channelService,
+                       BiConsumer<String, Content> consumer) {
+        PrefetchWindow<ChannelContent> window = new PrefetchWindow<>(executorService, prefetch, item -> {
+            if (item.content.isPresent()) {
+                consumer.accept(item.channel, item.content.get());
+            }
+        }, item -> {
+            if (item.content.isPresent()) {
+                item.content.get().closeStream();
+            }
+        });
+        for (ChannelContentKey key : keys) {
+            window.submit(() -> {
+                Optional<Content> content = channelService.get(Request.builder()
+                        .channel(key.getChannel())
+                        .key(key.getContentKey())
+                        .build());
+                if (!content.isPresent()) {
+                    logger.warn("missing content for bulk {}", key);
+                }
+                return new ChannelContent(key.getChannel(), content);
+            });
+        }
+        window.finish();
+    }
+
+    private static class ChannelContent {
+        private final String channel;
+        private final Optional<Content> content;
+
+        private ChannelContent(String channel, Optional<Content> content) {
+            this.channel = channel;
+            this.content = content;
+        }
+    }
+
 }
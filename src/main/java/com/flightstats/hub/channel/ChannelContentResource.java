@@ -11,14 +11,15 @@ import com.flightstats.hub.events.EventsService;
 import com.flightstats.hub.exception.ConflictException;
 import com.flightstats.hub.exception.ContentTooLargeException;
 import com.flightstats.hub.exception.InvalidRequestException;
+import com.flightstats.hub.filter.StoredGzipInterceptor;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.DataDog;
 import com.flightstats.hub.metrics.MetricsSender;
 import com.flightstats.hub.metrics.NewRelicIgnoreTransaction;
 import com.flightstats.hub.model.*;
 import com.flightstats.hub.rest.Linked;
+import com.flightstats.hub.util.BufferPool;
 import com.google.common.base.Optional;
-import com.google.common.io.ByteStreams;
 import com.sun.jersey.core.header.MediaTypes;
 import com.timgroup.statsd.StatsDClient;
 import org.apache.commons.lang3.StringUtils;
@@ -44,18 +45,22 @@ import static javax.ws.rs.core.Response.Status.SEE_OTHER;
 @Path("/channel/{channel}/{Y}/{M}/{D}/")
 public class ChannelContentResource {
     static final String CREATION_DATE = "Creation-Date";
+    public static final String STABLE_TIME = "Stable-Time";
     private final static StatsDClient statsd = DataDog.statsd;
 
     private final static Logger logger = LoggerFactory.getLogger(ChannelContentResource.class);
 
     @Context
     private UriInfo uriInfo;
+    @Context
+    private HttpHeaders headers;
 
     private final static TagContentResource tagContentResource = HubProvider.getInstance(TagContentResource.class);
     private final static ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
     private final static ChannelService channelService = HubProvider.getInstance(ChannelService.class);
     private final static MetricsSender sender = HubProvider.getInstance(MetricsSender.class);
     private final static EventsService eventsService = HubProvider.getInstance(EventsService.class);
+    private final static WriteLimiter writeLimiter = HubProvider.getInstance(WriteLimiter.class);
 
     public static MediaType getContentType(Content content) {
         Optional<String> contentType = content.getContentType();
@@ -65,6 +70,18 @@ public class ChannelContentResource {
         return MediaType.APPLICATION_OCTET_STREAM_TYPE;
     }
 
+    static Response.ResponseBuilder okContent(Content content, String acceptEncoding) {
+        if (content.getCompressed().isPresent() && StoredGzipInterceptor.acceptsGzip(acceptEncoding)) {
+            return Response.ok(new StoredGzipInterceptor.Output(content.getCompressed().get()))
+                    .header("Content-Encoding", StoredGzipInterceptor.GZIP);
+        }
+        return Response.ok((StreamingOutput) output -> {
+            try (InputStream input = content.getStream()) {
+                BufferPool.copy(input, output);
+            }
+        });
+    }
+
     static boolean contentTypeIsNotCompatible(String acceptHeader, final MediaType actualContentType) {
         List<MediaType> acceptableContentTypes;
         if (StringUtils.isBlank(acceptHeader)) {
@@ -168,7 +185,16 @@ public class ChannelContentResource {
                                           Unit unit, String tag, boolean bulk, String accept) {
         //todo - gfm - 12/15/15 - merge this with TagContentResource.getTimeQueryResponse
         if (tag != null) {
-            return tagContentResource.getTimeQueryResponse(tag, startTime, location, trace, stable, unit, bulk, accept, uriInfo);
+            return tagContentResource.getTimeQueryResponse(tag, startTime, location, trace, stable, unit, bulk, accept, uriInfo, headers);
+        }
+        HttpCache cache = null;
+        if (!trace && Location.valueOf(location).equals(Location.ALL)) {
+            cache = HttpCache.listing(uriInfo.getRequestUri().toString(), startTime, startTime.plus(unit.getDuration()),
+                    HttpCache.stableTime(channelService, channel),
+                    Collections.singletonList(channelService.getCachedChannelConfig(channel)), false, headers);
+            if (cache != null && cache.isNotModified(headers)) {
+                return cache.notModified();
+            }
         }
         TimeQuery query = TimeQuery.builder()
                 .channelName(channel)
@@ -181,6 +207,7 @@ public class ChannelContentResource {
         DateTime current = stable ? stable() : now();
         DateTime next = startTime.plus(unit.getDuration());
         DateTime previous = startTime.minus(unit.getDuration());
+        HttpCache listingCache = cache;
         if (bulk) {
             return BulkBuilder.build(keys, channel, channelService, uriInfo, accept, (builder) -> {
                 if (next.isBefore(current)) {
@@ -189,6 +216,9 @@ public class ChannelContentResource {
                 }
                 builder.header("Link", "<" + TimeLinkUtil.getUri(channel, uriInfo, unit, previous) +
                         ">;rel=\"" + "previous" + "\"");
+                if (listingCache != null) {
+                    listingCache.addTo(builder);
+                }
             });
         } else {
             ObjectNode root = mapper.createObjectNode();
@@ -208,7 +238,11 @@ public class ChannelContentResource {
             if (trace) {
                 ActiveTraces.getLocal().output(root);
             }
-            return Response.ok(root).build();
+            Response.ResponseBuilder builder = Response.ok(root);
+            if (cache != null) {
+                cache.addTo(builder);
+            }
+            return builder.build();
         }
     }
 
@@ -223,10 +257,17 @@ public class ChannelContentResource {
                              @PathParam("s") int second,
                              @PathParam("ms") int millis,
                              @PathParam("hash") String hash,
-                             @HeaderParam("Accept") String accept
+                             @HeaderParam("Accept") String accept,
+                             @HeaderParam("Accept-Encoding") String acceptEncoding
     ) {
         long start = System.currentTimeMillis();
         ContentKey key = new ContentKey(year, month, day, hour, minute, second, millis, hash);
+        HttpCache cache = HttpCache.item("channel/" + channel + "/" + key.toUrl(), key,
+                Collections.singletonList(channelService.getCachedChannelConfig(channel)), false, headers);
+        if (cache != null && cache.isNotModified(headers)) {
+            statsd.increment("channel.notModified", "channel:" + channel);
+            return cache.notModified();
+        }
         Request request = Request.builder()
                 .channel(channel)
                 .key(key)
@@ -245,13 +286,16 @@ public class ChannelContentResource {
         if (contentTypeIsNotCompatible(accept, actualContentType)) {
             return Response.status(Response.Status.NOT_ACCEPTABLE).build();
         }
-        Response.ResponseBuilder builder = Response.ok((StreamingOutput) output -> ByteStreams.copy(content.getStream(), output));
+        Response.ResponseBuilder builder = okContent(content, acceptEncoding);
 
         builder.type(actualContentType)
                 .header(CREATION_DATE, FORMATTER.print(new DateTime(key.getMillis())));
 
         builder.header("Link", "<" + uriInfo.getRequestUriBuilder().path("previous").build() + ">;rel=\"" + "previous" + "\"");
         builder.header("Link", "<" + uriInfo.getRequestUriBuilder().path("next").build() + ">;rel=\"" + "next" + "\"");
+        if (cache != null) {
+            cache.addTo(builder);
+        }
         long time = System.currentTimeMillis() - start;
         sender.send("channel." + channel + ".get", time);
         statsd.time("channel", time, "channel:" + channel, "method:get");
@@ -360,9 +404,13 @@ public class ChannelContentResource {
                 .location(Location.valueOf(location))
                 .count(count)
                 .build();
+        DateTime stableTime = HttpCache.stableTime(channelService, channel);
         SortedSet<ContentKey> keys = channelService.getKeys(query);
         if (bulk || batch) {
             return BulkBuilder.build(keys, channel, channelService, uriInfo, accept, (builder) -> {
+                if (stable) {
+                    builder.header(STABLE_TIME, FORMATTER.print(stableTime));
+                }
                 if (!keys.isEmpty()) {
                     builder.header("Link", "<" + LinkBuilder.getDirection("previous", channel, uriInfo, keys.first(), count) +
                             ">;rel=\"" + "previous" + "\"");
@@ -389,10 +437,12 @@ public class ChannelContentResource {
                                      @HeaderParam("Content-Type") String contentType,
                                      @HeaderParam("Content-Language") String contentLanguage,
                                      @HeaderParam("minuteComplete") @DefaultValue("false") boolean minuteComplete,
+                                     @HeaderParam("Content-Length") @DefaultValue("-1") long contentLength,
                                      final InputStream data) throws Exception {
         if (!channelService.channelExists(channelName)) {
             throw new WebApplicationException(Response.Status.NOT_FOUND);
         }
+        writeLimiter.admit(channelName, 1, contentLength);
         ContentKey key = new ContentKey(year, month, day, hour, minute, second, millis);
         Content content = Content.builder()
                 .withContentKey(key)
@@ -404,6 +454,9 @@ public class ChannelContentResource {
             if (!success) {
                 return Response.status(400).entity("unable to insert historical item").build();
             }
+            if (contentLength < 0) {
+                writeLimiter.charge(channelName, 0, content.getSize());
+            }
 
             logger.trace("posted {}", key);
             InsertedContentKey insertionResult = new InsertedContentKey(key);
@@ -50,6 +50,7 @@ public class ChannelResource {
     private final static ChannelService channelService = HubProvider.getInstance(ChannelService.class);
     private final static NtpMonitor ntpMonitor = HubProvider.getInstance(NtpMonitor.class);
     private final static EventsService eventsService = HubProvider.getInstance(EventsService.class);
+    private final static WriteLimiter writeLimiter = HubProvider.getInstance(WriteLimiter.class);
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
@@ -116,10 +117,12 @@ public class ChannelResource {
     @Produces(MediaType.APPLICATION_JSON)
     public Response insertValue(@PathParam("channel") final String channelName,
                                 @HeaderParam("Content-Type") final String contentType,
+                                @HeaderParam("Content-Length") @DefaultValue("-1") final long contentLength,
                                 final InputStream data) throws Exception {
         if (!channelService.channelExists(channelName)) {
             throw new WebApplicationException(Response.Status.NOT_FOUND);
         }
+        writeLimiter.admit(channelName, 1, contentLength);
         long start = System.currentTimeMillis();
         Content content = Content.builder()
                 .withContentType(contentType)
@@ -127,6 +130,9 @@ public class ChannelResource {
                 .build();
         try {
             ContentKey contentKey = channelService.insert(channelName, content);
+            if (contentLength < 0) {
+                writeLimiter.charge(channelName, 0, content.getSize());
+            }
             logger.trace("posted {}", contentKey);
             InsertedContentKey insertionResult = new InsertedContentKey(contentKey);
             URI payloadUri = LinkBuilder.buildItemUri(contentKey, uriInfo.getRequestUri());
@@ -163,8 +169,9 @@ public class ChannelResource {
     @Path("/batch")
     public Response insertBatch(@PathParam("channel") final String channelName,
                                 @HeaderParam("Content-Type") final String contentType,
+                                @HeaderParam("Content-Length") @DefaultValue("-1") final long contentLength,
                                 final InputStream data) throws Exception {
-        return insertBulk(channelName, contentType, data);
+        return insertBulk(channelName, contentType, contentLength, data);
     }
 
     @POST
@@ -173,7 +180,9 @@ public class ChannelResource {
     @Path("/bulk")
     public Response insertBulk(@PathParam("channel") final String channelName,
                                @HeaderParam("Content-Type") final String contentType,
+                               @HeaderParam("Content-Length") @DefaultValue("-1") final long contentLength,
                                final InputStream data) throws Exception {
+        writeLimiter.admit(channelName, 1, contentLength);
         try {
             BulkContent content = BulkContent.builder()
                     .isNew(true)
@@ -182,26 +191,9 @@ public class ChannelResource {
                     .channel(channelName)
                     .build();
             Collection<ContentKey> keys = channelService.insert(content);
+            writeLimiter.charge(channelName, keys.size() - 1, contentLength < 0 ? content.getSize() : 0);
             logger.trace("posted {}", keys);
-            ObjectNode root = mapper.createObjectNode();
-            ObjectNode links = root.putObject("_links");
-            ObjectNode self = links.putObject("self");
-            if (keys.isEmpty()) {
-                return Response.status(Response.Status.BAD_REQUEST).build();
-            } else {
-                ContentKey first = keys.iterator().next();
-                ContentKey trimmedKey = new ContentKey(first.getTime(), first.getHash().substring(0, 6)
-                        + "/next/" + keys.size() + "?stable=false");
-                URI payloadUri = LinkBuilder.buildItemUri(trimmedKey, LinkBuilder.buildChannelUri(channelName, uriInfo));
-                self.put("href", payloadUri.toString());
-                ArrayNode uris = links.putArray("uris");
-                URI channelUri = LinkBuilder.buildChannelUri(channelName, uriInfo);
-                for (ContentKey key : keys) {
-                    URI uri = LinkBuilder.buildItemUri(key, channelUri);
-                    uris.add(uri.toString());
-                }
-                return Response.created(payloadUri).entity(root).build();
-            }
+            return buildBulkResponse(channelName, keys);
         } catch (ContentTooLargeException e) {
             return Response.status(413).entity(e.getMessage()).build();
         } catch (Exception e) {
@@ -210,6 +202,59 @@ public class ChannelResource {
         }
     }
 
+    /**
+     * Loads a zip or multipart archive of keyed items into a historical channel's long term storage.
+     */
+    @POST
+    @Consumes({"multipart/*", "application/zip"})
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/backfill")
+    public Response backfill(@PathParam("channel") final String channelName,
+                             @HeaderParam("Content-Type") final String contentType,
+                             @HeaderParam("minuteComplete") @DefaultValue("false") boolean minuteComplete,
+                             final InputStream data) throws Exception {
+        if (!channelService.channelExists(channelName)) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+        try {
+            BulkContent content = BulkContent.builder()
+                    .isNew(false)
+                    .contentType(contentType)
+                    .stream(data)
+                    .channel(channelName)
+                    .build();
+            Collection<ContentKey> keys = channelService.backfill(content, minuteComplete);
+            logger.info("backfilled {} {} items", channelName, keys.size());
+            return buildBulkResponse(channelName, keys);
+        } catch (ContentTooLargeException e) {
+            return Response.status(413).entity(e.getMessage()).build();
+        } catch (Exception e) {
+            logger.warn("unable to backfill " + channelName, e);
+            throw e;
+        }
+    }
+
+    private Response buildBulkResponse(String channelName, Collection<ContentKey> keys) {
+        ObjectNode root = mapper.createObjectNode();
+        ObjectNode links = root.putObject("_links");
+        ObjectNode self = links.putObject("self");
+        if (keys.isEmpty()) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        ContentKey first = keys.iterator().next();
+        ContentKey trimmedKey = new ContentKey(first.getTime(), first.getHash().substring(0, 6)
+                + "/next/" + keys.size() + "?stable=false");
+        URI payloadUri = LinkBuilder.buildItemUri(trimmedKey, LinkBuilder.buildChannelUri(channelName, uriInfo));
+        self.put("href", payloadUri.toString());
+        ArrayNode uris = links.putArray("uris");
+        URI channelUri = LinkBuilder.buildChannelUri(channelName, uriInfo);
+        for (ContentKey key : keys) {
+            URI uri = LinkBuilder.buildItemUri(key, channelUri);
+            uris.add(uri.toString());
+        }
+        return Response.created(payloadUri).entity(root).build();
+    }
+
     @GET
     @Path("/events")
     @Produces(SseFeature.SERVER_SENT_EVENTS)
@@ -0,0 +1,80 @@
+package com.flightstats.hub.channel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+/**
+ * The items, bytes and largest item a channel received in each of its last minutes or hours, from the ChannelVolumes.
+ * Periods before since may be missing items.
+ */
+@SuppressWarnings("WeakerAccess")
+@Path("/channel/{channel}/stats")
+public class ChannelStatsResource {
+
+    private static final int MAX_PERIODS = 1500;
+
+    @Context
+    private UriInfo uriInfo;
+
+    private final static ChannelService channelService = HubProvider.getInstance(ChannelService.class);
+    private final static ChannelVolumes channelVolumes = HubProvider.getInstance(ChannelVolumes.class);
+    private final static ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getStats(@PathParam("channel") String channel,
+                             @QueryParam("unit") @DefaultValue("minute") String unit,
+                             @QueryParam("count") @DefaultValue("60") int count) {
+        if (null == channelService.getCachedChannelConfig(channel)) {
+            return Response.status(404).build();
+        }
+        TimeUtil.Unit timeUnit;
+        if (TimeUtil.Unit.MINUTES.getName().equals(unit)) {
+            timeUnit = TimeUtil.Unit.MINUTES;
+        } else if (TimeUtil.Unit.HOURS.getName().equals(unit)) {
+            timeUnit = TimeUtil.Unit.HOURS;
+        } else {
+            return Response.status(Response.Status.BAD_REQUEST).entity("unit must be minute or hour").build();
+        }
+        if (count < 1 || count > MAX_PERIODS) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("count must be from 1 to " + MAX_PERIODS).build();
+        }
+        ObjectNode root = mapper.createObjectNode();
+        ObjectNode links = root.putObject("_links");
+        links.putObject("self").put("href", uriInfo.getRequestUri().toString());
+        String channelUri = uriInfo.getBaseUri() + "channel/" + channel;
+        links.putObject("channel").put("href", channelUri);
+        DateTime since = channelVolumes.getSince();
+        root.put("unit", timeUnit.getName());
+        root.put("since", TimeUtil.FORMATTER.print(since));
+        ArrayNode periods = root.putArray("periods");
+        Volume total = Volume.EMPTY;
+        DateTime current = timeUnit.round(TimeUtil.now());
+        for (DateTime time = current.minus(timeUnit.getDuration().multipliedBy(count - 1));
+             !time.isAfter(current); time = time.plus(timeUnit.getDuration())) {
+            Volume volume = channelVolumes.get(channel, timeUnit, time);
+            total = total.plus(volume);
+            ObjectNode period = periods.addObject();
+            period.put("href", channelUri + "/" + timeUnit.format(time));
+            period.put("items", volume.getItems());
+            period.put("bytes", volume.getBytes());
+            period.put("maxBytes", volume.getMaxBytes());
+            period.put("complete", !time.isBefore(since));
+        }
+        root.put("items", total.getItems());
+        root.put("bytes", total.getBytes());
+        root.put("maxBytes", total.getMaxBytes());
+        return Response.ok(root).build();
+    }
+}
@@ -1,6 +1,7 @@
 package com.flightstats.hub.channel;
 
 import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.dao.PayloadCodec;
 import com.flightstats.hub.exception.ConflictException;
 import com.flightstats.hub.exception.InvalidRequestException;
 import com.flightstats.hub.model.ChannelConfig;
@@ -37,6 +38,8 @@ public class ChannelValidator {
         validateDescription(config);
         validateTags(config);
         validateStorage(config);
+        validateCompression(config);
+        validateWriteLimits(config);
         validateGlobal(config);
         if (oldConfig != null) {
             validateHistorical(config, oldConfig);
@@ -92,6 +95,19 @@ public class ChannelValidator {
         }
     }
 
+    private void validateCompression(ChannelConfig config) {
+        String compression = config.getCompression();
+        if (!compression.equals(ChannelConfig.AUTO) && !PayloadCodec.isValid(compression)) {
+            throw new InvalidRequestException("{\"error\": \"Valid compression values are AUTO, NONE, DEFLATE, DEFLATE_FAST, LZ4 and JSON_DICTIONARY\"}");
+        }
+    }
+
+    private void validateWriteLimits(ChannelConfig config) {
+        if (config.getMaxItemsPerSecond() < 0 || config.getMaxBytesPerSecond() < 0) {
+            throw new InvalidRequestException("{\"error\": \"maxItemsPerSecond and maxBytesPerSecond can not be negative\"}");
+        }
+    }
+
     private void validateTags(ChannelConfig request) {
         if (request.getTags().size() > 20) {
             throw new InvalidRequestException("{\"error\": \"Channels are limited to 20 tags\"}");
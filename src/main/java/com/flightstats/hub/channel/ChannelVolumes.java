@@ -0,0 +1,459 @@
+package com.flightstats.hub.channel;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Rolls up the items, payload bytes and largest payload each channel receives per minute and per hour of their keys,
+ * as they are written to this server's spoke store.  Every spoke server stores every item, and SpokeRepair
+ * stores what a server missed, so each server's rollups answer for the whole cluster.
+ * <p>
+ * Minutes stay open for the spoke ttl, and are then sealed into compact arrays which are kept for
+ * channel.volumeHours.  Sealed minutes are added into hours, which are kept for the channel's ttl,
+ * up to channel.volumeDays.  Sealed minutes are appended to channel.volumePath every minute, and open minutes
+ * at shutdown.  Rollups are complete from since, which moves back to what was restored once a spoke repair
+ * has covered the time this server was down.
+ */
+@Singleton
+public class ChannelVolumes {
+
+    private final static Logger logger = LoggerFactory.getLogger(ChannelVolumes.class);
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private final long minuteMillis = TimeUnit.HOURS.toMillis(HubProperties.getProperty("channel.volumeHours", 25));
+    private final int maxDays = HubProperties.getProperty("channel.volumeDays", 31);
+    private final long openMillis = TimeUnit.MINUTES.toMillis(HubProperties.getSpokeTtl() + 1);
+    private final Map<String, Rollups> channels = new ConcurrentHashMap<>();
+    private final Queue<String> deleted = new ConcurrentLinkedQueue<>();
+    private final VolumeLog log;
+    private volatile long since;
+    private volatile long repairedUntil;
+    private VolumeLog.Segment restored;
+    private boolean loaded;
+    private DateTime pendingStart;
+
+    @Inject
+    public ChannelVolumes() {
+        this(TimeUtil.now(), new VolumeLog(new File(HubProperties.getProperty("channel.volumePath", "/opt/hub/volumes"), "volumes")));
+        HubServices.register(new ChannelVolumesService());
+    }
+
+    @VisibleForTesting
+    ChannelVolumes(DateTime start) {
+        this(start, null);
+    }
+
+    @VisibleForTesting
+    ChannelVolumes(DateTime start, VolumeLog log) {
+        since = floor(start.getMillis(), MINUTE) + MINUTE;
+        this.log = log;
+        loaded = log == null;
+    }
+
+    public void record(String channel, ContentKey key, long bytes) {
+        record(channel, key.getTime().getMillis(), bytes);
+    }
+
+    @VisibleForTesting
+    void record(String channel, long millis, long bytes) {
+        Rollups rollups = channels.get(channel);
+        if (rollups == null) {
+            rollups = channels.computeIfAbsent(channel, name -> new Rollups());
+        }
+        long minute = floor(millis, MINUTE);
+        Counter counter = rollups.open.get(minute);
+        if (counter == null) {
+            counter = rollups.open.computeIfAbsent(minute, time -> new Counter());
+        }
+        counter.add(bytes);
+    }
+
+    public void delete(String channel) {
+        channels.remove(channel);
+        if (log != null) {
+            deleted.add(channel);
+        }
+    }
+
+    /**
+     * Every item this server missed which was written from start to end has now been stored.
+     * A repair before the volumes are read applies to what is read.
+     */
+    public synchronized void repaired(DateTime start, DateTime end) {
+        if (!loaded) {
+            pendingStart = pendingStart == null || start.isBefore(pendingStart) ? start : pendingStart;
+        } else if (restored != null) {
+            long from = restored.written >= start.getMillis() ? restored.since : floor(start.getMillis(), MINUTE) + MINUTE;
+            since = Math.min(since, from);
+            logger.info("volumes are complete since {}", new DateTime(since, DateTimeZone.UTC));
+            restored = null;
+        }
+        repairedUntil = Math.max(repairedUntil, end.getMillis());
+    }
+
+    public DateTime getSince() {
+        return new DateTime(since, DateTimeZone.UTC);
+    }
+
+    /**
+     * @return the time up to which a spoke repair has confirmed this server has every item
+     */
+    public DateTime getRepairedUntil() {
+        return new DateTime(repairedUntil, DateTimeZone.UTC);
+    }
+
+    /**
+     * @return the channel's volume in the period of unit starting at start, which may be incomplete before since
+     */
+    public Volume get(String channel, TimeUtil.Unit unit, DateTime start) {
+        Rollups rollups = channels.get(channel);
+        if (rollups == null) {
+            return Volume.EMPTY;
+        }
+        long period = start.getMillis();
+        if (unit == TimeUtil.Unit.HOURS) {
+            Volume volume = rollups.hours.get(period);
+            for (Counter counter : rollups.open.subMap(period, period + HOUR).values()) {
+                volume = volume.plus(counter.get());
+            }
+            return volume;
+        }
+        Counter counter = rollups.open.get(period);
+        Volume volume = rollups.minutes.get(period);
+        return counter == null ? volume : volume.plus(counter.get());
+    }
+
+    /**
+     * @return a view of every channel's volumes for unit, which are complete from the current since
+     */
+    public Volumes getVolumes(TimeUtil.Unit unit) {
+        return new Volumes(unit, since);
+    }
+
+    public class Volumes {
+        private final TimeUtil.Unit unit;
+        private final long since;
+
+        private Volumes(TimeUtil.Unit unit, long since) {
+            this.unit = unit;
+            this.since = since;
+        }
+
+        /**
+         * @return the items in the channel's period starting at start, or -1 if some may not have been counted
+         */
+        public long getItems(String channel, DateTime start) {
+            if (start.getMillis() < since) {
+                return -1;
+            }
+            return get(channel, unit, start).getItems();
+        }
+
+        public TimeUtil.Unit getUnit() {
+            return unit;
+        }
+    }
+
+    /**
+     * Moves open minutes which are older than the spoke ttl into the sealed minutes and hours.
+     *
+     * @return the newly sealed minutes
+     */
+    List<Sealing> seal(long now) {
+        long boundary = floor(now - openMillis, MINUTE);
+        List<Sealing> sealed = new ArrayList<>();
+        channels.forEach((channel, rollups) -> {
+            for (Map.Entry<Long, Counter> entry : rollups.open.headMap(boundary).entrySet()) {
+                Volume volume = entry.getValue().get();
+                rollups.minutes.add(entry.getKey(), volume);
+                rollups.hours.add(floor(entry.getKey(), HOUR), volume);
+                rollups.open.remove(entry.getKey());
+                sealed.add(new Sealing(channel, entry.getKey(), volume));
+            }
+        });
+        return sealed;
+    }
+
+    /**
+     * Drops channels without a config, sealed minutes older than channel.volumeHours,
+     * and sealed hours older than the channel's ttl.
+     */
+    void trim(long now, Function<String, ChannelConfig> configs) {
+        channels.forEach((channel, rollups) -> {
+            ChannelConfig config = configs.apply(channel);
+            if (config == null) {
+                logger.info("dropping volumes for {}", channel);
+                channels.remove(channel, rollups);
+                return;
+            }
+            long days = config.getTtlDays() > 0 ? Math.min(config.getTtlDays(), maxDays) : maxDays;
+            rollups.minutes.removeBefore(now - minuteMillis);
+            rollups.hours.removeBefore(floor(now - TimeUnit.DAYS.toMillis(days), HOUR));
+        });
+    }
+
+    synchronized void read(VolumeLog log) {
+        restored = log.read((type, channel, period, volume) -> {
+            if (type == VolumeLog.DELETED) {
+                channels.remove(channel);
+                return;
+            }
+            Rollups rollups = channels.computeIfAbsent(channel, name -> new Rollups());
+            if (type == VolumeLog.OPEN) {
+                rollups.open.computeIfAbsent(period, time -> new Counter()).add(volume);
+                return;
+            }
+            if (type == VolumeLog.HOUR || type == VolumeLog.SEALED) {
+                rollups.hours.add(floor(period, HOUR), volume);
+            }
+            if (type == VolumeLog.MINUTE_ONLY || type == VolumeLog.SEALED) {
+                rollups.minutes.add(period, volume);
+            }
+        });
+        if (restored != null && !restored.clean) {
+            logger.info("volumes were not written at shutdown, they are complete since {}", getSince());
+            restored = null;
+        }
+        loaded = true;
+        if (pendingStart != null) {
+            repaired(pendingStart, getRepairedUntil());
+        }
+    }
+
+    /**
+     * Writes every sealed hour and minute.  Open minutes are left out, as they are sealed and appended later.
+     */
+    void compact(VolumeLog log) throws IOException {
+        log.compact(since, output -> {
+            for (Map.Entry<String, Rollups> entry : channels.entrySet()) {
+                String channel = entry.getKey();
+                for (Sealing hour : entry.getValue().hours.getAll(channel)) {
+                    output.write(VolumeLog.HOUR, channel, hour.period, hour.volume);
+                }
+                for (Sealing minute : entry.getValue().minutes.getAll(channel)) {
+                    output.write(VolumeLog.MINUTE_ONLY, channel, minute.period, minute.volume);
+                }
+            }
+        });
+    }
+
+    void append(VolumeLog log, List<Sealing> sealed) throws IOException {
+        List<String> deletions = new ArrayList<>();
+        for (String channel = deleted.poll(); channel != null; channel = deleted.poll()) {
+            deletions.add(channel);
+        }
+        if (sealed.isEmpty() && deletions.isEmpty()) {
+            return;
+        }
+        log.append(since, false, output -> {
+            for (String channel : deletions) {
+                output.write(VolumeLog.DELETED, channel, 0, null);
+            }
+            for (Sealing sealing : sealed) {
+                output.write(VolumeLog.SEALED, sealing.channel, sealing.period, sealing.volume);
+            }
+        });
+    }
+
+    void appendOpen(VolumeLog log) throws IOException {
+        log.append(since, true, output -> {
+            for (Map.Entry<String, Rollups> entry : channels.entrySet()) {
+                for (Map.Entry<Long, Counter> open : entry.getValue().open.entrySet()) {
+                    output.write(VolumeLog.OPEN, entry.getKey(), open.getKey(), open.getValue().get());
+                }
+            }
+        });
+    }
+
+    private static long floor(long millis, long period) {
+        return millis - Math.floorMod(millis, period);
+    }
+
+    static class Sealing {
+        final String channel;
+        final long period;
+        final Volume volume;
+
+        Sealing(String channel, long period, Volume volume) {
+            this.channel = channel;
+            this.period = period;
+            this.volume = volume;
+        }
+    }
+
+    private static class Rollups {
+        private final ConcurrentSkipListMap<Long, Counter> open = new ConcurrentSkipListMap<>();
+        private final Periods minutes = new Periods();
+        private final Periods hours = new Periods();
+    }
+
+    private static class Counter {
+        private final LongAdder items = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAccumulator maxBytes = new LongAccumulator(Math::max, 0);
+
+        void add(long size) {
+            items.increment();
+            bytes.add(size);
+            maxBytes.accumulate(size);
+        }
+
+        void add(Volume volume) {
+            items.add(volume.getItems());
+            bytes.add(volume.getBytes());
+            maxBytes.accumulate(volume.getMaxBytes());
+        }
+
+        Volume get() {
+            return new Volume(items.sum(), bytes.sum(), maxBytes.get());
+        }
+    }
+
+    /**
+     * Sealed periods in order, as period, items, bytes and max bytes, in one array.
+     */
+    private static class Periods {
+        private static final int WIDTH = 4;
+        private long[] values = new long[WIDTH * 8];
+        private int first;
+        private int last;
+
+        synchronized void add(long period, Volume volume) {
+            int index = find(period);
+            if (index >= 0) {
+                int offset = index * WIDTH;
+                values[offset + 1] += volume.getItems();
+                values[offset + 2] += volume.getBytes();
+                values[offset + 3] = Math.max(values[offset + 3], volume.getMaxBytes());
+                return;
+            }
+            index = -(index + 1);
+            if (last * WIDTH == values.length) {
+                long[] copy = first > (last - first) ? values : new long[values.length * 2];
+                System.arraycopy(values, first * WIDTH, copy, 0, (last - first) * WIDTH);
+                index -= first;
+                last -= first;
+                first = 0;
+                values = copy;
+            }
+            System.arraycopy(values, index * WIDTH, values, (index + 1) * WIDTH, (last - index) * WIDTH);
+            int offset = index * WIDTH;
+            values[offset] = period;
+            values[offset + 1] = volume.getItems();
+            values[offset + 2] = volume.getBytes();
+            values[offset + 3] = volume.getMaxBytes();
+            last++;
+        }
+
+        synchronized Volume get(long period) {
+            int index = find(period);
+            if (index < 0) {
+                return Volume.EMPTY;
+            }
+            int offset = index * WIDTH;
+            return new Volume(values[offset + 1], values[offset + 2], values[offset + 3]);
+        }
+
+        synchronized void removeBefore(long period) {
+            while (first < last && values[first * WIDTH] < period) {
+                first++;
+            }
+        }
+
+        synchronized List<Sealing> getAll(String channel) {
+            List<Sealing> all = new ArrayList<>(last - first);
+            for (int i = first; i < last; i++) {
+                int offset = i * WIDTH;
+                all.add(new Sealing(channel, values[offset], new Volume(values[offset + 1], values[offset + 2], values[offset + 3])));
+            }
+            return all;
+        }
+
+        private int find(long period) {
+            int low = first;
+            int high = last - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long value = values[middle * WIDTH];
+                if (value < period) {
+                    low = middle + 1;
+                } else if (value > period) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+
+    private class ChannelVolumesService extends AbstractScheduledService {
+
+        @Override
+        protected void startUp() throws Exception {
+            read(log);
+            try {
+                compact(log);
+            } catch (IOException e) {
+                logger.warn("unable to compact volumes, starting over", e);
+                channels.clear();
+                restored = null;
+                log.delete();
+            }
+        }
+
+        @Override
+        protected void runOneIteration() throws Exception {
+            try {
+                long now = System.currentTimeMillis();
+                List<Sealing> sealed = seal(now);
+                trim(now, HubProvider.getInstance(ChannelService.class)::getCachedChannelConfig);
+                append(log, sealed);
+                if (log.shouldCompact()) {
+                    compact(log);
+                }
+            } catch (Exception e) {
+                logger.warn("unable to update volumes", e);
+            }
+        }
+
+        @Override
+        protected void shutDown() throws Exception {
+            append(log, seal(System.currentTimeMillis()));
+            appendOpen(log);
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            return Scheduler.newFixedDelaySchedule(1, 1, TimeUnit.MINUTES);
+        }
+    }
+}
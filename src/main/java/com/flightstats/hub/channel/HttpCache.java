@@ -0,0 +1,169 @@
+package com.flightstats.hub.channel;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Validators and cache headers for responses which can no longer change.  Items are addressed by their key, and
+ * the listing of a time range before the channel's stable time stays the same until its first items expire.
+ * Entity tags are computed from the request and the channel configs alone, so conditional requests are answered
+ * without reading storage.
+ */
+class HttpCache {
+
+    static final String ITEM_VARY = "Accept-Encoding";
+    static final String LISTING_VARY = "Accept, Accept-Encoding";
+
+    private static final boolean enabled = HubProperties.getProperty("http.cache.enable", true);
+    private static final int maxAgeSeconds = HubProperties.getProperty("http.cache.maxAgeSeconds", 365 * 24 * 60 * 60);
+
+    private final String entityTag;
+    private final String cacheControl;
+    private final String vary;
+
+    private HttpCache(String entityTag, String cacheControl, String vary) {
+        this.entityTag = entityTag;
+        this.cacheControl = cacheControl;
+        this.vary = vary;
+    }
+
+    /**
+     * Items can be cached until they expire from the first of the channels they could be read from.
+     * Items of channels limited by maxItems can be removed by any later insert, so, like their listings, they are not cached.
+     * Items read through a tag can change with the channels tagged, so they are only cached to be revalidated.
+     *
+     * @return null if the item can not be cached
+     */
+    static HttpCache item(String resource, ContentKey key, Collection<ChannelConfig> channels, boolean revalidate,
+                          HttpHeaders headers) {
+        long maxAge = maxAgeSeconds;
+        for (ChannelConfig channel : channels) {
+            if (channel.getMaxItems() > 0) {
+                return null;
+            }
+            if (channel.getTtlDays() > 0) {
+                maxAge = Math.min(maxAge, secondsUntilExpired(key.getTime(), channel));
+            }
+        }
+        if (!enabled || maxAge <= 0) {
+            return null;
+        }
+        String cacheControl = revalidate ? "no-cache" : immutable(maxAge);
+        return new HttpCache(entityTag(resource + version(channels), headers, ITEM_VARY), cacheControl, ITEM_VARY);
+    }
+
+    /**
+     * A listing of a range which ends before stableTime, so its next link is also fixed, can be cached until its first items expire.
+     * Listings of channels limited by maxItems change as items are removed, and are not cached.
+     * Listings of tags can change with the channels tagged, so they are only cached to be revalidated.
+     *
+     * @return null if the listing can not be cached
+     */
+    static HttpCache listing(String resource, DateTime start, DateTime end, DateTime stableTime,
+                             Collection<ChannelConfig> channels, boolean revalidate, HttpHeaders headers) {
+        if (!enabled || !end.isBefore(stableTime) || channels.isEmpty()) {
+            return null;
+        }
+        long maxAge = maxAgeSeconds;
+        for (ChannelConfig channel : channels) {
+            if (channel.getTtlDays() <= 0) {
+                return null;
+            }
+            maxAge = Math.min(maxAge, secondsUntilExpired(start, channel));
+        }
+        if (maxAge <= 0) {
+            return null;
+        }
+        String cacheControl = revalidate ? "no-cache" : immutable(maxAge);
+        return new HttpCache(entityTag(resource + version(channels), headers, LISTING_VARY), cacheControl, LISTING_VARY);
+    }
+
+    private static long secondsUntilExpired(DateTime time, ChannelConfig channel) {
+        return (time.getMillis() - channel.getTtlTime().getMillis()) / 1000;
+    }
+
+    /**
+     * Channels are versioned by their creation date, so a channel which is deleted and created again does not match
+     * the tags of the one deleted.
+     */
+    private static String version(Collection<ChannelConfig> channels) {
+        StringBuilder version = new StringBuilder();
+        for (ChannelConfig channel : channels) {
+            version.append('\n').append(channel.getName());
+            if (channel.getCreationDate() != null) {
+                version.append('@').append(channel.getCreationDate().getTime());
+            }
+        }
+        return version.toString();
+    }
+
+    private static String immutable(long maxAge) {
+        return "public, max-age=" + maxAge + ", immutable";
+    }
+
+    /**
+     * The tag is strong, so it also covers the headers the representation varies by, which select its
+     * media type and content coding.
+     */
+    static String entityTag(String resource, HttpHeaders headers, String vary) {
+        Hasher hasher = Hashing.murmur3_128().newHasher().putString(resource, StandardCharsets.UTF_8);
+        for (String name : vary.split(", ")) {
+            hasher.putChar('\n').putString(Strings.nullToEmpty(headers.getHeaderString(name)), StandardCharsets.UTF_8);
+        }
+        return "\"" + hasher.hash() + "\"";
+    }
+
+    static boolean matches(String ifNoneMatch, String entityTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            if (StringUtils.removeStart(tag.trim(), "W/").equals(entityTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isNotModified(HttpHeaders headers) {
+        return matches(headers.getHeaderString(HttpHeaders.IF_NONE_MATCH), entityTag);
+    }
+
+    Response notModified() {
+        return addTo(Response.notModified()).build();
+    }
+
+    Response.ResponseBuilder addTo(Response.ResponseBuilder builder) {
+        return builder.header(HttpHeaders.ETAG, entityTag)
+                .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                .header(HttpHeaders.VARY, vary);
+    }
+
+    String getEntityTag() {
+        return entityTag;
+    }
+
+    String getCacheControl() {
+        return cacheControl;
+    }
+
+    /**
+     * @return the time before which the channel can no longer change
+     */
+    static DateTime stableTime(ChannelService channelService, String channel) {
+        return channelService.getLastUpdated(channel, new ContentKey(TimeUtil.stable())).getTime();
+    }
+}
@@ -0,0 +1,21 @@
+package com.flightstats.hub.channel;
+
+import com.flightstats.hub.app.HubProvider;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+
+@SuppressWarnings("WeakerAccess")
+@Path("/internal/writeLimits")
+public class InternalWriteLimitsResource {
+
+    private static final WriteLimiter writeLimiter = HubProvider.getInstance(WriteLimiter.class);
+
+    @GET
+    public Response get() {
+        StringBuilder builder = new StringBuilder();
+        writeLimiter.getCounts().forEach((channel, count) -> builder.append(channel).append(" ").append(count).append("\n"));
+        return Response.ok(builder.toString()).build();
+    }
+}
@@ -61,7 +61,8 @@ public class LinkBuilder {
                 .withLink("ws", buildWsLinkFor(channelUri))
                 .withLink("events", URI.create(channelUri + "/events"))
                 .withLink("time", URI.create(channelUri + "/time"))
-                .withLink("status", URI.create(channelUri + "/status"));
+                .withLink("status", URI.create(channelUri + "/status"))
+                .withLink("stats", URI.create(channelUri + "/stats"));
         return linked.build();
     }
 
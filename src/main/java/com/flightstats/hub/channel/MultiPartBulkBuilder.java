@@ -1,14 +1,12 @@
 package com.flightstats.hub.channel;
 
 import com.flightstats.hub.dao.ChannelService;
-import com.flightstats.hub.dao.Request;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.ChannelContentKey;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.util.TimeUtil;
-import com.google.common.base.Optional;
 import com.google.common.io.ByteStreams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,6 +16,7 @@ import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.util.SortedSet;
@@ -53,9 +52,8 @@ class MultiPartBulkBuilder {
         Traces traces = ActiveTraces.getLocal();
         return write((BufferedOutputStream output) -> {
             ActiveTraces.setLocal(traces);
-            for (ChannelContentKey key : keys) {
-                writeContent(uriInfo, output, key.getContentKey(), key.getChannel(), channelService);
-            }
+            BulkBuilder.getTag(keys, channelService, (channel, content) ->
+                    writeContent(content, output, LinkBuilder.buildChannelUri(channel, uriInfo), channel));
         }, headerBuilder);
     }
 
@@ -74,19 +72,6 @@ class MultiPartBulkBuilder {
         return builder.build();
     }
 
-    private static void writeContent(UriInfo uriInfo, BufferedOutputStream output, ContentKey key, String channel,
-                                     ChannelService channelService) {
-        Request request = Request.builder()
-                .channel(channel)
-                .key(key)
-                .build();
-        Optional<Content> content = channelService.get(request);
-        if (content.isPresent()) {
-            Content item = content.get();
-            writeContent(item, output, LinkBuilder.buildChannelUri(channel, uriInfo), channel);
-        }
-    }
-
     private static void writeContent(Content content, OutputStream output, URI channelUri, String name) {
         writeContent(content, output, channelUri, name, true, false);
     }
@@ -108,7 +93,9 @@ class MultiPartBulkBuilder {
             output.write(TimeUtil.FORMATTER.print(content.getContentKey().get().getMillis()).getBytes());
             output.write(CRLF);
             output.write(CRLF);
-            ByteStreams.copy(content.getStream(), output);
+            try (InputStream input = content.getStream()) {
+                ByteStreams.copy(input, output);
+            }
             output.write(CRLF);
             if (endBoundary) output.write(START_BOUNDARY);
             output.flush();
@@ -11,7 +11,6 @@ import com.flightstats.hub.model.*;
 import com.flightstats.hub.rest.Linked;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
-import com.google.common.io.ByteStreams;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
@@ -20,10 +19,7 @@ import org.slf4j.LoggerFactory;
 import javax.ws.rs.*;
 import javax.ws.rs.core.*;
 import java.net.URI;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.SortedSet;
+import java.util.*;
 
 import static com.flightstats.hub.util.TimeUtil.Unit;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
@@ -37,6 +33,8 @@ public class TagContentResource {
 
     @Context
     private UriInfo uriInfo;
+    @Context
+    private HttpHeaders headers;
 
     private final static ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
     private final static TagService tagService = HubProvider.getInstance(TagService.class);
@@ -75,7 +73,7 @@ public class TagContentResource {
                            @QueryParam("stable") @DefaultValue("true") boolean stable,
                            @HeaderParam("Accept") String accept) {
         DateTime startTime = new DateTime(year, month, day, 0, 0, 0, 0, DateTimeZone.UTC);
-        return getTimeQueryResponse(tag, startTime, location, trace, stable, Unit.DAYS, bulk || batch, accept, uriInfo);
+        return getTimeQueryResponse(tag, startTime, location, trace, stable, Unit.DAYS, bulk || batch, accept, uriInfo, headers);
     }
 
     @Path("/{Y}/{M}/{D}/{hour}")
@@ -93,7 +91,7 @@ public class TagContentResource {
                             @QueryParam("stable") @DefaultValue("true") boolean stable,
                             @HeaderParam("Accept") String accept) {
         DateTime startTime = new DateTime(year, month, day, hour, 0, 0, 0, DateTimeZone.UTC);
-        return getTimeQueryResponse(tag, startTime, location, trace, stable, Unit.HOURS, bulk || batch, accept, uriInfo);
+        return getTimeQueryResponse(tag, startTime, location, trace, stable, Unit.HOURS, bulk || batch, accept, uriInfo, headers);
     }
 
     @Path("/{Y}/{M}/{D}/{h}/{minute}")
@@ -112,7 +110,7 @@ public class TagContentResource {
                               @QueryParam("stable") @DefaultValue("true") boolean stable,
                               @HeaderParam("Accept") String accept) {
         DateTime startTime = new DateTime(year, month, day, hour, minute, 0, 0, DateTimeZone.UTC);
-        return getTimeQueryResponse(tag, startTime, location, trace, stable, Unit.MINUTES, bulk || batch, accept, uriInfo);
+        return getTimeQueryResponse(tag, startTime, location, trace, stable, Unit.MINUTES, bulk || batch, accept, uriInfo, headers);
     }
 
     @Path("/{Y}/{M}/{D}/{h}/{m}/{second}")
@@ -132,12 +130,21 @@ public class TagContentResource {
                               @QueryParam("stable") @DefaultValue("true") boolean stable,
                               @HeaderParam("Accept") String accept) {
         DateTime startTime = new DateTime(year, month, day, hour, minute, second, 0, DateTimeZone.UTC);
-        return getTimeQueryResponse(tag, startTime, location, trace, stable, Unit.SECONDS, bulk || batch, accept, uriInfo);
+        return getTimeQueryResponse(tag, startTime, location, trace, stable, Unit.SECONDS, bulk || batch, accept, uriInfo, headers);
     }
 
     public Response getTimeQueryResponse(String tag, DateTime startTime, String location, boolean trace, boolean stable,
-                                         Unit unit, boolean bulk, String accept, UriInfo uriInfo) {
+                                         Unit unit, boolean bulk, String accept, UriInfo uriInfo, HttpHeaders headers) {
         //todo - gfm - 12/15/15 - merge this with ChannelContentResource.getTimeQueryResponse
+        HttpCache cache = null;
+        if (!trace && Location.valueOf(location).equals(Location.ALL)) {
+            List<ChannelConfig> channels = getChannels(tag);
+            cache = HttpCache.listing(uriInfo.getRequestUri().toString(), startTime, startTime.plus(unit.getDuration()),
+                    stableTime(channels), channels, true, headers);
+            if (cache != null && cache.isNotModified(headers)) {
+                return cache.notModified();
+            }
+        }
         TimeQuery query = TimeQuery.builder()
                 .tagName(tag)
                 .startTime(startTime)
@@ -150,12 +157,16 @@ public class TagContentResource {
         DateTime next = startTime.plus(unit.getDuration());
         DateTime previous = startTime.minus(unit.getDuration());
         String baseUri = uriInfo.getBaseUri() + "tag/" + tag + "/";
+        HttpCache listingCache = cache;
         if (bulk) {
             return BulkBuilder.buildTag(tag, keys, tagService.getChannelService(), uriInfo, accept, (builder) -> {
                 if (next.isBefore(current)) {
                     builder.header("Link", "<" + baseUri + unit.format(next) + "?bulk=true&stable=" + stable + ">;rel=\"" + "next" + "\"");
                 }
                 builder.header("Link", "<" + baseUri + unit.format(previous) + "?bulk=true&stable=" + stable + ">;rel=\"" + "previous" + "\"");
+                if (listingCache != null) {
+                    listingCache.addTo(builder);
+                }
             });
         }
         ObjectNode root = mapper.createObjectNode();
@@ -175,7 +186,28 @@ public class TagContentResource {
         if (trace) {
             ActiveTraces.getLocal().output(root);
         }
-        return Response.ok(root).build();
+        Response.ResponseBuilder builder = Response.ok(root);
+        if (cache != null) {
+            cache.addTo(builder);
+        }
+        return builder.build();
+    }
+
+    private List<ChannelConfig> getChannels(String tag) {
+        List<ChannelConfig> channels = new ArrayList<>();
+        tagService.getChannels(tag).forEach(channels::add);
+        return channels;
+    }
+
+    private DateTime stableTime(List<ChannelConfig> channels) {
+        DateTime stableTime = TimeUtil.stable();
+        for (ChannelConfig channel : channels) {
+            DateTime channelStable = HttpCache.stableTime(tagService.getChannelService(), channel.getName());
+            if (channelStable.isBefore(stableTime)) {
+                stableTime = channelStable;
+            }
+        }
+        return stableTime;
     }
 
     @Path("/{Y}/{M}/{D}/{h}/{m}/{s}/{ms}/{hash}")
@@ -189,10 +221,15 @@ public class TagContentResource {
                              @PathParam("s") int second,
                              @PathParam("ms") int millis,
                              @PathParam("hash") String hash,
-                             @HeaderParam("Accept") String accept
+                             @HeaderParam("Accept") String accept,
+                             @HeaderParam("Accept-Encoding") String acceptEncoding
     ) {
         long start = System.currentTimeMillis();
         ContentKey key = new ContentKey(year, month, day, hour, minute, second, millis, hash);
+        HttpCache cache = HttpCache.item("tag/" + tag + "/" + key.toUrl(), key, getChannels(tag), true, headers);
+        if (cache != null && cache.isNotModified(headers)) {
+            return cache.notModified();
+        }
         Request request = Request.builder()
                 .tag(tag)
                 .key(key)
@@ -211,13 +248,16 @@ public class TagContentResource {
         if (ChannelContentResource.contentTypeIsNotCompatible(accept, actualContentType)) {
             return Response.status(Response.Status.NOT_ACCEPTABLE).build();
         }
-        Response.ResponseBuilder builder = Response.ok((StreamingOutput) output -> ByteStreams.copy(content.getStream(), output));
+        Response.ResponseBuilder builder = ChannelContentResource.okContent(content, acceptEncoding);
 
         builder.type(actualContentType)
                 .header(ChannelContentResource.CREATION_DATE, TimeUtil.FORMATTER.print(new DateTime(key.getMillis())));
 
         builder.header("Link", "<" + uriInfo.getRequestUriBuilder().path("previous").build() + ">;rel=\"" + "previous" + "\"");
         builder.header("Link", "<" + uriInfo.getRequestUriBuilder().path("next").build() + ">;rel=\"" + "next" + "\"");
+        if (cache != null) {
+            cache.addTo(builder);
+        }
         return builder.build();
     }
 
@@ -33,7 +33,7 @@ public class TimeLinkUtil {
         DateTime stable = TimeUtil.stable();
         addTime(root, now, "now");
         addTime(root, stable, "stable");
-        return Response.ok(root).build();
+        return Response.ok(root).header(HttpHeaders.CACHE_CONTROL, "no-cache").build();
     }
 
     private static ObjectNode addSelfLink(ObjectNode root, UriInfo uriInfo) {
@@ -91,7 +91,8 @@ public class TimeLinkUtil {
                 .path(timePath);
         addQueryParams(uriInfo, uriBuilder);
         Response.ResponseBuilder builder = Response.status(SEE_OTHER);
-        builder.location(uriBuilder.build());
+        builder.location(uriBuilder.build())
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache");
         return builder.build();
     }
 
@@ -0,0 +1,30 @@
+package com.flightstats.hub.channel;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The items, bytes and largest item a channel received in a period.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public class Volume {
+
+    public static final Volume EMPTY = new Volume(0, 0, 0);
+
+    private final long items;
+    private final long bytes;
+    private final long maxBytes;
+
+    public Volume(long items, long bytes, long maxBytes) {
+        this.items = items;
+        this.bytes = bytes;
+        this.maxBytes = maxBytes;
+    }
+
+    public Volume plus(Volume other) {
+        return new Volume(items + other.items, bytes + other.bytes, Math.max(maxBytes, other.maxBytes));
+    }
+}
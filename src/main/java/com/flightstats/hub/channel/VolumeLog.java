@@ -0,0 +1,192 @@
+package com.flightstats.hub.channel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append only file of channel volumes.  Each write is a segment, starting with when it was written, the time
+ * the volumes were complete since, and whether the server was shutting down, and ending with END.
+ * Records are a type, a minute since the epoch and the volume, as variable length longs, after the channel
+ * they belong to.  Every record adds to what was read before it, except DELETED, which drops the channel.
+ * Compacting rewrites the file as one segment.
+ */
+class VolumeLog {
+
+    private final static Logger logger = LoggerFactory.getLogger(VolumeLog.class);
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * A sealed hour.
+     */
+    static final byte HOUR = 'h';
+    /**
+     * A sealed minute, already added into its hour.
+     */
+    static final byte MINUTE_ONLY = 'M';
+    /**
+     * A newly sealed minute, which also adds to its hour.
+     */
+    static final byte SEALED = 's';
+    /**
+     * A minute which was still open at shutdown.
+     */
+    static final byte OPEN = 'o';
+    static final byte DELETED = 'x';
+    private static final byte SEGMENT = 'S';
+    private static final byte CHANNEL = 'C';
+    private static final byte END = 'E';
+
+    private final File file;
+    private long compactedLength;
+
+    VolumeLog(File file) {
+        this.file = file;
+    }
+
+    interface Reader {
+        void read(byte type, String channel, long period, Volume volume);
+    }
+
+    interface Records {
+        void write(Output output) throws IOException;
+    }
+
+    static class Segment {
+        long written;
+        long since;
+        boolean clean;
+    }
+
+    /**
+     * @return the last complete segment, which is not clean if a later one is incomplete, or null if there is none
+     */
+    Segment read(Reader reader) {
+        if (!file.exists()) {
+            logger.info("no volumes {}", file);
+            return null;
+        }
+        Segment last = null;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int first;
+            while ((first = input.read()) >= 0) {
+                if (first != SEGMENT) {
+                    throw new IOException("unexpected " + first);
+                }
+                Segment segment = new Segment();
+                segment.written = input.readLong();
+                segment.since = input.readLong();
+                segment.clean = input.readBoolean();
+                String channel = null;
+                byte type;
+                while ((type = input.readByte()) != END) {
+                    if (type == CHANNEL) {
+                        channel = input.readUTF();
+                    } else if (type == DELETED) {
+                        reader.read(type, channel, 0, null);
+                    } else {
+                        long period = readLong(input) * MINUTE;
+                        reader.read(type, channel, period, new Volume(readLong(input), readLong(input), readLong(input)));
+                    }
+                }
+                last = segment;
+            }
+        } catch (IOException e) {
+            logger.warn("unable to read all volumes " + file + " " + e.getMessage());
+            if (last != null) {
+                last.clean = false;
+            }
+        }
+        return last;
+    }
+
+    void append(long since, boolean clean, Records records) throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(file, true)) {
+            write(stream, since, clean, records);
+        }
+    }
+
+    /**
+     * Replaces the file with the records, so it never holds half of them.
+     */
+    void compact(long since, Records records) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(tmp)) {
+            write(stream, since, false, records);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        compactedLength = file.length();
+        logger.info("compacted volumes to {} bytes", compactedLength);
+    }
+
+    void delete() {
+        if (!file.delete()) {
+            logger.warn("unable to delete {}", file);
+        }
+    }
+
+    boolean shouldCompact() {
+        return file.length() > 2 * compactedLength + 1024 * 1024;
+    }
+
+    private void write(FileOutputStream stream, long since, boolean clean, Records records) throws IOException {
+        file.getParentFile().mkdirs();
+        Output output = new Output(new DataOutputStream(new BufferedOutputStream(stream)));
+        output.data.writeByte(SEGMENT);
+        output.data.writeLong(System.currentTimeMillis());
+        output.data.writeLong(since);
+        output.data.writeBoolean(clean);
+        records.write(output);
+        output.data.writeByte(END);
+        output.data.flush();
+        stream.getFD().sync();
+    }
+
+    static class Output {
+        private final DataOutputStream data;
+        private String channel;
+
+        private Output(DataOutputStream data) {
+            this.data = data;
+        }
+
+        void write(byte type, String channel, long period, Volume volume) throws IOException {
+            if (!channel.equals(this.channel)) {
+                data.writeByte(CHANNEL);
+                data.writeUTF(channel);
+                this.channel = channel;
+            }
+            data.writeByte(type);
+            if (type != DELETED) {
+                writeLong(data, period / MINUTE);
+                writeLong(data, volume.getItems());
+                writeLong(data, volume.getBytes());
+                writeLong(data, volume.getMaxBytes());
+            }
+        }
+    }
+
+    private static void writeLong(DataOutput output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static long readLong(DataInput input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = input.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed long");
+    }
+}
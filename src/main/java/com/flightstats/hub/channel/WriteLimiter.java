@@ -0,0 +1,245 @@
+package com.flightstats.hub.channel;
+
+import com.flightstats.hub.app.HubHost;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.cluster.CuratorCluster;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.exception.TooManyRequestsException;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.rest.RestClient;
+import com.flightstats.hub.util.TokenBucket;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.sun.jersey.api.client.ClientResponse;
+import com.timgroup.statsd.StatsDClient;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per channel token buckets for items and bytes written per second.
+ * The limits in a ChannelConfig, or the cluster defaults, are for the whole cluster.
+ * Every few seconds each server asks the others how many items they admitted for each limited channel,
+ * and takes a share of each limit in proportion to its part of the traffic, so no request writes to zookeeper.
+ */
+@Singleton
+public class WriteLimiter {
+
+    private final static Logger logger = LoggerFactory.getLogger(WriteLimiter.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    private static final double EVEN_SHARE = 0.2;
+
+    private final long defaultMaxItems = HubProperties.getProperty("channel.maxItemsPerSecond", 0);
+    private final long defaultMaxBytes = HubProperties.getProperty("channel.maxBytesPerSecond", 0);
+    private final double burstSeconds = HubProperties.getProperty("channel.limitBurstSeconds", 2.0);
+    private final int syncSeconds = HubProperties.getProperty("channel.limitSyncSeconds", 5);
+    private final Map<String, Limits> channels = new ConcurrentHashMap<>();
+
+    @Inject
+    private ChannelService channelService;
+    @Inject
+    @Named("HubCuratorCluster")
+    private CuratorCluster hubCluster;
+
+    @Inject
+    public WriteLimiter() {
+        if (syncSeconds > 0) {
+            HubServices.register(new WriteLimiterService());
+        }
+    }
+
+    /**
+     * @param bytes the size of the request, or less than zero if it isn't known until the write is done.
+     * @throws TooManyRequestsException if the channel is over either of its limits
+     */
+    public void admit(String channel, int items, long bytes) {
+        ChannelConfig config = channelService.getCachedChannelConfig(channel);
+        long maxItems = config.getMaxItemsPerSecond() > 0 ? config.getMaxItemsPerSecond() : defaultMaxItems;
+        long maxBytes = config.getMaxBytesPerSecond() > 0 ? config.getMaxBytesPerSecond() : defaultMaxBytes;
+        admit(channel, maxItems, maxBytes, items, bytes);
+    }
+
+    void admit(String channel, long maxItems, long maxBytes, int items, long bytes) {
+        Limits limits = getLimits(channel, maxItems, maxBytes);
+        if (limits == null) {
+            return;
+        }
+        long waitMillis = limits.items == null ? 0 : limits.items.tryAcquire(items);
+        if (waitMillis > 0) {
+            throttle(channel, "items", waitMillis);
+        }
+        if (limits.bytes != null) {
+            waitMillis = limits.bytes.tryAcquire(Math.max(0, bytes));
+            if (waitMillis > 0) {
+                if (limits.items != null) {
+                    limits.items.charge(-items);
+                }
+                throttle(channel, "bytes", waitMillis);
+            }
+        }
+        limits.count.add(items);
+    }
+
+    /**
+     * Charges for items and bytes which were only known once the write was done.
+     */
+    public void charge(String channel, int items, long bytes) {
+        Limits limits = channels.get(channel);
+        if (limits == null) {
+            return;
+        }
+        if (limits.items != null && items > 0) {
+            limits.items.charge(items);
+        }
+        if (limits.bytes != null && bytes > 0) {
+            limits.bytes.charge(bytes);
+        }
+        if (items > 0) {
+            limits.count.add(items);
+        }
+    }
+
+    private void throttle(String channel, String limit, long waitMillis) {
+        statsd.increment("channel.throttled", "channel:" + channel, "limit:" + limit);
+        long seconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(waitMillis + 999));
+        logger.debug("throttling {} on {} for {} s", channel, limit, seconds);
+        throw new TooManyRequestsException(channel + " is over its " + limit + " per second limit", seconds);
+    }
+
+    private Limits getLimits(String channel, long maxItems, long maxBytes) {
+        Limits limits = channels.get(channel);
+        if (limits != null && limits.maxItems == maxItems && limits.maxBytes == maxBytes) {
+            return limits;
+        }
+        if (maxItems <= 0 && maxBytes <= 0) {
+            channels.remove(channel);
+            return null;
+        }
+        Limits newLimits = new Limits(maxItems, maxBytes, burstSeconds);
+        if (limits != null) {
+            newLimits.setShare(limits.share);
+        } else {
+            newLimits.setShare(1.0 / Math.max(1, getServerCount()));
+        }
+        channels.put(channel, newLimits);
+        return newLimits;
+    }
+
+    private int getServerCount() {
+        return hubCluster == null ? 1 : hubCluster.getServers().size();
+    }
+
+    /**
+     * @return the items admitted for each limited channel during the last sync interval
+     */
+    Map<String, Long> getCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        channels.forEach((channel, limits) -> counts.put(channel, limits.lastCount));
+        return counts;
+    }
+
+    void sync() {
+        Map<String, Long> totals = new HashMap<>();
+        channels.forEach((channel, limits) -> {
+            limits.lastCount = limits.count.sumThenReset();
+            totals.put(channel, limits.lastCount);
+        });
+        int servers = 1;
+        Collection<String> remoteServers = hubCluster == null ? Collections.emptyList() : hubCluster.getRandomRemoteServers();
+        for (String server : remoteServers) {
+            servers++;
+            try {
+                getCounts(server).forEach((channel, count) -> totals.merge(channel, count, Long::sum));
+            } catch (Exception e) {
+                logger.info("unable to get write counts from {} {}", server, e.getMessage());
+            }
+        }
+        updateShares(totals, servers);
+    }
+
+    void updateShares(Map<String, Long> totals, int servers) {
+        channels.forEach((channel, limits) -> {
+            long total = totals.getOrDefault(channel, 0L);
+            double share = 1.0 / servers;
+            if (total > 0) {
+                share = (1 - EVEN_SHARE) * limits.lastCount / total + EVEN_SHARE / servers;
+            }
+            limits.setShare(share);
+        });
+    }
+
+    private Map<String, Long> getCounts(String server) {
+        ClientResponse response = RestClient.defaultClient()
+                .resource(HubHost.getScheme() + server + "/internal/writeLimits")
+                .get(ClientResponse.class);
+        try {
+            if (response.getStatus() != 200) {
+                throw new RuntimeException("status " + response.getStatus());
+            }
+            Map<String, Long> counts = new HashMap<>();
+            for (String line : StringUtils.split(response.getEntity(String.class), "\n")) {
+                String[] parts = StringUtils.split(line, " ");
+                counts.put(parts[0], Long.parseLong(parts[1]));
+            }
+            return counts;
+        } finally {
+            response.close();
+        }
+    }
+
+    static class Limits {
+        final long maxItems;
+        final long maxBytes;
+        final TokenBucket items;
+        final TokenBucket bytes;
+        final LongAdder count = new LongAdder();
+        volatile long lastCount;
+        volatile double share = 1;
+
+        Limits(long maxItems, long maxBytes, double burstSeconds) {
+            this.maxItems = maxItems;
+            this.maxBytes = maxBytes;
+            items = maxItems > 0 ? new TokenBucket(maxItems, burstSeconds) : null;
+            bytes = maxBytes > 0 ? new TokenBucket(maxBytes, burstSeconds) : null;
+        }
+
+        void setShare(double share) {
+            this.share = share;
+            if (items != null) {
+                items.setRate(maxItems * share);
+            }
+            if (bytes != null) {
+                bytes.setRate(maxBytes * share);
+            }
+        }
+    }
+
+    private class WriteLimiterService extends AbstractScheduledService {
+        @Override
+        protected void runOneIteration() throws Exception {
+            try {
+                sync();
+            } catch (Exception e) {
+                logger.warn("unable to sync write limits", e);
+            }
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            return Scheduler.newFixedDelaySchedule(syncSeconds, syncSeconds, TimeUnit.SECONDS);
+        }
+    }
+}
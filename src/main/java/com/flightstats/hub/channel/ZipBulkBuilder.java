@@ -2,13 +2,11 @@ package com.flightstats.hub.channel;
 
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.dao.ContentMarshaller;
-import com.flightstats.hub.dao.Request;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.ChannelContentKey;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
-import com.google.common.base.Optional;
 import com.google.common.io.ByteStreams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,6 +14,7 @@ import org.slf4j.LoggerFactory;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.SortedSet;
 import java.util.function.Consumer;
 import java.util.zip.Deflater;
@@ -40,9 +39,7 @@ public class ZipBulkBuilder {
         Traces traces = ActiveTraces.getLocal();
         return write((ZipOutputStream output) -> {
             ActiveTraces.setLocal(traces);
-            for (ChannelContentKey key : keys) {
-                writeContent(output, key.getContentKey(), key.getChannel(), channelService);
-            }
+            BulkBuilder.getTag(keys, channelService, (channel, content) -> createZipEntry(output, content));
         }, headerBuilder);
     }
 
@@ -62,28 +59,16 @@ public class ZipBulkBuilder {
         return builder.build();
     }
 
-    private static void writeContent(ZipOutputStream output, ContentKey key, String channel,
-                                     ChannelService channelService) {
-        Request request = Request.builder()
-                .channel(channel)
-                .key(key)
-                .build();
-        Optional<Content> contentOptional = channelService.get(request);
-        if (contentOptional.isPresent()) {
-            createZipEntry(output, contentOptional.get());
-        } else {
-            logger.warn("missing content for zip {} {}", channel, key);
-        }
-    }
-
     public static void createZipEntry(ZipOutputStream output, Content content) {
         try {
             String keyId = content.getContentKey().get().toUrl();
             ZipEntry zipEntry = new ZipEntry(keyId);
             zipEntry.setExtra(ContentMarshaller.getMetaData(content).getBytes());
             output.putNextEntry(zipEntry);
-            long bytesCopied = ByteStreams.copy(content.getStream(), output);
-            zipEntry.setSize(bytesCopied);
+            try (InputStream input = content.getStream()) {
+                long bytesCopied = ByteStreams.copy(input, output);
+                zipEntry.setSize(bytesCopied);
+            }
         } catch (IOException e) {
             logger.warn("exception zip batching for  " + content.getContentKey().get(), e);
             throw new RuntimeException(e);
@@ -4,6 +4,7 @@ import com.flightstats.hub.app.HubServices;
 import com.flightstats.hub.cluster.WatchManager;
 import com.flightstats.hub.cluster.Watcher;
 import com.flightstats.hub.model.NamedType;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.curator.framework.api.CuratorEvent;
@@ -23,15 +24,24 @@ public class CachedDao<T extends NamedType> implements Dao<T> {
     private final Dao<T> delegate;
     private final String path;
     private final WatchManager watchManager;
+    private final ConfigSnapshot<T> snapshot;
     private ConcurrentMap<String, T> cacheMap = new ConcurrentHashMap<>();
     private ExecutorService executor = Executors.newSingleThreadExecutor(
             new ThreadFactoryBuilder().setNameFormat("cachedDao-%d").build());
 
     public CachedDao(Dao<T> delegate, WatchManager watchManager, String path) {
+        this(delegate, watchManager, path, null);
+    }
+
+    /**
+     * @param snapshot if not null, the cache starts from the snapshot, and is reconciled with the delegate in the background
+     */
+    public CachedDao(Dao<T> delegate, WatchManager watchManager, String path, ConfigSnapshot<T> snapshot) {
         this.delegate = delegate;
         this.watchManager = watchManager;
         this.path = path;
-        HubServices.register(new CachedDaoService());
+        this.snapshot = snapshot;
+        HubServices.register(new CachedDaoService()).dependsOn(WatchManager.class, delegate.getClass());
     }
 
     @Override
@@ -76,6 +86,32 @@ public class CachedDao<T extends NamedType> implements Dao<T> {
         }
         cacheMap = newMap;
         logger.trace("updated map {}", newMap.keySet());
+        if (snapshot != null) {
+            snapshot.save(newMap.values());
+        }
+    }
+
+    @VisibleForTesting
+    void load() {
+        long start = System.currentTimeMillis();
+        if (snapshot != null) {
+            Collection<T> items = snapshot.load();
+            if (!items.isEmpty()) {
+                ConcurrentMap<String, T> newMap = new ConcurrentHashMap<>();
+                items.forEach(item -> newMap.put(item.getName(), item));
+                newMap.putAll(cacheMap);
+                cacheMap = newMap;
+                logger.info("loaded {} from snapshot in {} ms, reconciling {}", items.size(), System.currentTimeMillis() - start, path);
+                executor.submit(this::updateMap);
+                return;
+            }
+        }
+        try {
+            updateMap();
+            logger.info("loaded {} in {} ms {}", cacheMap.size(), System.currentTimeMillis() - start, path);
+        } catch (Exception e) {
+            logger.warn("unable to load " + path, e);
+        }
     }
 
     @Override
@@ -115,6 +151,7 @@ public class CachedDao<T extends NamedType> implements Dao<T> {
         @Override
         protected void startUp() throws Exception {
             startWatcher();
+            load();
         }
 
         @Override
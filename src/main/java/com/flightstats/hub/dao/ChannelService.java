@@ -20,6 +20,8 @@ public interface ChannelService {
 
     Collection<ContentKey> insert(BulkContent bulkContent) throws Exception;
 
+    Collection<ContentKey> backfill(BulkContent bulkContent, boolean minuteComplete) throws Exception;
+
     boolean isReplicating(String channelName);
 
     Optional<ContentKey> getLatest(String channel, boolean stable, boolean trace);
@@ -0,0 +1,18 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.model.NamedType;
+
+import java.util.Collection;
+
+/**
+ * A local copy of every item in a Dao, which a restarting node can serve before it has read the Dao.
+ */
+public interface ConfigSnapshot<T extends NamedType> {
+
+    /**
+     * @return the items last saved, or nothing if there is no usable snapshot
+     */
+    Collection<T> load();
+
+    void save(Collection<T> items);
+}
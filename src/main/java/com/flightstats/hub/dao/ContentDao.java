@@ -5,6 +5,7 @@ import com.flightstats.hub.model.*;
 import com.google.common.base.Optional;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.function.Consumer;
 
@@ -38,6 +39,15 @@ public interface ContentDao {
         throw new UnsupportedOperationException("writeBatch is not supported");
     }
 
+    /**
+     * Writes the historical items of one minute.
+     */
+    default void backfill(String channel, MinutePath minute, List<Content> items) throws Exception {
+        for (Content item : items) {
+            insert(channel, item);
+        }
+    }
+
     default boolean streamMinute(String channel, ContentPathKeys path, Consumer<Content> callback) {
         throw new UnsupportedOperationException("streamMinute is not supported");
     }
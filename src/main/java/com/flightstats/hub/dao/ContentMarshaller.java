@@ -5,38 +5,186 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.exception.ContentTooLargeException;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.CompressedPayload;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.BufferPool;
+import com.flightstats.hub.util.PayloadBuffer;
+import com.google.common.base.Optional;
 import com.google.common.io.ByteStreams;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.lang3.StringUtils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.zip.Deflater;
-import java.util.zip.ZipEntry;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
+/**
+ * Items are written with a small header followed by the payload, compressed with a {@link PayloadCodec}.
+ * The header is magic bytes, a format version, the codec id, and the length prefixed json meta data.
+ * Since version 2, the payload is followed by the crc32 and size of the uncompressed bytes,
+ * which allows deflated payloads to be served to clients as gzip without recompressing them.
+ * Items written before the header existed are zip files with a meta entry and a payload entry, and are still readable.
+ */
 public class ContentMarshaller {
 
     private static final ObjectMapper mapper = new ObjectMapper();
-    private static final int maxBytes = HubProperties.getProperty("app.maxPayloadSizeMB", 40) * 1024 * 1024;
+    private static final int maxPayloadSizeMB = HubProperties.getProperty("app.maxPayloadSizeMB", 40);
+    private static final long maxBytes = maxPayloadSizeMB * 1024L * 1024L;
+    private static final long maxStreamedBytes = HubProperties.getProperty("app.maxStreamedPayloadSizeMB", maxPayloadSizeMB) * 1024L * 1024L;
+    private static final int tinyBytes = HubProperties.getProperty("app.compression.tinyBytes", 64);
+    private static final int smallBytes = HubProperties.getProperty("app.compression.smallBytes", 4 * 1024);
+    private static final int streamBytes = HubProperties.getProperty("app.streamThresholdMB", 8) * 1024 * 1024;
+    private static final byte[] MAGIC = {'H', 'u', 'b'};
+    private static final int VERSION = 2;
+    private static final int TRAILER_LENGTH = 8;
+    private static final String[] COMPRESSED_TYPES = {"image/", "video/", "audio/", "application/zip", "application/gzip",
+            "application/x-gzip", "application/x-bzip2", "application/x-xz", "application/x-7z-compressed",
+            "application/x-protobuf", "application/protobuf", "application/vnd.google.protobuf"};
 
     public static byte[] toBytes(Content content) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ZipOutputStream zipOut = new ZipOutputStream(baos);
-        zipOut.setLevel(Deflater.BEST_COMPRESSION);
-        zipOut.putNextEntry(new ZipEntry("meta"));
-        String meta = getMetaData(content);
-        zipOut.write(meta.getBytes());
-        zipOut.putNextEntry(new ZipEntry("payload"));
-        long bytesCopied = ByteStreams.copy(content.getStream(), zipOut);
-        if (bytesCopied > maxBytes) {
-            throw new ContentTooLargeException("max payload size is " + maxBytes + " bytes");
+        return toBytes(content, null);
+    }
+
+    public static byte[] toBytes(Content content, ChannelConfig channelConfig) throws IOException {
+        PayloadBuffer buffer = new PayloadBuffer(Integer.MAX_VALUE);
+        try {
+            write(content, channelConfig, buffer, maxBytes);
+            return buffer.toByteArray();
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Marshals the content into memory, or into a temporary file once it is larger than app.streamThresholdMB.
+     * Callers need to reset the returned stream when they are done with it, to delete the file.
+     *
+     * @param streamed true if the item is only ever streamed, so it can be up to app.maxStreamedPayloadSizeMB,
+     *                 rather than app.maxPayloadSizeMB
+     */
+    public static PayloadBuffer toBuffer(Content content, ChannelConfig channelConfig, boolean streamed) throws IOException {
+        PayloadBuffer buffer = createBuffer();
+        try {
+            write(content, channelConfig, buffer, streamed ? maxStreamedBytes : maxBytes);
+            buffer.close();
+            return buffer;
+        } catch (IOException | RuntimeException e) {
+            buffer.reset();
+            throw e;
+        }
+    }
+
+    public static PayloadBuffer createBuffer() {
+        return new PayloadBuffer(streamBytes);
+    }
+
+    public static boolean isLarge(long bytes) {
+        return bytes > streamBytes;
+    }
+
+    /**
+     * Items of single storage channels are streamed through spoke and S3.  Batch storage, NAS and delivery
+     * to webhooks hold whole items in the heap.
+     */
+    public static boolean isStreamed(ChannelConfig channelConfig) {
+        return channelConfig != null && channelConfig.isSingle();
+    }
+
+    /**
+     * @return the largest payload, in bytes, of an item which is held in the heap
+     */
+    public static long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Closes the content's stream, which may hold a connection, once the payload is written.
+     */
+    private static void write(Content content, ChannelConfig channelConfig, OutputStream output, long limit) throws IOException {
+        byte[] head = BufferPool.borrow(smallBytes + 1);
+        try (InputStream stream = content.getStream()) {
+            write(content, stream, channelConfig, output, head, limit);
+        } finally {
+            BufferPool.release(head);
+        }
+    }
+
+    private static void write(Content content, InputStream stream, ChannelConfig channelConfig, OutputStream output,
+                              byte[] head, long limit) throws IOException {
+        int headLength = ByteStreams.read(stream, head, 0, smallBytes + 1);
+        int knownSize = headLength <= smallBytes ? headLength : -1;
+        PayloadCodec codec = selectCodec(getCompression(channelConfig), content.getContentType(), knownSize);
+
+        DataOutputStream header = new DataOutputStream(output);
+        header.write(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(codec.getId());
+        byte[] meta = getMetaData(content).getBytes(StandardCharsets.UTF_8);
+        header.writeInt(meta.length);
+        header.write(meta);
+        header.flush();
+
+        CRC32 crc = new CRC32();
+        OutputStream payload = new CheckedOutputStream(codec.compress(new CloseShieldOutputStream(output)), crc);
+        payload.write(head, 0, headLength);
+        long bytesCopied = headLength;
+        if (knownSize < 0) {
+            bytesCopied += BufferPool.copy(ByteStreams.limit(stream, limit + 1L - headLength), payload);
+        }
+        if (bytesCopied > limit) {
+            throw new ContentTooLargeException("max payload size is " + limit + " bytes");
         }
         content.setSize(bytesCopied);
-        zipOut.close();
-        return baos.toByteArray();
+        payload.close();
+        header.writeInt((int) crc.getValue());
+        header.writeInt((int) bytesCopied);
+        header.flush();
+    }
+
+    private static String getCompression(ChannelConfig channelConfig) {
+        if (channelConfig == null) {
+            return ChannelConfig.AUTO;
+        }
+        return channelConfig.getCompression();
+    }
+
+    /**
+     * @param knownSize the payload size if it is small, otherwise -1
+     */
+    static PayloadCodec selectCodec(String compression, Optional<String> contentType, int knownSize) {
+        if (PayloadCodec.isValid(compression)) {
+            return PayloadCodec.valueOf(compression);
+        }
+        String type = StringUtils.lowerCase(contentType.or(""));
+        if (isCompressed(type)) {
+            return PayloadCodec.NONE;
+        }
+        if (knownSize >= 0) {
+            if (knownSize < tinyBytes) {
+                return PayloadCodec.NONE;
+            }
+            if (type.contains("json")) {
+                return PayloadCodec.JSON_DICTIONARY;
+            }
+        }
+        return PayloadCodec.DEFLATE_FAST;
+    }
+
+    private static boolean isCompressed(String type) {
+        if (type.contains("svg")) {
+            return false;
+        }
+        for (String compressedType : COMPRESSED_TYPES) {
+            if (type.startsWith(compressedType)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public static String getMetaData(Content content) {
@@ -47,8 +195,112 @@ public class ContentMarshaller {
         return objectNode.toString();
     }
 
+    /**
+     * @return the uncompressed payload size of a marshalled item, from its trailer,
+     * or -1 if the item was written before version 2
+     */
+    public static long getPayloadSize(RandomAccessFile file) throws IOException {
+        long length = file.length();
+        if (length < MAGIC.length + 1 + TRAILER_LENGTH) {
+            return -1;
+        }
+        byte[] head = new byte[MAGIC.length + 1];
+        file.seek(0);
+        file.readFully(head);
+        if (!hasHeader(head, head.length) || head[MAGIC.length] < 2) {
+            return -1;
+        }
+        file.seek(length - 4);
+        return file.readInt() & 0xffffffffL;
+    }
+
     public static Content toContent(byte[] read, ContentKey key) throws IOException {
-        ZipInputStream zipStream = new ZipInputStream(new ByteArrayInputStream(read));
+        if (!hasHeader(read, read.length)) {
+            return toLegacyContent(new ByteArrayInputStream(read), key);
+        }
+        Content.Builder builder = Content.builder().withContentKey(key);
+        Header header = readHeader(new DataInputStream(new ByteArrayInputStream(read)), key, builder);
+        int offset = header.length;
+        int length = read.length - offset;
+        if (header.version > 1) {
+            length -= TRAILER_LENGTH;
+            DataInputStream trailer = new DataInputStream(new ByteArrayInputStream(read, offset + length, TRAILER_LENGTH));
+            long crc = trailer.readInt() & 0xffffffffL;
+            long size = trailer.readInt() & 0xffffffffL;
+            if (header.codec.isRawDeflate()) {
+                builder.withCompressed(new CompressedPayload(read, offset, length, crc, size));
+            }
+        }
+        return builder.withStream(header.codec.decompress(new ByteArrayInputStream(read, offset, length))).build();
+    }
+
+    /**
+     * Items up to app.streamThresholdMB are read into memory, and the input is closed.
+     * Larger items are decompressed as the content stream is read, and closing the content stream closes the input.
+     *
+     * @return null if the input is empty
+     */
+    public static Content toContent(InputStream input, ContentKey key) throws IOException {
+        try {
+            byte[] head = BufferPool.toByteArray(ByteStreams.limit(input, streamBytes + 1L));
+            if (!isLarge(head.length)) {
+                input.close();
+                if (head.length == 0) {
+                    return null;
+                }
+                return toContent(head, key);
+            }
+            return toStreamingContent(new SequenceInputStream(new ByteArrayInputStream(head), input), key);
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeQuietly(input);
+            throw e;
+        }
+    }
+
+    private static Content toStreamingContent(InputStream input, ContentKey key) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(input, MAGIC.length);
+        byte[] magic = new byte[MAGIC.length];
+        int magicLength = ByteStreams.read(pushback, magic, 0, magic.length);
+        pushback.unread(magic, 0, magicLength);
+        if (!hasHeader(magic, magicLength)) {
+            return toLegacyContent(pushback, key);
+        }
+        Content.Builder builder = Content.builder().withContentKey(key);
+        DataInputStream data = new DataInputStream(pushback);
+        Header header = readHeader(data, key, builder);
+        InputStream payload = header.version > 1 ? new TrailerInputStream(data) : data;
+        return builder.withStream(header.codec.decompress(payload)).build();
+    }
+
+    private static Header readHeader(DataInputStream input, ContentKey key, Content.Builder builder) throws IOException {
+        ByteStreams.skipFully(input, MAGIC.length);
+        Header header = new Header();
+        header.version = input.readUnsignedByte();
+        if (header.version < 1 || header.version > VERSION) {
+            throw new IOException("unknown marshalling version " + header.version + " for " + key);
+        }
+        header.codec = PayloadCodec.fromId(input.readUnsignedByte());
+        byte[] meta = new byte[input.readInt()];
+        input.readFully(meta);
+        setMetaData(new String(meta, StandardCharsets.UTF_8), builder);
+        header.length = MAGIC.length + 2 + 4 + meta.length;
+        return header;
+    }
+
+    private static boolean hasHeader(byte[] read, int length) {
+        if (length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (read[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Content toLegacyContent(InputStream read, ContentKey key) throws IOException {
+        ZipInputStream zipStream = new ZipInputStream(read);
         zipStream.getNextEntry();
         byte[] bytes = ByteStreams.toByteArray(zipStream);
         Content.Builder builder = Content.builder().withContentKey(key);
@@ -63,4 +315,88 @@ public class ContentMarshaller {
             builder.withContentType(jsonNode.get("contentType").asText());
         }
     }
+
+    private static class Header {
+        private int version;
+        private PayloadCodec codec;
+        private int length;
+    }
+
+    /**
+     * Holds back the trailer, so codecs which read to the end of their input only see the payload.
+     */
+    private static class TrailerInputStream extends FilterInputStream {
+
+        private final byte[] buffer = new byte[8 * 1024 + TRAILER_LENGTH];
+        private int start;
+        private int end;
+        private boolean eof;
+
+        private TrailerInputStream(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (end - start <= TRAILER_LENGTH) {
+                fill();
+            }
+            int available = end - start - TRAILER_LENGTH;
+            if (available <= 0) {
+                return -1;
+            }
+            int count = Math.min(length, available);
+            System.arraycopy(buffer, start, bytes, offset, count);
+            start += count;
+            return count;
+        }
+
+        private void fill() throws IOException {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            while (!eof && end < buffer.length) {
+                int read = in.read(buffer, end, buffer.length - end);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    end += read;
+                }
+            }
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = 0;
+            byte[] skip = new byte[(int) Math.min(count, 8 * 1024)];
+            while (skipped < count) {
+                int read = read(skip, 0, (int) Math.min(count - skipped, skip.length));
+                if (read < 0) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return Math.max(0, end - start - TRAILER_LENGTH);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
 }
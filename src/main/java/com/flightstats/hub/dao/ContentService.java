@@ -5,6 +5,7 @@ import com.flightstats.hub.model.*;
 import com.google.common.base.Optional;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.function.Consumer;
 
@@ -16,6 +17,11 @@ public interface ContentService {
 
     boolean historicalInsert(String channelName, Content content) throws Exception;
 
+    /**
+     * Writes sorted historical items directly to long term storage.
+     */
+    Collection<ContentKey> backfill(String channelName, List<Content> items) throws Exception;
+
     Optional<Content> get(String channelName, ContentKey key);
 
     void get(String channel, SortedSet<ContentKey> keys, Consumer<Content> callback);
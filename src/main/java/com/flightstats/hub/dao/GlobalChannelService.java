@@ -118,6 +118,13 @@ public class GlobalChannelService implements ChannelService {
                 () -> hubUtils.insert(getMasterChannelUrl(bulk.getChannel()), bulk));
     }
 
+    @Override
+    public Collection<ContentKey> backfill(BulkContent bulk, boolean minuteComplete) {
+        return primaryAndSecondary(bulk.getChannel(),
+                Errors.rethrow().wrap(() -> localChannelService.backfill(bulk, minuteComplete)),
+                () -> hubUtils.backfill(getMasterChannelUrl(bulk.getChannel()), bulk, minuteComplete));
+    }
+
     @Override
     public boolean isReplicating(String channelName) {
         return localChannelService.isReplicating(channelName);
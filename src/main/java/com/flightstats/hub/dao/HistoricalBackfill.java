@@ -0,0 +1,109 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.dao.aws.MultiPartParser;
+import com.flightstats.hub.dao.aws.ZipBulkParser;
+import com.flightstats.hub.exception.FailedWriteException;
+import com.flightstats.hub.exception.InvalidRequestException;
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.model.BulkContent;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads archives of historical items, in the zip or multipart formats written by BulkBuilder,
+ * directly into long term storage.  Items are grouped by minute, and minutes are written concurrently.
+ */
+public class HistoricalBackfill {
+
+    private final static Logger logger = LoggerFactory.getLogger(HistoricalBackfill.class);
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            HubProperties.getProperty("app.backfillThreads", 20),
+            new ThreadFactoryBuilder().setNameFormat("HistoricalBackfill-%d").setDaemon(true).build());
+
+    public interface MinuteWriter {
+        void write(MinutePath minute, List<Content> items) throws Exception;
+    }
+
+    /**
+     * @return the archive's items, in key order.  Every item needs a key.
+     */
+    public static List<Content> parse(BulkContent bulkContent) throws IOException {
+        if (StringUtils.startsWithIgnoreCase(bulkContent.getContentType(), "application/zip")) {
+            new ZipBulkParser(bulkContent).parse();
+        } else {
+            new MultiPartParser(bulkContent).parse();
+        }
+        List<Content> items = new ArrayList<>(bulkContent.getItems());
+        for (Content item : items) {
+            if (!item.getContentKey().isPresent()) {
+                throw new InvalidRequestException("backfilled items require a Content-Key");
+            }
+            item.getData();
+        }
+        items.sort(Comparator.comparing(item -> item.getContentKey().get()));
+        return items;
+    }
+
+    /**
+     * Calls the writer once for each minute of the sorted items, on app.backfillThreads threads,
+     * and waits for all of the minutes to be written.
+     */
+    public static SortedSet<ContentKey> write(String channel, List<Content> items, MinuteWriter writer) {
+        long start = System.currentTimeMillis();
+        Map<MinutePath, List<Content>> minutes = new TreeMap<>();
+        for (Content item : items) {
+            MinutePath minute = new MinutePath(item.getContentKey().get().getTime());
+            minutes.computeIfAbsent(minute, k -> new ArrayList<>()).add(item);
+        }
+        Map<MinutePath, Future<?>> futures = new LinkedHashMap<>();
+        for (Map.Entry<MinutePath, List<Content>> entry : minutes.entrySet()) {
+            futures.put(entry.getKey(), executor.submit(() -> {
+                writer.write(entry.getKey(), entry.getValue());
+                return null;
+            }));
+        }
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        Exception failure = null;
+        for (Map.Entry<MinutePath, Future<?>> entry : futures.entrySet()) {
+            try {
+                entry.getValue().get();
+                for (Content item : minutes.get(entry.getKey())) {
+                    keys.add(item.getContentKey().get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (Exception e) {
+                logger.warn("unable to backfill " + channel + " " + entry.getKey(), e);
+                failure = e;
+            }
+        }
+        long millis = System.currentTimeMillis() - start;
+        logger.info("backfilled {} {} items in {} minutes in {} ms", channel, keys.size(), minutes.size(), millis);
+        ActiveTraces.getLocal().add("HistoricalBackfill.write", channel, keys.size(), millis);
+        if (failure != null) {
+            throw new FailedWriteException("unable to backfill all of " + channel, failure);
+        }
+        return keys;
+    }
+}
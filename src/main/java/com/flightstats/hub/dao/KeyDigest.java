@@ -0,0 +1,66 @@
+package com.flightstats.hub.dao;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * An order independent digest of a set of keys, which can be built up one key at a time as items are written,
+ * and added together across servers.
+ */
+public class KeyDigest {
+
+    private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+    private long count;
+    private long sum;
+
+    public KeyDigest() {
+    }
+
+    public KeyDigest(long count, long sum) {
+        this.count = count;
+        this.sum = sum;
+    }
+
+    public static KeyDigest of(Collection<String> keys) {
+        KeyDigest digest = new KeyDigest();
+        keys.forEach(digest::add);
+        return digest;
+    }
+
+    public synchronized void add(String key) {
+        count++;
+        sum += hashFunction.hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+
+    public synchronized void add(KeyDigest other) {
+        count += other.getCount();
+        sum += other.getSum();
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getSum() {
+        return sum;
+    }
+
+    /**
+     * A single value for comparing digests.  An empty digest is always zero.
+     */
+    public synchronized long getValue() {
+        if (count == 0) {
+            return 0;
+        }
+        return hashFunction.newHasher().putLong(count).putLong(sum).hash().asLong();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return count + " " + sum;
+    }
+}
@@ -4,8 +4,10 @@ import com.diffplug.common.base.Errors;
 import com.diffplug.common.base.Throwing;
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.channel.ChannelValidator;
+import com.flightstats.hub.channel.ChannelVolumes;
 import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.exception.ConflictException;
+import com.flightstats.hub.exception.FailedWriteException;
 import com.flightstats.hub.exception.ForbiddenRequestException;
 import com.flightstats.hub.exception.NoSuchChannelException;
 import com.flightstats.hub.metrics.ActiveTraces;
@@ -56,6 +58,8 @@ public class LocalChannelService implements ChannelService {
     private LastContentPath lastContentPath;
     @Inject
     private WebhookService webhookService;
+    @Inject
+    private ChannelVolumes channelVolumes;
 
     @Override
     public boolean channelExists(String channelName) {
@@ -123,8 +127,8 @@ public class LocalChannelService implements ChannelService {
         statsd.increment("channel.items", "method:post", "type:single", "channel:" + channelName);
         statsd.count("channel.bytes", content.getSize(), "method:post", "type:single", "channel:" + channelName);
         sender.send("channel." + channelName + ".post", time);
-        sender.send("channel." + channelName + ".items", 1);
-        sender.send("channel." + channelName + ".post.bytes", content.getSize());
+        sender.count("channel." + channelName + ".items", 1);
+        sender.count("channel." + channelName + ".post.bytes", content.getSize());
         sender.send("channel.ALL.post", time);
         return contentKey;
     }
@@ -155,6 +159,48 @@ public class LocalChannelService implements ChannelService {
         return lastContentPath.updateIncrease(channelName, HISTORICAL_LAST_UPDATED, Errors.rethrow().wrap(inserter));
     }
 
+    /**
+     * Writes an archive of items, which are all newer than the channel's latest item, directly to long term storage.
+     * The archive is written once, outside the update of the channel's latest, so a retried update can't rewrite it.
+     * The latest is only moved once every item has been written, and only if no other write moved it meanwhile.
+     */
+    @Override
+    public Collection<ContentKey> backfill(BulkContent bulkContent, boolean minuteComplete) throws Exception {
+        String channelName = bulkContent.getChannel();
+        if (!isHistorical(channelName)) {
+            throw new ForbiddenRequestException("backfills are only supported for historical channels.");
+        }
+        List<Content> items = HistoricalBackfill.parse(bulkContent);
+        ContentKey firstKey = items.get(0).getContentKey().get();
+        ContentKey lastKey = items.get(items.size() - 1).getContentKey().get();
+        long start = System.currentTimeMillis();
+        ContentPath latest = lastContentPath.getOrNull(channelName, HISTORICAL_LAST_UPDATED);
+        ContentPath existing = latest == null ? ContentKey.NONE : latest;
+        if (firstKey.compareTo(existing) <= 0) {
+            throw new ConflictException("backfilled items are not newer than existing item: " + existing);
+        }
+        Collection<ContentKey> keys = contentService.backfill(channelName, items);
+        ContentPath nextPath = minuteComplete ? new MinutePath(lastKey.getTime()) : lastKey;
+        Throwing.Function<ContentPath, ContentPath> updater = current -> {
+            if (!existing.equals(current == null ? ContentKey.NONE : current)) {
+                throw new ConflictException("latest item changed during backfill: " + current);
+            }
+            return nextPath;
+        };
+        if (!lastContentPath.updateIncrease(channelName, HISTORICAL_LAST_UPDATED, Errors.rethrow().wrap(updater))) {
+            throw new FailedWriteException("unable to backfill " + channelName);
+        }
+        if (existing.equals(ContentKey.NONE)) {
+            lastContentPath.updateIncrease(firstKey, channelName, HISTORICAL_FIRST_UPDATED);
+            webhookService.unPauseHistorical(getCachedChannelConfig(channelName));
+        }
+        long time = System.currentTimeMillis() - start;
+        statsd.time("channel", time, "method:post", "type:backfill", "channel:" + channelName);
+        statsd.count("channel.items", items.size(), "method:post", "type:backfill", "channel:" + channelName);
+        statsd.count("channel.bytes", bulkContent.getSize(), "method:post", "type:backfill", "channel:" + channelName);
+        return keys;
+    }
+
     @Override
     public Collection<ContentKey> insert(BulkContent bulkContent) throws Exception {
         String channel = bulkContent.getChannel();
@@ -168,9 +214,9 @@ public class LocalChannelService implements ChannelService {
         statsd.count("channel.items", bulkContent.getItems().size(), "method:post", "type:bulk", "channel:" + channel);
         statsd.count("channel.bytes", bulkContent.getSize(), "method:post", "type:bulk", "channel:" + channel);
         sender.send("channel." + channel + ".batchPost", time);
-        sender.send("channel." + channel + ".items", bulkContent.getItems().size());
+        sender.count("channel." + channel + ".items", bulkContent.getItems().size());
         sender.send("channel." + channel + ".post", time);
-        sender.send("channel." + channel + ".post.bytes", bulkContent.getSize());
+        sender.count("channel." + channel + ".post.bytes", bulkContent.getSize());
         sender.send("channel.ALL.post", time);
         return contentKeys;
     }
@@ -341,6 +387,7 @@ public class LocalChannelService implements ChannelService {
         ChannelConfig channelConfig = getCachedChannelConfig(channelName);
         contentService.delete(channelName);
         channelConfigDao.delete(channelName);
+        channelVolumes.delete(channelName);
         if (channelConfig.isReplicating()) {
             replicationGlobalManager.notifyWatchers();
             lastContentPath.delete(channelName, REPLICATED_LAST_UPDATED);
@@ -0,0 +1,164 @@
+package com.flightstats.hub.dao;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import net.jpountz.lz4.LZ4Factory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The codecs used to compress stored payloads.
+ * The id is written into each marshalled item, so ids must never be reused.
+ */
+public enum PayloadCodec {
+
+    NONE(0) {
+        @Override
+        public OutputStream compress(OutputStream output) {
+            return output;
+        }
+
+        @Override
+        public InputStream decompress(InputStream input) {
+            return input;
+        }
+    },
+    DEFLATE(1) {
+        @Override
+        public OutputStream compress(OutputStream output) {
+            return deflate(output, Deflater.BEST_COMPRESSION, null);
+        }
+
+        @Override
+        public InputStream decompress(InputStream input) {
+            return inflate(input, null);
+        }
+    },
+    DEFLATE_FAST(2) {
+        @Override
+        public OutputStream compress(OutputStream output) {
+            return deflate(output, Deflater.BEST_SPEED, null);
+        }
+
+        @Override
+        public InputStream decompress(InputStream input) {
+            return inflate(input, null);
+        }
+    },
+    LZ4(3) {
+        @Override
+        public OutputStream compress(OutputStream output) {
+            return new LZ4BlockOutputStream(output, LZ4_BLOCK_SIZE, LZ4Factory.fastestInstance().fastCompressor());
+        }
+
+        @Override
+        public InputStream decompress(InputStream input) {
+            return new LZ4BlockInputStream(input, LZ4Factory.fastestInstance().fastDecompressor());
+        }
+    },
+    JSON_DICTIONARY(4) {
+        @Override
+        public OutputStream compress(OutputStream output) {
+            return deflate(output, Deflater.DEFAULT_COMPRESSION, JSON_DICTIONARY_BYTES);
+        }
+
+        @Override
+        public InputStream decompress(InputStream input) {
+            return inflate(input, JSON_DICTIONARY_BYTES);
+        }
+    };
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int LZ4_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Small json items rarely repeat themselves enough for deflate to help.
+     * Seeding the window with the structure common to json documents lets the first occurrence compress too.
+     * Changing these bytes makes existing JSON_DICTIONARY items unreadable.
+     */
+    private static final byte[] JSON_DICTIONARY_BYTES = ("\"date\":\"\"time\":\"\"timestamp\":\"\"created\":\"\"updated\":\"" +
+            "\"type\":\"\"status\":\"\"source\":\"\"value\":\"\"values\":[\"data\":{\"items\":[\"message\":\"" +
+            "\"name\":\"\"code\":\"\"key\":\"\"uri\":\"http://\"href\":\"https://\"_links\":{\"self\":{" +
+            "\"id\":\"\"count\":\":null,\":false,\":true,\":0,\":[],\":{},\"},{\"\"],\"\"}],\"\"},\"\":\"\",\"")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final int id;
+
+    PayloadCodec(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Raw deflate payloads without a preset dictionary are also valid gzip content.
+     */
+    public boolean isRawDeflate() {
+        return this == DEFLATE || this == DEFLATE_FAST;
+    }
+
+    public abstract OutputStream compress(OutputStream output) throws IOException;
+
+    public abstract InputStream decompress(InputStream input) throws IOException;
+
+    public static PayloadCodec fromId(int id) {
+        for (PayloadCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("unknown codec id " + id);
+    }
+
+    public static boolean isValid(String name) {
+        for (PayloadCodec codec : values()) {
+            if (codec.name().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static OutputStream deflate(OutputStream output, int level, byte[] dictionary) {
+        Deflater deflater = new Deflater(level, true);
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        return new DeflaterOutputStream(output, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    private static InputStream inflate(InputStream input, byte[] dictionary) {
+        Inflater inflater = new Inflater(true);
+        if (dictionary != null) {
+            inflater.setDictionary(dictionary);
+        }
+        return new InflaterInputStream(input, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
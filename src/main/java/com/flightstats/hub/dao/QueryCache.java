@@ -0,0 +1,250 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.DirectionQuery;
+import com.flightstats.hub.model.Location;
+import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSortedSet;
+import com.timgroup.statsd.StatsDClient;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.joda.time.DateTime;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Holds the keys of time and direction queries over ranges which can no longer change, because they end before
+ * the channel's stable time, so dashboards and webhooks which repeat the same queries do not repeat the reads.
+ * The cache is bounded by the estimated bytes of the keys held, and entries expire after expireMinutes.
+ * Inserting or deleting items within a cached range, deleting the channel and changing it invalidate its entries.
+ * Channels limited by maxItems are not cached, as their items are deleted by one server, which can not invalidate
+ * the entries of the others.
+ */
+public class QueryCache {
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    static final int ENTRY_BYTES = 256;
+    static final int KEY_BYTES = 112;
+
+    private final boolean enabled;
+    private final Cache<Key, SortedSet<ContentKey>> cache;
+    private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
+    private final AtomicLong generations = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public QueryCache() {
+        this(HubProperties.getProperty("query.cache.enable", true),
+                HubProperties.getProperty("query.cache.maxMB", 64) * 1024L * 1024L,
+                HubProperties.getProperty("query.cache.expireMinutes", 60));
+    }
+
+    QueryCache(boolean enabled, long maxBytes, int expireMinutes) {
+        this.enabled = enabled;
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Key key, SortedSet<ContentKey> keys) -> ENTRY_BYTES + KEY_BYTES * keys.size())
+                .expireAfterWrite(expireMinutes, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * @param channelConfig the channel, whose creation date is part of the key, so a channel recreated on another
+     *                      server does not return the entries of the one deleted
+     * @param stableTime    the time before which the channel can no longer change
+     * @param daoQuery      runs the query on a miss
+     */
+    public Collection<ContentKey> queryByTime(TimeQuery query, ChannelConfig channelConfig, DateTime stableTime,
+                                              Supplier<Collection<ContentKey>> daoQuery) {
+        if (!isCached(channelConfig) || query.getLimitKey() != null || query.getUnit() == null) {
+            return daoQuery.get();
+        }
+        DateTime start = query.getStartTime();
+        DateTime end = getEnd(start, query.getUnit());
+        if (end.isAfter(stableTime)) {
+            return daoQuery.get();
+        }
+        Channel channel = getChannel(query.getChannelName());
+        Key key = new Key(query.getChannelName(), channel.generation, getCreationDate(channelConfig), query.getLocation(),
+                query.getUnit(), start.getMillis(), null, 0, false);
+        SortedSet<ContentKey> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            hit("time");
+            return cached;
+        }
+        miss("time");
+        channel.cached(start, end.minusMillis(1));
+        Collection<ContentKey> keys = daoQuery.get();
+        cache.put(key, ImmutableSortedSet.copyOf(keys));
+        return keys;
+    }
+
+    /**
+     * Only direction queries which find count keys are cached, as the keys are then the same for any later query,
+     * once they are filtered as the ChannelService does.
+     */
+    public Collection<ContentKey> queryDirection(DirectionQuery query, ChannelConfig channelConfig, DateTime stableTime,
+                                                 Supplier<Collection<ContentKey>> daoQuery) {
+        DateTime ttlTime = query.getTtlTime();
+        ContentKey contentKey = query.getContentKey();
+        if (!isCached(channelConfig) || ttlTime == null || !contentKey.getTime().isAfter(ttlTime)
+                || (!query.isNext() && contentKey.getTime().isAfter(stableTime))) {
+            return daoQuery.get();
+        }
+        Channel channel = getChannel(query.getChannelName());
+        Key key = new Key(query.getChannelName(), channel.generation, getCreationDate(channelConfig), query.getLocation(),
+                null, 0, contentKey, query.getCount(), query.isNext());
+        SortedSet<ContentKey> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            hit("direction");
+            return cached;
+        }
+        miss("direction");
+        if (query.isNext()) {
+            channel.cached(contentKey.getTime(), stableTime);
+        } else {
+            channel.cached(ttlTime, contentKey.getTime());
+        }
+        Collection<ContentKey> keys = daoQuery.get();
+        SortedSet<ContentKey> found = ContentKeyUtil.filter(keys, contentKey, ttlTime, query.getCount(), query.isNext(), false);
+        if (found.size() == query.getCount() && (!query.isNext() || found.last().getTime().isBefore(stableTime))) {
+            cache.put(key, ImmutableSortedSet.copyOf(found));
+        }
+        return keys;
+    }
+
+    private boolean isCached(ChannelConfig channelConfig) {
+        return enabled && (channelConfig == null || channelConfig.getMaxItems() == 0);
+    }
+
+    private static Date getCreationDate(ChannelConfig channelConfig) {
+        return channelConfig == null ? null : channelConfig.getCreationDate();
+    }
+
+    private static DateTime getEnd(DateTime start, TimeUtil.Unit unit) {
+        if (unit == TimeUtil.Unit.MONTHS) {
+            return start.plusMonths(1);
+        }
+        return start.plus(unit.getDuration());
+    }
+
+    private void hit(String type) {
+        hits.increment();
+        statsd.increment("query.cache", "result:hit", "type:" + type);
+    }
+
+    private void miss(String type) {
+        misses.increment();
+        statsd.increment("query.cache", "result:miss", "type:" + type);
+    }
+
+    private Channel getChannel(String name) {
+        Channel channel = channels.get(name);
+        if (channel == null) {
+            channel = channels.computeIfAbsent(name, k -> new Channel());
+        }
+        return channel;
+    }
+
+    /**
+     * Drops every entry of the channel.
+     */
+    public void invalidate(String name) {
+        Channel channel = channels.get(name);
+        if (channel != null) {
+            channel.invalidate(Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Drops the entries of the channel which could hold an item inserted at time.
+     */
+    public void invalidateAfter(String name, DateTime time) {
+        Channel channel = channels.get(name);
+        if (channel != null) {
+            channel.invalidate(time.getMillis(), Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Drops the entries of the channel which could hold an item deleted before time.
+     */
+    public void invalidateBefore(String name, DateTime time) {
+        Channel channel = channels.get(name);
+        if (channel != null) {
+            channel.invalidate(Long.MIN_VALUE, time.getMillis() - 1);
+        }
+    }
+
+    /**
+     * Drops every entry of the channel, and frees their space now, rather than as they are evicted.
+     */
+    public void delete(String name) {
+        invalidate(name);
+        cache.asMap().keySet().removeIf(key -> key.channel.equals(name));
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class Key {
+        private final String channel;
+        private final long generation;
+        private final Date created;
+        private final Location location;
+        private final TimeUtil.Unit unit;
+        private final long start;
+        private final ContentKey contentKey;
+        private final int count;
+        private final boolean next;
+    }
+
+    /**
+     * Entries are keyed by the channel's generation, so changing it invalidates them all, to be evicted unused.
+     * The range of the entries cached since is kept, to only invalidate them when an insert or delete overlaps it.
+     * A range, which includes both ends, is added before its query runs, so a change during the query invalidates
+     * its entry.
+     */
+    private class Channel {
+        private volatile long generation = generations.get();
+        private long earliest = Long.MAX_VALUE;
+        private long latest = Long.MIN_VALUE;
+
+        private synchronized void cached(DateTime start, DateTime end) {
+            earliest = Math.min(earliest, start.getMillis());
+            latest = Math.max(latest, end.getMillis());
+        }
+
+        private synchronized void invalidate(long from, long to) {
+            if (from <= latest && to >= earliest) {
+                generation = generations.incrementAndGet();
+                earliest = Long.MAX_VALUE;
+                latest = Long.MIN_VALUE;
+            }
+        }
+    }
+}
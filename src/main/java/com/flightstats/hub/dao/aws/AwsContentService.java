@@ -1,5 +1,6 @@
 package com.flightstats.hub.dao.aws;
 
+import com.flightstats.hub.app.DrainCoordinator;
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubServices;
 import com.flightstats.hub.cluster.LastContentPath;
@@ -13,10 +14,13 @@ import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
 import com.flightstats.hub.replication.S3Batch;
 import com.flightstats.hub.util.HubUtils;
+import com.flightstats.hub.util.PrefetchWindow;
 import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.Sleeper;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.common.util.concurrent.AbstractScheduledService;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -31,6 +35,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -49,6 +54,8 @@ public class AwsContentService implements ContentService {
     private final Integer shutdown_wait_seconds = HubProperties.getProperty("app.shutdown_wait_seconds", 5);
     private final boolean dropSomeWrites = HubProperties.getProperty("s3.dropSomeWrites", false);
     private final int spokeTtlMinutes = HubProperties.getSpokeTtl();
+    private final int bulkPrefetch = HubProperties.getProperty("app.bulkPrefetch", 10);
+    private final QueryCache queryCache = new QueryCache();
     @Inject
     @Named(ContentDao.CACHE)
     private ContentDao spokeContentDao;
@@ -68,8 +75,10 @@ public class AwsContentService implements ContentService {
     private HubUtils hubUtils;
 
     public AwsContentService() {
-        HubServices.registerPreStop(new AwsContentServiceInit());
-        HubServices.register(new ChannelLatestUpdatedService());
+        AwsContentServiceInit init = new AwsContentServiceInit();
+        HubServices.registerPreStop(init);
+        DrainCoordinator.register("inserts", inFlight::get);
+        HubServices.register(new ChannelLatestUpdatedService()).dependsOn(init).dependsOn(CachedDao.class);
     }
 
     private void waitForInFlight() {
@@ -90,6 +99,9 @@ public class AwsContentService implements ContentService {
         try {
             inFlight.incrementAndGet();
             ContentKey key = spokeContentDao.insert(channelName, content);
+            if (!content.isNew()) {
+                queryCache.invalidateAfter(channelName, key.getTime());
+            }
             ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
             if (channel.isSingle() || channel.isBoth()) {
                 Supplier<Void> local = () -> {
@@ -139,11 +151,43 @@ public class AwsContentService implements ContentService {
         return true;
     }
 
+    /**
+     * Items are written straight to S3.  Items within the spoke ttl of the last item are also written to spoke,
+     * as queries of a historical channel only read spoke for the spoke ttl before its latest item.
+     */
+    @Override
+    public Collection<ContentKey> backfill(String channelName, List<Content> items) throws Exception {
+        DateTime spokeTtlTime = TimeUtil.now().minusMinutes(spokeTtlMinutes);
+        ContentKey lastKey = items.get(items.size() - 1).getContentKey().get();
+        if (lastKey.getTime().isAfter(spokeTtlTime)) {
+            throw new InvalidRequestException("you cannot backfill an item within the last " + spokeTtlMinutes + " minutes");
+        }
+        DateTime cacheTime = lastKey.getTime().minusMinutes(spokeTtlMinutes);
+        ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
+        queryCache.invalidateAfter(channelName, items.get(0).getContentKey().get().getTime());
+        return HistoricalBackfill.write(channelName, items, (minute, minuteItems) -> {
+            if (channel.isSingle() || channel.isBoth()) {
+                s3SingleContentDao.backfill(channelName, minute, minuteItems);
+            }
+            if (channel.isBatch() || channel.isBoth()) {
+                s3BatchContentDao.backfill(channelName, minute, minuteItems);
+            }
+            if (!minute.getTime().plusMinutes(1).isBefore(cacheTime)) {
+                for (Content item : minuteItems) {
+                    spokeContentDao.insert(channelName, item);
+                }
+            }
+        });
+    }
+
     private Collection<ContentKey> newBulkWrite(BulkContent bulkContent) throws Exception {
         String channelName = bulkContent.getChannel();
         try {
             inFlight.incrementAndGet();
             SortedSet<ContentKey> keys = spokeContentDao.insert(bulkContent);
+            if (!bulkContent.isNew() && !keys.isEmpty()) {
+                queryCache.invalidateAfter(channelName, keys.first().getTime());
+            }
             ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
             if (channel.isSingle() || channel.isBoth()) {
                 for (ContentKey key : keys) {
@@ -186,40 +230,91 @@ public class AwsContentService implements ContentService {
         return startTime.minusMinutes(spokeTtlMinutes);
     }
 
+    /**
+     * Reads are planned by minute.  Recent minutes are read from spoke in one call per minute,
+     * batch minutes are streamed from S3, and any other keys are fetched within a prefetch window.
+     */
     @Override
     public void get(String channelName, SortedSet<ContentKey> keys, Consumer<Content> callback) {
         SortedSet<MinutePath> minutePaths = ContentKeyUtil.convert(keys);
         ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
         DateTime spokeTtlTime = getSpokeTtlTime(channelName);
         for (MinutePath minutePath : minutePaths) {
-            if (minutePath.getTime().isAfter(spokeTtlTime)
-                    || channel.isSingle()) {
-                getValues(channelName, callback, minutePath);
+            if (minutePath.getTime().isAfter(spokeTtlTime)) {
+                getSpokeMinute(channelName, callback, minutePath);
+            } else if (channel.isSingle()) {
+                getValues(channelName, callback, minutePath.getKeys());
             } else {
                 if (!s3BatchContentDao.streamMinute(channelName, minutePath, callback)) {
-                    getValues(channelName, callback, minutePath);
+                    getValues(channelName, callback, minutePath.getKeys());
                 }
             }
         }
     }
 
-    private void getValues(String channelName, Consumer<Content> callback, ContentPathKeys contentPathKeys) {
-        for (ContentKey contentKey : contentPathKeys.getKeys()) {
-            Optional<Content> contentOptional = get(channelName, contentKey);
+    /**
+     * Keys which spoke does not return are fetched individually, in key order, before the next item from spoke.
+     */
+    private void getSpokeMinute(String channelName, Consumer<Content> callback, MinutePath minutePath) {
+        PeekingIterator<ContentKey> expected = Iterators.peekingIterator(new TreeSet<>(minutePath.getKeys()).iterator());
+        spokeContentDao.streamMinute(channelName, minutePath, content -> {
+            ContentKey key = content.getContentKey().get();
+            List<ContentKey> missing = new ArrayList<>();
+            while (expected.hasNext() && expected.peek().compareTo(key) < 0) {
+                missing.add(expected.next());
+            }
+            getValues(channelName, callback, missing);
+            if (expected.hasNext() && expected.peek().equals(key)) {
+                expected.next();
+                callback.accept(content);
+            }
+        });
+        List<ContentKey> remaining = new ArrayList<>();
+        Iterators.addAll(remaining, expected);
+        getValues(channelName, callback, remaining);
+    }
+
+    private void getValues(String channelName, Consumer<Content> callback, Collection<ContentKey> keys) {
+        PrefetchWindow<Optional<Content>> window = new PrefetchWindow<>(executorService, bulkPrefetch, contentOptional -> {
             if (contentOptional.isPresent()) {
                 callback.accept(contentOptional.get());
             }
+        }, contentOptional -> {
+            if (contentOptional.isPresent()) {
+                contentOptional.get().closeStream();
+            }
+        });
+        for (ContentKey contentKey : keys) {
+            window.submit(() -> get(channelName, contentKey));
         }
+        window.finish();
     }
 
+    /**
+     * Only queries of every location are cached, as long term storage alone can lag behind the stable time.
+     */
     @Override
     public Collection<ContentKey> queryByTime(TimeQuery query) {
-        return handleQuery(query, contentDao -> contentDao.queryByTime(query));
+        Supplier<Collection<ContentKey>> daoQuery = () -> handleQuery(query, contentDao -> contentDao.queryByTime(query));
+        if (!query.getLocation().equals(Location.ALL)) {
+            return daoQuery.get();
+        }
+        String channelName = query.getChannelName();
+        return queryCache.queryByTime(query, channelService.getCachedChannelConfig(channelName), getStableTime(channelName), daoQuery);
     }
 
     @Override
     public Collection<ContentKey> queryDirection(DirectionQuery query) {
-        return handleQuery(query, contentDao -> contentDao.query(query));
+        Supplier<Collection<ContentKey>> daoQuery = () -> handleQuery(query, contentDao -> contentDao.query(query));
+        if (!query.getLocation().equals(Location.ALL)) {
+            return daoQuery.get();
+        }
+        String channelName = query.getChannelName();
+        return queryCache.queryDirection(query, channelService.getCachedChannelConfig(channelName), getStableTime(channelName), daoQuery);
+    }
+
+    private DateTime getStableTime(String channelName) {
+        return channelService.getLastUpdated(channelName, new ContentKey(TimeUtil.stable())).getTime();
     }
 
     private Collection<ContentKey> handleQuery(Query query, Function<ContentDao, SortedSet<ContentKey>> daoQuery) {
@@ -331,11 +426,16 @@ public class AwsContentService implements ContentService {
     @Override
     public void delete(String channelName) {
         logger.info("deleting channel " + channelName);
+        queryCache.delete(channelName);
         spokeContentDao.delete(channelName);
         s3SingleContentDao.delete(channelName);
         s3BatchContentDao.delete(channelName);
         lastContentPath.delete(channelName, CHANNEL_LATEST_UPDATED);
         lastContentPath.delete(channelName, S3Verifier.LAST_SINGLE_VERIFIED);
+        lastContentPath.delete(channelName, S3Verifier.LAST_HOUR_MANIFEST);
+        lastContentPath.delete(channelName, S3SingleContentDao.DELETED_BEFORE);
+        lastContentPath.delete(channelName, S3BatchContentDao.ITEMS_DELETED_BEFORE);
+        lastContentPath.delete(channelName, S3BatchContentDao.INDEX_DELETED_BEFORE);
         ChannelConfig channel = channelService.getCachedChannelConfig(channelName);
         if (!channel.isSingle()) {
             new S3Batch(channel, hubUtils).stop();
@@ -346,10 +446,12 @@ public class AwsContentService implements ContentService {
     public void deleteBefore(String name, ContentKey limitKey) {
         s3SingleContentDao.deleteBefore(name, limitKey);
         s3BatchContentDao.deleteBefore(name, limitKey);
+        queryCache.invalidateBefore(name, limitKey.getTime());
     }
 
     @Override
     public void notify(ChannelConfig newConfig, ChannelConfig oldConfig) {
+        queryCache.invalidate(newConfig.getName());
         if (oldConfig == null) {
             lastContentPath.updateIncrease(ContentKey.NONE, newConfig.getName(), CHANNEL_LATEST_UPDATED);
         }
@@ -3,6 +3,7 @@ package com.flightstats.hub.dao.aws;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.model.*;
 import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.dao.ConfigSnapshot;
 import com.flightstats.hub.dao.Dao;
 import com.flightstats.hub.model.ChannelConfig;
 import com.flightstats.hub.model.GlobalConfig;
@@ -12,6 +13,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.*;
 
 public class DynamoChannelConfigDao implements Dao<ChannelConfig> {
@@ -29,6 +31,13 @@ public class DynamoChannelConfigDao implements Dao<ChannelConfig> {
 
     @Override
     public void upsert(ChannelConfig config) {
+        PutItemRequest putItemRequest = new PutItemRequest()
+                .withTableName(getTableName())
+                .withItem(toItem(config));
+        dbClient.putItem(putItemRequest);
+    }
+
+    private Map<String, AttributeValue> toItem(ChannelConfig config) {
         Map<String, AttributeValue> item = new HashMap<>();
         item.put("key", new AttributeValue(config.getName()));
         item.put("date", new AttributeValue().withN(String.valueOf(config.getCreationDate().getTime())));
@@ -50,16 +59,22 @@ public class DynamoChannelConfigDao implements Dao<ChannelConfig> {
         if (StringUtils.isNotEmpty(config.getStorage())) {
             item.put("storage", new AttributeValue(config.getStorage()));
         }
+        if (StringUtils.isNotEmpty(config.getCompression())) {
+            item.put("compression", new AttributeValue(config.getCompression()));
+        }
+        if (config.getMaxItemsPerSecond() > 0) {
+            item.put("maxItemsPerSecond", new AttributeValue().withN(String.valueOf(config.getMaxItemsPerSecond())));
+        }
+        if (config.getMaxBytesPerSecond() > 0) {
+            item.put("maxBytesPerSecond", new AttributeValue().withN(String.valueOf(config.getMaxBytesPerSecond())));
+        }
         if (config.isGlobal()) {
             GlobalConfig global = config.getGlobal();
             item.put("master", new AttributeValue(global.getMaster()));
             item.put("satellites", new AttributeValue().withSS(global.getSatellites()));
             item.put("isMaster", new AttributeValue().withBOOL(global.isMaster()));
         }
-        PutItemRequest putItemRequest = new PutItemRequest()
-                .withTableName(getTableName())
-                .withItem(item);
-        dbClient.putItem(putItemRequest);
+        return item;
     }
 
     private void initialize() {
@@ -118,6 +133,15 @@ public class DynamoChannelConfigDao implements Dao<ChannelConfig> {
         if (item.containsKey("storage")) {
             builder.withStorage(item.get("storage").getS());
         }
+        if (item.containsKey("compression")) {
+            builder.withCompression(item.get("compression").getS());
+        }
+        if (item.containsKey("maxItemsPerSecond")) {
+            builder.withMaxItemsPerSecond(Long.parseLong(item.get("maxItemsPerSecond").getN()));
+        }
+        if (item.containsKey("maxBytesPerSecond")) {
+            builder.withMaxBytesPerSecond(Long.parseLong(item.get("maxBytesPerSecond").getN()));
+        }
         if (item.containsKey("master")) {
             GlobalConfig global = new GlobalConfig();
             global.setMaster(item.get("master").getS());
@@ -131,26 +155,18 @@ public class DynamoChannelConfigDao implements Dao<ChannelConfig> {
     @Override
     public Collection<ChannelConfig> getAll(boolean useCache) {
         List<ChannelConfig> configurations = new ArrayList<>();
-        ScanRequest scanRequest = new ScanRequest()
-                .withConsistentRead(true)
-                .withTableName(getTableName());
-
-        ScanResult result = dbClient.scan(scanRequest);
-        mapItems(configurations, result);
-
-        while (result.getLastEvaluatedKey() != null) {
-            scanRequest.setExclusiveStartKey(result.getLastEvaluatedKey());
-            result = dbClient.scan(scanRequest);
-            mapItems(configurations, result);
+        for (Map<String, AttributeValue> item : dynamoUtils.scan(getTableName())) {
+            configurations.add(mapItem(item));
         }
-
         return configurations;
     }
 
-    private void mapItems(List<ChannelConfig> configurations, ScanResult result) {
-        for (Map<String, AttributeValue> item : result.getItems()) {
-            configurations.add(mapItem(item));
-        }
+    public ConfigSnapshot<ChannelConfig> snapshot() {
+        return snapshot(DynamoSnapshot.getFile(getTableName()));
+    }
+
+    ConfigSnapshot<ChannelConfig> snapshot(File file) {
+        return new DynamoSnapshot<>(file, getTableName(), this::toItem, this::mapItem);
     }
 
     @Override
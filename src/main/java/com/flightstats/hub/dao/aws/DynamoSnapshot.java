@@ -0,0 +1,198 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.dao.ConfigSnapshot;
+import com.flightstats.hub.model.NamedType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Saves a table's items to a local file in the same form Dynamo returns them, so loading them uses the dao's own mapping.
+ * A snapshot written with another VERSION, or for another table, is ignored.
+ * Both directions stream, so a snapshot of 100k channels is never held as a tree.
+ */
+class DynamoSnapshot<T extends NamedType> implements ConfigSnapshot<T> {
+
+    private final static Logger logger = LoggerFactory.getLogger(DynamoSnapshot.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    static final int VERSION = 1;
+
+    private final String tableName;
+    private final File file;
+    private final Function<T, Map<String, AttributeValue>> toItem;
+    private final Function<Map<String, AttributeValue>, T> fromItem;
+
+    static File getFile(String tableName) {
+        return new File(HubProperties.getProperty("dynamo.snapshotPath", "/opt/hub/snapshot"), tableName + ".json");
+    }
+
+    DynamoSnapshot(File file, String tableName, Function<T, Map<String, AttributeValue>> toItem,
+                   Function<Map<String, AttributeValue>, T> fromItem) {
+        this.file = file;
+        this.tableName = tableName;
+        this.toItem = toItem;
+        this.fromItem = fromItem;
+    }
+
+    @Override
+    public Collection<T> load() {
+        List<T> items = new ArrayList<>();
+        if (!file.exists()) {
+            logger.info("no snapshot {}", file);
+            return items;
+        }
+        try (JsonParser parser = mapper.getFactory().createParser(file)) {
+            int version = 0;
+            String table = null;
+            long saved = 0;
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (field.equals("version")) {
+                    version = parser.getIntValue();
+                } else if (field.equals("table")) {
+                    table = parser.getText();
+                } else if (field.equals("saved")) {
+                    saved = parser.getLongValue();
+                } else if (field.equals("items")) {
+                    if (version != VERSION || !tableName.equals(table)) {
+                        logger.info("ignoring snapshot {} {} {}", file, version, table);
+                        return new ArrayList<>();
+                    }
+                    expect(parser.getCurrentToken(), JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        items.add(fromItem.apply(readItem(parser)));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            logger.info("loaded {} items from snapshot {} saved {}", items.size(), file, new Date(saved));
+            return items;
+        } catch (Exception e) {
+            logger.warn("unable to load snapshot " + file, e);
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    public void save(Collection<T> items) {
+        try {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.exists() && !parent.mkdirs()) {
+                logger.warn("unable to create snapshot directory {}", parent);
+                return;
+            }
+            File temp = new File(parent, file.getName() + ".tmp");
+            try (JsonGenerator generator = mapper.getFactory().createGenerator(temp, JsonEncoding.UTF8)) {
+                generator.writeStartObject();
+                generator.writeNumberField("version", VERSION);
+                generator.writeStringField("table", tableName);
+                generator.writeNumberField("saved", System.currentTimeMillis());
+                generator.writeArrayFieldStart("items");
+                for (T item : items) {
+                    writeItem(generator, toItem.apply(item));
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("saved {} items to snapshot {}", items.size(), file);
+        } catch (Exception e) {
+            logger.warn("unable to save snapshot " + file, e);
+        }
+    }
+
+    private static void writeItem(JsonGenerator generator, Map<String, AttributeValue> item) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+            AttributeValue value = entry.getValue();
+            generator.writeObjectFieldStart(entry.getKey());
+            if (value.getS() != null) {
+                generator.writeStringField("S", value.getS());
+            } else if (value.getN() != null) {
+                generator.writeStringField("N", value.getN());
+            } else if (value.getBOOL() != null) {
+                generator.writeBooleanField("BOOL", value.getBOOL());
+            } else if (value.getSS() != null) {
+                writeStrings(generator, "SS", value.getSS());
+            } else if (value.getNS() != null) {
+                writeStrings(generator, "NS", value.getNS());
+            } else {
+                generator.writeBooleanField("NULL", true);
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeStrings(JsonGenerator generator, String type, List<String> strings) throws IOException {
+        generator.writeArrayFieldStart(type);
+        for (String string : strings) {
+            generator.writeString(string);
+        }
+        generator.writeEndArray();
+    }
+
+    private static Map<String, AttributeValue> readItem(JsonParser parser) throws IOException {
+        Map<String, AttributeValue> item = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            expect(parser.nextToken(), JsonToken.FIELD_NAME);
+            String type = parser.getCurrentName();
+            parser.nextToken();
+            AttributeValue value = new AttributeValue();
+            switch (type) {
+                case "S":
+                    value.setS(parser.getText());
+                    break;
+                case "N":
+                    value.setN(parser.getText());
+                    break;
+                case "BOOL":
+                    value.setBOOL(parser.getBooleanValue());
+                    break;
+                case "SS":
+                    value.setSS(readStrings(parser));
+                    break;
+                case "NS":
+                    value.setNS(readStrings(parser));
+                    break;
+                default:
+                    value.setNULL(true);
+            }
+            expect(parser.nextToken(), JsonToken.END_OBJECT);
+            item.put(name, value);
+        }
+        return item;
+    }
+
+    private static List<String> readStrings(JsonParser parser) throws IOException {
+        List<String> strings = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.VALUE_STRING) {
+            strings.add(parser.getText());
+        }
+        return strings;
+    }
+
+    private static void expect(JsonToken token, JsonToken expected) throws IOException {
+        if (token != expected) {
+            throw new IOException("expected " + expected + " but found " + token);
+        }
+    }
+}
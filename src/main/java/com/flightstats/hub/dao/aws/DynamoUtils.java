@@ -4,21 +4,27 @@ import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.model.*;
 import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.util.RuntimeInterruptedException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class DynamoUtils {
 
     private final static Logger logger = LoggerFactory.getLogger(DynamoUtils.class);
+    private static final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("DynamoUtils-%d").setDaemon(true).build());
 
     private final AmazonDynamoDBClient dbClient;
     private final String environment;
     private final String appName;
     private final int tableCreationWaitMinutes;
+    private final int scanSegments;
 
     @Inject
     public DynamoUtils(AmazonDynamoDBClient dbClient,
@@ -27,12 +33,58 @@ public class DynamoUtils {
         this.environment = environment;
         this.appName = appName;
         this.tableCreationWaitMinutes = HubProperties.getProperty("dynamo.table_creation_wait_minutes", 10);
+        this.scanSegments = HubProperties.getProperty("dynamo.scanSegments", 8);
     }
 
     String getTableName(String baseTableName) {
         return appName + "-" + environment + "-" + baseTableName;
     }
 
+    /**
+     * Reads every item in the table with a parallel scan of dynamo.scanSegments segments.
+     */
+    List<Map<String, AttributeValue>> scan(String tableName) {
+        List<Future<List<Map<String, AttributeValue>>>> futures = new ArrayList<>();
+        for (int segment = 0; segment < scanSegments; segment++) {
+            ScanRequest request = new ScanRequest()
+                    .withTableName(tableName)
+                    .withConsistentRead(true)
+                    .withSegment(segment)
+                    .withTotalSegments(scanSegments);
+            futures.add(executor.submit(() -> scan(request)));
+        }
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        for (Future<List<Map<String, AttributeValue>>> future : futures) {
+            items.addAll(get(future, tableName));
+        }
+        return items;
+    }
+
+    private List<Map<String, AttributeValue>> scan(ScanRequest request) {
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        ScanResult result = dbClient.scan(request);
+        items.addAll(result.getItems());
+        while (result.getLastEvaluatedKey() != null) {
+            request.setExclusiveStartKey(result.getLastEvaluatedKey());
+            result = dbClient.scan(request);
+            items.addAll(result.getItems());
+        }
+        return items;
+    }
+
+    private static <T> T get(Future<T> future, String tableName) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeInterruptedException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("unable to read " + tableName, e.getCause());
+        }
+    }
+
     void createAndUpdate(String tableName, String type, String keyName) {
         long readThroughput = HubProperties.getProperty("dynamo.throughput." + type + ".read", 100);
         long writeThroughput = HubProperties.getProperty("dynamo.throughput." + type + ".write", 10);
@@ -3,6 +3,7 @@ package com.flightstats.hub.dao.aws;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.model.*;
 import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.dao.ConfigSnapshot;
 import com.flightstats.hub.dao.Dao;
 import com.flightstats.hub.webhook.Webhook;
 import com.google.common.util.concurrent.AbstractIdleService;
@@ -10,6 +11,7 @@ import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.*;
 
 public class DynamoWebhookDao implements Dao<Webhook> {
@@ -31,6 +33,10 @@ public class DynamoWebhookDao implements Dao<Webhook> {
 
     @Override
     public void upsert(Webhook webhook) {
+        dbClient.putItem(getTableName(), toItem(webhook));
+    }
+
+    private Map<String, AttributeValue> toItem(Webhook webhook) {
         Map<String, AttributeValue> item = new HashMap<>();
         item.put("name", new AttributeValue(webhook.getName()));
         item.put("callbackUrl", new AttributeValue(webhook.getCallbackUrl()));
@@ -41,7 +47,7 @@ public class DynamoWebhookDao implements Dao<Webhook> {
         item.put("heartbeat", new AttributeValue().withBOOL(webhook.isHeartbeat()));
         item.put("ttlMinutes", new AttributeValue().withN(String.valueOf(webhook.getTtlMinutes())));
         item.put("maxWaitMinutes", new AttributeValue().withN(String.valueOf(webhook.getMaxWaitMinutes())));
-        dbClient.putItem(getTableName(), item);
+        return item;
     }
 
     @Override
@@ -89,23 +95,18 @@ public class DynamoWebhookDao implements Dao<Webhook> {
     @Override
     public Collection<Webhook> getAll(boolean useCache) {
         List<Webhook> configurations = new ArrayList<>();
-
-        ScanResult result = dbClient.scan(new ScanRequest(getTableName()).withConsistentRead(true));
-        mapItems(configurations, result);
-
-        while (result.getLastEvaluatedKey() != null) {
-            new ScanRequest(getTableName()).setExclusiveStartKey(result.getLastEvaluatedKey());
-            result = dbClient.scan(new ScanRequest(getTableName()));
-            mapItems(configurations, result);
+        for (Map<String, AttributeValue> item : dynamoUtils.scan(getTableName())) {
+            configurations.add(mapItem(item));
         }
-
         return configurations;
     }
 
-    private void mapItems(List<Webhook> configurations, ScanResult result) {
-        for (Map<String, AttributeValue> item : result.getItems()) {
-            configurations.add(mapItem(item));
-        }
+    public ConfigSnapshot<Webhook> snapshot() {
+        return snapshot(DynamoSnapshot.getFile(getTableName()));
+    }
+
+    ConfigSnapshot<Webhook> snapshot(File file) {
+        return new DynamoSnapshot<>(file, getTableName(), this::toItem, this::mapItem);
     }
 
     @Override
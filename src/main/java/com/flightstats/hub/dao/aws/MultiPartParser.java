@@ -1,6 +1,6 @@
 package com.flightstats.hub.dao.aws;
 
-import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.dao.ContentMarshaller;
 import com.flightstats.hub.exception.ContentTooLargeException;
 import com.flightstats.hub.exception.InvalidRequestException;
 import com.flightstats.hub.model.BulkContent;
@@ -19,7 +19,7 @@ import java.io.IOException;
 public class MultiPartParser {
     private final static Logger logger = LoggerFactory.getLogger(MultiPartParser.class);
 
-    private static final int maxBytes = HubProperties.getProperty("app.maxPayloadSizeMB", 40) * 1024 * 1024 * 3;
+    private static final long maxBytes = ContentMarshaller.getMaxBytes() * 3;
     private BulkContent bulkContent;
     private BufferedInputStream stream;
     private Content.Builder builder;
@@ -53,7 +53,7 @@ public class MultiPartParser {
         boolean started = false;
         boolean header = false;
         ByteRing byteRing = new ByteRing(endBoundary.length);
-        int count = 0;
+        long count = 0;
         int read = stream.read();
         while (read != -1) {
             count++;
@@ -7,16 +7,19 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.channel.ZipBulkBuilder;
+import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.dao.ContentDao;
 import com.flightstats.hub.dao.ContentMarshaller;
+import com.flightstats.hub.exception.FailedWriteException;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.DataDog;
 import com.flightstats.hub.metrics.MetricsSender;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
+import com.flightstats.hub.util.BufferPool;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
-import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import com.timgroup.statsd.StatsDClient;
 import org.apache.commons.lang3.StringUtils;
@@ -26,6 +29,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketException;
@@ -34,14 +38,18 @@ import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 public class S3BatchContentDao implements ContentDao {
 
     private final static Logger logger = LoggerFactory.getLogger(S3BatchContentDao.class);
     private static final String BATCH_INDEX = "Batch/index/";
     private static final String BATCH_ITEMS = "Batch/items/";
+    static final String ITEMS_DELETED_BEFORE = "/S3BatchItemsDeletedBefore/";
+    static final String INDEX_DELETED_BEFORE = "/S3BatchIndexDeletedBefore/";
     private static final ObjectMapper mapper = new ObjectMapper();
     private final AmazonS3 s3Client;
     private final MetricsSender sender;
@@ -49,6 +57,9 @@ public class S3BatchContentDao implements ContentDao {
     private final int s3MaxQueryItems = HubProperties.getProperty("s3.maxQueryItems", 1000);
     private final String s3BucketName;
     private final static StatsDClient statsd = DataDog.statsd;
+    @Inject(optional = true)
+    private LastContentPath lastContentPath;
+    private volatile S3Deleter deleter;
 
     @Inject
     public S3BatchContentDao(AmazonS3 s3Client, S3BucketName s3BucketName, MetricsSender sender) {
@@ -110,7 +121,7 @@ public class S3BatchContentDao implements ContentDao {
     private Content getContent(ContentKey key, ZipInputStream zipStream, ZipEntry nextEntry) throws IOException {
         Content.Builder builder = Content.builder()
                 .withContentKey(key);
-        byte[] bytes = ByteStreams.toByteArray(zipStream);
+        byte[] bytes = BufferPool.toByteArray(zipStream);
         logger.trace("returning content {} bytes {}", key, bytes.length);
         String comment = new String(nextEntry.getExtra());
         ContentMarshaller.setMetaData(comment, builder);
@@ -121,7 +132,7 @@ public class S3BatchContentDao implements ContentDao {
     private ZipInputStream getZipInputStream(String channel, ContentPathKeys minutePath) {
         ActiveTraces.getLocal().add("S3BatchContentDao.getZipInputStream");
         statsd.increment("s3.get", "type:batch", "channel:" + channel);
-        sender.send("channel." + channel + ".s3Batch.get", 1);
+        sender.count("channel." + channel + ".s3Batch.get", 1);
 
         S3Object object = s3Client.getObject(s3BucketName, getS3BatchItemsKey(channel, minutePath));
         return new ZipInputStream(new BufferedInputStream(object.getObjectContent()));
@@ -216,8 +227,8 @@ public class S3BatchContentDao implements ContentDao {
     private void getKeysForMinute(String channel, MinutePath minutePath, Traces traces, Consumer<JsonNode> itemNodeConsumer) {
         try (S3Object object = s3Client.getObject(s3BucketName, getS3BatchIndexKey(channel, minutePath))) {
             statsd.increment("s3.get", "type:batchIndex", "channel:" + channel);
-            sender.send("channel." + channel + ".s3Batch.get", 1);
-            byte[] bytes = ByteStreams.toByteArray(object.getObjectContent());
+            sender.count("channel." + channel + ".s3Batch.get", 1);
+            byte[] bytes = BufferPool.toByteArray(object.getObjectContent());
             JsonNode root = mapper.readTree(bytes);
             JsonNode items = root.get("items");
             for (JsonNode item : items) {
@@ -294,7 +305,7 @@ public class S3BatchContentDao implements ContentDao {
     private SortedSet<MinutePath> listMinutePaths(String channel, ListObjectsRequest request, Traces traces, boolean iterate) {
         SortedSet<MinutePath> paths = new TreeSet<>();
         traces.add("S3BatchContentDao.listMinutePaths ", request.getPrefix(), request.getMarker(), iterate);
-        sender.send("channel." + channel + ".s3Batch.list", 1);
+        sender.count("channel." + channel + ".s3Batch.list", 1);
         ObjectListing listing = s3Client.listObjects(request);
         List<S3ObjectSummary> summaries = listing.getObjectSummaries();
         for (S3ObjectSummary summary : summaries) {
@@ -313,11 +324,23 @@ public class S3BatchContentDao implements ContentDao {
         return paths;
     }
 
+    private S3Deleter getDeleter() {
+        if (deleter == null) {
+            deleter = new S3Deleter(s3Client, s3BucketName, lastContentPath);
+        }
+        return deleter;
+    }
+
     @Override
     public void deleteBefore(String channel, ContentKey limitKey) {
+        deleteBefore(channel, limitKey, true);
+    }
+
+    private void deleteBefore(String channel, ContentKey limitKey, boolean checkpoint) {
         try {
-            S3Util.delete(channel + BATCH_ITEMS, limitKey, s3BucketName, s3Client);
-            S3Util.delete(channel + BATCH_INDEX, limitKey, s3BucketName, s3Client);
+            S3Deleter deleter = getDeleter();
+            deleter.delete(channel, BATCH_ITEMS, limitKey, checkpoint ? ITEMS_DELETED_BEFORE : null);
+            deleter.delete(channel, BATCH_INDEX, limitKey, checkpoint ? INDEX_DELETED_BEFORE : null);
             logger.info("completed deleteBefore of " + channel);
         } catch (Exception e) {
             logger.warn("unable to delete " + channel + " in " + s3BucketName, e);
@@ -330,7 +353,7 @@ public class S3BatchContentDao implements ContentDao {
         new Thread(() -> {
             ContentKey limitKey = new ContentKey(TimeUtil.now().plusHours(1), "ZZZZZZ");
             ActiveTraces.start("S3BatchContentDao.delete", traces, limitKey);
-            deleteBefore(channel, limitKey);
+            deleteBefore(channel, limitKey, false);
             ActiveTraces.end();
         }).start();
     }
@@ -354,8 +377,8 @@ public class S3BatchContentDao implements ContentDao {
             long indexSize = writeBatchIndex(channel, path, keys);
             statsd.increment("s3.put", "type:batch", "channel:" + channel);
             statsd.count("s3.put.bytes", bytes.length + indexSize, "channel:" + channel, "type:batch");
-            sender.send("channel." + channel + ".s3Batch.put", 1);
-            sender.send("channel." + channel + ".s3Batch.bytes", bytes.length + indexSize);
+            sender.count("channel." + channel + ".s3Batch.put", 1);
+            sender.count("channel." + channel + ".s3Batch.bytes", bytes.length + indexSize);
         } catch (Exception e) {
             logger.warn("unable to write batch to S3 " + channel + " " + path, e);
             throw e;
@@ -364,6 +387,40 @@ public class S3BatchContentDao implements ContentDao {
         }
     }
 
+    /**
+     * Writes the minute's items as one batch, in the same zip format as the S3 batch webhook.
+     * Items already batched for the minute are kept, so a minute can be written more than once.
+     */
+    @Override
+    public void backfill(String channel, MinutePath minute, List<Content> items) throws IOException {
+        SortedMap<ContentKey, Content> merged = getBatch(channel, minute);
+        for (Content item : items) {
+            merged.put(item.getContentKey().get(), item);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream output = new ZipOutputStream(bytes)) {
+            output.setLevel(Deflater.DEFAULT_COMPRESSION);
+            for (Content item : merged.values()) {
+                ZipBulkBuilder.createZipEntry(output, item);
+            }
+        }
+        writeBatch(channel, minute, merged.keySet(), bytes.toByteArray());
+    }
+
+    private SortedMap<ContentKey, Content> getBatch(String channel, MinutePath minute) {
+        SortedMap<ContentKey, Content> batch = new TreeMap<>();
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        getKeysForMinute(channel, minute, keys, ActiveTraces.getLocal());
+        if (!keys.isEmpty()) {
+            streamMinute(channel, new MinutePath(minute.getTime(), keys),
+                    content -> batch.put(content.getContentKey().get(), content));
+            if (batch.size() < keys.size()) {
+                throw new FailedWriteException("unable to read the existing batch " + channel + " " + minute);
+            }
+        }
+        return batch;
+    }
+
     private long writeBatchIndex(String channel, ContentPath path, Collection<ContentKey> keys) {
         String batchIndexKey = getS3BatchIndexKey(channel, path);
         ObjectNode root = mapper.createObjectNode();
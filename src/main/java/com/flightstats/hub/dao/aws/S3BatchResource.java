@@ -5,8 +5,12 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.dao.ContentDao;
+import com.flightstats.hub.dao.HistoricalBackfill;
 import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.model.BulkContent;
+import com.flightstats.hub.model.ChannelConfig;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.model.MinutePath;
 import com.flightstats.hub.rest.RestClient;
@@ -18,9 +22,12 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.zip.ZipInputStream;
 
 @SuppressWarnings("WeakerAccess")
 @Path("/internal/s3Batch/{channel}")
@@ -30,6 +37,7 @@ public class S3BatchResource {
     private static final boolean dropSomeWrites = HubProperties.getProperty("s3.dropSomeWrites", false);
     private static final ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
     private static final ContentDao s3BatchContentDao = HubProvider.getInstance(ContentDao.class, ContentDao.BATCH_LONG_TERM);
+    private static final ChannelService channelService = HubProvider.getInstance(ChannelService.class);
 
     public static boolean getAndWriteBatch(ContentDao contentDao, String channel, MinutePath path,
                                            Collection<ContentKey> keys, String batchUrl) {
@@ -44,11 +52,50 @@ public class S3BatchResource {
         }
         ActiveTraces.getLocal().add("S3BatchResource.getAndWriteBatch got response");
         byte[] bytes = response.getEntity(byte[].class);
+        if (isEmpty(bytes)) {
+            logger.info("no cached items for {} {}, keeping the existing batch", channel, path);
+            return true;
+        }
+        ChannelConfig channelConfig = channelService.getCachedChannelConfig(channel);
+        if (channelConfig != null && channelConfig.isHistorical()) {
+            return mergeBatch(contentDao, channel, path, bytes);
+        }
         contentDao.writeBatch(channel, path, keys, bytes);
         ActiveTraces.getLocal().add("S3BatchResource.getAndWriteBatch completed");
         return true;
     }
 
+    /**
+     * Historical minutes may already hold backfilled items, which are not in spoke.
+     */
+    private static boolean mergeBatch(ContentDao contentDao, String channel, MinutePath path, byte[] bytes) {
+        try {
+            BulkContent bulkContent = BulkContent.builder()
+                    .channel(channel)
+                    .contentType("application/zip")
+                    .stream(new ByteArrayInputStream(bytes))
+                    .build();
+            contentDao.backfill(channel, path, HistoricalBackfill.parse(bulkContent));
+            ActiveTraces.getLocal().add("S3BatchResource.mergeBatch completed");
+            return true;
+        } catch (Exception e) {
+            logger.warn("unable to merge batch " + channel + " " + path, e);
+            return false;
+        }
+    }
+
+    /**
+     * Minutes of historical channels which were backfilled directly to S3 are not in spoke.
+     */
+    private static boolean isEmpty(byte[] zipBytes) {
+        try (ZipInputStream zipStream = new ZipInputStream(new ByteArrayInputStream(zipBytes))) {
+            return zipStream.getNextEntry() == null;
+        } catch (IOException e) {
+            logger.warn("unable to read batch zip", e);
+            return false;
+        }
+    }
+
     /**
      * This gets called back for channels to support S3 batching.
      */
@@ -6,6 +6,7 @@ import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubServices;
 import com.flightstats.hub.cluster.CuratorLock;
 import com.flightstats.hub.cluster.Lockable;
+import com.flightstats.hub.dao.CachedDao;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.dao.Dao;
 import com.flightstats.hub.metrics.ActiveTraces;
@@ -31,6 +32,7 @@ public class S3Config {
     private final CuratorLock curatorLock;
     private final Dao<ChannelConfig> channelConfigDao;
     private final String s3BucketName;
+    private final S3HourManifests hourManifests;
     private ChannelService channelService;
 
     @Inject
@@ -41,7 +43,12 @@ public class S3Config {
         this.channelConfigDao = channelConfigDao;
         this.channelService = channelService;
         this.s3BucketName = s3BucketName.getS3BucketName();
-        HubServices.register(new S3ConfigInit());
+        if (HubProperties.getProperty("s3.hourManifests", true)) {
+            this.hourManifests = new S3HourManifests(s3Client, this.s3BucketName);
+        } else {
+            this.hourManifests = null;
+        }
+        HubServices.register(new S3ConfigInit()).dependsOn(AwsContentService.class, CachedDao.class);
     }
 
     private void run() {
@@ -86,9 +93,29 @@ public class S3Config {
         @Override
         public void runWithLock() throws Exception {
             updateTtlDays();
+            updateManifests();
             updateMaxItems();
         }
 
+        /**
+         * Hour manifests are outside the lifecycle rule prefixes, so they are expired here with the ttl.
+         */
+        private void updateManifests() {
+            if (hourManifests == null) {
+                return;
+            }
+            logger.info("updating manifests");
+            for (ChannelConfig config : configurations) {
+                if (config.getTtlDays() > 0 && (config.isSingle() || config.isBoth())) {
+                    try {
+                        hourManifests.deleteBefore(config.getName(), config.getTtlTime());
+                    } catch (Exception e) {
+                        logger.warn("unable to delete manifests for " + config.getName(), e);
+                    }
+                }
+            }
+        }
+
         private void updateMaxItems() {
             logger.info("updating max items");
             for (ChannelConfig config : configurations) {
@@ -0,0 +1,225 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.timgroup.statsd.StatsDClient;
+import lombok.AllArgsConstructor;
+import lombok.ToString;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Deletes the items of one channel path which are older than a limit key.
+ * The time from the oldest item to the limit is split into day prefixes, with hour prefixes for the last two days,
+ * so each listing only returns keys which will be deleted.  Prefixes are listed and deleted concurrently,
+ * and every S3 request on this server shares one rate budget.
+ * With a checkpoint path, the time before which everything is deleted is kept in zookeeper,
+ * and the next delete for the channel starts from there.  Items can still be written below the checkpoint,
+ * by S3Verifier and by backfills, so once every s3.deleteRelistHours a delete starts from the oldest item instead.
+ * Each content dao keeps one deleter, which remembers when it last started each path from the oldest item.
+ */
+class S3Deleter {
+
+    private final static Logger logger = LoggerFactory.getLogger(S3Deleter.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            HubProperties.getProperty("s3.deleteThreads", 10),
+            new ThreadFactoryBuilder().setNameFormat("S3Deleter-%d").setDaemon(true).build());
+    private static final RateLimiter rateLimiter = RateLimiter.create(
+            HubProperties.getProperty("s3.deleteRequestsPerSecond", 100));
+    private static final long relistMillis = TimeUnit.HOURS.toMillis(HubProperties.getProperty("s3.deleteRelistHours", 24));
+
+    private final AmazonS3 s3Client;
+    private final String s3BucketName;
+    private final LastContentPath lastContentPath;
+    private final LongSupplier clock;
+    private final Map<String, Long> lastRelists = new ConcurrentHashMap<>();
+
+    S3Deleter(AmazonS3 s3Client, String s3BucketName, LastContentPath lastContentPath) {
+        this(s3Client, s3BucketName, lastContentPath, System::currentTimeMillis);
+    }
+
+    S3Deleter(AmazonS3 s3Client, String s3BucketName, LastContentPath lastContentPath, LongSupplier clock) {
+        this.s3Client = s3Client;
+        this.s3BucketName = s3BucketName;
+        this.lastContentPath = lastContentPath;
+        this.clock = clock;
+    }
+
+    /**
+     * @param checkpointPath zookeeper base path for the channel's checkpoint, or null for no checkpoint
+     */
+    Result delete(String channel, String pathSuffix, ContentKey limitKey, String checkpointPath) {
+        long start = System.currentTimeMillis();
+        String channelPath = channel + pathSuffix;
+        Result result = new Result();
+        DateTime from = getStart(channel, channelPath, checkpointPath, result);
+        if (from == null || !from.isBefore(limitKey.getTime())) {
+            logger.debug("nothing to delete {} before {}", channelPath, limitKey);
+            return result;
+        }
+        Map<Partition, Future<?>> futures = new LinkedHashMap<>();
+        for (Partition partition : getPartitions(channelPath, from, limitKey)) {
+            futures.put(partition, executor.submit(() -> delete(partition, limitKey, result)));
+        }
+        Exception failure = null;
+        for (Map.Entry<Partition, Future<?>> entry : futures.entrySet()) {
+            try {
+                entry.getValue().get();
+                if (failure == null && checkpointPath != null && lastContentPath != null) {
+                    lastContentPath.updateIncrease(new MinutePath(entry.getKey().end), channel, checkpointPath);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (Exception e) {
+                logger.warn("unable to delete " + entry.getKey(), e);
+                failure = e;
+            }
+        }
+        result.millis = System.currentTimeMillis() - start;
+        statsd.count("s3.delete.objects", result.objects.get(), "path:" + pathSuffix);
+        statsd.count("s3.delete.lists", result.lists.get(), "path:" + pathSuffix);
+        statsd.time("s3.delete", result.millis, "path:" + pathSuffix);
+        logger.info("deleted {} before {} {}", channelPath, limitKey, result);
+        ActiveTraces.getLocal().add("S3Deleter.delete", channelPath, result);
+        if (failure != null) {
+            throw new RuntimeException("unable to delete all of " + channelPath, failure);
+        }
+        return result;
+    }
+
+    /**
+     * @return the checkpoint, or the time of the oldest item, or null if there are no items
+     */
+    private DateTime getStart(String channel, String channelPath, String checkpointPath, Result result) {
+        if (checkpointPath != null && lastContentPath != null) {
+            ContentPath checkpoint = lastContentPath.getOrNull(channel, checkpointPath);
+            long now = clock.getAsLong();
+            Long lastRelist = lastRelists.get(channelPath);
+            if (checkpoint != null && lastRelist != null && now - lastRelist < relistMillis) {
+                return checkpoint.getTime();
+            }
+            lastRelists.put(channelPath, now);
+        }
+        ObjectListing listing = list(new ListObjectsRequest()
+                .withBucketName(s3BucketName)
+                .withPrefix(channelPath)
+                .withMaxKeys(1), result);
+        for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+            Optional<ContentPath> path = ContentPath.fromUrl(StringUtils.substringAfter(summary.getKey(), channelPath));
+            if (path.isPresent()) {
+                return path.get().getTime();
+            }
+        }
+        return null;
+    }
+
+    static List<Partition> getPartitions(String channelPath, DateTime from, ContentKey limitKey) {
+        List<Partition> partitions = new ArrayList<>();
+        DateTime limit = limitKey.getTime();
+        DateTime hoursStart = TimeUtil.Unit.DAYS.round(limit).minusDays(1);
+        DateTime time = TimeUtil.Unit.DAYS.round(from);
+        while (time.isBefore(hoursStart)) {
+            partitions.add(new Partition(channelPath, TimeUtil.days(time), time, time.plusDays(1)));
+            time = time.plusDays(1);
+        }
+        time = TimeUtil.Unit.HOURS.round(time.isBefore(from) ? from : time);
+        while (time.isBefore(limit)) {
+            DateTime end = time.plusHours(1).isAfter(limit) ? limit : time.plusHours(1);
+            partitions.add(new Partition(channelPath, TimeUtil.hours(time), time, end));
+            time = time.plusHours(1);
+        }
+        return partitions;
+    }
+
+    private void delete(Partition partition, ContentKey limitKey, Result result) {
+        ListObjectsRequest request = new ListObjectsRequest()
+                .withBucketName(s3BucketName)
+                .withPrefix(partition.channelPath + partition.timePath);
+        while (true) {
+            ObjectListing listing = list(request, result);
+            List<DeleteObjectsRequest.KeyVersion> keys = new ArrayList<>();
+            boolean reachedLimit = false;
+            String marker = null;
+            for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+                marker = summary.getKey();
+                Optional<ContentPath> path = ContentPath.fromUrl(StringUtils.substringAfter(marker, partition.channelPath));
+                if (!path.isPresent()) {
+                    continue;
+                }
+                if (path.get().compareTo(limitKey) >= 0) {
+                    reachedLimit = true;
+                    break;
+                }
+                keys.add(new DeleteObjectsRequest.KeyVersion(marker));
+            }
+            if (!keys.isEmpty()) {
+                rateLimiter.acquire();
+                result.deletes.incrementAndGet();
+                s3Client.deleteObjects(new DeleteObjectsRequest(s3BucketName).withKeys(keys).withQuiet(true));
+                result.objects.addAndGet(keys.size());
+            }
+            if (reachedLimit || !listing.isTruncated() || marker == null) {
+                return;
+            }
+            request.setMarker(marker);
+        }
+    }
+
+    private ObjectListing list(ListObjectsRequest request, Result result) {
+        rateLimiter.acquire();
+        result.lists.incrementAndGet();
+        return s3Client.listObjects(request);
+    }
+
+    @AllArgsConstructor
+    @ToString
+    static class Partition {
+        final String channelPath;
+        final String timePath;
+        final DateTime start;
+        final DateTime end;
+    }
+
+    static class Result {
+        final AtomicLong objects = new AtomicLong();
+        final AtomicLong lists = new AtomicLong();
+        final AtomicLong deletes = new AtomicLong();
+        long millis;
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(1, millis) / 1000.0;
+            return String.format("%d objects, %d LIST, %d DELETE in %d ms, %.0f objects/sec, %.4f LIST per object",
+                    objects.get(), lists.get(), deletes.get(), millis, objects.get() / seconds,
+                    lists.get() / (double) Math.max(1, objects.get()));
+        }
+    }
+}
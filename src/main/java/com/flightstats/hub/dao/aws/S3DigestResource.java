@@ -0,0 +1,27 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProvider;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+
+@SuppressWarnings("WeakerAccess")
+@Path("/internal/s3Digest/{channel}")
+public class S3DigestResource {
+
+    private static final S3WriteDigests writeDigests = HubProvider.getInstance(S3WriteDigests.class);
+
+    @GET
+    public Response get(@PathParam("channel") String channel,
+                        @QueryParam("start") long start, @QueryParam("end") long end) {
+        StringBuilder builder = new StringBuilder();
+        writeDigests.get(channel, new DateTime(start, DateTimeZone.UTC), new DateTime(end, DateTimeZone.UTC))
+                .forEach((minute, digest) -> builder.append(minute).append(" ").append(digest).append("\n"));
+        return Response.ok(builder.toString()).build();
+    }
+}
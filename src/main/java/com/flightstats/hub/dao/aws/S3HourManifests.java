@@ -0,0 +1,203 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.timgroup.statsd.StatsDClient;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Immutable lists of the single item keys in one hour, stored as {channel}.manifest/yyyy/MM/dd/HH
+ * '.' isn't valid in a channel name, so manifests never show up in the listings of any channel.
+ * A manifest is only written once no more items can arrive in its hour.
+ */
+class S3HourManifests {
+
+    private final static Logger logger = LoggerFactory.getLogger(S3HourManifests.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    static final String SUFFIX = ".manifest/";
+    private static final int LAG_MINUTES = HubProperties.getProperty("s3.hourManifestLagMinutes", 15);
+
+    private final AmazonS3 s3Client;
+    private final String s3BucketName;
+    private final boolean useEncrypted = HubProperties.getProperty("app.encrypted", false);
+    private final ExecutorService executor = Executors.newFixedThreadPool(
+            HubProperties.getProperty("s3.hourManifestThreads", 20),
+            new ThreadFactoryBuilder().setNameFormat("S3HourManifest-%d").setDaemon(true).build());
+
+    S3HourManifests(AmazonS3 s3Client, String s3BucketName) {
+        this.s3Client = s3Client;
+        this.s3BucketName = s3BucketName;
+    }
+
+    /**
+     * Items older than the spoke ttl can no longer be written to S3 by the write behind queue or the verifier.
+     *
+     * @return hours which end at or before this time are final
+     */
+    static DateTime getFinalTime() {
+        return TimeUtil.now().minusMinutes(HubProperties.getSpokeTtl() + LAG_MINUTES);
+    }
+
+    static String getS3Key(String channel, DateTime hour) {
+        return channel + SUFFIX + TimeUtil.hours(hour);
+    }
+
+    /**
+     * Reads the manifests in parallel.
+     *
+     * @return keys by hour, for the hours which have a readable manifest
+     */
+    Map<DateTime, SortedSet<ContentKey>> read(String channel, List<DateTime> hours) {
+        Map<DateTime, Future<Optional<SortedSet<ContentKey>>>> futures = new LinkedHashMap<>();
+        for (DateTime hour : hours) {
+            futures.put(hour, executor.submit(() -> read(channel, hour)));
+        }
+        Map<DateTime, SortedSet<ContentKey>> manifests = new HashMap<>();
+        for (Map.Entry<DateTime, Future<Optional<SortedSet<ContentKey>>>> entry : futures.entrySet()) {
+            try {
+                Optional<SortedSet<ContentKey>> keys = entry.getValue().get();
+                if (keys.isPresent()) {
+                    manifests.put(entry.getKey(), keys.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (Exception e) {
+                logger.warn("unable to read manifest " + channel + " " + entry.getKey(), e);
+            }
+        }
+        statsd.count("s3.manifest.read", manifests.size(), "result:hit");
+        statsd.count("s3.manifest.read", hours.size() - manifests.size(), "result:miss");
+        return manifests;
+    }
+
+    Optional<SortedSet<ContentKey>> read(String channel, DateTime hour) throws IOException {
+        try (S3Object object = s3Client.getObject(s3BucketName, getS3Key(channel, hour));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     new GZIPInputStream(object.getObjectContent()), StandardCharsets.UTF_8))) {
+            statsd.increment("s3.get", "type:manifest", "channel:" + channel);
+            SortedSet<ContentKey> keys = new TreeSet<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Optional<ContentKey> key = ContentKey.fromUrl(line);
+                if (key.isPresent()) {
+                    keys.add(key.get());
+                }
+            }
+            return Optional.of(keys);
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != 404) {
+                throw e;
+            }
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Writes the manifests in parallel.
+     */
+    void write(String channel, Map<DateTime, SortedSet<ContentKey>> hours) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (Map.Entry<DateTime, SortedSet<ContentKey>> entry : hours.entrySet()) {
+            futures.add(executor.submit(() -> write(channel, entry.getKey(), entry.getValue())));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (Exception e) {
+                logger.warn("unable to write manifest " + channel, e);
+            }
+        }
+    }
+
+    void write(String channel, DateTime hour, SortedSet<ContentKey> keys) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+                for (ContentKey key : keys) {
+                    writer.write(key.toUrl());
+                    writer.write('\n');
+                }
+            }
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(bytes.size());
+            if (useEncrypted) {
+                metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+            }
+            s3Client.putObject(new PutObjectRequest(s3BucketName, getS3Key(channel, hour),
+                    new ByteArrayInputStream(bytes.toByteArray()), metadata));
+            statsd.increment("s3.put", "type:manifest", "channel:" + channel);
+            logger.debug("wrote manifest {} {} with {} keys", channel, TimeUtil.hours(hour), keys.size());
+        } catch (Exception e) {
+            logger.warn("unable to write manifest " + channel + " " + hour, e);
+        }
+    }
+
+    /**
+     * Deletes the manifests of final hours, so items written to them after they became final are listed.
+     */
+    void delete(String channel, Collection<DateTime> hours) {
+        DateTime finalTime = getFinalTime();
+        List<DeleteObjectsRequest.KeyVersion> keys = new ArrayList<>();
+        for (DateTime hour : hours) {
+            if (!hour.plusHours(1).isAfter(finalTime)) {
+                keys.add(new DeleteObjectsRequest.KeyVersion(getS3Key(channel, hour)));
+            }
+        }
+        if (!keys.isEmpty()) {
+            s3Client.deleteObjects(new DeleteObjectsRequest(s3BucketName).withKeys(keys));
+            logger.debug("deleted {} manifests from {}", keys.size(), channel);
+        }
+    }
+
+    /**
+     * Deletes the manifests of every hour which starts before the time, including a partially deleted hour.
+     */
+    void deleteBefore(String channel, DateTime time) {
+        String prefix = channel + SUFFIX;
+        ListObjectsRequest request = new ListObjectsRequest()
+                .withBucketName(s3BucketName)
+                .withPrefix(prefix);
+        ObjectListing listing;
+        do {
+            listing = s3Client.listObjects(request);
+            List<DeleteObjectsRequest.KeyVersion> keys = new ArrayList<>();
+            for (S3ObjectSummary summary : listing.getObjectSummaries()) {
+                DateTime hour = TimeUtil.hours(StringUtils.substringAfter(summary.getKey(), prefix));
+                if (hour.isBefore(time)) {
+                    keys.add(new DeleteObjectsRequest.KeyVersion(summary.getKey()));
+                }
+            }
+            if (!keys.isEmpty()) {
+                s3Client.deleteObjects(new DeleteObjectsRequest(s3BucketName).withKeys(keys));
+                logger.info("deleted {} manifests from {}", keys.size(), channel);
+            }
+            List<S3ObjectSummary> summaries = listing.getObjectSummaries();
+            if (!summaries.isEmpty()) {
+                request.setMarker(summaries.get(summaries.size() - 1).getKey());
+            }
+        } while (listing.isTruncated());
+    }
+}
@@ -2,45 +2,63 @@ package com.flightstats.hub.dao.aws;
 
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.*;
+import com.amazonaws.services.s3.transfer.TransferManager;
 import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.dao.ContentDao;
 import com.flightstats.hub.dao.ContentMarshaller;
+import com.flightstats.hub.dao.Dao;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.DataDog;
 import com.flightstats.hub.metrics.MetricsSender;
 import com.flightstats.hub.metrics.Traces;
+import com.flightstats.hub.model.ChannelConfig;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.model.DirectionQuery;
+import com.flightstats.hub.model.MinutePath;
 import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.BufferPool;
+import com.flightstats.hub.util.PayloadBuffer;
 import com.flightstats.hub.util.TimeUtil;
-import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.io.ByteStreams;
+import com.google.common.io.ByteSource;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.timgroup.statsd.StatsDClient;
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketTimeoutException;
 import java.util.*;
+import java.util.stream.Stream;
 
 public class S3SingleContentDao implements ContentDao {
     private final static StatsDClient statsd = DataDog.statsd;
 
     private final static Logger logger = LoggerFactory.getLogger(S3SingleContentDao.class);
     private static final int MAX_ITEMS = 1000 * 1000;
+    static final String DELETED_BEFORE = "/S3SingleDeletedBefore/";
 
     private final AmazonS3 s3Client;
     private final MetricsSender sender;
     private final boolean useEncrypted;
     private final int s3MaxQueryItems;
     private final String s3BucketName;
+    private final TransferManager transferManager;
+    private final S3HourManifests hourManifests;
+    @Inject(optional = true)
+    @Named("ChannelConfig")
+    private Dao<ChannelConfig> channelConfigDao;
+    @Inject(optional = true)
+    private S3WriteDigests writeDigests;
+    @Inject(optional = true)
+    private LastContentPath lastContentPath;
+    private volatile S3Deleter deleter;
 
     @Inject
     public S3SingleContentDao(AmazonS3 s3Client, S3BucketName s3BucketName, MetricsSender sender) {
@@ -49,6 +67,12 @@ public class S3SingleContentDao implements ContentDao {
         this.useEncrypted = HubProperties.getProperty("app.encrypted", false);
         this.s3MaxQueryItems = HubProperties.getProperty("s3.maxQueryItems", 1000);
         this.s3BucketName = s3BucketName.getS3BucketName();
+        this.transferManager = new TransferManager(s3Client);
+        if (HubProperties.getProperty("s3.hourManifests", true)) {
+            this.hourManifests = new S3HourManifests(s3Client, this.s3BucketName);
+        } else {
+            this.hourManifests = null;
+        }
     }
 
     public void initialize() {
@@ -61,31 +85,67 @@ public class S3SingleContentDao implements ContentDao {
     }
 
     public ContentKey insert(String channelName, Content content) {
-        return insert(channelName, content, (metadata) -> {
-            try {
-                metadata.addUserMetadata("compressed", "true");
-                return ContentMarshaller.toBytes(content);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        PayloadBuffer buffer = null;
+        try {
+            ChannelConfig channelConfig = getChannelConfig(channelName);
+            buffer = ContentMarshaller.toBuffer(content, channelConfig, ContentMarshaller.isStreamed(channelConfig));
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.addUserMetadata("compressed", "true");
+            return insert(channelName, content, buffer.asByteSource(), metadata);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            reset(buffer);
+        }
+    }
+
+    @Override
+    public void backfill(String channel, MinutePath minute, List<Content> items) {
+        for (Content item : items) {
+            insert(channel, item);
+        }
+        if (hourManifests != null) {
+            hourManifests.delete(channel, Collections.singletonList(TimeUtil.Unit.HOURS.round(minute.getTime())));
+        }
+    }
+
+    private static void reset(PayloadBuffer buffer) {
+        try {
+            if (buffer != null) {
+                buffer.reset();
             }
-        });
+        } catch (IOException e) {
+            logger.warn("unable to reset buffer", e);
+        }
+    }
+
+    private ChannelConfig getChannelConfig(String channelName) {
+        if (channelConfigDao == null) {
+            return null;
+        }
+        return channelConfigDao.getCached(channelName);
     }
 
     //this is only needed for testing the non-compressed retrieval from S3.
     ContentKey insertOld(String channelName, Content content) {
-        return insert(channelName, content, (metadata) -> content.getData());
+        try {
+            return insert(channelName, content, ByteSource.wrap(content.getData()), new ObjectMetadata());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
-    private ContentKey insert(String channelName, Content content, Function<ObjectMetadata, byte[]> handler) {
+    /**
+     * Large items are sent as a multipart upload, reading one part at a time from the payload.
+     */
+    private ContentKey insert(String channelName, Content content, ByteSource payload, ObjectMetadata metadata) throws IOException {
         ContentKey key = content.getContentKey().get();
         ActiveTraces.getLocal().add("S3SingleContentDao.write", key);
-        try {
+        try (InputStream stream = payload.openStream()) {
             String s3Key = getS3ContentKey(channelName, key);
-            ObjectMetadata metadata = new ObjectMetadata();
-            byte[] bytes = handler.apply(metadata);
-            logger.trace("insert {} {} {} {}", channelName, key, content.getSize(), bytes.length);
-            InputStream stream = new ByteArrayInputStream(bytes);
-            metadata.setContentLength(bytes.length);
+            long bytes = payload.size();
+            logger.trace("insert {} {} {} {}", channelName, key, content.getSize(), bytes);
+            metadata.setContentLength(bytes);
             if (content.getContentType().isPresent()) {
                 //todo - gfm - 6/29/16 - do we still want to write this?
                 metadata.setContentType(content.getContentType().get());
@@ -98,12 +158,22 @@ public class S3SingleContentDao implements ContentDao {
             }
             PutObjectRequest request = new PutObjectRequest(s3BucketName, s3Key, stream, metadata);
             statsd.increment("s3.put", "type:single", "channel:" + channelName);
-            statsd.count("s3.put.bytes", bytes.length, "channel:" + channelName, "type:single");
+            statsd.count("s3.put.bytes", bytes, "channel:" + channelName, "type:single");
 
-            sender.send("channel." + channelName + ".s3.put", 1);
-            sender.send("channel." + channelName + ".s3.bytes", bytes.length);
-            s3Client.putObject(request);
+            sender.count("channel." + channelName + ".s3.put", 1);
+            sender.count("channel." + channelName + ".s3.bytes", bytes);
+            if (ContentMarshaller.isLarge(bytes)) {
+                transferManager.upload(request).waitForCompletion();
+            } else {
+                s3Client.putObject(request);
+            }
+            if (writeDigests != null) {
+                writeDigests.record(channelName, key);
+            }
             return key;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         } catch (Exception e) {
             logger.warn("unable to write item to S3 " + channelName + " " + key, e);
             throw e;
@@ -132,16 +202,31 @@ public class S3SingleContentDao implements ContentDao {
         }
     }
 
+    /**
+     * Large items are streamed from S3, and hold the connection until the content stream is closed.
+     */
     private Content getS3Object(String channelName, ContentKey key) throws IOException {
-        try (S3Object object = s3Client.getObject(s3BucketName, getS3ContentKey(channelName, key))) {
+        try {
+            S3Object object = s3Client.getObject(s3BucketName, getS3ContentKey(channelName, key));
             statsd.increment("s3.get", "type:single", "channel:" + channelName);
-            sender.send("channel." + channelName + ".s3.get", 1);
-            byte[] bytes = ByteStreams.toByteArray(object.getObjectContent());
-            ObjectMetadata metadata = object.getObjectMetadata();
-            Map<String, String> userData = metadata.getUserMetadata();
+            sender.count("channel." + channelName + ".s3.get", 1);
+            Map<String, String> userData = object.getObjectMetadata().getUserMetadata();
             if (userData.containsKey("compressed")) {
-                return ContentMarshaller.toContent(bytes, key);
+                return ContentMarshaller.toContent(object.getObjectContent(), key);
             }
+            return getUncompressed(object, key);
+        } catch (AmazonS3Exception e) {
+            if (e.getStatusCode() != 404) {
+                logger.warn("AmazonS3Exception : unable to read " + channelName + " " + key, e);
+            }
+            return null;
+        }
+    }
+
+    private Content getUncompressed(S3Object s3Object, ContentKey key) throws IOException {
+        try (S3Object object = s3Object) {
+            byte[] bytes = BufferPool.toByteArray(object.getObjectContent());
+            Map<String, String> userData = object.getObjectMetadata().getUserMetadata();
             Content.Builder builder = Content.builder();
             String type = userData.get("type");
             if (!type.equals("none")) {
@@ -150,11 +235,6 @@ public class S3SingleContentDao implements ContentDao {
             builder.withContentKey(key);
             builder.withData(bytes);
             return builder.build();
-        } catch (AmazonS3Exception e) {
-            if (e.getStatusCode() != 404) {
-                logger.warn("AmazonS3Exception : unable to read " + channelName + " " + key, e);
-            }
-            return null;
         }
     }
 
@@ -163,6 +243,17 @@ public class S3SingleContentDao implements ContentDao {
         logger.debug("queryByTime {} ", query);
         Traces traces = ActiveTraces.getLocal();
         traces.add("S3SingleContentDao.queryByTime", query);
+        SortedSet<ContentKey> keys;
+        if (useHourManifests(query)) {
+            keys = queryByHours(query);
+        } else {
+            keys = listByTime(query);
+        }
+        traces.add("S3SingleContentDao.queryByTime completed", keys);
+        return keys;
+    }
+
+    private SortedSet<ContentKey> listByTime(TimeQuery query) {
         String timePath = query.getUnit().format(query.getStartTime());
         ListObjectsRequest request = new ListObjectsRequest()
                 .withBucketName(s3BucketName)
@@ -174,11 +265,118 @@ public class S3SingleContentDao implements ContentDao {
         } else {
             request.withMarker(query.getChannelName() + "/" + timePath);
         }
-        SortedSet<ContentKey> keys = iterateListObjects(query.getChannelName(), request, MAX_ITEMS, endTime, query.getCount(), query.getLimitKey());
-        traces.add("S3SingleContentDao.queryByTime completed", keys);
+        return iterateListObjects(query.getChannelName(), request, MAX_ITEMS, endTime, query.getCount(), query.getLimitKey());
+    }
+
+    /**
+     * Manifests cover whole hours, so only queries by hour, day or month which start in a final hour use them.
+     * Historical and replicated channels can add items to any hour, so they are always listed.
+     */
+    private boolean useHourManifests(TimeQuery query) {
+        if (hourManifests == null) {
+            return false;
+        }
+        TimeUtil.Unit unit = query.getUnit();
+        if (unit != TimeUtil.Unit.HOURS && unit != TimeUtil.Unit.DAYS && unit != TimeUtil.Unit.MONTHS) {
+            return false;
+        }
+        ChannelConfig channel = getChannelConfig(query.getChannelName());
+        if (channel != null && (!channel.isLive() || !(channel.isSingle() || channel.isBoth()))) {
+            return false;
+        }
+        return !getStartHour(query).plusHours(1).isAfter(S3HourManifests.getFinalTime());
+    }
+
+    private DateTime getStartHour(TimeQuery query) {
+        DateTime start = query.getUnit().round(query.getStartTime());
+        if (query.getUnit() == TimeUtil.Unit.MONTHS) {
+            return start.withDayOfMonth(1);
+        }
+        return start;
+    }
+
+    /**
+     * Reads the manifest of each final hour in the range, and lists the rest of the range.
+     * A final hour without a manifest is listed, and its manifest is written for the next query.
+     */
+    private SortedSet<ContentKey> queryByHours(TimeQuery query) {
+        String channelName = query.getChannelName();
+        DateTime start = getStartHour(query);
+        DateTime endTime = query.getEndTime();
+        if (endTime == null) {
+            DateTime unitEnd = query.getUnit() == TimeUtil.Unit.MONTHS ? start.plusMonths(1) : start.plus(query.getUnit().getDuration());
+            endTime = query.getStartTime().plus(query.getUnit().getDuration());
+            if (unitEnd.isBefore(endTime)) {
+                endTime = unitEnd;
+            }
+        }
+        DateTime finalTime = S3HourManifests.getFinalTime();
+        List<DateTime> hours = new ArrayList<>();
+        DateTime hour = start;
+        while (hour.isBefore(endTime) && !hour.plusHours(1).isAfter(finalTime)) {
+            hours.add(hour);
+            hour = hour.plusHours(1);
+        }
+        ActiveTraces.getLocal().add("S3SingleContentDao.queryByHours", hours.size());
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        if (query.getCount() > 0 && query.getLimitKey() != null) {
+            keys = new ContentKeySet(query.getCount(), query.getLimitKey());
+        }
+        Map<DateTime, SortedSet<ContentKey>> manifests = hourManifests.read(channelName, hours);
+        List<DateTime> missing = new ArrayList<>();
+        for (DateTime manifestHour : hours) {
+            if (!manifests.containsKey(manifestHour)) {
+                missing.add(manifestHour);
+            } else {
+                addHourKeys(keys, listMissingHours(channelName, missing), endTime);
+                missing.clear();
+                addHourKeys(keys, manifests.get(manifestHour).stream(), endTime);
+            }
+        }
+        addHourKeys(keys, listMissingHours(channelName, missing), endTime);
+        if (hour.isBefore(endTime)) {
+            ListObjectsRequest request = new ListObjectsRequest()
+                    .withBucketName(s3BucketName)
+                    .withMaxKeys(s3MaxQueryItems)
+                    .withPrefix(channelName + "/")
+                    .withMarker(channelName + "/" + TimeUtil.hours(hour));
+            keys.addAll(iterateListObjects(channelName, request, MAX_ITEMS, endTime, 0, null));
+        }
         return keys;
     }
 
+    private void addHourKeys(SortedSet<ContentKey> keys, Stream<ContentKey> hourKeys, DateTime endTime) {
+        hourKeys.filter(key -> key.getTime().isBefore(endTime)).forEach(keys::add);
+    }
+
+    /**
+     * Lists consecutive hours together, and writes a manifest for each of them.
+     */
+    private Stream<ContentKey> listMissingHours(String channelName, List<DateTime> missing) {
+        if (missing.isEmpty()) {
+            return Stream.empty();
+        }
+        DateTime first = missing.get(0);
+        DateTime end = missing.get(missing.size() - 1).plusHours(1);
+        ListObjectsRequest request = new ListObjectsRequest()
+                .withBucketName(s3BucketName)
+                .withMaxKeys(s3MaxQueryItems)
+                .withPrefix(channelName + "/")
+                .withMarker(channelName + "/" + TimeUtil.hours(first));
+        SortedSet<ContentKey> listed = iterateListObjects(channelName, request, MAX_ITEMS, end, 0, null);
+        if (listed.size() < MAX_ITEMS) {
+            Map<DateTime, SortedSet<ContentKey>> hourKeys = new TreeMap<>();
+            for (DateTime hour : missing) {
+                hourKeys.put(hour, new TreeSet<>());
+            }
+            for (ContentKey key : listed) {
+                hourKeys.get(TimeUtil.Unit.HOURS.round(key.getTime())).add(key);
+            }
+            hourManifests.write(channelName, hourKeys);
+        }
+        return listed.stream();
+    }
+
     private SortedSet<ContentKey> iterateListObjects(String channelName, ListObjectsRequest request,
                                                      int maxItems, DateTime endTime, int count, ContentKey limitKey) {
         Traces traces = ActiveTraces.getLocal();
@@ -188,8 +386,8 @@ public class S3SingleContentDao implements ContentDao {
         }
         statsd.increment("s3.list", "type:single", "channel:" + channelName);
 
-        sender.send("channel." + channelName + ".s3.get", 1);
-        sender.send("channel." + channelName + ".s3.list", 1);
+        sender.count("channel." + channelName + ".s3.get", 1);
+        sender.count("channel." + channelName + ".s3.list", 1);
         logger.trace("list {} {} {}", channelName, request.getPrefix(), request.getMarker());
         traces.add("S3SingleContentDao.iterateListObjects prefix:", request.getPrefix(), request.getMarker());
         ObjectListing listing = s3Client.listObjects(request);
@@ -198,7 +396,7 @@ public class S3SingleContentDao implements ContentDao {
             request.withMarker(channelName + "/" + marker.toUrl());
             statsd.increment("s3.list", "type:single", "channel:" + channelName);
 
-            sender.send("channel." + channelName + ".s3.list", 1);
+            sender.count("channel." + channelName + ".s3.list", 1);
             logger.trace("list {} {}", channelName, request.getMarker());
             traces.add("S3SingleContentDao.iterateListObjects marker:", request.getMarker());
             listing = s3Client.listObjects(request);
@@ -260,10 +458,24 @@ public class S3SingleContentDao implements ContentDao {
         return channelName + "/" + key.toUrl();
     }
 
+    private S3Deleter getDeleter() {
+        if (deleter == null) {
+            deleter = new S3Deleter(s3Client, s3BucketName, lastContentPath);
+        }
+        return deleter;
+    }
+
     @Override
     public void deleteBefore(String channel, ContentKey limitKey) {
+        deleteBefore(channel, limitKey, DELETED_BEFORE);
+    }
+
+    private void deleteBefore(String channel, ContentKey limitKey, String checkpointPath) {
         try {
-            S3Util.delete(channel + "/", limitKey, s3BucketName, s3Client);
+            getDeleter().delete(channel, "/", limitKey, checkpointPath);
+            if (hourManifests != null) {
+                hourManifests.deleteBefore(channel, limitKey.getTime());
+            }
             logger.info("completed deletion of " + channel);
         } catch (Exception e) {
             logger.warn("unable to delete " + channel + " in " + s3BucketName, e);
@@ -276,7 +488,7 @@ public class S3SingleContentDao implements ContentDao {
             try {
                 ContentKey limitKey = new ContentKey(TimeUtil.now(), "ZZZZZZ");
                 ActiveTraces.start("S3SingleContentDao.delete", traces, limitKey);
-                deleteBefore(channel, limitKey);
+                deleteBefore(channel, limitKey, null);
             } finally {
                 ActiveTraces.end();
             }
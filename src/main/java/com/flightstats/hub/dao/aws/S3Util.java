@@ -1,22 +1,17 @@
 package com.flightstats.hub.dao.aws;
 
 import com.amazonaws.services.s3.AmazonS3;
-import com.amazonaws.services.s3.model.*;
 import com.flightstats.hub.dao.ContentDao;
 import com.flightstats.hub.dao.ContentKeyUtil;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.model.ContentKey;
-import com.flightstats.hub.model.ContentPath;
 import com.flightstats.hub.model.DirectionQuery;
 import com.flightstats.hub.util.TimeUtil;
-import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -60,39 +55,4 @@ class S3Util {
         contentKeys.addAll(keys);
         return ContentKeyUtil.filter(contentKeys, query.getContentKey(), earliestTime, query.getCount(), false, query.isStable());
     }
-
-    public static void delete(String channelPath, ContentKey limitKey, String s3BucketName, AmazonS3 s3Client) {
-        //noinspection StatementWithEmptyBody
-        while (internalDelete(channelPath, limitKey, s3BucketName, s3Client)) {
-        }
-        internalDelete(channelPath, limitKey, s3BucketName, s3Client);
-    }
-
-    private static boolean internalDelete(String channelPath, ContentKey limitKey, String s3BucketName, AmazonS3 s3Client) {
-        ListObjectsRequest request = new ListObjectsRequest();
-        request.withBucketName(s3BucketName);
-        request.withPrefix(channelPath);
-        ObjectListing listing = s3Client.listObjects(request);
-        List<DeleteObjectsRequest.KeyVersion> keys = new ArrayList<>();
-        for (S3ObjectSummary objectSummary : listing.getObjectSummaries()) {
-            ContentPath contentKey = ContentPath.fromUrl(StringUtils.substringAfter(objectSummary.getKey(), channelPath)).get();
-            if (contentKey.compareTo(limitKey) < 0) {
-                keys.add(new DeleteObjectsRequest.KeyVersion(objectSummary.getKey()));
-            }
-        }
-        if (keys.isEmpty()) {
-            return false;
-        }
-        DeleteObjectsRequest multiObjectDeleteRequest = new DeleteObjectsRequest(s3BucketName);
-        multiObjectDeleteRequest.setKeys(keys);
-        try {
-            s3Client.deleteObjects(multiObjectDeleteRequest);
-            logger.info("deleting more from " + channelPath + " deleted " + keys.size());
-            ActiveTraces.getLocal().add("S3Util.internalDelete", channelPath, keys.size());
-        } catch (MultiObjectDeleteException e) {
-            logger.info("what happened? " + channelPath, e);
-            return true;
-        }
-        return listing.isTruncated();
-    }
 }
@@ -2,17 +2,21 @@ package com.flightstats.hub.dao.aws;
 
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.channel.ChannelVolumes;
 import com.flightstats.hub.cluster.CuratorLeader;
 import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.cluster.Leader;
 import com.flightstats.hub.cluster.Leadership;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.dao.ContentDao;
+import com.flightstats.hub.dao.KeyDigest;
 import com.flightstats.hub.dao.QueryResult;
 import com.flightstats.hub.exception.FailedQueryException;
 import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.DataDog;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
+import com.flightstats.hub.spoke.RemoteSpokeStore;
 import com.flightstats.hub.util.RuntimeInterruptedException;
 import com.flightstats.hub.util.Sleeper;
 import com.flightstats.hub.util.TimeUtil;
@@ -21,6 +25,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import com.timgroup.statsd.StatsDClient;
 import lombok.AllArgsConstructor;
 import lombok.ToString;
 import org.joda.time.DateTime;
@@ -28,8 +33,7 @@ import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -41,10 +45,14 @@ import static com.flightstats.hub.dao.LocalChannelService.HISTORICAL_FIRST_UPDAT
 public class S3Verifier {
 
     static final String LAST_SINGLE_VERIFIED = "/S3VerifierSingleLastVerified/";
+    static final String LAST_HOUR_MANIFEST = "/S3VerifierLastHourManifest/";
     private final static Logger logger = LoggerFactory.getLogger(S3Verifier.class);
 
     private final int offsetMinutes = HubProperties.getProperty("s3Verifier.offsetMinutes", 15);
     private final double keepLeadershipRate = HubProperties.getProperty("s3Verifier.keepLeadershipRate", 0.75);
+    private final boolean useDigests = HubProperties.getProperty("s3Verifier.digests", true);
+    private final boolean useHourManifests = HubProperties.getProperty("s3.hourManifests", true);
+    private final static StatsDClient statsd = DataDog.statsd;
     private final ExecutorService queryThreadPool = Executors.newFixedThreadPool(30, new ThreadFactoryBuilder().setNameFormat("S3QueryThread-%d").build());
     private final ExecutorService channelThreadPool = Executors.newFixedThreadPool(10, new ThreadFactoryBuilder().setNameFormat("S3ChannelThread-%d").build());
     @Inject
@@ -60,6 +68,10 @@ public class S3Verifier {
     private ContentDao s3SingleContentDao;
     @Inject
     private S3WriteQueue s3WriteQueue;
+    @Inject
+    private RemoteSpokeStore remoteSpokeStore;
+    @Inject
+    private ChannelVolumes channelVolumes;
 
     public S3Verifier() {
         if (HubProperties.getProperty("s3Verifier.run", true)) {
@@ -105,6 +117,76 @@ public class S3Verifier {
         }
     }
 
+    /**
+     * Only lists the minutes where the spoke digest from any server differs from the sum of the S3 write digests.
+     * If the digests can't be collected, the whole range is listed.
+     * A range the ChannelVolumes show is empty isn't compared at all.
+     */
+    private SortedSet<ContentKey> getMissingByDigest(VerifierRange range) {
+        String channelName = range.channel.getName();
+        DateTime start = range.startPath.getTime();
+        DateTime end = range.endPath.getTime();
+        if (isEmpty(channelVolumes, channelName, start, end)) {
+            statsd.count("s3Verifier.minutes", new Duration(start, end).getStandardMinutes() + 1, "result:empty");
+            return new TreeSet<>();
+        }
+        Collection<MinutePath> minutes;
+        try {
+            Map<String, SortedMap<String, Long>> spokeDigests = remoteSpokeStore.getMinuteDigests(channelName, start, end.plusMinutes(1));
+            if (spokeDigests.isEmpty()) {
+                throw new IllegalStateException("no spoke servers");
+            }
+            SortedMap<String, KeyDigest> s3Digests = S3WriteDigests.getCluster(spokeDigests.keySet(), channelName, start, end);
+            minutes = getMismatchedMinutes(start, end, spokeDigests.values(), s3Digests);
+        } catch (Exception e) {
+            logger.warn("unable to compare digests " + range, e);
+            return getMissing(range.startPath, range.endPath, channelName, s3SingleContentDao, new TreeSet<>());
+        }
+        long total = new Duration(start, end).getStandardMinutes() + 1;
+        statsd.count("s3Verifier.minutes", total - minutes.size(), "result:match");
+        statsd.count("s3Verifier.minutes", minutes.size(), "result:list");
+        logger.debug("listing {} of {} minutes for {}", minutes.size(), total, channelName);
+        SortedSet<ContentKey> missing = new TreeSet<>();
+        for (MinutePath minute : minutes) {
+            missing.addAll(getMissing(minute, null, channelName, s3SingleContentDao, new TreeSet<>()));
+        }
+        return missing;
+    }
+
+    /**
+     * The volumes need to be complete and repaired through the end minute, so an item this server missed
+     * isn't taken for an empty minute.
+     */
+    static boolean isEmpty(ChannelVolumes channelVolumes, String channelName, DateTime start, DateTime end) {
+        if (end.plusMinutes(1).isAfter(channelVolumes.getRepairedUntil())) {
+            return false;
+        }
+        ChannelVolumes.Volumes volumes = channelVolumes.getVolumes(TimeUtil.Unit.MINUTES);
+        for (DateTime time = start; !time.isAfter(end); time = time.plusMinutes(1)) {
+            if (volumes.getItems(channelName, time) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Collection<MinutePath> getMismatchedMinutes(DateTime start, DateTime end,
+                                                       Collection<SortedMap<String, Long>> spokeDigests,
+                                                       SortedMap<String, KeyDigest> s3Digests) {
+        List<MinutePath> minutes = new ArrayList<>();
+        for (DateTime time = start; !time.isAfter(end); time = time.plusMinutes(1)) {
+            String minute = TimeUtil.minutes(time);
+            long s3Value = s3Digests.getOrDefault(minute, new KeyDigest()).getValue();
+            for (SortedMap<String, Long> serverDigests : spokeDigests) {
+                if (serverDigests.getOrDefault(minute, 0L) != s3Value) {
+                    minutes.add(new MinutePath(time));
+                    break;
+                }
+            }
+        }
+        return minutes;
+    }
+
     private void runInQueryPool(Traces traces, CountDownLatch countDownLatch, Runnable runnable) {
         queryThreadPool.submit(() -> {
             ActiveTraces.setLocal(traces);
@@ -119,7 +201,12 @@ public class S3Verifier {
     private void singleS3Verification(VerifierRange range) {
         runInChannelPool(range, "single", () -> {
             String channelName = range.channel.getName();
-            SortedSet<ContentKey> keysToAdd = getMissing(range.startPath, range.endPath, channelName, s3SingleContentDao, new TreeSet<>());
+            SortedSet<ContentKey> keysToAdd;
+            if (useDigests && !range.channel.isHistorical()) {
+                keysToAdd = getMissingByDigest(range);
+            } else {
+                keysToAdd = getMissing(range.startPath, range.endPath, channelName, s3SingleContentDao, new TreeSet<>());
+            }
             logger.debug("singleS3Verification.starting {}", range);
             for (ContentKey key : keysToAdd) {
                 logger.trace("found missing {} {}", channelName, key);
@@ -127,9 +214,33 @@ public class S3Verifier {
             }
             logger.debug("singleS3Verification.completed {}", range);
             lastContentPath.updateIncrease(range.endPath, range.channel.getName(), LAST_SINGLE_VERIFIED);
+            if (useHourManifests && range.channel.isLive()) {
+                writeHourManifests(channelName);
+            }
         });
     }
 
+    /**
+     * Querying a final hour which has no manifest writes the manifest,
+     * so this queries each hour which has become final since the last run.
+     * Any older hours without manifests are written by the first query which reads them.
+     */
+    private void writeHourManifests(String channelName) {
+        DateTime finalHour = TimeUtil.Unit.HOURS.round(S3HourManifests.getFinalTime());
+        DateTime hour = lastContentPath.get(channelName, new MinutePath(finalHour), LAST_HOUR_MANIFEST).getTime();
+        if (hour.isBefore(finalHour.minusDays(1))) {
+            hour = finalHour.minusDays(1);
+        }
+        for (; hour.isBefore(finalHour); hour = hour.plusHours(1)) {
+            s3SingleContentDao.queryByTime(TimeQuery.builder()
+                    .channelName(channelName)
+                    .startTime(hour)
+                    .unit(TimeUtil.Unit.HOURS)
+                    .build());
+            lastContentPath.updateIncrease(new MinutePath(hour.plusHours(1)), channelName, LAST_HOUR_MANIFEST);
+        }
+    }
+
     private void runInChannelPool(VerifierRange range, String typeName, Runnable runnable) {
         channelThreadPool.submit(() -> {
             try {
@@ -0,0 +1,83 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubHost;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.dao.KeyDigest;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.rest.RestClient;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.inject.Singleton;
+import com.sun.jersey.api.client.ClientResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Per channel, per minute digests of the single items this server has written to S3.
+ * Each server only knows about its own writes, and forgets them on restart,
+ * so a minute only matches when the digests from every server add up to the keys in spoke.
+ */
+@Singleton
+public class S3WriteDigests {
+
+    private final int keepMinutes = HubProperties.getProperty("s3Verifier.digestMinutes", HubProperties.getSpokeTtl() * 2);
+    private final Map<String, ConcurrentNavigableMap<String, KeyDigest>> channels = new ConcurrentHashMap<>();
+
+    void record(String channel, ContentKey key) {
+        ConcurrentNavigableMap<String, KeyDigest> minutes = channels.computeIfAbsent(channel, name -> new ConcurrentSkipListMap<>());
+        String minute = TimeUtil.minutes(key.getTime());
+        KeyDigest digest = minutes.get(minute);
+        if (digest == null) {
+            digest = minutes.computeIfAbsent(minute, name -> new KeyDigest());
+            minutes.headMap(TimeUtil.minutes(TimeUtil.now().minusMinutes(keepMinutes))).clear();
+        }
+        digest.add(key.toUrl());
+    }
+
+    /**
+     * @return digests for minutes from start to end, inclusive, which have writes
+     */
+    SortedMap<String, KeyDigest> get(String channel, DateTime start, DateTime end) {
+        ConcurrentNavigableMap<String, KeyDigest> minutes = channels.get(channel);
+        if (minutes == null) {
+            return new TreeMap<>();
+        }
+        return new TreeMap<>(minutes.subMap(TimeUtil.minutes(start), true, TimeUtil.minutes(end), true));
+    }
+
+    /**
+     * Adds together the digests from every server.
+     *
+     * @throws RuntimeException if any server doesn't answer
+     */
+    static SortedMap<String, KeyDigest> getCluster(Collection<String> servers, String channel, DateTime start, DateTime end) {
+        SortedMap<String, KeyDigest> digests = new TreeMap<>();
+        for (String server : servers) {
+            ClientResponse response = RestClient.defaultClient()
+                    .resource(HubHost.getScheme() + server + "/internal/s3Digest/" + channel)
+                    .queryParam("start", String.valueOf(start.getMillis()))
+                    .queryParam("end", String.valueOf(end.getMillis()))
+                    .get(ClientResponse.class);
+            try {
+                if (response.getStatus() != 200) {
+                    throw new RuntimeException("unable to get s3 digests " + server + " " + response.getStatus());
+                }
+                for (String line : StringUtils.split(response.getEntity(String.class), "\n")) {
+                    String[] parts = StringUtils.split(line, " ");
+                    KeyDigest digest = new KeyDigest(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                    digests.computeIfAbsent(parts[0], minute -> new KeyDigest()).add(digest);
+                }
+            } finally {
+                response.close();
+            }
+        }
+        return digests;
+    }
+}
@@ -1,6 +1,7 @@
 package com.flightstats.hub.dao.aws;
 
 
+import com.flightstats.hub.app.DrainCoordinator;
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.dao.ContentDao;
 import com.flightstats.hub.exception.FailedReadException;
@@ -20,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @SuppressWarnings("WeakerAccess")
 @Singleton
@@ -29,6 +31,7 @@ public class S3WriteQueue {
 
     private static final int THREADS = HubProperties.getProperty("s3.writeQueueThreads", 20);
     private Retryer<Void> retryer = buildRetryer();
+    private final AtomicInteger writing = new AtomicInteger();
     private BlockingQueue<ChannelContentKey> keys = new LinkedBlockingQueue<>(HubProperties.getProperty("s3.writeQueueSize", 40000));
     private ExecutorService executorService = Executors.newFixedThreadPool(THREADS,
             new ThreadFactoryBuilder().setNameFormat("S3WriteQueue-%d").build());
@@ -42,6 +45,7 @@ public class S3WriteQueue {
 
     @Inject
     private S3WriteQueue() throws InterruptedException {
+        DrainCoordinator.register("s3WriteQueue", () -> keys.size() + writing.get());
         for (int i = 0; i < THREADS; i++) {
             executorService.submit(() -> {
                 try {
@@ -59,10 +63,18 @@ public class S3WriteQueue {
     private void write() throws InterruptedException {
         try {
             ChannelContentKey key = keys.poll(5, TimeUnit.SECONDS);
-            retryer.call(() -> {
-                writeContent(key);
-                return null;
-            });
+            if (key == null) {
+                return;
+            }
+            writing.incrementAndGet();
+            try {
+                retryer.call(() -> {
+                    writeContent(key);
+                    return null;
+                });
+            } finally {
+                writing.decrementAndGet();
+            }
         } catch (Exception e) {
             logger.warn("unable to call s3", e);
         }
@@ -74,7 +86,7 @@ public class S3WriteQueue {
             try {
                 logger.trace("writing {}", key.getContentKey());
                 Content content = spokeContentDao.get(key.getChannel(), key.getContentKey());
-                if (content.getData() == null) {
+                if (content == null) {
                     throw new FailedReadException("unable to read " + key.toString());
                 }
                 s3SingleContentDao.insert(key.getChannel(), content);
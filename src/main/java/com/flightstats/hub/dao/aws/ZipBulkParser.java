@@ -0,0 +1,60 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.dao.ContentMarshaller;
+import com.flightstats.hub.exception.ContentTooLargeException;
+import com.flightstats.hub.exception.InvalidRequestException;
+import com.flightstats.hub.model.BulkContent;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.google.common.base.Optional;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the zip format written by ZipBulkBuilder, where each entry is named by the item's key,
+ * and the entry's extra field holds the item's meta data.
+ */
+public class ZipBulkParser {
+    private final static Logger logger = LoggerFactory.getLogger(ZipBulkParser.class);
+
+    private static final long maxBytes = ContentMarshaller.getMaxBytes() * 3;
+    private final BulkContent bulkContent;
+
+    public ZipBulkParser(BulkContent bulkContent) {
+        this.bulkContent = bulkContent;
+    }
+
+    public void parse() throws IOException {
+        long count = 0;
+        try (ZipInputStream zipStream = new ZipInputStream(bulkContent.getStream())) {
+            ZipEntry entry = zipStream.getNextEntry();
+            while (entry != null) {
+                Optional<ContentKey> key = ContentKey.fromUrl(entry.getName());
+                if (!key.isPresent()) {
+                    throw new InvalidRequestException("zip entry is not a content key " + entry.getName());
+                }
+                Content.Builder builder = Content.builder().withContentKey(key.get());
+                if (entry.getExtra() != null) {
+                    ContentMarshaller.setMetaData(new String(entry.getExtra(), StandardCharsets.UTF_8), builder);
+                }
+                byte[] bytes = ByteStreams.toByteArray(zipStream);
+                count += bytes.length;
+                if (count > maxBytes) {
+                    logger.warn("zip max payload exceeded {} {}", maxBytes, bulkContent.getChannel());
+                    throw new ContentTooLargeException("max payload size is " + maxBytes + " bytes");
+                }
+                bulkContent.getItems().add(builder.withData(bytes).build());
+                entry = zipStream.getNextEntry();
+            }
+        }
+        if (bulkContent.getItems().isEmpty()) {
+            throw new InvalidRequestException("zip has no items");
+        }
+    }
+}
@@ -1,21 +1,31 @@
 package com.flightstats.hub.dao.nas;
 
+import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.dao.ContentMarshaller;
 import com.flightstats.hub.dao.ContentService;
+import com.flightstats.hub.dao.Dao;
+import com.flightstats.hub.dao.HistoricalBackfill;
+import com.flightstats.hub.dao.QueryCache;
 import com.flightstats.hub.dao.aws.MultiPartParser;
 import com.flightstats.hub.exception.ContentTooLargeException;
 import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
 import com.flightstats.hub.spoke.FileSpokeStore;
+import com.flightstats.hub.util.PayloadBuffer;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.flightstats.hub.channel.ChannelVolumes;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 import java.util.function.Consumer;
 
@@ -23,11 +33,26 @@ public class NasContentService implements ContentService {
     private final static Logger logger = LoggerFactory.getLogger(NasContentService.class);
 
     private final FileSpokeStore fileSpokeStore;
+    private final QueryCache queryCache = new QueryCache();
+    @Inject(optional = true)
+    @Named("ChannelConfig")
+    private Dao<ChannelConfig> channelConfigDao;
+    @Inject(optional = true)
+    private ChannelService channelService;
 
     public NasContentService() {
+        this(null);
+    }
+
+    @Inject
+    public NasContentService(ChannelVolumes channelVolumes) {
         String contentPath = NasUtil.getContentPath();
         logger.info("using {}", contentPath);
-        fileSpokeStore = new FileSpokeStore(contentPath);
+        fileSpokeStore = new FileSpokeStore(contentPath, channelVolumes);
+        if (channelVolumes != null) {
+            //a single server can't miss any writes while it is down
+            channelVolumes.repaired(new DateTime(0, DateTimeZone.UTC), TimeUtil.now());
+        }
     }
 
     @Override
@@ -35,13 +60,20 @@ public class NasContentService implements ContentService {
         Traces traces = ActiveTraces.getLocal();
         traces.add("NasContentService.insert");
         try {
-            byte[] payload = ContentMarshaller.toBytes(content);
+            PayloadBuffer payload = ContentMarshaller.toBuffer(content, getChannelConfig(channelName), false);
             traces.add("NasContentService.insert marshalled");
             ContentKey key = content.keyAndStart(TimeUtil.now());
+            if (!content.isNew()) {
+                queryCache.invalidateAfter(channelName, key.getTime());
+            }
             String path = getPath(channelName, key);
             logger.trace("writing key {} to channel {}", key, channelName);
-            if (!fileSpokeStore.insert(path, payload)) {
-                logger.warn("failed to  for " + path);
+            try (InputStream input = payload.asByteSource().openStream()) {
+                if (!fileSpokeStore.insert(path, input)) {
+                    logger.warn("failed to  for " + path);
+                }
+            } finally {
+                payload.reset();
             }
             traces.add("NasContentService.insert end", key);
             return key;
@@ -55,6 +87,13 @@ public class NasContentService implements ContentService {
         }
     }
 
+    private ChannelConfig getChannelConfig(String channelName) {
+        if (channelConfigDao == null) {
+            return null;
+        }
+        return channelConfigDao.getCached(channelName);
+    }
+
     @Override
     public Collection<ContentKey> insert(BulkContent bulkContent) throws Exception {
         Collection<ContentKey> keys = new ArrayList<>();
@@ -67,8 +106,18 @@ public class NasContentService implements ContentService {
     }
 
     @Override
-    public boolean historicalInsert(String channelName, Content content) {
-        return false;
+    public boolean historicalInsert(String channelName, Content content) throws Exception {
+        insert(channelName, content);
+        return true;
+    }
+
+    @Override
+    public Collection<ContentKey> backfill(String channelName, List<Content> items) {
+        return HistoricalBackfill.write(channelName, items, (minute, minuteItems) -> {
+            for (Content item : minuteItems) {
+                insert(channelName, item);
+            }
+        });
     }
 
     private String getPath(String channelName, ContentKey key) {
@@ -101,6 +150,19 @@ public class NasContentService implements ContentService {
 
     @Override
     public Collection<ContentKey> queryByTime(TimeQuery query) {
+        String channelName = query.getChannelName();
+        return queryCache.queryByTime(query, getChannelConfig(channelName), getStableTime(channelName), () -> readByTime(query));
+    }
+
+    private DateTime getStableTime(String channelName) {
+        ContentKey stable = new ContentKey(TimeUtil.stable());
+        if (channelService == null) {
+            return stable.getTime();
+        }
+        return channelService.getLastUpdated(channelName, stable).getTime();
+    }
+
+    private Collection<ContentKey> readByTime(TimeQuery query) {
         String path = query.getChannelName() + "/" + query.getUnit().format(query.getStartTime());
         Traces traces = ActiveTraces.getLocal();
         traces.add("query by time", path);
@@ -112,6 +174,7 @@ public class NasContentService implements ContentService {
 
     @Override
     public void delete(String channelName) {
+        queryCache.delete(channelName);
         try {
             fileSpokeStore.delete(channelName);
         } catch (Exception e) {
@@ -121,6 +184,11 @@ public class NasContentService implements ContentService {
 
     @Override
     public Collection<ContentKey> queryDirection(DirectionQuery query) {
+        String channelName = query.getChannelName();
+        return queryCache.queryDirection(query, getChannelConfig(channelName), getStableTime(channelName), () -> readDirection(query));
+    }
+
+    private Collection<ContentKey> readDirection(DirectionQuery query) {
         TreeSet<ContentKey> keys = new TreeSet<>();
         TimeUtil.Unit hours = TimeUtil.Unit.HOURS;
         DateTime time = query.getContentKey().getTime();
@@ -163,8 +231,18 @@ public class NasContentService implements ContentService {
         throw new UnsupportedOperationException("deleteBefore is not supported");
     }
 
+    @Override
+    public void notify(ChannelConfig newConfig, ChannelConfig oldConfig) {
+        queryCache.invalidate(newConfig.getName());
+    }
+
+    QueryCache getQueryCache() {
+        return queryCache;
+    }
+
     public void enforceTtl(String channelName, DateTime dateTime) {
         logger.info("enforcing ttl for {} at {}", channelName, dateTime);
         fileSpokeStore.enforceTtl(channelName, dateTime);
+        queryCache.invalidateBefore(channelName, dateTime);
     }
 }
@@ -1,6 +1,7 @@
 package com.flightstats.hub.dao.nas;
 
 import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.dao.CachedDao;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.dao.TtlEnforcer;
 import com.flightstats.hub.model.ChannelConfig;
@@ -26,7 +27,7 @@ public class NasTtlEnforcer {
 
     @Inject
     public NasTtlEnforcer() {
-        HubServices.register(new NasTtlEnforcerService());
+        HubServices.register(new NasTtlEnforcerService()).dependsOn(CachedDao.class);
     }
 
     private Consumer<ChannelConfig> handleCleanup() {
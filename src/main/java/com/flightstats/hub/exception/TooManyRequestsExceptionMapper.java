@@ -0,0 +1,26 @@
+package com.flightstats.hub.exception;
+
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.google.inject.Singleton;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * JAX-RS 2.0 has no Status for 429, so this doesn't use AbstractExceptionMapper.
+ */
+@Provider
+@Singleton
+public class TooManyRequestsExceptionMapper implements ExceptionMapper<TooManyRequestsException> {
+
+    @Override
+    public Response toResponse(TooManyRequestsException exception) {
+        ActiveTraces.getLocal().add(exception);
+        ActiveTraces.end();
+        return Response.status(429)
+                .header("Retry-After", exception.getRetryAfterSeconds())
+                .entity(exception.getMessage())
+                .build();
+    }
+}
@@ -0,0 +1,74 @@
+package com.flightstats.hub.filter;
+
+import com.flightstats.hub.model.CompressedPayload;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Items stored as raw deflate are written to gzip clients as they were stored.
+ * This runs before GZipEncoder, and does not proceed, so the payload is never inflated and deflated again.
+ */
+@Provider
+@Priority(Priorities.ENTITY_CODER - 100)
+public class StoredGzipInterceptor implements WriterInterceptor {
+
+    public static final String GZIP = "gzip";
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        Object entity = context.getEntity();
+        if (entity instanceof Output
+                && GZIP.equals(context.getHeaders().getFirst("Content-Encoding"))) {
+            ((Output) entity).write(context.getOutputStream());
+        } else {
+            context.proceed();
+        }
+    }
+
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (StringUtils.isBlank(acceptEncoding)) {
+            return false;
+        }
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            if (GZIP.equalsIgnoreCase(parts[0].trim())) {
+                return parts.length == 1 || !isZeroQuality(parts[1]);
+            }
+        }
+        return false;
+    }
+
+    private static boolean isZeroQuality(String parameter) {
+        String[] pair = parameter.trim().split("=");
+        if (pair.length != 2 || !"q".equals(pair[0].trim())) {
+            return false;
+        }
+        try {
+            return Double.parseDouble(pair[1].trim()) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public static class Output implements StreamingOutput {
+
+        private final CompressedPayload payload;
+
+        public Output(CompressedPayload payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public void write(OutputStream output) throws IOException {
+            payload.writeGzip(output);
+        }
+    }
+}
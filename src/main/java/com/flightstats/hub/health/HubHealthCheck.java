@@ -2,6 +2,7 @@ package com.flightstats.hub.health;
 
 import com.flightstats.hub.app.FinalCheck;
 import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.spoke.SpokeClusterRegister;
 import com.google.common.util.concurrent.AbstractIdleService;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -21,7 +22,7 @@ public class HubHealthCheck {
     private final AtomicBoolean startup = new AtomicBoolean(true);
 
     public HubHealthCheck() {
-        HubServices.register(new HealthService(), HubServices.TYPE.SET_HEALTHY);
+        HubServices.register(new HealthService(), HubServices.TYPE.SET_HEALTHY).dependsOn(SpokeClusterRegister.class);
     }
 
     private class HealthService extends AbstractIdleService {
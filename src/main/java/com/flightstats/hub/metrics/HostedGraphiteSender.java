@@ -2,110 +2,183 @@ package com.flightstats.hub.metrics;
 
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubServices;
-import com.flightstats.hub.util.Sleeper;
-import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.AbstractScheduledService;
 import com.google.inject.Inject;
+import com.timgroup.statsd.StatsDClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.concurrent.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Aggregates metrics for flushSeconds, then writes them to hosted graphite as one batch through a buffered socket.
+ * Batches which can not be written are kept, up to backlogBytes, and the oldest are dropped beyond that.
+ * A failed connection is retried at the next flush, so sending a metric never waits on graphite.
+ */
 public class HostedGraphiteSender implements MetricsSender {
     private final static Logger logger = LoggerFactory.getLogger(HostedGraphiteSender.class);
+    private final static StatsDClient statsd = DataDog.statsd;
 
-    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(10000);
+    private final MetricsAggregator aggregator = new MetricsAggregator();
+    private final Deque<byte[]> backlog = new ArrayDeque<>();
     private final String host;
     private final int port;
     private final String graphitePrefix;
-    private CallableSender callableSender;
+    private final int flushSeconds;
+    private final long backlogBytes;
+    private long backlogSize;
+    private long dropped;
+    private Socket socket;
+    private OutputStream stream;
 
     @Inject
-    public HostedGraphiteSender()
-            throws IOException {
-        this.host = HubProperties.getProperty("hosted_graphite.host", "carbon.hostedgraphite.com");
-        this.port = HubProperties.getProperty("hosted_graphite.port", 2003);
-
-        this.graphitePrefix = HubProperties.getProperty("hosted_graphite.apikey", "XYZ")
-                + "." + HubProperties.getProperty("app.name", "hub")
-                + "." + HubProperties.getProperty("app.environment", "dev");
-        callableSender = new CallableSender();
+    public HostedGraphiteSender() {
+        this(HubProperties.getProperty("hosted_graphite.host", "carbon.hostedgraphite.com"),
+                HubProperties.getProperty("hosted_graphite.port", 2003),
+                HubProperties.getProperty("hosted_graphite.apikey", "XYZ")
+                        + "." + HubProperties.getProperty("app.name", "hub")
+                        + "." + HubProperties.getProperty("app.environment", "dev"),
+                HubProperties.getProperty("hosted_graphite.flushSeconds", 10),
+                HubProperties.getProperty("hosted_graphite.backlogBytes", 8 * 1024 * 1024));
         HubServices.register(new HostedGraphiteSenderService());
     }
 
+    HostedGraphiteSender(String host, int port, String graphitePrefix, int flushSeconds, long backlogBytes) {
+        this.host = host;
+        this.port = port;
+        this.graphitePrefix = graphitePrefix;
+        this.flushSeconds = flushSeconds;
+        this.backlogBytes = backlogBytes;
+    }
+
     @Override
     public void send(String name, Object value) {
-        if (name.contains(".test")) {
-            return;
+        if (!name.contains(".test")) {
+            aggregator.send(name, value);
         }
-        try {
-            logger.trace("{} to send {}", name, value);
-            queue.add(name + " " + value + " " + System.currentTimeMillis() / 1000 + "\n");
-        } catch (Exception e) {
-            logger.warn("unable to add graphite metric to queue {}", value);
+    }
+
+    @Override
+    public void count(String name, long value) {
+        if (!name.contains(".test")) {
+            aggregator.count(name, value);
         }
     }
 
-    private class HostedGraphiteSenderService extends AbstractIdleService {
-        @Override
-        protected void startUp() throws Exception {
-            if (callableSender == null) {
-                return;
-            }
-            callableSender.connect();
-            Executors.newSingleThreadExecutor().submit(callableSender);
+    @Override
+    public void gauge(String name, double value) {
+        if (!name.contains(".test")) {
+            aggregator.gauge(name, value);
         }
+    }
 
-        @Override
-        protected void shutDown() throws Exception {
+    /**
+     * Adds the metrics aggregated since the last flush to the backlog, then writes as much of the backlog as it can.
+     */
+    synchronized void flush() {
+        long seconds = System.currentTimeMillis() / 1000;
+        StringBuilder batch = new StringBuilder();
+        String suffix = " " + seconds + "\n";
+        int lines = aggregator.flush((name, value) ->
+                batch.append(graphitePrefix).append('.').append(name).append(' ').append(value).append(suffix));
+        batch.append(graphitePrefix).append(".graphite.dropped ").append(dropped).append(suffix);
+        batch.append(graphitePrefix).append(".graphite.backlog ").append(backlogSize).append(suffix);
+        statsd.count("graphite.lines", lines);
+        statsd.gauge("graphite.backlog", backlogSize);
+        dropped = 0;
+        add(batch.toString().getBytes(StandardCharsets.UTF_8));
+        write();
+    }
+
+    private void add(byte[] batch) {
+        backlog.addLast(batch);
+        backlogSize += batch.length;
+        while (backlogSize > backlogBytes && backlog.size() > 1) {
+            byte[] oldest = backlog.removeFirst();
+            backlogSize -= oldest.length;
+            int lines = lines(oldest);
+            dropped += lines;
+            statsd.count("graphite.dropped", lines);
+        }
+    }
+
+    private void write() {
+        try {
+            if (stream == null) {
+                socket = new Socket();
+                socket.connect(new InetSocketAddress(host, port), 10 * 1000);
+                socket.setKeepAlive(true);
+                socket.setSoTimeout(10 * 1000);
+                stream = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                logger.info("connected to " + host + " " + port);
+            }
+            while (!backlog.isEmpty()) {
+                byte[] batch = backlog.peekFirst();
+                stream.write(batch);
+                stream.flush();
+                backlog.removeFirst();
+                backlogSize -= batch.length;
+            }
+        } catch (IOException e) {
+            logger.warn("unable to send to " + host + " " + port + " backlog " + backlogSize + " " + e.getMessage());
+            close();
         }
     }
 
-    class CallableSender implements Callable<Object> {
-        private DataOutputStream stream;
-
-        void connect() {
-            while (true) {
-                try {
-                    Socket socket = new Socket(host, port);
-                    socket.setKeepAlive(true);
-                    socket.setSoTimeout(10 * 1000);
-                    stream = new DataOutputStream(socket.getOutputStream());
-                    logger.info("connected to " + host + " " + port);
-                    return;
-                } catch (IOException e) {
-                    logger.warn("unable to connect to " + host + " " + port, e);
-                    Sleeper.sleep(1000);
-                }
+    private void close() {
+        try {
+            if (socket != null) {
+                socket.close();
             }
+        } catch (IOException e) {
+            logger.debug("unable to close", e);
         }
+        socket = null;
+        stream = null;
+    }
 
-        @Override
-        public Object call() throws Exception {
-            while (true) {
-                try {
-                    String value = queue.poll(10, TimeUnit.SECONDS);
-                    if (value != null) {
-                        send(graphitePrefix + "." + value);
-                    }
-                } catch (Exception e) {
-                    logger.error("unable to send value to graphite", e);
-                }
+    synchronized long getBacklogSize() {
+        return backlogSize;
+    }
+
+    private static int lines(byte[] batch) {
+        int lines = 0;
+        for (byte b : batch) {
+            if (b == '\n') {
+                lines++;
             }
         }
+        return lines;
+    }
 
-        void send(String toSend) throws IOException {
-            logger.trace("sending value {}", toSend);
+    private class HostedGraphiteSenderService extends AbstractScheduledService {
+        @Override
+        protected void runOneIteration() throws Exception {
             try {
-                stream.writeBytes(toSend);
+                flush();
             } catch (Exception e) {
-                logger.warn("unable to send " + toSend, e);
-                connect();
-                stream.writeBytes(toSend);
+                logger.warn("unable to flush to graphite", e);
             }
         }
+
+        @Override
+        protected void shutDown() throws Exception {
+            flush();
+            close();
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            return Scheduler.newFixedDelaySchedule(flushSeconds, flushSeconds, TimeUnit.SECONDS);
+        }
     }
 
 }
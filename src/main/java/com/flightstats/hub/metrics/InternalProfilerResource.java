@@ -0,0 +1,96 @@
+package com.flightstats.hub.metrics;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.SortedMap;
+
+@SuppressWarnings("WeakerAccess")
+@Path("/internal/profiler")
+public class InternalProfilerResource {
+
+    private static final StackSampler stackSampler = HubProvider.getInstance(StackSampler.class);
+    public static final String DESCRIPTION = "Thread samples by pool, with folded stacks for flame graphs over the latest windows.";
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getProfile(@QueryParam("windows") @DefaultValue("5") int windows) {
+        if (invalid(windows)) {
+            return badWindows();
+        }
+        ObjectNode root = InternalTracesResource.serverAndServers("/internal/profiler");
+        String folded = root.get("server").asText() + "/folded?windows=" + windows;
+        root.with("_links").with("folded").put("href", folded);
+        root.with("_links").with("runnable").put("href", folded + "&state=runnable");
+        root.put("samples", stackSampler.getSamples());
+        root.put("delayMillis", stackSampler.getDelayMillis());
+        root.put("averageSampleMicros", stackSampler.getAverageSampleMicros());
+        root.put("overhead", stackSampler.getOverhead());
+        root.put("windowSeconds", stackSampler.getWindowMillis() / 1000);
+        ArrayNode windowsNode = root.putArray("windows");
+        for (long[] window : stackSampler.getWindows(windows)) {
+            ObjectNode node = windowsNode.addObject();
+            node.put("start", TimeUtil.FORMATTER.print(new DateTime(window[0], DateTimeZone.UTC)));
+            node.put("samples", window[1]);
+            node.put("stacks", window[2]);
+        }
+        ObjectNode pools = root.putObject("pools");
+        for (Map.Entry<String, Long> entry : stackSampler.getPools(windows).entrySet()) {
+            ObjectNode pool = pools.putObject(entry.getKey());
+            pool.put("samples", entry.getValue());
+            pool.put("href", folded + "&pool=" + entry.getKey());
+        }
+        return Response.ok(root).build();
+    }
+
+    /**
+     * Folded stacks, one per line, with the samples of each, for flamegraph.pl and similar tools.
+     */
+    @GET
+    @Path("folded")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response getFolded(@QueryParam("windows") @DefaultValue("5") int windows,
+                              @QueryParam("pool") String pool,
+                              @QueryParam("state") @DefaultValue("all") String state) {
+        if (invalid(windows)) {
+            return badWindows();
+        }
+        if (!state.equals("all") && !state.equals("runnable")) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("state must be all or runnable").build();
+        }
+        SortedMap<String, Long> folded = stackSampler.getFolded(windows, pool, state.equals("runnable"));
+        StreamingOutput output = stream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+            for (Map.Entry<String, Long> entry : folded.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write(' ');
+                writer.write(Long.toString(entry.getValue()));
+                writer.write('\n');
+            }
+            writer.flush();
+        };
+        return Response.ok(output).build();
+    }
+
+    private boolean invalid(int windows) {
+        return windows < 1 || windows > stackSampler.getMaxWindows();
+    }
+
+    private Response badWindows() {
+        return Response.status(Response.Status.BAD_REQUEST)
+                .entity("windows must be from 1 to " + stackSampler.getMaxWindows()).build();
+    }
+}
@@ -0,0 +1,101 @@
+package com.flightstats.hub.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Aggregates metrics between flushes, so each name is shipped once per interval, however often it is sent:
+ * samples are averaged, counters summed, and the latest value of a gauge is kept.
+ * A name which has nothing to flush twice in a row is dropped, and recreated when it is next sent.
+ */
+public class MetricsAggregator implements MetricsSender {
+
+    private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    private enum Kind {
+        SAMPLE, COUNTER, GAUGE
+    }
+
+    @Override
+    public void send(String name, Object value) {
+        if (value instanceof Number) {
+            Metric metric = get(name, Kind.SAMPLE);
+            metric.sum.add(((Number) value).doubleValue());
+            metric.updates.increment();
+        }
+    }
+
+    @Override
+    public void count(String name, long value) {
+        Metric metric = get(name, Kind.COUNTER);
+        metric.sum.add(value);
+        metric.updates.increment();
+    }
+
+    @Override
+    public void gauge(String name, double value) {
+        Metric metric = get(name, Kind.GAUGE);
+        metric.gauge = value;
+        metric.updates.increment();
+    }
+
+    private Metric get(String name, Kind kind) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            metric = metrics.computeIfAbsent(name, key -> new Metric(kind));
+        }
+        return metric;
+    }
+
+    /**
+     * Passes each name with updates since the last flush to output, with its aggregated value.
+     *
+     * @return the number of names flushed
+     */
+    public int flush(BiConsumer<String, String> output) {
+        int flushed = 0;
+        for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+            Metric metric = entry.getValue();
+            long updates = metric.updates.sumThenReset();
+            if (updates == 0) {
+                if (++metric.idle > 1) {
+                    metrics.remove(entry.getKey(), metric);
+                }
+                continue;
+            }
+            metric.idle = 0;
+            double sum = metric.sum.sumThenReset();
+            if (metric.kind == Kind.SAMPLE) {
+                output.accept(entry.getKey(), format(sum / updates));
+            } else if (metric.kind == Kind.COUNTER) {
+                output.accept(entry.getKey(), format(sum));
+            } else {
+                output.accept(entry.getKey(), format(metric.gauge));
+            }
+            flushed++;
+        }
+        return flushed;
+    }
+
+    static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) {
+            return Long.toString((long) value);
+        }
+        return String.format("%.3f", value);
+    }
+
+    private static class Metric {
+        private final Kind kind;
+        private final DoubleAdder sum = new DoubleAdder();
+        private final LongAdder updates = new LongAdder();
+        private volatile double gauge;
+        private int idle;
+
+        private Metric(Kind kind) {
+            this.kind = kind;
+        }
+    }
+}
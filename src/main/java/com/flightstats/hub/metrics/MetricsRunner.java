@@ -2,6 +2,7 @@ package com.flightstats.hub.metrics;
 
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.util.BufferPool;
 import com.flightstats.hub.util.FileUtil;
 import com.google.common.util.concurrent.AbstractScheduledService;
 import com.google.inject.Inject;
@@ -63,9 +64,10 @@ public class MetricsRunner {
         long openFiles = getOpenFiles();
         if (openFiles >= 0) {
             logger.info("open files {}", openFiles);
-            metricsSender.send("openFiles", openFiles);
+            metricsSender.gauge("openFiles", openFiles);
             newRelic(openFiles);
         }
+        BufferPool.report(metricsSender);
     }
 
     @Trace(metricName = "MetricsRunner", dispatcher = true)
@@ -1,5 +1,23 @@
 package com.flightstats.hub.metrics;
 
 public interface MetricsSender {
+
+    /**
+     * A sample, such as a time, which may be averaged with the other samples of name.
+     */
     void send(String name, Object value);
+
+    /**
+     * Adds value to the counter name, which may be summed.
+     */
+    default void count(String name, long value) {
+        send(name, value);
+    }
+
+    /**
+     * Sets the gauge name, of which only the latest value matters.
+     */
+    default void gauge(String name, double value) {
+        send(name, value);
+    }
 }
@@ -31,4 +31,14 @@ public class MetricsTimer implements MetricsSender {
         statsd.count("timer", (Long) value, "name:" + name);
         sender.send(name, value);
     }
+
+    @Override
+    public void count(String name, long value) {
+        sender.count(name, value);
+    }
+
+    @Override
+    public void gauge(String name, double value) {
+        sender.gauge(name, value);
+    }
 }
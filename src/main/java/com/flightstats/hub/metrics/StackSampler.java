@@ -0,0 +1,276 @@
+package com.flightstats.hub.metrics;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Samples the stack of every thread every sampleMillis, and counts them as folded stacks, the input of flame graphs,
+ * rooted at the pool the thread belongs to.  Counts are kept in windows of windowSeconds, the latest windows of which
+ * are retained.
+ * Each sample briefly pauses the application, so the delay until the next sample is stretched to keep the time
+ * spent sampling under maxOverhead of the elapsed time.
+ */
+@Singleton
+public class StackSampler {
+    private final static Logger logger = LoggerFactory.getLogger(StackSampler.class);
+
+    private static final Pattern TRAILING_NUMBER = Pattern.compile("[-_ #]*\\d+$");
+    private static final Pattern EXECUTORS_POOL = Pattern.compile("^pool-\\d+-thread$");
+    static final String OTHER = "[other]";
+    static final String TRUNCATED = "[truncated]";
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final Deque<Window> windows = new ArrayDeque<>();
+    private final int sampleMillis;
+    private final double maxOverhead;
+    private final int maxDepth;
+    private final long windowMillis;
+    private final int maxWindows;
+    private final int maxStacks;
+    private final long started = System.nanoTime();
+    private long samples;
+    private long sampleNanos;
+    private long delayMillis;
+
+    @Inject
+    public StackSampler() {
+        this(HubProperties.getProperty("profiler.sampleMillis", 100),
+                HubProperties.getProperty("profiler.maxOverhead", 0.01),
+                HubProperties.getProperty("profiler.maxDepth", 128),
+                HubProperties.getProperty("profiler.windowSeconds", 60),
+                HubProperties.getProperty("profiler.windows", 15),
+                HubProperties.getProperty("profiler.maxStacks", 20_000));
+        if (HubProperties.getProperty("profiler.enable", true)) {
+            HubServices.register(new StackSamplerService());
+        }
+    }
+
+    StackSampler(int sampleMillis, double maxOverhead, int maxDepth, int windowSeconds, int maxWindows, int maxStacks) {
+        this.sampleMillis = sampleMillis;
+        this.maxOverhead = maxOverhead;
+        this.maxDepth = maxDepth;
+        this.windowMillis = TimeUnit.SECONDS.toMillis(windowSeconds);
+        this.maxWindows = maxWindows;
+        this.maxStacks = maxStacks;
+        this.delayMillis = sampleMillis;
+    }
+
+    /**
+     * Samples every thread other than the calling one.
+     *
+     * @return the delay until the next sample
+     */
+    long sample() {
+        long start = System.nanoTime();
+        long self = Thread.currentThread().getId();
+        ThreadInfo[] infos = threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds(), maxDepth);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Window window = getWindow(now);
+            window.samples++;
+            for (ThreadInfo info : infos) {
+                if (info != null && info.getThreadId() != self) {
+                    window.add(info);
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            samples++;
+            sampleNanos += nanos;
+            delayMillis = Math.max(sampleMillis, (long) (nanos / maxOverhead / 1_000_000));
+            return delayMillis;
+        }
+    }
+
+    private Window getWindow(long now) {
+        Window window = windows.peekLast();
+        if (window == null || now >= window.start + windowMillis) {
+            window = new Window(now - now % windowMillis);
+            windows.addLast(window);
+            while (windows.size() > maxWindows) {
+                windows.removeFirst();
+            }
+        }
+        return window;
+    }
+
+    /**
+     * @return the name of the pool a thread belongs to, which is the name without its trailing number
+     */
+    static String pool(String threadName) {
+        String pool;
+        if (threadName.startsWith("qtp")) {
+            pool = "jetty";
+        } else if (threadName.contains("webhook-")) {
+            pool = "webhook";
+        } else {
+            pool = TRAILING_NUMBER.matcher(threadName).replaceFirst("");
+            if (EXECUTORS_POOL.matcher(pool).matches()) {
+                pool = "pool";
+            } else if (pool.isEmpty()) {
+                pool = threadName;
+            }
+        }
+        return pool.replace(';', '_').replace(' ', '_');
+    }
+
+    /**
+     * @return the folded stacks of the latest windows, with the samples of each, optionally limited to one pool
+     * and to threads which were runnable.
+     */
+    synchronized SortedMap<String, Long> getFolded(int latest, String pool, boolean runnable) {
+        SortedMap<String, Long> folded = new TreeMap<>();
+        for (Window window : getLatest(latest)) {
+            for (Map.Entry<String, long[]> entry : window.stacks.entrySet()) {
+                String stack = entry.getKey();
+                long count = entry.getValue()[runnable ? 1 : 0];
+                if (count > 0 && (pool == null || stack.startsWith(pool + ";"))) {
+                    folded.merge(stack, count, Long::sum);
+                }
+            }
+        }
+        return folded;
+    }
+
+    /**
+     * @return the thread samples of each pool in the latest windows
+     */
+    synchronized SortedMap<String, Long> getPools(int latest) {
+        SortedMap<String, Long> pools = new TreeMap<>();
+        for (Window window : getLatest(latest)) {
+            window.pools.forEach((pool, count) -> pools.merge(pool, count, Long::sum));
+        }
+        return pools;
+    }
+
+    /**
+     * @return the start, samples and distinct stacks of each of the latest windows
+     */
+    synchronized List<long[]> getWindows(int latest) {
+        List<long[]> list = new ArrayList<>();
+        for (Window window : getLatest(latest)) {
+            list.add(new long[]{window.start, window.samples, window.stacks.size()});
+        }
+        return list;
+    }
+
+    private List<Window> getLatest(int latest) {
+        List<Window> list = new ArrayList<>(windows);
+        return list.subList(Math.max(0, list.size() - latest), list.size());
+    }
+
+    synchronized long getSamples() {
+        return samples;
+    }
+
+    synchronized double getAverageSampleMicros() {
+        return samples == 0 ? 0 : sampleNanos / 1000.0 / samples;
+    }
+
+    /**
+     * @return the fraction of the time since starting spent sampling
+     */
+    synchronized double getOverhead() {
+        return (double) sampleNanos / (System.nanoTime() - started);
+    }
+
+    synchronized long getDelayMillis() {
+        return delayMillis;
+    }
+
+    int getMaxWindows() {
+        return maxWindows;
+    }
+
+    long getWindowMillis() {
+        return windowMillis;
+    }
+
+    private class Window {
+        private final long start;
+        private final Map<String, long[]> stacks = new HashMap<>();
+        private final Map<String, Long> pools = new HashMap<>();
+        private long samples;
+
+        private Window(long start) {
+            this.start = start;
+        }
+
+        private void add(ThreadInfo info) {
+            String pool = pool(info.getThreadName());
+            StackTraceElement[] elements = info.getStackTrace();
+            StringBuilder builder = new StringBuilder(pool);
+            if (elements.length >= maxDepth) {
+                builder.append(';').append(TRUNCATED);
+            }
+            for (int i = elements.length - 1; i >= 0; i--) {
+                StackTraceElement element = elements[i];
+                String className = element.getClassName();
+                //lambdas are named with a hash which changes between runs
+                int lambda = className.indexOf('/');
+                if (lambda > 0) {
+                    className = className.substring(0, lambda);
+                }
+                builder.append(';').append(className).append('.').append(element.getMethodName());
+            }
+            String stack = builder.toString();
+            long[] counts = stacks.get(stack);
+            if (counts == null) {
+                if (stacks.size() >= maxStacks) {
+                    stack = pool + ";" + OTHER;
+                    counts = stacks.get(stack);
+                }
+                if (counts == null) {
+                    counts = new long[2];
+                    stacks.put(stack, counts);
+                }
+            }
+            counts[0]++;
+            if (info.getThreadState() == Thread.State.RUNNABLE) {
+                counts[1]++;
+            }
+            pools.merge(pool, 1L, Long::sum);
+        }
+    }
+
+    private class StackSamplerService extends AbstractScheduledService {
+
+        private long delay;
+
+        @Override
+        protected void startUp() throws Exception {
+            logger.info("sampling stacks every {} ms, up to {} overhead", sampleMillis, maxOverhead);
+        }
+
+        @Override
+        protected void runOneIteration() throws Exception {
+            try {
+                delay = sample();
+            } catch (Exception e) {
+                logger.warn("unable to sample stacks", e);
+                delay = windowMillis;
+            }
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            return new CustomScheduler() {
+                @Override
+                protected Schedule getNextSchedule() throws Exception {
+                    return new Schedule(delay == 0 ? sampleMillis : delay, TimeUnit.MILLISECONDS);
+                }
+            };
+        }
+    }
+}
@@ -24,6 +24,7 @@ public class ChannelConfig implements Serializable, NamedType {
     public static final String SINGLE = "SINGLE";
     private static final String BATCH = "BATCH";
     private static final String BOTH = "BOTH";
+    public static final String AUTO = "AUTO";
     private static final long serialVersionUID = 1L;
     private static final Gson gson = new GsonBuilder().registerTypeAdapter(Date.class, new HubDateTypeAdapter()).create();
     private final String name;
@@ -37,6 +38,9 @@ public class ChannelConfig implements Serializable, NamedType {
     private final String storage;
     private final GlobalConfig global;
     private final boolean historical;
+    private final String compression;
+    private final long maxItemsPerSecond;
+    private final long maxBytesPerSecond;
 
     private ChannelConfig(Builder builder) {
         name = StringUtils.trim(builder.name);
@@ -79,6 +83,13 @@ public class ChannelConfig implements Serializable, NamedType {
         } else {
             tags.remove(BuiltInTag.HISTORICAL.toString());
         }
+        if (StringUtils.isBlank(builder.compression)) {
+            compression = AUTO;
+        } else {
+            compression = StringUtils.upperCase(builder.compression);
+        }
+        maxItemsPerSecond = builder.maxItemsPerSecond;
+        maxBytesPerSecond = builder.maxBytesPerSecond;
     }
 
     public static ChannelConfig fromJson(String json) {
@@ -159,6 +170,21 @@ public class ChannelConfig implements Serializable, NamedType {
         return storage;
     }
 
+    @JsonProperty("compression")
+    public String getCompression() {
+        return compression;
+    }
+
+    @JsonProperty("maxItemsPerSecond")
+    public long getMaxItemsPerSecond() {
+        return maxItemsPerSecond;
+    }
+
+    @JsonProperty("maxBytesPerSecond")
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
     @JsonProperty("global")
     public GlobalConfig getGlobal() {
         return global;
@@ -241,6 +267,15 @@ public class ChannelConfig implements Serializable, NamedType {
         if (isHistorical() != otherConfig.isHistorical()) {
             return true;
         }
+        if (!StringUtils.equals(getCompression(), otherConfig.getCompression())) {
+            return true;
+        }
+        if (getMaxItemsPerSecond() != otherConfig.getMaxItemsPerSecond()) {
+            return true;
+        }
+        if (getMaxBytesPerSecond() != otherConfig.getMaxBytesPerSecond()) {
+            return true;
+        }
         return false;
     }
 
@@ -257,6 +292,9 @@ public class ChannelConfig implements Serializable, NamedType {
         private String storage;
         private GlobalConfig global;
         private boolean historical;
+        private String compression;
+        private long maxItemsPerSecond = 0;
+        private long maxBytesPerSecond = 0;
 
         public Builder() {
         }
@@ -273,6 +311,9 @@ public class ChannelConfig implements Serializable, NamedType {
             this.storage = config.storage;
             this.global = config.global;
             this.historical = config.historical;
+            this.compression = config.compression;
+            this.maxItemsPerSecond = config.maxItemsPerSecond;
+            this.maxBytesPerSecond = config.maxBytesPerSecond;
             return this;
         }
 
@@ -309,6 +350,15 @@ public class ChannelConfig implements Serializable, NamedType {
             if (rootNode.has("historical")) {
                 withHistorical(rootNode.get("historical").asBoolean());
             }
+            if (rootNode.has("compression")) {
+                withCompression(rootNode.get("compression").asText());
+            }
+            if (rootNode.has("maxItemsPerSecond")) {
+                withMaxItemsPerSecond(rootNode.get("maxItemsPerSecond").asLong());
+            }
+            if (rootNode.has("maxBytesPerSecond")) {
+                withMaxBytesPerSecond(rootNode.get("maxBytesPerSecond").asLong());
+            }
             return this;
         }
 
@@ -378,5 +428,20 @@ public class ChannelConfig implements Serializable, NamedType {
             this.historical = historical;
             return this;
         }
+
+        public Builder withCompression(String compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        public Builder withMaxItemsPerSecond(long maxItemsPerSecond) {
+            this.maxItemsPerSecond = maxItemsPerSecond;
+            return this;
+        }
+
+        public Builder withMaxBytesPerSecond(long maxBytesPerSecond) {
+            this.maxBytesPerSecond = maxBytesPerSecond;
+            return this;
+        }
     }
 }
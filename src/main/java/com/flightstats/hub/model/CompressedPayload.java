@@ -0,0 +1,51 @@
+package com.flightstats.hub.model;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * A payload as it was stored, a raw deflate stream with the crc32 and size of the uncompressed bytes.
+ * Wrapping it with a gzip header and trailer gives a valid gzip stream without inflating or deflating.
+ */
+@Getter
+public class CompressedPayload implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    private final long crc;
+    private final long size;
+
+    public CompressedPayload(byte[] bytes, int offset, int length, long crc, long size) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.crc = crc;
+        this.size = size;
+    }
+
+    public long getGzipLength() {
+        return GZIP_HEADER.length + length + 8;
+    }
+
+    public void writeGzip(OutputStream output) throws IOException {
+        output.write(GZIP_HEADER);
+        output.write(bytes, offset, length);
+        writeIntLE(output, crc);
+        writeIntLE(output, size);
+    }
+
+    private static void writeIntLE(OutputStream output, long value) throws IOException {
+        output.write((int) (value & 0xff));
+        output.write((int) ((value >> 8) & 0xff));
+        output.write((int) ((value >> 16) & 0xff));
+        output.write((int) ((value >> 24) & 0xff));
+    }
+}
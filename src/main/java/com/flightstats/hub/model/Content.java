@@ -1,11 +1,12 @@
 package com.flightstats.hub.model;
 
 import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.util.BufferPool;
 import com.google.common.base.Optional;
-import com.google.common.io.ByteStreams;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
+import org.apache.commons.io.IOUtils;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +28,7 @@ public class Content implements Serializable {
     private InputStream stream;
     private byte[] data;
     private Optional<ContentKey> contentKey = Optional.absent();
+    private final Optional<CompressedPayload> compressed;
     @Setter
     private Long size;
 
@@ -35,6 +37,10 @@ public class Content implements Serializable {
         isNew = !getContentKey().isPresent();
         contentType = builder.contentType;
         stream = builder.stream;
+        compressed = builder.compressed;
+        if (compressed.isPresent()) {
+            size = compressed.get().getSize();
+        }
     }
 
     public static Builder builder() {
@@ -65,8 +71,8 @@ public class Content implements Serializable {
 
     public byte[] getData() {
         if (data == null && stream != null) {
-            try {
-                data = ByteStreams.toByteArray(stream);
+            try (InputStream input = stream) {
+                data = BufferPool.toByteArray(input);
                 stream = null;
             } catch (EOFException e) {
                 logger.info("file ended early {}", contentKey);
@@ -77,6 +83,15 @@ public class Content implements Serializable {
         return data;
     }
 
+    /**
+     * Releases the stream, and the connection it may hold, of content which will not be read.
+     */
+    public void closeStream() {
+        if (stream != null) {
+            IOUtils.closeQuietly(stream);
+        }
+    }
+
     public Long getSize() {
         if (size == null) {
             if (data == null) {
@@ -91,6 +106,7 @@ public class Content implements Serializable {
         private Optional<String> contentType = Optional.absent();
         public Optional<ContentKey> contentKey = Optional.absent();
         private InputStream stream;
+        private Optional<CompressedPayload> compressed = Optional.absent();
 
         public Builder withContentType(String contentType) {
             this.contentType = Optional.fromNullable(contentType);
@@ -112,6 +128,11 @@ public class Content implements Serializable {
             return this;
         }
 
+        public Builder withCompressed(CompressedPayload compressed) {
+            this.compressed = Optional.fromNullable(compressed);
+            return this;
+        }
+
         public Content build() {
             return new Content(this);
         }
@@ -2,28 +2,49 @@ package com.flightstats.hub.replication;
 
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.dao.LocalChannelService;
 import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentPath;
 import com.flightstats.hub.util.HubUtils;
 import com.flightstats.hub.webhook.Webhook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
 
 class ChannelReplicator implements Replicator {
 
+    private final static Logger logger = LoggerFactory.getLogger(ChannelReplicator.class);
+
     private static final HubUtils hubUtils = HubProvider.getInstance(HubUtils.class);
+    private static final LastContentPath lastContentPath = HubProvider.getInstance(LastContentPath.class);
 
     private ChannelConfig channel;
+    private final AtomicBoolean catchingUp = new AtomicBoolean();
+    private volatile PullReplicator catchUpReplicator;
 
     ChannelReplicator(ChannelConfig channel) {
         this.channel = channel;
     }
 
+    /**
+     * Starts from the last replicated key, so a webhook removed by a catch up interrupted by a restart
+     * does not skip the backlog.  An existing webhook keeps its own position.
+     */
     public void start() {
+        ContentPath lastReplicated = getLastReplicated();
+        start(lastReplicated == null ? null : PullReplicator.toKey(lastReplicated));
+    }
+
+    private void start(ContentPath startItem) {
         Webhook.WebhookBuilder builder = Webhook.builder()
                 .name(getGroupName())
                 .callbackUrl(getCallbackUrl())
                 .channelUrl(channel.getReplicationSource())
                 .heartbeat(true)
                 .batch(Webhook.SECOND);
-        hubUtils.startWebhook(builder.build());
+        hubUtils.startWebhook(builder.build(), startItem);
     }
 
     private String getCallbackUrl() {
@@ -38,7 +59,52 @@ class ChannelReplicator implements Replicator {
         return channel;
     }
 
+    @Override
+    public String getName() {
+        return channel.getName();
+    }
+
+    @Override
+    public ContentPath getLastReplicated() {
+        return lastContentPath.getOrNull(channel.getName(), LocalChannelService.REPLICATED_LAST_UPDATED);
+    }
+
+    @Override
+    public int countAfter(ContentPath path, int limit) {
+        return PullReplicator.countAfter(channel.getReplicationSource(), PullReplicator.toKey(path), limit);
+    }
+
+    @Override
+    public boolean isCatchingUp() {
+        return catchingUp.get();
+    }
+
+    /**
+     * Removes the webhook from the source and pulls the backlog.
+     * Once caught up, the webhook starts again from the last replicated key.
+     */
+    @Override
+    public void catchUp() {
+        if (!catchingUp.compareAndSet(false, true)) {
+            return;
+        }
+        logger.info("catching up {} from {}", channel.getName(), channel.getReplicationSource());
+        stopWebhook();
+        catchUpReplicator = new PullReplicator(channel).catchUp(() -> {
+            start(PullReplicator.toKey(getLastReplicated()));
+            catchingUp.set(false);
+        });
+        catchUpReplicator.start();
+    }
+
     public void stop() {
+        if (catchUpReplicator != null) {
+            catchUpReplicator.stop();
+        }
+        stopWebhook();
+    }
+
+    private void stopWebhook() {
         hubUtils.stopGroupCallback(getGroupName(), channel.getReplicationSource());
     }
 
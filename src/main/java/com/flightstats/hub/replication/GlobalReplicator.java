@@ -1,23 +1,43 @@
 package com.flightstats.hub.replication;
 
 import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.model.BulkContent;
 import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.DirectionQuery;
+import com.flightstats.hub.rest.RestClient;
 import com.flightstats.hub.util.HubUtils;
 import com.flightstats.hub.webhook.Webhook;
 import com.flightstats.hub.webhook.WebhookService;
+import com.google.common.base.Optional;
+import com.sun.jersey.api.client.ClientResponse;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.flightstats.hub.webhook.WebhookService.WEBHOOK_LAST_COMPLETED;
+
 class GlobalReplicator implements Replicator {
 
     private final static Logger logger = LoggerFactory.getLogger(GlobalReplicator.class);
 
     private static final HubUtils hubUtils = HubProvider.getInstance(HubUtils.class);
     private static final WebhookService webhookService = HubProvider.getInstance(WebhookService.class);
+    private static final ChannelService channelService = HubProvider.getInstance(ChannelService.class);
+    private static final LastContentPath lastContentPath = HubProvider.getInstance(LastContentPath.class);
 
     private final String satellite;
     private final ChannelConfig channel;
+    private final AtomicBoolean catchingUp = new AtomicBoolean();
+    private volatile PullReplicator catchUpReplicator;
 
     GlobalReplicator(ChannelConfig channel, String satellite) {
         this.channel = channel;
@@ -31,13 +51,7 @@ class GlobalReplicator implements Replicator {
             hubUtils.putChannel(satellite + "internal/global/satellite/" + channelName, channel);
             String groupName = getGroupName();
             logger.info("put channel {} {}", channel, groupName);
-            Webhook webhook = Webhook.builder()
-                    .name(groupName)
-                    .callbackUrl(satellite + "internal/global/repl/" + channelName)
-                    .channelUrl(channel.getGlobal().getMaster() + "channel/" + channelName)
-                    .heartbeat(true)
-                    .batch(Webhook.SECOND)
-                    .build();
+            Webhook webhook = buildWebhook(false);
             webhookService.upsert(webhook);
             logger.info("upserted group {} {}", channel, webhook);
         } catch (Exception e) {
@@ -45,6 +59,21 @@ class GlobalReplicator implements Replicator {
         }
     }
 
+    private Webhook buildWebhook(boolean paused) {
+        return Webhook.builder()
+                .name(getGroupName())
+                .callbackUrl(satellite + "internal/global/repl/" + channel.getName())
+                .channelUrl(getChannelUrl())
+                .heartbeat(true)
+                .paused(paused)
+                .batch(Webhook.SECOND)
+                .build();
+    }
+
+    private String getChannelUrl() {
+        return channel.getGlobal().getMaster() + "channel/" + channel.getName();
+    }
+
     private String getGroupName() {
         return "Global_" + getKey();
     }
@@ -53,7 +82,80 @@ class GlobalReplicator implements Replicator {
         return channel;
     }
 
+    @Override
+    public String getName() {
+        return getKey();
+    }
+
+    @Override
+    public ContentPath getLastReplicated() {
+        return lastContentPath.getOrNull(getGroupName(), WEBHOOK_LAST_COMPLETED);
+    }
+
+    @Override
+    public int countAfter(ContentPath path, int limit) {
+        DirectionQuery query = DirectionQuery.builder()
+                .channelName(channel.getName())
+                .contentKey(PullReplicator.toKey(path))
+                .next(true)
+                .stable(true)
+                .count(limit)
+                .build();
+        return channelService.getKeys(query).size();
+    }
+
+    @Override
+    public boolean isCatchingUp() {
+        return catchingUp.get();
+    }
+
+    /**
+     * Pauses the webhook, and sends the backlog to the satellite in bulk, advancing the webhook's last completed.
+     * Once caught up, the webhook resumes after the last item sent.
+     */
+    @Override
+    public void catchUp() {
+        if (!catchingUp.compareAndSet(false, true)) {
+            return;
+        }
+        logger.info("catching up {}", getKey());
+        webhookService.upsert(buildWebhook(true));
+        PullReplicator.Source source = new PullReplicator.HttpSource(getChannelUrl(), channel.getName());
+        catchUpReplicator = new PullReplicator(channel, source, this::insertSatellite, lastContentPath,
+                getGroupName(), WEBHOOK_LAST_COMPLETED).catchUp(() -> {
+            webhookService.upsert(buildWebhook(false));
+            catchingUp.set(false);
+        });
+        catchUpReplicator.start();
+    }
+
+    private Collection<ContentKey> insertSatellite(BulkContent bulkContent) {
+        String url = satellite + "internal/global/repl/" + channel.getName() + "/bulk";
+        ClientResponse response = RestClient.defaultClient()
+                .resource(url)
+                .type(bulkContent.getContentType())
+                .post(ClientResponse.class, bulkContent.getStream());
+        try {
+            if (response.getStatus() != 200) {
+                throw new RuntimeException("unable to post to " + url + " " + response.getStatus());
+            }
+            List<ContentKey> keys = new ArrayList<>();
+            for (String line : StringUtils.split(response.getEntity(String.class), "\n")) {
+                Optional<ContentKey> key = ContentKey.fromUrl(line);
+                if (key.isPresent()) {
+                    keys.add(key.get());
+                }
+            }
+            return keys;
+        } finally {
+            response.close();
+        }
+    }
+
     public void stop() {
+        if (catchUpReplicator != null) {
+            catchUpReplicator.stop();
+        }
         webhookService.delete(getGroupName());
     }
 
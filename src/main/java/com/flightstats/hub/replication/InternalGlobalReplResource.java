@@ -2,19 +2,25 @@ package com.flightstats.hub.replication;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.dao.LocalChannelService;
+import com.flightstats.hub.model.BulkContent;
 import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.util.HubUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
 
 @Path("/internal/global/repl/{channel}")
 public class InternalGlobalReplResource {
@@ -24,6 +30,7 @@ public class InternalGlobalReplResource {
     private static final InternalReplicationResource resource = HubProvider.getInstance(InternalReplicationResource.class);
     private static final ChannelService channelService = HubProvider.getInstance(LocalChannelService.class);
     private static final HubUtils hubUtils = HubProvider.getInstance(HubUtils.class);
+    private static final LastContentPath lastReplicated = HubProvider.getInstance(LastContentPath.class);
 
     @POST
     public Response putPayload(@PathParam("channel") String channel, String data) throws IOException {
@@ -38,4 +45,34 @@ public class InternalGlobalReplResource {
         return resource.putPayload(channel, data);
     }
 
+    /**
+     * Writes a multipart backlog sent by the master while a satellite catches up.
+     *
+     * @return the url of each key written, one per line
+     */
+    @POST
+    @Path("bulk")
+    public Response putBulk(@PathParam("channel") String channel, @HeaderParam("Content-Type") String contentType,
+                            InputStream data) throws Exception {
+        BulkContent bulkContent = BulkContent.builder()
+                .stream(data)
+                .contentType(contentType)
+                .channel(channel)
+                .isNew(false)
+                .build();
+        Collection<ContentKey> keys = channelService.insert(bulkContent);
+        StringBuilder builder = new StringBuilder();
+        ContentKey last = null;
+        for (ContentKey key : keys) {
+            builder.append(key.toUrl()).append("\n");
+            if (last == null || key.compareTo(last) > 0) {
+                last = key;
+            }
+        }
+        if (last != null) {
+            lastReplicated.updateIncrease(last, channel, LocalChannelService.REPLICATED_LAST_UPDATED);
+        }
+        return Response.ok(builder.toString()).build();
+    }
+
 }
@@ -0,0 +1,38 @@
+package com.flightstats.hub.replication;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.app.HubProvider;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+@SuppressWarnings("WeakerAccess")
+@Path("/internal/replication")
+public class InternalReplicationLagResource {
+
+    private static final ObjectMapper mapper = HubProvider.getInstance(ObjectMapper.class);
+    private static final ReplicationLagMonitor monitor = HubProvider.getInstance(ReplicationLagMonitor.class);
+    public static final String DESCRIPTION = "Get the lag of each channel and global replicator.";
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getLags() {
+        ObjectNode root = mapper.createObjectNode();
+        ArrayNode replicators = root.putArray("replicators");
+        for (ReplicationLag lag : monitor.getLags()) {
+            ObjectNode node = replicators.addObject();
+            node.put("name", lag.getName());
+            node.put("channel", lag.getChannel());
+            node.put("lastReplicated", lag.getLastReplicated().toUrl());
+            node.put("lagMillis", lag.getLagMillis());
+            node.put("lagItems", lag.getLagItems());
+            node.put("catchingUp", lag.isCatchingUp());
+        }
+        return Response.ok(root).build();
+    }
+}
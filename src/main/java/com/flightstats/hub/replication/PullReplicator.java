@@ -0,0 +1,325 @@
+package com.flightstats.hub.replication;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubProvider;
+import com.flightstats.hub.channel.ChannelContentResource;
+import com.flightstats.hub.cluster.CuratorLeader;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.cluster.Leader;
+import com.flightstats.hub.cluster.Leadership;
+import com.flightstats.hub.dao.LocalChannelService;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.model.BulkContent;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.SecondPath;
+import com.flightstats.hub.rest.RestClient;
+import com.flightstats.hub.util.RuntimeInterruptedException;
+import com.flightstats.hub.util.Sleeper;
+import com.flightstats.hub.util.TimeUtil;
+import com.sun.jersey.api.client.ClientResponse;
+import com.timgroup.statsd.StatsDClient;
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.util.Collection;
+
+import static com.flightstats.hub.dao.LocalChannelService.REPLICATED_LAST_UPDATED;
+
+/**
+ * Replicates a channel by asking the source for the stable items after the last replicated key, many at a time,
+ * as one gzipped multipart stream, and writing each stream with a single bulk insert.
+ * The replicated key is only written to zookeeper every checkpointSeconds, and when new items bring the replicator
+ * up to date, so a channel behind by hours costs one request per pullItems items instead of two per second.
+ * Once it has every item, the replicator moves up to the stable time the source reports, never its own clock,
+ * as a replicating or historical source can be behind the clock, and source and destination clocks can differ.
+ * Both this and ChannelReplicator keep their place in ReplicatedLastUpdated, so a channel can switch between them.
+ * <p>
+ * With catchUp, a replicator stops once it is up to date, which lets webhook replication move a backlog in bulk.
+ */
+class PullReplicator implements Replicator, Leader {
+
+    private final static Logger logger = LoggerFactory.getLogger(PullReplicator.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final int pullItems = HubProperties.getProperty("replication.pullItems", 1000);
+    private final long checkpointMillis = HubProperties.getProperty("replication.checkpointSeconds", 5) * 1000L;
+    private final long idleMillis = HubProperties.getProperty("replication.idleMillis", 1000);
+
+    private final ChannelConfig channel;
+    private final Source source;
+    private final Sink sink;
+    private final LastContentPath lastContentPath;
+    private final String name;
+    private final String basePath;
+    private Runnable onCaughtUp;
+    private CuratorLeader curatorLeader;
+
+    interface Source {
+        /**
+         * @return the stable items after the key, up to count, with the source's stable time
+         */
+        Pull next(ContentKey key, int count) throws Exception;
+    }
+
+    static class Pull {
+        private final BulkContent bulkContent;
+        private final DateTime stableTime;
+
+        /**
+         * @param bulkContent the items, or null if there are none
+         * @param stableTime  the time up to which the source had every item, or null if it does not say
+         */
+        Pull(BulkContent bulkContent, DateTime stableTime) {
+            this.bulkContent = bulkContent;
+            this.stableTime = stableTime;
+        }
+    }
+
+    interface Sink {
+        /**
+         * @return the keys written
+         */
+        Collection<ContentKey> insert(BulkContent bulkContent) throws Exception;
+    }
+
+    PullReplicator(ChannelConfig channel) {
+        this(channel, new HttpSource(channel.getReplicationSource(), channel.getName()),
+                HubProvider.getInstance(LocalChannelService.class)::insert,
+                HubProvider.getInstance(LastContentPath.class), channel.getName(), REPLICATED_LAST_UPDATED);
+    }
+
+    /**
+     * @param name     the name of the replicated key in lastContentPath
+     * @param basePath the base path of the replicated key in lastContentPath
+     */
+    PullReplicator(ChannelConfig channel, Source source, Sink sink, LastContentPath lastContentPath,
+                   String name, String basePath) {
+        this.channel = channel;
+        this.source = source;
+        this.sink = sink;
+        this.lastContentPath = lastContentPath;
+        this.name = name;
+        this.basePath = basePath;
+    }
+
+    PullReplicator catchUp(Runnable onCaughtUp) {
+        this.onCaughtUp = onCaughtUp;
+        return this;
+    }
+
+    public void start() {
+        if (onCaughtUp == null) {
+            new ChannelReplicator(channel).stop();
+        }
+        curatorLeader = new CuratorLeader("/PullReplicator" + basePath + name, this);
+        curatorLeader.start();
+    }
+
+    @Override
+    public void stop() {
+        if (curatorLeader != null) {
+            curatorLeader.close();
+        }
+    }
+
+    @Override
+    public ChannelConfig getChannel() {
+        return channel;
+    }
+
+    @Override
+    public String getName() {
+        return channel.getName();
+    }
+
+    @Override
+    public ContentPath getLastReplicated() {
+        return lastContentPath.getOrNull(name, basePath);
+    }
+
+    @Override
+    public int countAfter(ContentPath path, int limit) {
+        return countAfter(channel.getReplicationSource(), toKey(path), limit);
+    }
+
+    @Override
+    public boolean isCatchingUp() {
+        return false;
+    }
+
+    /**
+     * A pulling replicator always moves a backlog in bulk.
+     */
+    @Override
+    public void catchUp() {
+    }
+
+    @Override
+    public void takeLeadership(Leadership leadership) {
+        logger.info("pulling {} {} from {}", basePath, name, channel.getReplicationSource());
+        try {
+            if (replicate(leadership) && onCaughtUp != null) {
+                logger.info("caught up {} {}", basePath, name);
+                onCaughtUp.run();
+                stop();
+            }
+        } catch (RuntimeInterruptedException e) {
+            logger.info("interrupted pulling {} {}", basePath, name);
+        }
+    }
+
+    /**
+     * @return true if replication stopped because it caught up
+     */
+    boolean replicate(Leadership leadership) {
+        ContentPath start = lastContentPath.get(name, ContentKey.lastKey(TimeUtil.stable()), basePath);
+        ContentKey cursor = toKey(start);
+        ContentKey checkpoint = cursor;
+        long checkpointTime = System.currentTimeMillis();
+        int errors = 0;
+        try {
+            while (leadership.hasLeadership()) {
+                try {
+                    long pullStart = System.currentTimeMillis();
+                    Pull pull = source.next(cursor, pullItems);
+                    BulkContent bulkContent = pull.bulkContent;
+                    int items = 0;
+                    if (bulkContent != null) {
+                        Collection<ContentKey> keys;
+                        try {
+                            keys = sink.insert(bulkContent);
+                        } finally {
+                            IOUtils.closeQuietly(bulkContent.getStream());
+                        }
+                        items = keys.size();
+                        for (ContentKey key : keys) {
+                            cursor = max(cursor, key);
+                        }
+                        statsd.count("replication.pull.items", items, "channel:" + channel.getName());
+                    }
+                    statsd.time("replication.pull", System.currentTimeMillis() - pullStart, "channel:" + channel.getName());
+                    boolean caughtUp = items < pullItems;
+                    if (caughtUp && pull.stableTime != null) {
+                        cursor = max(cursor, ContentKey.lastKey(pull.stableTime));
+                    }
+                    errors = 0;
+                    if (caughtUp && onCaughtUp != null) {
+                        return true;
+                    }
+                    if ((caughtUp && items > 0) || System.currentTimeMillis() - checkpointTime >= checkpointMillis) {
+                        checkpoint = checkpoint(cursor, checkpoint);
+                        checkpointTime = System.currentTimeMillis();
+                    }
+                    if (caughtUp) {
+                        Sleeper.sleep(idleMillis);
+                    }
+                } catch (RuntimeInterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    errors++;
+                    logger.warn("unable to pull " + basePath + name + " after " + cursor, e);
+                    Sleeper.sleep(Math.min(60 * 1000, idleMillis * errors));
+                }
+            }
+            return false;
+        } finally {
+            checkpoint(cursor, checkpoint);
+        }
+    }
+
+    private ContentKey checkpoint(ContentKey cursor, ContentKey checkpoint) {
+        if (!cursor.equals(checkpoint)) {
+            lastContentPath.updateIncrease(cursor, name, basePath);
+        }
+        return cursor;
+    }
+
+    /**
+     * ChannelReplicator saves the last completed second, which includes every item in that second.
+     */
+    static ContentKey toKey(ContentPath path) {
+        if (path instanceof ContentKey) {
+            return (ContentKey) path;
+        }
+        if (path instanceof SecondPath) {
+            return ContentKey.lastKey(path.getTime().plusSeconds(1).minusMillis(1));
+        }
+        return ContentKey.lastKey(path.getTime());
+    }
+
+    private static ContentKey max(ContentKey first, ContentKey second) {
+        return first.compareTo(second) >= 0 ? first : second;
+    }
+
+    static String getNextUrl(String source, ContentKey key, int count) {
+        return source + "/" + key.toUrl() + "/next/" + count + "?bulk=true&stable=true";
+    }
+
+    /**
+     * @return how many stable items the channel has after the key, up to limit
+     */
+    static int countAfter(String channelUrl, ContentKey key, int limit) {
+        String url = channelUrl + "/" + key.toUrl() + "/next/" + limit + "?stable=true";
+        ClientResponse response = RestClient.defaultClient()
+                .resource(url)
+                .accept(MediaType.APPLICATION_JSON)
+                .get(ClientResponse.class);
+        try {
+            if (response.getStatus() != 200) {
+                throw new RuntimeException("unable to get " + url + " " + response.getStatus());
+            }
+            JsonNode uris = mapper.readTree(response.getEntity(String.class)).get("_links").get("uris");
+            return uris == null ? 0 : uris.size();
+        } catch (IOException e) {
+            throw new RuntimeException("unable to read " + url, e);
+        } finally {
+            response.close();
+        }
+    }
+
+    static class HttpSource implements Source {
+
+        private final String channelUrl;
+        private final String channelName;
+
+        HttpSource(String channelUrl, String channelName) {
+            this.channelUrl = channelUrl;
+            this.channelName = channelName;
+        }
+
+        @Override
+        public Pull next(ContentKey key, int count) throws Exception {
+            String url = getNextUrl(channelUrl, key, count);
+            ClientResponse response = RestClient.gzipClient()
+                    .resource(url)
+                    .accept("multipart/mixed")
+                    .get(ClientResponse.class);
+            if (response.getStatus() != 200) {
+                response.close();
+                throw new RuntimeException("unable to get " + url + " " + response.getStatus());
+            }
+            String stableTime = response.getHeaders().getFirst(ChannelContentResource.STABLE_TIME);
+            DateTime stable = stableTime == null ? null : TimeUtil.FORMATTER.parseDateTime(stableTime);
+            if (!response.getHeaders().containsKey("Link")) {
+                response.close();
+                return new Pull(null, stable);
+            }
+            BulkContent bulkContent = BulkContent.builder()
+                    .stream(response.getEntityInputStream())
+                    .contentType(response.getHeaders().getFirst("Content-Type"))
+                    .channel(channelName)
+                    .isNew(false)
+                    .build();
+            return new Pull(bulkContent, stable);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.flightstats.hub.replication;
 
+import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.cluster.WatchManager;
 import com.flightstats.hub.cluster.Watcher;
 import com.flightstats.hub.dao.ChannelService;
@@ -13,10 +14,12 @@ import org.apache.curator.framework.api.CuratorEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -36,6 +39,7 @@ import static com.flightstats.hub.app.HubServices.register;
  * HubA is setup to Replicate a channel from HubB
  * Replication starts at the item after now, and then stays up to date, with some minimal amount of lag.
  * Lag is a minimum of 'app.stable_seconds'.
+ * By default the source calls back with each second's items, with 'replication.pull' the destination pulls them.
  * <p>
  * Scenario B:
  * Producers are inserting Items into a Global Hub channel
@@ -46,11 +50,13 @@ public class ReplicationGlobalManager {
     private final static Logger logger = LoggerFactory.getLogger(ReplicationGlobalManager.class);
     private static final String REPLICATOR_WATCHER_PATH = "/replicator/watcher";
 
+    private final boolean pull = HubProperties.getProperty("replication.pull", false);
+
     private ChannelService channelService;
     private WatchManager watchManager;
 
-    private final Map<String, Replicator> channelReplicatorMap = new HashMap<>();
-    private final Map<String, Replicator> globalReplicatorMap = new HashMap<>();
+    private final Map<String, Replicator> channelReplicatorMap = new ConcurrentHashMap<>();
+    private final Map<String, Replicator> globalReplicatorMap = new ConcurrentHashMap<>();
     private final AtomicBoolean stopped = new AtomicBoolean();
     private final ExecutorService executor = Executors.newSingleThreadExecutor(
             new ThreadFactoryBuilder().setNameFormat("ReplicationGlobalManager").build());
@@ -151,7 +157,7 @@ public class ReplicationGlobalManager {
     private void processChannel(Set<String> replicators, ChannelConfig channel) {
         replicators.add(channel.getName());
         if (channelReplicatorMap.containsKey(channel.getName())) {
-            ChannelReplicator replicator = (ChannelReplicator) channelReplicatorMap.get(channel.getName());
+            Replicator replicator = channelReplicatorMap.get(channel.getName());
             if (!replicator.getChannel().getReplicationSource().equals(channel.getReplicationSource())) {
                 logger.info("changing replication source from {} to {}",
                         replicator.getChannel().getReplicationSource(), channel.getReplicationSource());
@@ -179,9 +185,15 @@ public class ReplicationGlobalManager {
         executorPool.submit(() -> {
             try {
                 logger.debug("starting replication of " + channel);
-                ChannelReplicator channelReplicator = new ChannelReplicator(channel);
-                channelReplicatorMap.put(channel.getName(), channelReplicator);
-                channelReplicator.start();
+                if (pull) {
+                    PullReplicator pullReplicator = new PullReplicator(channel);
+                    channelReplicatorMap.put(channel.getName(), pullReplicator);
+                    pullReplicator.start();
+                } else {
+                    ChannelReplicator channelReplicator = new ChannelReplicator(channel);
+                    channelReplicatorMap.put(channel.getName(), channelReplicator);
+                    channelReplicator.start();
+                }
             } catch (Exception e) {
                 channelReplicatorMap.remove(channel.getName());
                 logger.warn("unexpected replication issue " + channel, e);
@@ -189,6 +201,12 @@ public class ReplicationGlobalManager {
         });
     }
 
+    Collection<Replicator> getReplicators() {
+        Collection<Replicator> replicators = new ArrayList<>(channelReplicatorMap.values());
+        replicators.addAll(globalReplicatorMap.values());
+        return replicators;
+    }
+
     public void notifyWatchers() {
         watchManager.notifyWatcher(REPLICATOR_WATCHER_PATH);
     }
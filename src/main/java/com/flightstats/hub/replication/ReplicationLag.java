@@ -0,0 +1,16 @@
+package com.flightstats.hub.replication;
+
+import com.flightstats.hub.model.ContentPath;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+class ReplicationLag {
+    private final String name;
+    private final String channel;
+    private final ContentPath lastReplicated;
+    private final long lagMillis;
+    private final int lagItems;
+    private final boolean catchingUp;
+}
@@ -0,0 +1,132 @@
+package com.flightstats.hub.replication;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.timgroup.statsd.StatsDClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.flightstats.hub.app.HubServices.TYPE;
+import static com.flightstats.hub.app.HubServices.register;
+
+/**
+ * Every lagSeconds, measures how far each channel and global replicator is behind its source,
+ * as the time from its last replicated path to the stable time, and the number of stable items after it.
+ * Counting items lists the source, so each pass counts at most lagCounts replicators, least recently counted first,
+ * and the others keep their previous count.
+ * A replicator more than catchUpSeconds behind is switched to moving its backlog in bulk,
+ * and goes back to per second delivery once it has caught up.
+ */
+@Singleton
+public class ReplicationLagMonitor {
+
+    private final static Logger logger = LoggerFactory.getLogger(ReplicationLagMonitor.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    private final int lagSeconds = HubProperties.getProperty("replication.lagSeconds", 30);
+    private final int catchUpSeconds = HubProperties.getProperty("replication.catchUpSeconds", 300);
+    private final int countLimit = HubProperties.getProperty("replication.lagCountLimit", 1000);
+    private final int counts = HubProperties.getProperty("replication.lagCounts", 5);
+    private final Map<String, ReplicationLag> lags = new ConcurrentHashMap<>();
+    private final Map<String, Long> counted = new ConcurrentHashMap<>();
+    private long passes;
+
+    @Inject
+    private ReplicationGlobalManager replicationGlobalManager;
+
+    @Inject
+    public ReplicationLagMonitor() {
+        if (lagSeconds > 0) {
+            register(new ReplicationLagService(), TYPE.AFTER_HEALTHY_START, TYPE.PRE_STOP)
+                    .dependsOn(ReplicationGlobalManager.class);
+        }
+    }
+
+    Collection<ReplicationLag> getLags() {
+        return new TreeMap<>(lags).values();
+    }
+
+    void update(Collection<Replicator> replicators) {
+        passes++;
+        Set<String> names = new HashSet<>();
+        Set<String> toCount = replicators.stream()
+                .map(Replicator::getName)
+                .sorted(Comparator.comparing(name -> counted.getOrDefault(name, 0L)))
+                .limit(counts)
+                .collect(Collectors.toSet());
+        for (Replicator replicator : replicators) {
+            String name = replicator.getName();
+            names.add(name);
+            try {
+                ReplicationLag lag = measure(replicator, toCount.contains(name));
+                if (lag == null) {
+                    continue;
+                }
+                lags.put(name, lag);
+                String[] tags = {"channel:" + replicator.getChannel().getName(), "replicator:" + name};
+                statsd.gauge("replication.lag.millis", lag.getLagMillis(), tags);
+                statsd.gauge("replication.lag.items", lag.getLagItems(), tags);
+                if (catchUpSeconds > 0 && !lag.isCatchingUp()
+                        && lag.getLagMillis() > TimeUnit.SECONDS.toMillis(catchUpSeconds)) {
+                    logger.info("{} is behind by {} ms and {} items, catching up", name, lag.getLagMillis(), lag.getLagItems());
+                    statsd.increment("replication.catchUp", tags);
+                    replicator.catchUp();
+                }
+            } catch (Exception e) {
+                logger.warn("unable to measure lag for " + name, e);
+            }
+        }
+        lags.keySet().retainAll(names);
+        counted.keySet().retainAll(names);
+    }
+
+    private ReplicationLag measure(Replicator replicator, boolean count) {
+        ContentPath lastReplicated = replicator.getLastReplicated();
+        if (lastReplicated == null) {
+            return null;
+        }
+        long lagMillis = Math.max(0, TimeUtil.stable().getMillis() - lastReplicated.getTime().getMillis());
+        int lagItems = 0;
+        if (lagMillis > 0) {
+            if (count) {
+                lagItems = replicator.countAfter(lastReplicated, countLimit);
+                counted.put(replicator.getName(), passes);
+            } else if (lags.containsKey(replicator.getName())) {
+                lagItems = lags.get(replicator.getName()).getLagItems();
+            }
+        }
+        return new ReplicationLag(replicator.getName(), replicator.getChannel().getName(), lastReplicated,
+                lagMillis, lagItems, replicator.isCatchingUp());
+    }
+
+    private class ReplicationLagService extends AbstractScheduledService {
+        @Override
+        protected void runOneIteration() throws Exception {
+            try {
+                update(replicationGlobalManager.getReplicators());
+            } catch (Exception e) {
+                logger.warn("unable to update replication lag", e);
+            }
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            return Scheduler.newFixedDelaySchedule(lagSeconds, lagSeconds, TimeUnit.SECONDS);
+        }
+    }
+}
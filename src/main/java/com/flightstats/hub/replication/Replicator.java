@@ -1,5 +1,32 @@
 package com.flightstats.hub.replication;
 
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentPath;
+
 public interface Replicator {
     void stop();
+
+    ChannelConfig getChannel();
+
+    /**
+     * @return the name the replicator's lag is reported as
+     */
+    String getName();
+
+    /**
+     * @return the last replicated path, or null if nothing has been replicated
+     */
+    ContentPath getLastReplicated();
+
+    /**
+     * @return how many stable items are after the path and still need to be replicated, up to limit
+     */
+    int countAfter(ContentPath path, int limit);
+
+    boolean isCatchingUp();
+
+    /**
+     * Moves the backlog in bulk, and then goes back to replicating each second.
+     */
+    void catchUp();
 }
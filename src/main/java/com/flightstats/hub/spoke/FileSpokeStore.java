@@ -1,10 +1,14 @@
 package com.flightstats.hub.spoke;
 
 import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.channel.ChannelVolumes;
+import com.flightstats.hub.dao.ContentMarshaller;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.BufferPool;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
@@ -17,20 +21,26 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.NotFoundException;
 import java.io.*;
-import java.util.Arrays;
-import java.util.Collection;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiConsumer;
 
 /**
  * Direct interactions with the file system
  */
-public class FileSpokeStore {
+public class FileSpokeStore implements SpokePeer {
 
     private final static Logger logger = LoggerFactory.getLogger(FileSpokeStore.class);
     private static final int ttlMinutes = HubProperties.getSpokeTtl();
     private final String storagePath;
+    private final ChannelVolumes channelVolumes;
+
+    public FileSpokeStore(String storagePath) {
+        this(storagePath, null);
+    }
 
     @Inject
-    public FileSpokeStore(@Named("spoke.path") String storagePath) {
+    public FileSpokeStore(@Named("spoke.path") String storagePath, ChannelVolumes channelVolumes) {
         this.storagePath = StringUtils.appendIfMissing(storagePath, "/");
         logger.info("starting with storage path " + this.storagePath);
         if (!insert("hub-startup/" + new ContentKey().toUrl(), ("" + System.currentTimeMillis()).getBytes())) {
@@ -40,19 +50,28 @@ public class FileSpokeStore {
         if (file.canExecute()) {
             logger.warn("**** Spoke file permissions may allow incomplete reads ****");
         }
+        this.channelVolumes = channelVolumes;
     }
 
     public boolean insert(String path, byte[] payload) {
         return insert(path, new ByteArrayInputStream(payload));
     }
 
+    /**
+     * Items which are new to this server are recorded in the ChannelVolumes, so retries and repairs aren't counted twice.
+     * The payload size is recorded, rather than the compressed bytes stored, when the item's trailer has it.
+     */
     public boolean insert(String path, InputStream input) {
         File file = spokeFilePathPart(path);
         logger.trace("insert {} {} {}", file, file.getParentFile().mkdirs(), file.canExecute());
+        boolean exists = channelVolumes != null && file.exists();
         try (FileOutputStream output = new FileOutputStream(file)) {
-            long copy = ByteStreams.copy(input, output);
+            long copy = BufferPool.copy(input, output);
             boolean setExecutable = file.setExecutable(true);
             logger.trace("copied {} {} {}", file, copy, setExecutable);
+            if (channelVolumes != null && !exists) {
+                record(path, getPayloadSize(file, copy));
+            }
             return true;
         } catch (IOException e) {
             logger.info("unable to write to " + path, e);
@@ -60,6 +79,24 @@ public class FileSpokeStore {
         }
     }
 
+    private long getPayloadSize(File file, long stored) {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            long size = ContentMarshaller.getPayloadSize(input);
+            return size < 0 ? stored : size;
+        } catch (IOException e) {
+            logger.info("unable to read the payload size of " + file, e);
+            return stored;
+        }
+    }
+
+    private void record(String path, long bytes) {
+        String channel = StringUtils.substringBefore(path, "/");
+        Optional<ContentKey> key = ContentKey.fromUrl(StringUtils.substringAfter(path, "/"));
+        if (key.isPresent()) {
+            channelVolumes.record(channel, key.get(), bytes);
+        }
+    }
+
     public byte[] read(String path) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         read(path, baos);
@@ -77,7 +114,7 @@ public class FileSpokeStore {
             throw new NotFoundException("incomplete file " + path);
         }
         try (FileInputStream input = new FileInputStream(file)) {
-            ByteStreams.copy(input, output);
+            BufferPool.copy(input, output);
         } catch (FileNotFoundException e) {
             logger.debug("file not found {}", path);
         } catch (IOException e) {
@@ -85,6 +122,107 @@ public class FileSpokeStore {
         }
     }
 
+    /**
+     * Writes each complete item as the length and bytes of its key, then the length and bytes of its payload.
+     * Missing and incomplete items are skipped, and a key length of -1 ends the stream.
+     */
+    void readAll(String channel, String[] keys, OutputStream output) throws IOException {
+        DataOutputStream dataOutput = new DataOutputStream(output);
+        for (String key : keys) {
+            if (StringUtils.isBlank(key)) {
+                continue;
+            }
+            File file = spokeFilePathPart(channel + "/" + key);
+            if (!file.exists() || !file.canExecute()) {
+                continue;
+            }
+            try (FileInputStream input = new FileInputStream(file)) {
+                byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                dataOutput.writeInt(keyBytes.length);
+                dataOutput.write(keyBytes);
+                dataOutput.writeInt((int) file.length());
+                BufferPool.copy(ByteStreams.limit(input, file.length()), dataOutput);
+            } catch (FileNotFoundException e) {
+                logger.debug("file not found {}", key);
+            }
+        }
+        dataOutput.writeInt(-1);
+        dataOutput.flush();
+    }
+
+    /**
+     * @return a stream of the complete item, or null if this server doesn't have it
+     */
+    InputStream openStream(String path) {
+        File file = spokeFilePathPart(path);
+        if (!file.exists() || !file.canExecute()) {
+            return null;
+        }
+        try {
+            return new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            logger.debug("file not found {}", path);
+            return null;
+        }
+    }
+
+    @Override
+    public Map<String, Long> getChannelDigests(DateTime start, DateTime end) {
+        Map<String, Long> digests = new HashMap<>();
+        String[] channels = new File(storagePath).list();
+        if (channels != null) {
+            for (String channel : channels) {
+                SortedMap<String, Long> minuteDigests = getMinuteDigests(channel, start, end);
+                if (!minuteDigests.isEmpty()) {
+                    digests.put(channel, SpokeDigest.minutes(minuteDigests));
+                }
+            }
+        }
+        return digests;
+    }
+
+    @Override
+    public SortedMap<String, Long> getMinuteDigests(String channel, DateTime start, DateTime end) {
+        SortedMap<String, Long> digests = new TreeMap<>();
+        for (DateTime minute = start; minute.isBefore(end); minute = minute.plusMinutes(1)) {
+            String minutePath = TimeUtil.minutes(minute);
+            List<String> keys = getKeys(channel, minutePath);
+            if (!keys.isEmpty()) {
+                digests.put(minutePath, SpokeDigest.keys(keys));
+            }
+        }
+        return digests;
+    }
+
+    @Override
+    public List<String> getKeys(String channel, String minute) {
+        List<String> keys = new ArrayList<>();
+        File[] files = new File(storagePath + channel + "/" + minute).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && file.canExecute()) {
+                    keys.add(spokeKeyFromPath(minute + "/" + file.getName()));
+                }
+            }
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    @Override
+    public void readAll(String channel, Collection<String> keys, BiConsumer<String, byte[]> consumer) {
+        for (String key : keys) {
+            InputStream input = openStream(channel + "/" + key);
+            if (input != null) {
+                try (InputStream stream = input) {
+                    consumer.accept(key, BufferPool.toByteArray(stream));
+                } catch (IOException e) {
+                    logger.info("unable to read " + channel + " " + key, e);
+                }
+            }
+        }
+    }
+
     public String readKeysInBucket(String path) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         keysInBucket(path, baos);
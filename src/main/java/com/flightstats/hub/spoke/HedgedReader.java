@@ -0,0 +1,161 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.metrics.Traces;
+import com.flightstats.hub.util.RuntimeInterruptedException;
+import com.timgroup.statsd.StatsDClient;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Reads from one server, and if it hasn't answered within the hedge delay, from the next server as well.
+ * The first server to return a value wins, the reads of the others are interrupted,
+ * and values they still return are discarded.
+ * The hedge delay is a percentile of recent read times, so only the slowest reads are hedged.
+ */
+class HedgedReader {
+
+    private static final int SAMPLES = 1000;
+    private static final int RECALCULATE = 100;
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    private final ExecutorService executorService;
+    private final long minMillis;
+    private final long maxMillis;
+
+    private final LatencySampler sampler;
+    private volatile long delayMillis;
+
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    HedgedReader(ExecutorService executorService, double percentile, long minMillis, long maxMillis) {
+        this.executorService = executorService;
+        this.sampler = new LatencySampler(SAMPLES, RECALCULATE, percentile);
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+        this.delayMillis = maxMillis;
+    }
+
+    /**
+     * @param reader  returns the value from a server, or null if the server doesn't have it
+     * @param discard releases values which lost the race
+     * @return the first value returned, or null if no server has it
+     */
+    <T> T read(List<String> servers, Function<String, T> reader, Consumer<T> discard) {
+        if (servers.isEmpty()) {
+            return null;
+        }
+        Traces traces = ActiveTraces.getLocal();
+        AtomicBoolean found = new AtomicBoolean();
+        CompletionService<T> completionService = new ExecutorCompletionService<>(executorService);
+        List<Future<T>> futures = new ArrayList<>();
+        Iterator<String> remaining = servers.iterator();
+        int pending = 0;
+        boolean hedged = false;
+        try {
+            submit(completionService, futures, remaining.next(), reader, discard, found, traces);
+            pending++;
+            while (pending > 0) {
+                Future<T> done;
+                if (remaining.hasNext()) {
+                    done = completionService.poll(delayMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    done = completionService.take();
+                }
+                if (done == null) {
+                    if (!hedged) {
+                        hedged = true;
+                        hedges.increment();
+                        statsd.increment("spoke.read.hedge");
+                    }
+                    submit(completionService, futures, remaining.next(), reader, discard, found, traces);
+                    pending++;
+                    continue;
+                }
+                pending--;
+                T value = getQuietly(done);
+                if (value != null) {
+                    if (done != futures.get(0)) {
+                        hedgeWins.increment();
+                        statsd.increment("spoke.read.hedge.won");
+                    }
+                    return value;
+                }
+                if (pending == 0 && remaining.hasNext()) {
+                    submit(completionService, futures, remaining.next(), reader, discard, found, traces);
+                    pending++;
+                }
+            }
+            return null;
+        } catch (InterruptedException e) {
+            throw new RuntimeInterruptedException(e);
+        } finally {
+            found.set(true);
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private <T> void submit(CompletionService<T> completionService, List<Future<T>> futures, String server,
+                            Function<String, T> reader, Consumer<T> discard, AtomicBoolean found, Traces traces) {
+        futures.add(completionService.submit(() -> {
+            if (found.get()) {
+                return null;
+            }
+            ActiveTraces.setLocal(traces);
+            try {
+                long start = System.currentTimeMillis();
+                T value = reader.apply(server);
+                if (value == null) {
+                    return null;
+                }
+                record(System.currentTimeMillis() - start);
+                if (found.compareAndSet(false, true)) {
+                    return value;
+                }
+                discard.accept(value);
+                return null;
+            } finally {
+                ActiveTraces.setLocal(null);
+            }
+        }));
+    }
+
+    private static <T> T getQuietly(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException | CancellationException e) {
+            return null;
+        }
+    }
+
+    void record(long millis) {
+        long value = sampler.add(millis);
+        if (value >= 0) {
+            delayMillis = Math.max(minMillis, Math.min(maxMillis, value));
+            statsd.gauge("spoke.read.hedgeMillis", delayMillis);
+        }
+    }
+
+    long getDelayMillis() {
+        return delayMillis;
+    }
+
+    long getHedges() {
+        return hedges.sum();
+    }
+
+    long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+}
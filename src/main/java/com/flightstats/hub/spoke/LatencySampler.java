@@ -0,0 +1,45 @@
+package com.flightstats.hub.spoke;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latencies in a ring, and recalculates a percentile of them every recalculate samples.
+ */
+class LatencySampler {
+
+    private final long[] samples;
+    private final int recalculate;
+    private final double percentile;
+    private int position;
+    private boolean filled;
+    private int uncalculated;
+
+    LatencySampler(int size, int recalculate, double percentile) {
+        this.samples = new long[size];
+        this.recalculate = recalculate;
+        this.percentile = percentile;
+    }
+
+    /**
+     * @return the percentile, if this sample recalculated it, otherwise -1
+     */
+    long add(long millis) {
+        long[] snapshot;
+        synchronized (this) {
+            samples[position] = millis;
+            position++;
+            if (position == samples.length) {
+                position = 0;
+                filled = true;
+            }
+            uncalculated++;
+            if (uncalculated < recalculate) {
+                return -1;
+            }
+            uncalculated = 0;
+            snapshot = Arrays.copyOf(samples, filled ? samples.length : position);
+        }
+        Arrays.sort(snapshot);
+        return snapshot[(int) Math.min(snapshot.length - 1, Math.floor(snapshot.length * percentile / 100))];
+    }
+}
@@ -0,0 +1,153 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.metrics.DataDog;
+import com.timgroup.statsd.StatsDClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the write latency of each spoke server, as an EWMA and a p99 of recent writes.
+ * A server is degraded after consecutive failures, or when its EWMA is well above the other servers'.
+ * The quorum wait is based on the p99 of the healthy servers needed for a quorum,
+ * so a degraded server doesn't hold every write until the fixed timeout.
+ */
+class PeerLatencies {
+
+    private final static Logger logger = LoggerFactory.getLogger(PeerLatencies.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    private static final int SAMPLES = 200;
+    private static final int RECALCULATE = 20;
+    private static final double ALPHA = 0.2;
+    private static final int DEGRADED_FAILURES = 3;
+
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    private final double degradedFactor;
+    private final long degradedMinMillis;
+    private final double quorumFactor;
+
+    PeerLatencies(double degradedFactor, long degradedMinMillis, double quorumFactor) {
+        this.degradedFactor = degradedFactor;
+        this.degradedMinMillis = degradedMinMillis;
+        this.quorumFactor = quorumFactor;
+    }
+
+    void success(String server, long millis) {
+        getPeer(server).success(server, millis);
+    }
+
+    void failure(String server) {
+        getPeer(server).failure(server);
+    }
+
+    private Peer getPeer(String server) {
+        return peers.computeIfAbsent(server, key -> new Peer());
+    }
+
+    Set<String> getDegraded(Collection<String> servers) {
+        List<Double> ewmas = new ArrayList<>();
+        for (String server : servers) {
+            Peer peer = peers.get(server);
+            if (peer != null && peer.failures < DEGRADED_FAILURES && peer.ewma >= 0) {
+                ewmas.add(peer.ewma);
+            }
+        }
+        Set<String> degraded = new HashSet<>();
+        if (ewmas.isEmpty()) {
+            return degraded;
+        }
+        Collections.sort(ewmas);
+        double limit = Math.max(degradedMinMillis, degradedFactor * ewmas.get((ewmas.size() - 1) / 2));
+        for (String server : servers) {
+            Peer peer = peers.get(server);
+            if (peer != null && (peer.failures >= DEGRADED_FAILURES || peer.ewma > limit)) {
+                degraded.add(server);
+            }
+        }
+        return degraded;
+    }
+
+    boolean isDegraded(String server, Collection<String> servers) {
+        return getDegraded(servers).contains(server);
+    }
+
+    /**
+     * @return the servers, with degraded servers moved to the end
+     */
+    List<String> preferHealthy(List<String> servers) {
+        Set<String> degraded = getDegraded(servers);
+        if (degraded.isEmpty()) {
+            return servers;
+        }
+        List<String> ordered = new ArrayList<>(servers.size());
+        for (String server : servers) {
+            if (!degraded.contains(server)) {
+                ordered.add(server);
+            }
+        }
+        for (String server : servers) {
+            if (degraded.contains(server)) {
+                ordered.add(server);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * @return how long to wait for a quorum of servers, or maxMillis until every healthy server has a p99
+     */
+    long getQuorumWaitMillis(Collection<String> servers, int quorum, long minMillis, long maxMillis) {
+        Set<String> degraded = getDegraded(servers);
+        List<Long> healthy = new ArrayList<>();
+        for (String server : servers) {
+            if (!degraded.contains(server)) {
+                Peer peer = peers.get(server);
+                if (peer == null || peer.p99 < 0) {
+                    return maxMillis;
+                }
+                healthy.add(peer.p99);
+            }
+        }
+        if (healthy.isEmpty()) {
+            return maxMillis;
+        }
+        Collections.sort(healthy);
+        long p99 = healthy.get(Math.min(quorum, healthy.size()) - 1);
+        return Math.min(maxMillis, Math.max(minMillis, (long) (quorumFactor * p99)));
+    }
+
+    private class Peer {
+        private final LatencySampler sampler = new LatencySampler(SAMPLES, RECALCULATE, 99);
+        private volatile double ewma = -1;
+        private volatile long p99 = -1;
+        private volatile int failures;
+
+        private void success(String server, long millis) {
+            synchronized (this) {
+                failures = 0;
+                ewma = ewma < 0 ? millis : ewma + ALPHA * (millis - ewma);
+            }
+            long percentile = sampler.add(millis);
+            if (percentile >= 0) {
+                p99 = percentile;
+                String tag = "peer:" + server;
+                statsd.gauge("spoke.peer.ewma", (long) ewma, tag);
+                statsd.gauge("spoke.peer.p99", p99, tag);
+                statsd.gauge("spoke.peer.degraded", isDegraded(server, peers.keySet()) ? 1 : 0, tag);
+            }
+        }
+
+        private void failure(String server) {
+            synchronized (this) {
+                failures++;
+            }
+            if (failures == DEGRADED_FAILURES) {
+                logger.warn("spoke server {} is degraded after {} failures", server, failures);
+                statsd.gauge("spoke.peer.degraded", 1, "peer:" + server);
+            }
+        }
+    }
+}
@@ -14,29 +14,39 @@ import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.model.ContentKeyUtil;
 import com.flightstats.hub.rest.RestClient;
+import com.flightstats.hub.util.PayloadBuffer;
 import com.google.common.base.Optional;
+import com.google.common.io.ByteSource;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.sun.jersey.api.client.Client;
 import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.WebResource;
 import com.timgroup.statsd.StatsDClient;
 import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.ConnectException;
 import java.net.UnknownHostException;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 @SuppressWarnings({"Convert2streamapi", "Convert2Lambda"})
 public class RemoteSpokeStore {
@@ -46,17 +56,37 @@ public class RemoteSpokeStore {
     private final static Client write_client = RestClient.createClient(1, 5, true, false);
     private final static Client query_client = RestClient.createClient(5, 15, true, true);
 
+    static {
+        write_client.setChunkedEncodingSize(64 * 1024);
+    }
+
     private final CuratorCluster cluster;
     private final MetricsSender sender;
     private final ExecutorService executorService;
     private final int stableSeconds = HubProperties.getProperty("app.stable_seconds", 5);
+    private final int streamBytesPerSecond = HubProperties.getProperty("spoke.streamBytesPerSecond", 10 * 1024 * 1024);
+    private final FileSpokeStore fileSpokeStore;
+    private final HedgedReader hedgedReader;
+    private final PeerLatencies peerLatencies;
+    private final boolean adaptiveQuorum = HubProperties.getProperty("spoke.adaptiveQuorum", true);
+    private final int quorumMinMillis = HubProperties.getProperty("spoke.quorumMinMillis", 50);
     private final static StatsDClient statsd = DataDog.statsd;
 
     @Inject
-    public RemoteSpokeStore(@Named("SpokeCuratorCluster") CuratorCluster cluster, MetricsSender sender) {
+    public RemoteSpokeStore(@Named("SpokeCuratorCluster") CuratorCluster cluster, MetricsSender sender,
+                            FileSpokeStore fileSpokeStore) {
         this.cluster = cluster;
         this.sender = sender;
+        this.fileSpokeStore = fileSpokeStore;
         executorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("RemoteSpokeStore-%d").build());
+        hedgedReader = new HedgedReader(executorService,
+                HubProperties.getProperty("spoke.hedgePercentile", 95.0),
+                HubProperties.getProperty("spoke.hedgeMinMillis", 10),
+                HubProperties.getProperty("spoke.hedgeMaxMillis", 1000));
+        peerLatencies = new PeerLatencies(
+                HubProperties.getProperty("spoke.degradedFactor", 3.0),
+                HubProperties.getProperty("spoke.degradedMinMillis", 100),
+                HubProperties.getProperty("spoke.quorumFactor", 2.0));
     }
 
     void testOne(Collection<String> server) throws InterruptedException {
@@ -71,7 +101,8 @@ public class RemoteSpokeStore {
                 public void run() {
                     try {
                         ContentKey key = new ContentKey();
-                        if (insert(path + key.toUrl(), key.toUrl().getBytes(), server, traces, "payload")) {
+                        if (insert(path + key.toUrl(), ByteSource.wrap(key.toUrl().getBytes()), server, traces, "payload", 0, () -> {
+                        })) {
                             quorumLatch.countDown();
                         } else {
                             traces.log(logger);
@@ -121,13 +152,34 @@ public class RemoteSpokeStore {
     }
 
     public boolean insert(String path, byte[] payload, String spokeApi) throws InterruptedException {
-        return insert(path, payload, cluster.getServers(), ActiveTraces.getLocal(), spokeApi);
+        return insert(path, ByteSource.wrap(payload), cluster.getServers(), ActiveTraces.getLocal(), spokeApi, payload.length, () -> {
+        });
     }
 
-    private boolean insert(final String path, final byte[] payload, Collection<String> servers, final Traces traces, final String spokeApi) throws InterruptedException {
+    /**
+     * The payload is streamed to each server, and is reset once every server has finished with it.
+     */
+    public boolean insert(String path, PayloadBuffer payload, String spokeApi) throws InterruptedException, IOException {
+        ByteSource source = payload.asByteSource();
+        return insert(path, source, cluster.getServers(), ActiveTraces.getLocal(), spokeApi, source.size(), () -> {
+            try {
+                payload.reset();
+            } catch (IOException e) {
+                logger.warn("unable to reset " + path, e);
+            }
+        });
+    }
+
+    /**
+     * Waits for a quorum until the healthy servers' p99 has passed, and after that only until one server has the item.
+     */
+    private boolean insert(final String path, final ByteSource payload, Collection<String> servers, final Traces traces,
+                           final String spokeApi, long bytes, Runnable completed) throws InterruptedException {
         int quorum = getQuorum(servers.size());
         CountDownLatch quorumLatch = new CountDownLatch(quorum);
+        CountDownLatch firstLatch = new CountDownLatch(1);
         AtomicBoolean reported = new AtomicBoolean();
+        AtomicInteger remaining = new AtomicInteger(servers.size());
         for (final String server : servers) {
             executorService.submit(new Runnable() {
                 @Override
@@ -136,33 +188,52 @@ public class RemoteSpokeStore {
                     String uri = HubHost.getScheme() + server + "/internal/spoke/" + spokeApi + "/" + path;
                     traces.add(uri);
                     ClientResponse response = null;
-                    try {
-                        response = write_client.resource(uri).put(ClientResponse.class, payload);
+                    long start = System.currentTimeMillis();
+                    try (InputStream input = payload.openStream()) {
+                        response = write_client.resource(uri).put(ClientResponse.class, input);
                         long complete = System.currentTimeMillis();
                         traces.add(server, response.getEntity(String.class));
                         if (response.getStatus() == 201) {
+                            peerLatencies.success(server, complete - start);
                             if (reported.compareAndSet(false, true)) {
                                 long time = complete - traces.getStart();
                                 statsd.time("heisenberg", time);
                                 sender.send("heisenberg", time);
                             }
                             quorumLatch.countDown();
+                            firstLatch.countDown();
                             logger.trace("server {} path {} response {}", server, path, response);
                         } else {
+                            peerLatencies.failure(server);
                             logger.info("write failed: server {} path {} response {}", server, path, response);
                         }
                     } catch (Exception e) {
+                        peerLatencies.failure(server);
                         traces.add(server, e.getMessage());
                         logger.warn("write failed: " + server + " " + path, e);
                     } finally {
                         close(response);
                         resetThread();
+                        if (remaining.decrementAndGet() == 0) {
+                            completed.run();
+                        }
                     }
 
                 }
             });
         }
-        quorumLatch.await(stableSeconds, TimeUnit.SECONDS);
+        long transferMillis = bytes * 1000 / streamBytesPerSecond;
+        long maxMillis = stableSeconds * 1000 + transferMillis;
+        long waitMillis = maxMillis;
+        if (adaptiveQuorum) {
+            waitMillis = peerLatencies.getQuorumWaitMillis(servers, quorum, quorumMinMillis, maxMillis) + transferMillis;
+        }
+        long start = System.currentTimeMillis();
+        if (!quorumLatch.await(Math.min(waitMillis, maxMillis), TimeUnit.MILLISECONDS)) {
+            firstLatch.await(maxMillis - (System.currentTimeMillis() - start), TimeUnit.MILLISECONDS);
+            statsd.increment("spoke.write.quorumMissed");
+            traces.add("quorum missed", quorumLatch.getCount(), "degraded", peerLatencies.getDegraded(servers));
+        }
         long time = System.currentTimeMillis() - traces.getStart();
         statsd.time("consistent", time);
         sender.send("consistent", time);
@@ -193,37 +264,223 @@ public class RemoteSpokeStore {
         return (int) Math.max(1, Math.ceil(size / 2.0));
     }
 
+    /**
+     * Items are read from the local spoke store when it has them.
+     * Otherwise one remote server is read, and a second after the hedge delay, with the first response winning.
+     * Degraded servers are read last.
+     * Large items are streamed from the spoke server, and hold the connection until the content stream is closed.
+     */
     public Content get(String path, ContentKey key) {
-        Collection<String> servers = cluster.getRandomServers();
-        for (String server : servers) {
-            ClientResponse response = null;
+        long start = System.currentTimeMillis();
+        Content content = getLocal(path, key);
+        if (content != null) {
+            statsd.time("spoke.read", System.currentTimeMillis() - start, "source:local");
+            return content;
+        }
+        content = hedgedReader.read(peerLatencies.preferHealthy(cluster.getRandomRemoteServers()), server -> get(server, path, key), RemoteSpokeStore::close);
+        statsd.time("spoke.read", System.currentTimeMillis() - start, "source:remote");
+        return content;
+    }
+
+    private Content getLocal(String path, ContentKey key) {
+        InputStream input = fileSpokeStore.openStream(path);
+        if (input == null) {
+            return null;
+        }
+        try {
+            return ContentMarshaller.toContent(input, key);
+        } catch (Exception e) {
+            logger.warn("unable to read local content " + path, e);
+            return null;
+        }
+    }
+
+    private Content get(String server, String path, ContentKey key) {
+        ClientResponse response = null;
+        Content content = null;
+        try {
+            setThread(path);
+            response = query_client.resource(HubHost.getScheme() + server + "/internal/spoke/payload/" + path)
+                    .get(ClientResponse.class);
+            logger.trace("server {} path {} response {}", server, path, response);
+            if (response.getStatus() == 200) {
+                content = ContentMarshaller.toContent(response.getEntityInputStream(), key);
+            }
+        } catch (JsonMappingException e) {
+            logger.info("JsonMappingException for " + path);
+        } catch (ClientHandlerException e) {
+            if (e.getCause() != null && e.getCause() instanceof ConnectException) {
+                logger.warn("connection exception " + server);
+            } else {
+                logger.warn("unable to get content " + server + " " + path, e);
+            }
+        } catch (Exception e) {
+            logger.warn("unable to get content " + path, e);
+        } finally {
+            if (content == null) {
+                close(response);
+            }
+            resetThread();
+        }
+        return content;
+    }
+
+    private static void close(Content content) {
+        try {
+            content.getStream().close();
+        } catch (IOException e) {
+            logger.info("unable to close " + content.getContentKey(), e);
+        }
+    }
+
+    /**
+     * Reads many items from one server in a single call, passing each item the server has to the callback in key order.
+     * Another server is only tried if nothing has been returned yet.
+     *
+     * @return true if the server returned all of the items it has
+     */
+    boolean getAll(String channel, SortedSet<ContentKey> keys, Consumer<Content> callback) {
+        Map<String, ContentKey> keyMap = new HashMap<>();
+        for (ContentKey key : keys) {
+            keyMap.put(key.toUrl(), key);
+        }
+        for (String server : peerLatencies.preferHealthy(cluster.getRandomServers())) {
+            AtomicBoolean returned = new AtomicBoolean();
             try {
-                setThread(path);
-                response = query_client.resource(HubHost.getScheme() + server + "/internal/spoke/payload/" + path)
-                        .get(ClientResponse.class);
-                logger.trace("server {} path {} response {}", server, path, response);
-                if (response.getStatus() == 200) {
-                    byte[] entity = response.getEntity(byte[].class);
-                    if (entity.length > 0) {
-                        return ContentMarshaller.toContent(entity, key);
+                if (readAll(server, channel, keyMap.keySet(), (keyUrl, payload) -> {
+                    ContentKey key = keyMap.get(keyUrl);
+                    if (key != null) {
+                        returned.set(true);
+                        try {
+                            callback.accept(ContentMarshaller.toContent(payload, key));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
                     }
+                })) {
+                    return true;
                 }
-            } catch (JsonMappingException e) {
-                logger.info("JsonMappingException for " + path);
-            } catch (ClientHandlerException e) {
-                if (e.getCause() != null && e.getCause() instanceof ConnectException) {
-                    logger.warn("connection exception " + server);
-                } else {
-                    logger.warn("unable to get content " + server + " " + path, e);
+            } catch (IOException | UncheckedIOException | ClientHandlerException e) {
+                logger.warn("unable to get all from " + server + " " + channel, e);
+                if (returned.get()) {
+                    return false;
                 }
-            } catch (Exception e) {
-                logger.warn("unable to get content " + path, e);
-            } finally {
-                close(response);
-                resetThread();
             }
         }
-        return null;
+        return false;
+    }
+
+    /**
+     * @return true if the server returned all of the items it has
+     */
+    private boolean readAll(String server, String channel, Collection<String> keys,
+                            BiConsumer<String, byte[]> consumer) throws IOException {
+        String path = "/internal/spoke/payloads/" + channel;
+        ClientResponse response = null;
+        try {
+            setThread(path);
+            response = query_client.resource(HubHost.getScheme() + server + path)
+                    .post(ClientResponse.class, StringUtils.join(keys, "\n"));
+            logger.trace("server {} path {} response {}", server, path, response);
+            if (response.getStatus() != 200) {
+                return false;
+            }
+            DataInputStream input = new DataInputStream(new BufferedInputStream(response.getEntityInputStream()));
+            int keyLength = input.readInt();
+            while (keyLength >= 0) {
+                byte[] keyBytes = new byte[keyLength];
+                input.readFully(keyBytes);
+                byte[] payload = new byte[input.readInt()];
+                input.readFully(payload);
+                consumer.accept(new String(keyBytes, StandardCharsets.UTF_8), payload);
+                keyLength = input.readInt();
+            }
+            return true;
+        } finally {
+            close(response);
+            resetThread();
+        }
+    }
+
+    /**
+     * @return the minute digests from every spoke server, by server
+     * @throws RuntimeException if any server doesn't answer
+     */
+    public Map<String, SortedMap<String, Long>> getMinuteDigests(String channel, DateTime start, DateTime end) {
+        Map<String, SortedMap<String, Long>> digests = new HashMap<>();
+        for (String server : cluster.getServers()) {
+            digests.put(server, getPeer(server).getMinuteDigests(channel, start, end));
+        }
+        return digests;
+    }
+
+    /**
+     * A remote spoke server, as seen by anti-entropy repair.
+     */
+    SpokePeer getPeer(String server) {
+        return new SpokePeer() {
+            @Override
+            public Map<String, Long> getChannelDigests(DateTime start, DateTime end) {
+                Map<String, Long> digests = new HashMap<>();
+                for (String[] line : getLines("/internal/spoke/digest", start, end)) {
+                    digests.put(line[0], Long.parseLong(line[1]));
+                }
+                return digests;
+            }
+
+            @Override
+            public SortedMap<String, Long> getMinuteDigests(String channel, DateTime start, DateTime end) {
+                SortedMap<String, Long> digests = new TreeMap<>();
+                for (String[] line : getLines("/internal/spoke/digest/" + channel, start, end)) {
+                    digests.put(line[0], Long.parseLong(line[1]));
+                }
+                return digests;
+            }
+
+            @Override
+            public List<String> getKeys(String channel, String minute) {
+                List<String> keys = new ArrayList<>();
+                for (String[] line : getLines("/internal/spoke/keys/" + channel + "/" + minute, null, null)) {
+                    keys.add(line[0]);
+                }
+                return keys;
+            }
+
+            @Override
+            public void readAll(String channel, Collection<String> keys, BiConsumer<String, byte[]> consumer) {
+                try {
+                    if (!RemoteSpokeStore.this.readAll(server, channel, keys, consumer)) {
+                        throw new RuntimeException("unable to read all from " + server + " " + channel);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("unable to read all from " + server + " " + channel, e);
+                }
+            }
+
+            private List<String[]> getLines(String path, DateTime start, DateTime end) {
+                ClientResponse response = null;
+                try {
+                    setThread(path);
+                    WebResource resource = query_client.resource(HubHost.getScheme() + server + path);
+                    if (start != null) {
+                        resource = resource.queryParam("start", String.valueOf(start.getMillis()))
+                                .queryParam("end", String.valueOf(end.getMillis()));
+                    }
+                    response = resource.get(ClientResponse.class);
+                    if (response.getStatus() != 200) {
+                        throw new RuntimeException("unexpected response " + server + " " + path + " " + response.getStatus());
+                    }
+                    List<String[]> lines = new ArrayList<>();
+                    for (String line : StringUtils.split(response.getEntity(String.class), "\n")) {
+                        lines.add(StringUtils.split(line, " "));
+                    }
+                    return lines;
+                } finally {
+                    close(response);
+                    resetThread();
+                }
+            }
+        };
     }
 
     QueryResult readTimeBucket(String channel, String timePath) throws InterruptedException {
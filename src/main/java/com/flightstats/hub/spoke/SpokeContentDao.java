@@ -4,6 +4,7 @@ import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.dao.ContentDao;
 import com.flightstats.hub.dao.ContentKeyUtil;
 import com.flightstats.hub.dao.ContentMarshaller;
+import com.flightstats.hub.dao.Dao;
 import com.flightstats.hub.dao.QueryResult;
 import com.flightstats.hub.exception.ContentTooLargeException;
 import com.flightstats.hub.exception.FailedQueryException;
@@ -12,16 +13,18 @@ import com.flightstats.hub.metrics.ActiveTraces;
 import com.flightstats.hub.metrics.Traces;
 import com.flightstats.hub.model.*;
 import com.flightstats.hub.time.TimeService;
+import com.flightstats.hub.util.PayloadBuffer;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.base.Optional;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * This is the entry point in the Hub's storage system, Spoke.
@@ -37,6 +40,9 @@ public class SpokeContentDao implements ContentDao {
     private RemoteSpokeStore spokeStore;
     @Inject
     private TimeService timeService;
+    @Inject
+    @Named("ChannelConfig")
+    private Dao<ChannelConfig> channelConfigDao;
 
     private final int ttlMinutes = HubProperties.getSpokeTtl();
 
@@ -45,7 +51,8 @@ public class SpokeContentDao implements ContentDao {
         Traces traces = ActiveTraces.getLocal();
         traces.add("SpokeContentDao.writeSingle");
         try {
-            byte[] payload = ContentMarshaller.toBytes(content);
+            ChannelConfig channelConfig = channelConfigDao.getCached(channelName);
+            PayloadBuffer payload = ContentMarshaller.toBuffer(content, channelConfig, ContentMarshaller.isStreamed(channelConfig));
             traces.add("SpokeContentDao.write marshalled");
             ContentKey key = content.keyAndStart(timeService.getNow());
             String path = getPath(channelName, key);
@@ -73,24 +80,30 @@ public class SpokeContentDao implements ContentDao {
         try {
             SortedSet<ContentKey> keys = new TreeSet<>();
             List<Content> items = bulkContent.getItems();
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream stream = new ObjectOutputStream(baos);
-            stream.writeInt(items.size());
-            logger.debug("writing {} items to master {}", items.size(), bulkContent.getMasterKey());
-            for (Content content : items) {
-                byte[] payload = ContentMarshaller.toBytes(content);
-                String itemKey = content.getContentKey().get().toUrl();
-                stream.writeInt(itemKey.length());
-                stream.write(itemKey.getBytes());
-                stream.writeInt(payload.length);
-                stream.write(payload);
-                keys.add(content.getContentKey().get());
+            PayloadBuffer buffer = ContentMarshaller.createBuffer();
+            try {
+                ObjectOutputStream stream = new ObjectOutputStream(buffer);
+                stream.writeInt(items.size());
+                logger.debug("writing {} items to master {}", items.size(), bulkContent.getMasterKey());
+                ChannelConfig channelConfig = channelConfigDao.getCached(channelName);
+                for (Content content : items) {
+                    byte[] payload = ContentMarshaller.toBytes(content, channelConfig);
+                    String itemKey = content.getContentKey().get().toUrl();
+                    stream.writeInt(itemKey.length());
+                    stream.write(itemKey.getBytes());
+                    stream.writeInt(payload.length);
+                    stream.write(payload);
+                    keys.add(content.getContentKey().get());
+                }
+                stream.close();
+            } catch (Exception e) {
+                buffer.reset();
+                throw e;
             }
-            stream.flush();
             traces.add("SpokeContentDao.writeBulk marshalled");
 
             logger.trace("writing items {} to channel {}", items.size(), channelName);
-            if (!spokeStore.insert(channelName, baos.toByteArray(), "bulkKey")) {
+            if (!spokeStore.insert(channelName, buffer, "bulkKey")) {
                 throw new FailedWriteException("unable to write bulk to spoke " + channelName);
             }
             traces.add("SpokeContentDao.writeBulk completed", keys);
@@ -109,6 +122,20 @@ public class SpokeContentDao implements ContentDao {
         return channelName + "/" + key.toUrl();
     }
 
+    /**
+     * Returns the items spoke has for the minute's keys, in key order, from a single spoke server.
+     */
+    @Override
+    public boolean streamMinute(String channel, ContentPathKeys minutePath, Consumer<Content> callback) {
+        Traces traces = ActiveTraces.getLocal();
+        traces.add("SpokeContentDao.streamMinute", minutePath);
+        try {
+            return spokeStore.getAll(channel, new TreeSet<>(minutePath.getKeys()), callback);
+        } finally {
+            traces.add("SpokeContentDao.streamMinute completed");
+        }
+    }
+
     @Override
     public Content get(String channelName, ContentKey key) {
         String path = getPath(channelName, key);
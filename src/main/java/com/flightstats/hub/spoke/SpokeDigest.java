@@ -0,0 +1,36 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.dao.KeyDigest;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Two level hash tree over the keys in spoke.
+ * Peers compare channel digests first, then minute digests for the channels which differ,
+ * and only list keys for the minutes which differ.
+ */
+class SpokeDigest {
+
+    private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+    /**
+     * Uses the same digest as the S3 write side, so the S3 verifier can compare them.
+     */
+    static long keys(Collection<String> keys) {
+        return KeyDigest.of(keys).getValue();
+    }
+
+    static long minutes(SortedMap<String, Long> minuteDigests) {
+        Hasher hasher = hashFunction.newHasher();
+        for (Map.Entry<String, Long> entry : minuteDigests.entrySet()) {
+            hasher.putString(entry.getKey(), StandardCharsets.UTF_8).putLong(entry.getValue());
+        }
+        return hasher.hash().asLong();
+    }
+}
@@ -3,8 +3,11 @@ package com.flightstats.hub.spoke;
 
 import com.flightstats.hub.app.HubProvider;
 import com.flightstats.hub.model.SingleTrace;
+import com.flightstats.hub.util.BufferPool;
 import com.google.common.io.ByteStreams;
+import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,6 +47,47 @@ public class SpokeInternalResource {
         }
     }
 
+    @Path("/payloads/{channel}")
+    @POST
+    public Response getPayloads(@PathParam("channel") String channel, String keys) {
+        try {
+            Response.ResponseBuilder builder = Response.ok((StreamingOutput) os -> {
+                BufferedOutputStream output = new BufferedOutputStream(os);
+                spokeStore.readAll(channel, keys.split("\n"), output);
+                output.flush();
+            });
+            return builder.build();
+        } catch (Exception e) {
+            logger.warn("unable to get payloads " + channel, e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    @Path("/digest")
+    @GET
+    public Response getChannelDigests(@QueryParam("start") long start, @QueryParam("end") long end) {
+        StringBuilder builder = new StringBuilder();
+        spokeStore.getChannelDigests(new DateTime(start, DateTimeZone.UTC), new DateTime(end, DateTimeZone.UTC))
+                .forEach((channel, digest) -> builder.append(channel).append(" ").append(digest).append("\n"));
+        return Response.ok(builder.toString()).build();
+    }
+
+    @Path("/digest/{channel}")
+    @GET
+    public Response getMinuteDigests(@PathParam("channel") String channel,
+                                     @QueryParam("start") long start, @QueryParam("end") long end) {
+        StringBuilder builder = new StringBuilder();
+        spokeStore.getMinuteDigests(channel, new DateTime(start, DateTimeZone.UTC), new DateTime(end, DateTimeZone.UTC))
+                .forEach((minute, digest) -> builder.append(minute).append(" ").append(digest).append("\n"));
+        return Response.ok(builder.toString()).build();
+    }
+
+    @Path("/keys/{channel}/{minute:.+}")
+    @GET
+    public Response getKeys(@PathParam("channel") String channel, @PathParam("minute") String minute) {
+        return Response.ok(StringUtils.join(spokeStore.getKeys(channel, minute), "\n")).build();
+    }
+
     @Path("/payload/{path:.+}")
     @PUT
     public Response putPayload(@PathParam("path") String path, InputStream input) {
@@ -78,9 +122,16 @@ public class SpokeInternalResource {
             int items = stream.readInt();
             for (int i = 0; i < items; i++) {
                 String keyPath = new String(readByesFully(stream));
-                byte[] data = readByesFully(stream);
-                String itemPath = channel + "/" + keyPath;
-                if (!spokeStore.insert(itemPath, new ByteArrayInputStream(data))) {
+                int size = stream.readInt();
+                byte[] data = BufferPool.borrow(size);
+                boolean inserted;
+                try {
+                    ByteStreams.readFully(stream, data, 0, size);
+                    inserted = spokeStore.insert(channel + "/" + keyPath, new ByteArrayInputStream(data, 0, size));
+                } finally {
+                    BufferPool.release(data);
+                }
+                if (!inserted) {
                     logger.warn("what happened?!?! {}", channel);
                     return Response
                             .status(Response.Status.INTERNAL_SERVER_ERROR)
@@ -0,0 +1,36 @@
+package com.flightstats.hub.spoke;
+
+import org.joda.time.DateTime;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.BiConsumer;
+
+/**
+ * What a spoke node shares with other nodes for anti-entropy repair.
+ * Only complete items are included, and minutes are between start (inclusive) and end (exclusive).
+ */
+interface SpokePeer {
+
+    /**
+     * @return the digest of each channel's minute digests
+     */
+    Map<String, Long> getChannelDigests(DateTime start, DateTime end);
+
+    /**
+     * @return the digest of the keys in each minute which has items, by minute path
+     */
+    SortedMap<String, Long> getMinuteDigests(String channel, DateTime start, DateTime end);
+
+    /**
+     * @return the sorted keys in the minute, without the channel
+     */
+    List<String> getKeys(String channel, String minute);
+
+    /**
+     * Passes each key and its stored bytes to the consumer.
+     */
+    void readAll(String channel, Collection<String> keys, BiConsumer<String, byte[]> consumer);
+}
@@ -0,0 +1,155 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.channel.ChannelVolumes;
+import com.flightstats.hub.cluster.CuratorCluster;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.timgroup.statsd.StatsDClient;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Anti-entropy for spoke.
+ * An insert can reach a quorum of nodes without reaching all of them, and a restarted node misses everything
+ * written while it was down.  Each node periodically compares digests with every other node,
+ * and pulls the items it is missing at a limited rate.  Nodes only pull, so each node repairs itself.
+ */
+@Singleton
+public class SpokeRepair {
+
+    private final static Logger logger = LoggerFactory.getLogger(SpokeRepair.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    private final int ttlMinutes = HubProperties.getSpokeTtl();
+    private final int lagMinutes = HubProperties.getProperty("spoke.repairLagMinutes", 2);
+    private final int repairMinutes = HubProperties.getProperty("spoke.repairMinutes", 5);
+    private final RateLimiter rateLimiter = RateLimiter.create(
+            HubProperties.getProperty("spoke.repairBytesPerSecond", 2 * 1024 * 1024));
+
+    @Inject
+    private ChannelService channelService;
+    @Inject
+    private FileSpokeStore fileSpokeStore;
+    @Inject
+    private RemoteSpokeStore remoteSpokeStore;
+    @Inject
+    @Named("SpokeCuratorCluster")
+    private CuratorCluster cluster;
+    @Inject
+    private ChannelVolumes channelVolumes;
+
+    @Inject
+    public SpokeRepair() {
+        if (HubProperties.getProperty("spoke.repair", true)) {
+            HubServices.register(new SpokeRepairService());
+        }
+    }
+
+    /**
+     * Minutes close to the ttl may already be deleted on some nodes, and recent minutes may still have writes
+     * in progress, so both ends of the spoke window are left out.
+     */
+    private void repairAll() {
+        long start = System.currentTimeMillis();
+        DateTime endTime = new MinutePath(TimeUtil.stable().minusMinutes(lagMinutes)).getTime();
+        DateTime startTime = new MinutePath(TimeUtil.now().minusMinutes(ttlMinutes - lagMinutes)).getTime();
+        Set<String> channels = new HashSet<>();
+        for (ChannelConfig channel : channelService.getChannels()) {
+            if (channel.isLive()) {
+                channels.add(channel.getName());
+            }
+        }
+        Map<String, Long> localDigests = fileSpokeStore.getChannelDigests(startTime, endTime);
+        Result result = new Result();
+        boolean complete = true;
+        for (String server : cluster.getRandomRemoteServers()) {
+            try {
+                repair(fileSpokeStore, localDigests, remoteSpokeStore.getPeer(server), channels,
+                        startTime, endTime, rateLimiter, result);
+            } catch (Exception e) {
+                logger.warn("unable to repair from " + server, e);
+                complete = false;
+            }
+        }
+        if (complete) {
+            channelVolumes.repaired(startTime, endTime);
+        }
+        long time = System.currentTimeMillis() - start;
+        statsd.time("spoke.repair", time);
+        statsd.count("spoke.repair.items", result.items.get());
+        statsd.count("spoke.repair.bytes", result.bytes.get());
+        if (result.items.get() > 0) {
+            logger.info("repaired {} items {} bytes in {} ms", result.items.get(), result.bytes.get(), time);
+        } else {
+            logger.debug("nothing to repair {} ms", time);
+        }
+    }
+
+    static void repair(FileSpokeStore local, Map<String, Long> localDigests, SpokePeer peer, Set<String> channels,
+                       DateTime start, DateTime end, RateLimiter rateLimiter, Result result) {
+        Map<String, Long> peerDigests = peer.getChannelDigests(start, end);
+        for (Map.Entry<String, Long> entry : peerDigests.entrySet()) {
+            String channel = entry.getKey();
+            if (!channels.contains(channel) || entry.getValue().equals(localDigests.get(channel))) {
+                continue;
+            }
+            SortedMap<String, Long> peerMinutes = peer.getMinuteDigests(channel, start, end);
+            SortedMap<String, Long> localMinutes = local.getMinuteDigests(channel, start, end);
+            for (Map.Entry<String, Long> minute : peerMinutes.entrySet()) {
+                if (minute.getValue().equals(localMinutes.get(minute.getKey()))) {
+                    continue;
+                }
+                List<String> missing = new ArrayList<>(peer.getKeys(channel, minute.getKey()));
+                missing.removeAll(new HashSet<>(local.getKeys(channel, minute.getKey())));
+                if (missing.isEmpty()) {
+                    continue;
+                }
+                logger.debug("repairing {} items in {} {}", missing.size(), channel, minute.getKey());
+                peer.readAll(channel, missing, (key, bytes) -> {
+                    rateLimiter.acquire(Math.max(1, bytes.length));
+                    if (local.insert(channel + "/" + key, bytes)) {
+                        result.items.incrementAndGet();
+                        result.bytes.addAndGet(bytes.length);
+                    }
+                });
+            }
+        }
+    }
+
+    static class Result {
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+    }
+
+    private class SpokeRepairService extends AbstractScheduledService {
+        @Override
+        protected void runOneIteration() throws Exception {
+            try {
+                repairAll();
+            } catch (Exception e) {
+                logger.warn("unable to repair spoke", e);
+            }
+        }
+
+        @Override
+        protected Scheduler scheduler() {
+            long initial = repairMinutes * 60 + new Random().nextInt(60);
+            return Scheduler.newFixedDelaySchedule(initial, repairMinutes * 60, TimeUnit.SECONDS);
+        }
+    }
+}
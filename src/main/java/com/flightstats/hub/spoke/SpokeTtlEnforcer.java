@@ -2,6 +2,7 @@ package com.flightstats.hub.spoke;
 
 import com.flightstats.hub.app.HubProperties;
 import com.flightstats.hub.app.HubServices;
+import com.flightstats.hub.dao.CachedDao;
 import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.dao.TtlEnforcer;
 import com.flightstats.hub.model.ChannelConfig;
@@ -29,8 +30,9 @@ public class SpokeTtlEnforcer {
     @Inject
     public SpokeTtlEnforcer() {
         if (HubProperties.getProperty("spoke.enforceTTL", true)) {
-            HubServices.register(new SpokeTtlEnforcerService());
-            HubServices.register(new SpokeTtlEnforcerInitialService());
+            SpokeTtlEnforcerInitialService initialService = new SpokeTtlEnforcerInitialService();
+            HubServices.register(initialService);
+            HubServices.register(new SpokeTtlEnforcerService()).dependsOn(initialService).dependsOn(CachedDao.class);
         }
     }
 
@@ -76,11 +76,11 @@ public class NtpMonitor {
             List<String> lines = IOUtils.readLines(process.getInputStream());
             double delta = parseClusterRange(lines);
             statsd.gauge("ntp", delta, "ntpType:clusterTimeDelta");
-            sender.send("clusterTimeDelta", delta);
+            sender.gauge("clusterTimeDelta", delta);
             double primary = parsePrimary(lines);
             primaryOffset = Math.abs(primary);
             statsd.gauge("ntp", primaryOffset, "ntpType:primaryTimeDelta");
-            sender.send("primaryTimeDelta", primaryOffset);
+            sender.gauge("primaryTimeDelta", primaryOffset);
             logger.info("ntp cluster {} primary {}", delta, primary);
         } catch (Exception e) {
             logger.info("unable to exec", e);
@@ -0,0 +1,178 @@
+package com.flightstats.hub.util;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.DataDog;
+import com.flightstats.hub.metrics.MetricsSender;
+import com.timgroup.statsd.StatsDClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A shared pool of heap buffers in power of two size classes, from 4 KB to 1 MB, for the short lived buffers
+ * payloads are copied through.  Each class holds up to its share of app.bufferPool.maxMB.
+ * Larger requests, and all requests when app.bufferPool.enable is false, are allocated and left to the collector.
+ * Every borrowed buffer must be released exactly once, and not used after it is released.
+ * While leaks are tracked, for tests, where each buffer was borrowed is kept until it is released.
+ */
+public class BufferPool {
+    private final static Logger logger = LoggerFactory.getLogger(BufferPool.class);
+    private final static StatsDClient statsd = DataDog.statsd;
+
+    static final int MIN_SHIFT = 12;
+    static final int MAX_SHIFT = 20;
+    public static final int MAX_POOLED = 1 << MAX_SHIFT;
+
+    private static final boolean enabled = HubProperties.getProperty("app.bufferPool.enable", true);
+    private static final long maxBytes = HubProperties.getProperty("app.bufferPool.maxMB", 64) * 1024L * 1024L;
+    private static volatile boolean trackLeaks = HubProperties.getProperty("app.bufferPool.trackLeaks", false);
+    private static final List<BlockingQueue<byte[]>> classes = new ArrayList<>();
+    private static final Map<byte[], Throwable> outstanding = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    private static final LongAdder borrows = new LongAdder();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder releases = new LongAdder();
+    private static final LongAdder borrowedBytes = new LongAdder();
+    private static long lastBorrows;
+    private static long lastHits;
+
+    static {
+        long classBytes = maxBytes / (MAX_SHIFT - MIN_SHIFT + 1);
+        for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+            classes.add(new ArrayBlockingQueue<>((int) Math.max(1, classBytes >> shift)));
+        }
+    }
+
+    /**
+     * @return a buffer of at least bytes, which may hold data from its last use
+     */
+    public static byte[] borrow(int bytes) {
+        borrows.increment();
+        int index = index(bytes);
+        byte[] buffer;
+        if (enabled && index < classes.size()) {
+            buffer = classes.get(index).poll();
+            if (buffer == null) {
+                buffer = new byte[1 << (index + MIN_SHIFT)];
+            } else {
+                hits.increment();
+            }
+        } else {
+            buffer = new byte[bytes];
+        }
+        borrowedBytes.add(buffer.length);
+        if (trackLeaks) {
+            outstanding.put(buffer, new Throwable("borrowed " + buffer.length));
+        }
+        return buffer;
+    }
+
+    public static void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (trackLeaks && outstanding.remove(buffer) == null) {
+            throw new IllegalStateException("buffer of " + buffer.length + " released twice or never borrowed");
+        }
+        releases.increment();
+        borrowedBytes.add(-buffer.length);
+        int index = index(buffer.length);
+        if (enabled && index < classes.size() && buffer.length == 1 << (index + MIN_SHIFT)) {
+            classes.get(index).offer(buffer);
+        }
+    }
+
+    private static int index(int bytes) {
+        if (bytes <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(bytes - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * Copies through a pooled buffer, unlike ByteStreams.copy, which allocates one for every call.
+     */
+    public static long copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = borrow(8 * 1024);
+        try {
+            long total = 0;
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                output.write(buffer, 0, read);
+                total += read;
+            }
+            return total;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Reads the input into pooled buffers, and then copies it once into an array of exactly its size,
+     * rather than growing and copying an array as ByteStreams.toByteArray does.
+     */
+    public static byte[] toByteArray(InputStream input) throws IOException {
+        PayloadBuffer buffer = new PayloadBuffer(Integer.MAX_VALUE);
+        try {
+            copy(input, buffer);
+            return buffer.toByteArray();
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    public static long getOutstanding() {
+        return borrows.sum() - releases.sum();
+    }
+
+    /**
+     * Buffers borrowed while tracking must be released while tracking, and releasing one twice throws.
+     */
+    public static void setTrackLeaks(boolean track) {
+        trackLeaks = track;
+        outstanding.clear();
+    }
+
+    /**
+     * @return where each buffer borrowed while tracking leaks, and not yet released, was borrowed
+     */
+    public static List<Throwable> getLeaks() {
+        synchronized (outstanding) {
+            return new ArrayList<>(outstanding.values());
+        }
+    }
+
+    public static long getPooledBytes() {
+        long pooled = 0;
+        for (int i = 0; i < classes.size(); i++) {
+            pooled += (long) classes.get(i).size() << (i + MIN_SHIFT);
+        }
+        return pooled;
+    }
+
+    /**
+     * Reports the pooled and borrowed bytes, and the share of borrows since the last report which the pool served.
+     */
+    public static synchronized void report(MetricsSender sender) {
+        long borrowed = borrows.sum();
+        long hit = hits.sum();
+        long pooled = getPooledBytes();
+        double hitRate = borrowed == lastBorrows ? 1 : (double) (hit - lastHits) / (borrowed - lastBorrows);
+        lastBorrows = borrowed;
+        lastHits = hit;
+        logger.info("buffer pool {} bytes pooled {} borrowed, hit rate {}", pooled, borrowedBytes.sum(), hitRate);
+        statsd.gauge("bufferPool.pooledBytes", pooled);
+        statsd.gauge("bufferPool.borrowedBytes", borrowedBytes.sum());
+        statsd.gauge("bufferPool.hitRate", hitRate);
+        sender.gauge("bufferPool.pooledBytes", pooled);
+        sender.gauge("bufferPool.borrowedBytes", borrowedBytes.sum());
+        sender.gauge("bufferPool.hitRate", hitRate);
+    }
+}
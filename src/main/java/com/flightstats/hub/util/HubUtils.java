@@ -63,8 +63,24 @@ public class HubUtils {
     }
 
     public ClientResponse startWebhook(Webhook webhook) {
+        return startWebhook(webhook, null);
+    }
+
+    /**
+     * @param startItem the webhook starts after this, or null to use the webhook's default
+     */
+    public ClientResponse startWebhook(Webhook webhook, ContentPath startItem) {
         String groupUrl = getSourceUrl(webhook.getChannelUrl()) + "/group/" + webhook.getName();
         String json = webhook.toJson();
+        if (startItem != null) {
+            try {
+                ObjectNode node = (ObjectNode) mapper.readTree(json);
+                node.put("startItem", webhook.getChannelUrl() + "/" + startItem.toUrl());
+                json = node.toString();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
         logger.info("starting {} with {}", groupUrl, json);
         ClientResponse response = followClient.resource(groupUrl)
                 .accept(MediaType.APPLICATION_JSON)
@@ -160,6 +176,23 @@ public class HubUtils {
         return Collections.emptyList();
     }
 
+    public Collection<ContentKey> backfill(String channelUrl, BulkContent content, boolean minuteComplete) {
+        try {
+            ClientResponse response = followClient.resource(channelUrl + "/backfill")
+                    .type(content.getContentType())
+                    .header("minuteComplete", minuteComplete)
+                    .post(ClientResponse.class, ByteStreams.toByteArray(content.getStream()));
+            logger.trace("got response {}", response);
+            if (response.getStatus() == 201) {
+                return parseContentKeys(response);
+            }
+            logger.warn("unable to backfill {} {}", channelUrl, response);
+        } catch (IOException e) {
+            logger.warn("unable to backfill " + channelUrl, e);
+        }
+        return Collections.emptyList();
+    }
+
     private Collection<ContentKey> parseContentKeys(ClientResponse response) throws IOException {
         Set<ContentKey> keys = new TreeSet<>();
         String entity = response.getEntity(String.class);
@@ -0,0 +1,213 @@
+package com.flightstats.hub.util;
+
+import com.google.common.io.ByteSource;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds written bytes in chunks borrowed from the {@link BufferPool}, doubling in size up to the largest pooled size,
+ * until they pass fileThreshold, when they are moved to a temporary file.
+ * Like Guava's FileBackedOutputStream, which it replaces for payloads, it can be read any number of times once it is
+ * closed, and reset must be called once every reader is done with it, to return the chunks and delete the file.
+ */
+public class PayloadBuffer extends OutputStream {
+
+    private static final int FIRST_CHUNK = 4 * 1024;
+
+    private final long fileThreshold;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private int last;
+    private long size;
+    private File file;
+    private OutputStream fileOutput;
+
+    public PayloadBuffer(long fileThreshold) {
+        this.fileThreshold = fileThreshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (file == null && size + length > fileThreshold) {
+            spill();
+        }
+        if (file != null) {
+            fileOutput.write(bytes, offset, length);
+            size += length;
+            return;
+        }
+        while (length > 0) {
+            if (chunks.isEmpty() || last == chunks.get(chunks.size() - 1).length) {
+                int next = chunks.isEmpty() ? FIRST_CHUNK : Math.min(2 * chunks.get(chunks.size() - 1).length, BufferPool.MAX_POOLED);
+                chunks.add(BufferPool.borrow(next));
+                last = 0;
+            }
+            byte[] chunk = chunks.get(chunks.size() - 1);
+            int count = Math.min(length, chunk.length - last);
+            System.arraycopy(bytes, offset, chunk, last, count);
+            last += count;
+            offset += count;
+            length -= count;
+            size += count;
+        }
+    }
+
+    private void spill() throws IOException {
+        file = File.createTempFile("PayloadBuffer", null);
+        fileOutput = new BufferedOutputStream(new FileOutputStream(file));
+        writeChunks(fileOutput);
+        releaseChunks();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileOutput != null) {
+            fileOutput.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileOutput != null) {
+            fileOutput.close();
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    public byte[] toByteArray() throws IOException {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("too large for an array " + size);
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream((int) size) {
+            @Override
+            public synchronized byte[] toByteArray() {
+                return buf.length == count ? buf : super.toByteArray();
+            }
+        };
+        writeTo(output);
+        return output.toByteArray();
+    }
+
+    public void writeTo(OutputStream output) throws IOException {
+        if (file == null) {
+            writeChunks(output);
+        } else {
+            flush();
+            try (InputStream input = new FileInputStream(file)) {
+                BufferPool.copy(input, output);
+            }
+        }
+    }
+
+    private void writeChunks(OutputStream output) throws IOException {
+        for (int i = 0; i < chunks.size(); i++) {
+            byte[] chunk = chunks.get(i);
+            output.write(chunk, 0, i == chunks.size() - 1 ? last : chunk.length);
+        }
+    }
+
+    public ByteSource asByteSource() {
+        return new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                if (file == null) {
+                    return new ChunkInputStream();
+                }
+                flush();
+                return new FileInputStream(file);
+            }
+
+            @Override
+            public long size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Returns the chunks to the pool and deletes the file.
+     */
+    public void reset() throws IOException {
+        releaseChunks();
+        size = 0;
+        if (file != null) {
+            try {
+                fileOutput.close();
+            } finally {
+                File toDelete = file;
+                file = null;
+                fileOutput = null;
+                if (!toDelete.delete()) {
+                    throw new IOException("unable to delete " + toDelete);
+                }
+            }
+        }
+    }
+
+    private void releaseChunks() {
+        for (byte[] chunk : chunks) {
+            BufferPool.release(chunk);
+        }
+        chunks.clear();
+        last = 0;
+    }
+
+    private class ChunkInputStream extends InputStream {
+        private int chunk;
+        private int position;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int total = 0;
+            while (length > 0 && chunk < chunks.size()) {
+                byte[] current = chunks.get(chunk);
+                int end = chunk == chunks.size() - 1 ? last : current.length;
+                int count = Math.min(length, end - position);
+                System.arraycopy(current, position, bytes, offset, count);
+                position += count;
+                offset += count;
+                length -= count;
+                total += count;
+                if (position == end) {
+                    if (chunk == chunks.size() - 1) {
+                        break;
+                    }
+                    chunk++;
+                    position = 0;
+                }
+            }
+            return total == 0 ? -1 : total;
+        }
+
+        @Override
+        public int available() {
+            long read = 0;
+            for (int i = 0; i < chunk; i++) {
+                read += chunks.get(i).length;
+            }
+            return (int) Math.min(Integer.MAX_VALUE, size - read - position);
+        }
+    }
+}
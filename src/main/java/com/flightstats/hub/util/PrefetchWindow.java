@@ -0,0 +1,113 @@
+package com.flightstats.hub.util;
+
+import com.flightstats.hub.metrics.ActiveTraces;
+import com.flightstats.hub.metrics.Traces;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Runs up to size lookups ahead of the consumer, and hands the results to the consumer in the order they were submitted.
+ * This lets a bulk response write one item while the next items are being fetched.
+ * The consumer is called on the submitting thread.
+ * When a lookup or the consumer fails, the results which will not be delivered are handed to discard,
+ * so they can release what they hold.
+ */
+public class PrefetchWindow<T> {
+
+    private final ExecutorService executorService;
+    private final int size;
+    private final Consumer<T> consumer;
+    private final Consumer<T> discard;
+    private final Deque<Future<T>> window = new ArrayDeque<>();
+    private final Traces traces = ActiveTraces.getLocal();
+    private volatile boolean cancelled;
+
+    public PrefetchWindow(ExecutorService executorService, int size, Consumer<T> consumer) {
+        this(executorService, size, consumer, result -> {
+        });
+    }
+
+    public PrefetchWindow(ExecutorService executorService, int size, Consumer<T> consumer, Consumer<T> discard) {
+        this.executorService = executorService;
+        this.size = Math.max(1, size);
+        this.consumer = consumer;
+        this.discard = discard;
+    }
+
+    public void submit(Callable<T> callable) {
+        if (window.size() >= size) {
+            deliver(window.removeFirst());
+        }
+        window.add(executorService.submit(() -> {
+            ActiveTraces.setLocal(traces);
+            try {
+                T result = callable.call();
+                if (cancelled) {
+                    discard.accept(result);
+                    return null;
+                }
+                return result;
+            } finally {
+                ActiveTraces.setLocal(null);
+            }
+        }));
+    }
+
+    public void finish() {
+        while (!window.isEmpty()) {
+            deliver(window.removeFirst());
+        }
+    }
+
+    private void deliver(Future<T> future) {
+        T result;
+        try {
+            result = future.get();
+        } catch (InterruptedException e) {
+            cancel();
+            throw new RuntimeInterruptedException(e);
+        } catch (ExecutionException e) {
+            cancel();
+            throw new RuntimeException(e.getCause());
+        }
+        try {
+            consumer.accept(result);
+        } catch (RuntimeException e) {
+            discard.accept(result);
+            cancel();
+            throw e;
+        }
+    }
+
+    /**
+     * Results which complete after the window is cancelled are discarded by the lookup itself, and return null.
+     */
+    private void cancel() {
+        cancelled = true;
+        for (Future<T> future : window) {
+            if (!future.cancel(true) && !future.isCancelled()) {
+                discardCompleted(future);
+            }
+        }
+        window.clear();
+    }
+
+    private void discardCompleted(Future<T> future) {
+        try {
+            T result = future.get();
+            if (result != null) {
+                discard.accept(result);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RuntimeException e) {
+            //the lookup failed, so there is nothing to release
+        }
+    }
+}
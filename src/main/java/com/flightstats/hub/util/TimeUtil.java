@@ -60,6 +60,10 @@ public class TimeUtil {
         return dateTime.toString(minutesFormatter);
     }
 
+    public static DateTime hours(String string) {
+        return hoursFormatter.parseDateTime(string);
+    }
+
     public static String hours(DateTime dateTime) {
         return dateTime.toString(hoursFormatter);
     }
@@ -0,0 +1,70 @@
+package com.flightstats.hub.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket which can go into debt, so a request larger than the bucket is still admitted once,
+ * and the requests after it wait until the debt is repaid.
+ */
+public class TokenBucket {
+
+    private final double burstSeconds;
+    private double rate;
+    private double tokens;
+    private long lastNanos;
+
+    public TokenBucket(double ratePerSecond, double burstSeconds) {
+        this(ratePerSecond, burstSeconds, System.nanoTime());
+    }
+
+    TokenBucket(double ratePerSecond, double burstSeconds, long nanos) {
+        this.burstSeconds = burstSeconds;
+        this.rate = ratePerSecond;
+        this.tokens = ratePerSecond * burstSeconds;
+        this.lastNanos = nanos;
+    }
+
+    /**
+     * @return 0 if the permits were taken, otherwise the millis until the bucket has tokens again
+     */
+    public long tryAcquire(double permits) {
+        return tryAcquire(permits, System.nanoTime());
+    }
+
+    synchronized long tryAcquire(double permits, long nanos) {
+        refill(nanos);
+        if (tokens <= 0) {
+            return Math.max(1, (long) Math.ceil(-tokens * 1000 / rate) + 1);
+        }
+        tokens -= permits;
+        return 0;
+    }
+
+    /**
+     * Takes permits whether or not there are tokens, for work which is only measured once it is done.
+     */
+    public void charge(double permits) {
+        charge(permits, System.nanoTime());
+    }
+
+    synchronized void charge(double permits, long nanos) {
+        refill(nanos);
+        tokens -= permits;
+    }
+
+    public synchronized void setRate(double ratePerSecond) {
+        refill(System.nanoTime());
+        rate = ratePerSecond;
+        tokens = Math.min(tokens, rate * burstSeconds);
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    private void refill(long nanos) {
+        double seconds = (nanos - lastNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastNanos = nanos;
+        tokens = Math.min(rate * burstSeconds, tokens + seconds * rate);
+    }
+}
@@ -37,13 +37,15 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 class WebhookLeader implements Leader {
     private final static Logger logger = LoggerFactory.getLogger(WebhookLeader.class);
-    static final String WEBHOOK_LAST_COMPLETED = "/GroupLastCompleted/";
+    static final String WEBHOOK_LAST_COMPLETED = WebhookService.WEBHOOK_LAST_COMPLETED;
 
     private static final Client client = RestClient.createClient(60, 120, true, false);
+    private static final AtomicInteger inFlightCalls = new AtomicInteger();
     private final AtomicBoolean deleteOnExit = new AtomicBoolean();
     private final double keepLeadershipRate = HubProperties.getProperty("webhook.keepLeadershipRate",
             HubProperties.getProperty("group.keepLeadershipRate", 0.75));
@@ -171,6 +173,7 @@ class WebhookLeader implements Leader {
 
     private void send(ContentPath contentPath) throws InterruptedException {
         semaphore.acquire();
+        inFlightCalls.incrementAndGet();
         logger.trace("sending {} to {}", contentPath, webhook.getName());
         String parentName = Thread.currentThread().getName();
         executorService.submit(new Callable<Object>() {
@@ -199,6 +202,7 @@ class WebhookLeader implements Leader {
                     logger.warn("exception sending " + contentPath + " to " + webhook.getName(), e);
                 } finally {
                     semaphore.release();
+                    inFlightCalls.decrementAndGet();
                     ActiveTraces.end();
                     Thread.currentThread().setName(workerName);
                 }
@@ -365,6 +369,10 @@ class WebhookLeader implements Leader {
         return new ArrayList<>(new TreeSet<>(webhookInProcess.getSet(this.webhook.getName(), WebhookStrategy.createContentPath(webhook))));
     }
 
+    static int getInFlightCalls() {
+        return inFlightCalls.get();
+    }
+
     public Webhook getWebhook() {
         return webhook;
     }
@@ -1,5 +1,6 @@
 package com.flightstats.hub.webhook;
 
+import com.flightstats.hub.app.DrainCoordinator;
 import com.flightstats.hub.app.HubServices;
 import com.flightstats.hub.cluster.LastContentPath;
 import com.flightstats.hub.cluster.WatchManager;
@@ -43,6 +44,7 @@ public class WebhookManager {
         this.leaderProvider = leaderProvider;
         this.lastContentPath = lastContentPath;
         register(new WebhookIdleService(), HubServices.TYPE.AFTER_HEALTHY_START, HubServices.TYPE.PRE_STOP);
+        DrainCoordinator.register("webhookCalls", WebhookLeader::getInFlightCalls);
     }
 
     private void start() {
@@ -18,10 +18,11 @@ import java.util.Collection;
 
 import static com.flightstats.hub.dao.LocalChannelService.HISTORICAL_FIRST_UPDATED;
 import static com.flightstats.hub.dao.LocalChannelService.HISTORICAL_LAST_UPDATED;
-import static com.flightstats.hub.webhook.WebhookLeader.WEBHOOK_LAST_COMPLETED;
 
 public class WebhookService {
+
     private final static Logger logger = LoggerFactory.getLogger(WebhookService.class);
+    public static final String WEBHOOK_LAST_COMPLETED = "/GroupLastCompleted/";
 
     private final Dao<Webhook> webhookDao;
     private final WebhookValidator webhookValidator;
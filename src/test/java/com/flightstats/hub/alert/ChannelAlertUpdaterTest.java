@@ -1,90 +1,63 @@
 package com.flightstats.hub.alert;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flightstats.hub.channel.ChannelVolumesTest;
+import com.flightstats.hub.dao.ChannelService;
 import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.TimeQuery;
 import com.flightstats.hub.util.TimeUtil;
 import org.joda.time.DateTime;
 import org.junit.AfterClass;
+import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
 
 import static com.flightstats.hub.test.SparkUtil.*;
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
 
 public class ChannelAlertUpdaterTest {
 
     private final static Logger logger = LoggerFactory.getLogger(ChannelAlertUpdaterTest.class);
-    private final static ObjectMapper mapper = new ObjectMapper();
     private static final String HUB_DOMAIN = "http://localhost:4567/";
     private static final List<String> alerts = new ArrayList<>();
 
+    private ChannelService channelService;
+
     @AfterClass
     public static void tearDownClass() throws Exception {
         stop();
     }
 
+    @Before
+    public void setUp() throws Exception {
+        alerts.clear();
+        post("/channel/escalationAlerts", (req, res) -> {
+            alerts.add(req.body());
+            return "";
+        });
+        channelService = mock(ChannelService.class);
+    }
+
     @Test
     public void testMinutesNew() throws Exception {
         AlertConfig config = createConfig("testMinutesNew", ">", 16, 5);
-        configureSpark("testMinutesNew", TimeUtil.Unit.MINUTES, 5);
-        ChannelAlertUpdater channelAlertUpdater = new ChannelAlertUpdater(config, null);
+        ChannelAlertUpdater channelAlertUpdater = createUpdater(config, null, TimeUtil.Unit.MINUTES, 5);
         AlertStatus alertStatus = channelAlertUpdater.call();
         assertEquals(5, alertStatus.getHistory().size());
         assertFalse(alertStatus.isAlert());
         assertEquals(0, alerts.size());
-    }
-
-    private void configureSpark(String channel, TimeUtil.Unit unit, int count) {
-        alerts.clear();
-        DateTime time = TimeUtil.now();
-        final DateTime startTime = time;
-        get("/channel/" + channel + "/time/" + unit.getName(), (req, res) -> {
-            res.redirect("/channel/" + channel + "/" + unit.format(startTime));
-            return "";
-        });
-        post("/channel/escalationAlerts", (req, res) -> {
-            alerts.add(req.body());
-            return "";
-        });
-        for (int i = 0; i <= count; i++) {
-            final int counter = i;
-            String path = "/channel/" + channel + "/" + unit.format(time);
-            logger.info("setting up path {} as {}", counter, path);
-            final DateTime finalTime = time;
-            get(path, (req, res) -> {
-                        ObjectNode rootNode = mapper.createObjectNode();
-                        ObjectNode links = rootNode.putObject("_links");
-                        links.putObject("self").put("href", HUB_DOMAIN + "channel/" + channel + "/" + unit.format(finalTime));
-                        links.putObject("previous").put("href", HUB_DOMAIN + "channel/" + channel + "/" + unit.format(finalTime.minus(unit.getDuration())));
-                        if (counter > 0) {
-                            links.putObject("next").put("href", HUB_DOMAIN + "channel/" + channel + "/" + unit.format(finalTime.plus(unit.getDuration())));
-                        }
-                        ArrayNode uris = links.putArray("uris");
-                        for (int j = 0; j < counter; j++) {
-                            uris.add(HUB_DOMAIN + "channel/" + channel + "/" + new ContentKey().toUrl());
-                        }
-                        return rootNode.toString();
-                    }
-            );
-            time = time.minus(unit.getDuration());
-        }
+        verify(channelService, never()).queryByTime(any(TimeQuery.class));
     }
 
     @Test
     public void testHoursNew() throws Exception {
         AlertConfig config = createConfig("testHoursNew", "==", 6, 125);
-        configureSpark("testHoursNew", TimeUtil.Unit.HOURS, 3);
-        ChannelAlertUpdater channelAlertUpdater = new ChannelAlertUpdater(config, null);
+        ChannelAlertUpdater channelAlertUpdater = createUpdater(config, null, TimeUtil.Unit.HOURS, 3);
         AlertStatus alertStatus = channelAlertUpdater.call();
-
-        System.out.println(alertStatus);
         assertEquals(3, alertStatus.getHistory().size());
         assertTrue(alertStatus.isAlert());
         assertEquals(1, alerts.size());
@@ -100,14 +73,10 @@ public class ChannelAlertUpdaterTest {
                 .alert(false)
                 .history(createHistory(TimeUtil.Unit.HOURS, 4, channel))
                 .build();
-        configureSpark(channel, TimeUtil.Unit.HOURS, 3);
-        ChannelAlertUpdater channelAlertUpdater = new ChannelAlertUpdater(config, status);
+        ChannelAlertUpdater channelAlertUpdater = createUpdater(config, status, TimeUtil.Unit.HOURS, 3);
+        assertEquals(TimeUtil.Unit.HOURS.round(TimeUtil.stable()).minusHours(1), channelAlertUpdater.getStart());
         AlertStatus alertStatus = channelAlertUpdater.call();
-        LinkedList<AlertStatusHistory> histories = alertStatus.getHistory();
-        for (AlertStatusHistory statusHistory : histories) {
-            System.out.println(statusHistory);
-        }
-        assertEquals(4, histories.size());
+        assertEquals(4, alertStatus.getHistory().size());
         assertTrue(alertStatus.isAlert());
         assertEquals(1, alerts.size());
     }
@@ -122,14 +91,9 @@ public class ChannelAlertUpdaterTest {
                 .alert(false)
                 .history(createHistory(TimeUtil.Unit.MINUTES, 3, channel))
                 .build();
-        configureSpark(channel, TimeUtil.Unit.MINUTES, 3);
-        ChannelAlertUpdater channelAlertUpdater = new ChannelAlertUpdater(config, status);
+        ChannelAlertUpdater channelAlertUpdater = createUpdater(config, status, TimeUtil.Unit.MINUTES, 3);
         AlertStatus alertStatus = channelAlertUpdater.call();
-        LinkedList<AlertStatusHistory> histories = alertStatus.getHistory();
-        for (AlertStatusHistory statusHistory : histories) {
-            System.out.println(statusHistory);
-        }
-        assertEquals(3, histories.size());
+        assertEquals(3, alertStatus.getHistory().size());
         assertTrue(alertStatus.isAlert());
         assertEquals(1, alerts.size());
     }
@@ -137,22 +101,17 @@ public class ChannelAlertUpdaterTest {
     @Test
     public void testMinutesToHours() throws Exception {
         String channel = "testMinutesToHours";
-        AlertConfig config = createConfig("testMinutesToHours", ">", 0, 125);
-
+        AlertConfig config = createConfig(channel, ">", 0, 125);
         AlertStatus status = AlertStatus.builder()
                 .period("minute")
                 .name("stuff")
                 .alert(false)
                 .history(createHistory(TimeUtil.Unit.HOURS, 90, channel))
                 .build();
-        configureSpark(channel, TimeUtil.Unit.HOURS, 3);
-        ChannelAlertUpdater channelAlertUpdater = new ChannelAlertUpdater(config, status);
+        ChannelAlertUpdater channelAlertUpdater = createUpdater(config, status, TimeUtil.Unit.HOURS, 3);
         AlertStatus alertStatus = channelAlertUpdater.call();
-        LinkedList<AlertStatusHistory> histories = alertStatus.getHistory();
-        for (AlertStatusHistory statusHistory : histories) {
-            System.out.println(statusHistory);
-        }
-        assertEquals(3, histories.size());
+        assertEquals(3, alertStatus.getHistory().size());
+        assertEquals("hour", alertStatus.getPeriod());
         assertEquals(1, alerts.size());
     }
 
@@ -166,23 +125,63 @@ public class ChannelAlertUpdaterTest {
                 .alert(false)
                 .history(createHistory(TimeUtil.Unit.MINUTES, 10, channel))
                 .build();
-        configureSpark(channel, TimeUtil.Unit.MINUTES, 3);
-        ChannelAlertUpdater channelAlertUpdater = new ChannelAlertUpdater(config, status);
+        ChannelAlertUpdater channelAlertUpdater = createUpdater(config, status, TimeUtil.Unit.MINUTES, 3);
         AlertStatus alertStatus = channelAlertUpdater.call();
-        LinkedList<AlertStatusHistory> histories = alertStatus.getHistory();
-        for (AlertStatusHistory statusHistory : histories) {
-            System.out.println(statusHistory);
-        }
-        assertEquals(3, histories.size());
+        assertEquals(3, alertStatus.getHistory().size());
         assertTrue(alertStatus.isAlert());
         assertEquals(1, alerts.size());
     }
 
+    @Test
+    public void testQueriesUncountedPeriods() throws Exception {
+        String channel = "testQueriesUncountedPeriods";
+        AlertConfig config = createConfig(channel, "<", 10, 4);
+        SortedSet<ContentKey> keys = new TreeSet<>(Arrays.asList(new ContentKey(), new ContentKey()));
+        when(channelService.queryByTime(any(TimeQuery.class))).thenReturn(keys);
+        ChannelAlertUpdater channelAlertUpdater = new ChannelAlertUpdater(config, null, channelService);
+        DateTime since = TimeUtil.Unit.MINUTES.round(TimeUtil.stable()).minusMinutes(2);
+        channelAlertUpdater.setVolumes(ChannelVolumesTest.volumes(TimeUtil.Unit.MINUTES, since, 3, channel));
+        AlertStatus alertStatus = channelAlertUpdater.call();
+        List<Integer> items = new ArrayList<>();
+        alertStatus.getHistory().forEach(history -> items.add(history.getItems()));
+        assertEquals(Arrays.asList(2, 2, 2, 1), items);
+        verify(channelService, times(2)).queryByTime(any(TimeQuery.class));
+        assertTrue(alertStatus.isAlert());
+    }
+
+    @Test
+    public void testOperators() {
+        assertTrue(AlertOperator.parse(">").test(2, 1));
+        assertFalse(AlertOperator.parse(">").test(1, 1));
+        assertTrue(AlertOperator.parse(">=").test(1, 1));
+        assertTrue(AlertOperator.parse(" < ").test(0, 1));
+        assertFalse(AlertOperator.parse("<=").test(2, 1));
+        assertTrue(AlertOperator.parse("==").test(1, 1));
+        assertTrue(AlertOperator.parse("===").test(1, 1));
+        assertTrue(AlertOperator.parse("!=").test(0, 1));
+        assertNull(AlertOperator.parse("=>"));
+        assertNull(AlertOperator.parse(null));
+        assertTrue(createConfig("testOperators", ">=", 1, 1).isValid());
+        assertFalse(createConfig("testOperators", "1; while(true)", 1, 1).isValid());
+    }
+
+    /**
+     * The volumes count i items in the ith period before the current one, for count periods.
+     */
+    private ChannelAlertUpdater createUpdater(AlertConfig config, AlertStatus status, TimeUtil.Unit unit, int count) {
+        ChannelAlertUpdater updater = new ChannelAlertUpdater(config, status, channelService);
+        DateTime since = unit.round(TimeUtil.stable()).minusHours(20);
+        updater.setVolumes(ChannelVolumesTest.volumes(unit, since, count, config.getSource()));
+        return updater;
+    }
+
     private AlertConfig createConfig(String channel, String operator, int threshold, int timeWindowMinutes) {
         return AlertConfig.builder()
                 .hubDomain(HUB_DOMAIN)
                 .name(channel)
                 .channel(channel)
+                .serviceName("service")
+                .type(AlertConfig.AlertType.channel)
                 .operator(operator)
                 .threshold(threshold)
                 .timeWindowMinutes(timeWindowMinutes)
@@ -190,7 +189,7 @@ public class ChannelAlertUpdaterTest {
     }
 
     private LinkedList<AlertStatusHistory> createHistory(TimeUtil.Unit unit, int count, String channel) {
-        DateTime now = TimeUtil.now();
+        DateTime now = TimeUtil.stable();
         logger.info("now {}", unit.format(now));
         DateTime time = now.minus(unit.getDuration().multipliedBy(count));
 
@@ -207,4 +206,4 @@ public class ChannelAlertUpdaterTest {
         return history;
     }
 
-}
\ No newline at end of file
+}
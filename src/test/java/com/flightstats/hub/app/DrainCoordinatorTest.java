@@ -0,0 +1,73 @@
+package com.flightstats.hub.app;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DrainCoordinatorTest {
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        DrainCoordinator.register("test", () -> 0);
+    }
+
+    @Test
+    public void testDrained() {
+        DrainCoordinator.register("test", pending::get);
+        DrainCoordinator.Report report = DrainCoordinator.drain(System.currentTimeMillis() + 5000, 0);
+        assertTrue(report.isDrained());
+        assertTrue(report.getDropped().isEmpty());
+        assertTrue("took " + report.getMillis(), report.getMillis() < 1000);
+    }
+
+    @Test
+    public void testWaitsForPending() {
+        pending.set(3);
+        DrainCoordinator.register("test", pending::get);
+        executor.schedule(() -> pending.set(0), 300, TimeUnit.MILLISECONDS);
+        assertEquals(3, (int) DrainCoordinator.getPending().get("test"));
+        DrainCoordinator.Report report = DrainCoordinator.drain(System.currentTimeMillis() + 5000, 0);
+        assertTrue(report.isDrained());
+        assertTrue("took " + report.getMillis(), report.getMillis() >= 250);
+        assertTrue("took " + report.getMillis(), report.getMillis() < 5000);
+    }
+
+    @Test
+    public void testWaitsForQuiet() {
+        DrainCoordinator.register("test", pending::get);
+        executor.scheduleAtFixedRate(() -> {
+            DrainCoordinator.requestStarted();
+            DrainCoordinator.requestEnded();
+        }, 0, 50, TimeUnit.MILLISECONDS);
+        executor.schedule(executor::shutdown, 400, TimeUnit.MILLISECONDS);
+        DrainCoordinator.Report report = DrainCoordinator.drain(System.currentTimeMillis() + 5000, 300);
+        assertTrue(report.isDrained());
+        assertTrue("took " + report.getMillis(), report.getMillis() >= 600);
+    }
+
+    @Test
+    public void testDeadline() {
+        pending.set(2);
+        DrainCoordinator.register("test", pending::get);
+        DrainCoordinator.requestStarted();
+        try {
+            DrainCoordinator.Report report = DrainCoordinator.drain(System.currentTimeMillis() + 300, 0);
+            assertFalse(report.isDrained());
+            assertEquals(2, (int) report.getDropped().get("test"));
+            assertEquals(1, (int) report.getDropped().get(DrainCoordinator.REQUESTS));
+            assertTrue("took " + report.getMillis(), report.getMillis() < 2000);
+        } finally {
+            DrainCoordinator.requestEnded();
+        }
+    }
+}
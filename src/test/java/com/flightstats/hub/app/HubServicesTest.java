@@ -0,0 +1,151 @@
+package com.flightstats.hub.app;
+
+import com.google.common.util.concurrent.AbstractIdleService;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class HubServicesTest {
+
+    private final Map<String, Long> started = new ConcurrentHashMap<>();
+
+    private class Sleepy extends AbstractIdleService {
+        private final String name;
+        private final long millis;
+
+        Sleepy(String name, long millis) {
+            this.name = name;
+            this.millis = millis;
+        }
+
+        @Override
+        protected void startUp() throws Exception {
+            Thread.sleep(millis);
+            started.put(name, System.nanoTime());
+        }
+
+        @Override
+        protected void shutDown() throws Exception {
+        }
+    }
+
+    private static class Owner {
+        class OwnedService extends AbstractIdleService {
+            @Override
+            protected void startUp() throws Exception {
+            }
+
+            @Override
+            protected void shutDown() throws Exception {
+            }
+        }
+    }
+
+    private HubServices.Registration registration(String name, long millis) {
+        return new HubServices.Registration(new Sleepy(name, millis));
+    }
+
+    private List<String> names(List<StartupReport.Timing> timings) {
+        return timings.stream().map(StartupReport.Timing::getName).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testDependencyOrder() throws Exception {
+        HubServices.Registration a = registration("a", 50);
+        HubServices.Registration b = registration("b", 0);
+        HubServices.Registration c = registration("c", 0);
+        b.dependsOn(a.getService());
+        c.dependsOn(b.getService());
+        List<HubServices.Registration> registrations = Arrays.asList(c, b, a);
+        assertEquals(Arrays.asList(a, b, c), HubServices.sort(registrations));
+
+        HubServices.start(HubServices.TYPE.PRE_START, registrations, true);
+        assertTrue(started.get("a") < started.get("b"));
+        assertTrue(started.get("b") < started.get("c"));
+    }
+
+    @Test
+    public void testIndependentStartConcurrently() throws Exception {
+        List<HubServices.Registration> registrations = Arrays.asList(
+                registration("a", 300), registration("b", 300), registration("c", 300));
+        StartupReport report = HubServices.start(HubServices.TYPE.PRE_START, registrations, true);
+        assertTrue(report.isParallel());
+        assertEquals(3, report.getTimings().size());
+        assertTrue("took " + report.getMillis(), report.getMillis() < 800);
+    }
+
+    @Test
+    public void testSequential() throws Exception {
+        List<HubServices.Registration> registrations = Arrays.asList(
+                registration("a", 100), registration("b", 100));
+        StartupReport report = HubServices.start(HubServices.TYPE.PRE_START, registrations, false);
+        assertFalse(report.isParallel());
+        assertTrue("took " + report.getMillis(), report.getMillis() >= 200);
+        assertTrue(started.get("a") < started.get("b"));
+    }
+
+    @Test
+    public void testOwnerDependency() throws Exception {
+        Owner owner = new Owner();
+        HubServices.Registration first = new HubServices.Registration(owner.new OwnedService());
+        HubServices.Registration second = new HubServices.Registration(owner.new OwnedService());
+        HubServices.Registration dependent = registration("dependent", 0).dependsOn(Owner.class);
+        second.dependsOn(Owner.class);
+        List<HubServices.Registration> registrations = Arrays.asList(dependent, first, second);
+        assertEquals(Arrays.asList(first, second), dependent.getDependencies(registrations));
+        assertEquals(Collections.emptyList(), second.getDependencies(registrations));
+        assertEquals(Arrays.asList(first, second, dependent), HubServices.sort(registrations));
+        assertEquals("Owner.OwnedService", first.getName());
+
+        StartupReport report = HubServices.start(HubServices.TYPE.PRE_START, registrations, true);
+        assertEquals(Arrays.asList("Owner.OwnedService", "Owner.OwnedService#2", "HubServicesTest.Sleepy"),
+                names(report.getTimings()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCircular() {
+        HubServices.Registration a = registration("a", 0);
+        HubServices.Registration b = registration("b", 0);
+        a.dependsOn(b.getService());
+        b.dependsOn(a.getService());
+        HubServices.sort(Arrays.asList(a, b));
+    }
+
+    @Test
+    public void testCriticalPath() throws Exception {
+        HubServices.Registration slow = registration("slow", 200);
+        HubServices.Registration fast = registration("fast", 10);
+        HubServices.Registration afterSlow = registration("afterSlow", 50).dependsOn(slow.getService());
+        HubServices.Registration last = registration("last", 0).dependsOn(fast.getService(), afterSlow.getService());
+        StartupReport report = HubServices.start(HubServices.TYPE.PRE_START,
+                Arrays.asList(fast, slow, afterSlow, last), true);
+        List<StartupReport.Timing> path = report.getCriticalPath();
+        assertEquals(3, path.size());
+        assertTrue(path.get(0).getMillis() >= 200);
+        assertTrue(path.get(1).getMillis() >= 50);
+        assertEquals(path.get(1), path.get(2).getDependencies().stream()
+                .max((x, y) -> Long.compare(x.getRunning(), y.getRunning())).get());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testFailure() throws Exception {
+        HubServices.Registration failing = new HubServices.Registration(new AbstractIdleService() {
+            @Override
+            protected void startUp() throws Exception {
+                throw new IllegalStateException("unable to start");
+            }
+
+            @Override
+            protected void shutDown() throws Exception {
+            }
+        });
+        HubServices.start(HubServices.TYPE.PRE_START, Collections.singletonList(failing), true);
+    }
+}
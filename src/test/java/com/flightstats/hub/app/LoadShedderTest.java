@@ -0,0 +1,80 @@
+package com.flightstats.hub.app;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.flightstats.hub.app.LoadShedder.Priority.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoadShedderTest {
+
+    @Test
+    public void testClassify() {
+        assertEquals(SPOKE, LoadShedder.Priority.classify("PUT", "/internal/spoke/payload/ch/2016/01/01/00/00/00/000/abc"));
+        assertEquals(SPOKE, LoadShedder.Priority.classify("GET", "/internal/spoke/time/ch/2016/01/01"));
+        assertEquals(EVENTS, LoadShedder.Priority.classify("GET", "/internal/events/abc"));
+        assertEquals(INTERNAL, LoadShedder.Priority.classify("POST", "/internal/s3Batch/ch"));
+        assertEquals(INTERNAL, LoadShedder.Priority.classify("POST", "/internal/s3Digest/ch"));
+        assertEquals(INTERNAL, LoadShedder.Priority.classify("POST", "/internal/repls/ch"));
+        assertEquals(INTERNAL, LoadShedder.Priority.classify("POST", "/internal/global/repl/ch"));
+        assertEquals(INTERNAL, LoadShedder.Priority.classify("POST", "/internal/global/repl/ch/bulk"));
+        assertEquals(ADMIN, LoadShedder.Priority.classify("GET", "/internal/global"));
+        assertEquals(ADMIN, LoadShedder.Priority.classify("GET", "/internal/traces"));
+        assertEquals(ADMIN, LoadShedder.Priority.classify("GET", "/health"));
+        assertEquals(WRITE, LoadShedder.Priority.classify("POST", "/channel/ch"));
+        assertEquals(WRITE, LoadShedder.Priority.classify("DELETE", "/channel/ch"));
+        assertEquals(READ, LoadShedder.Priority.classify("GET", "/channel/ch/2016/01/01"));
+        assertEquals(READ, LoadShedder.Priority.classify("HEAD", "/channel/ch/latest"));
+    }
+
+    @Test
+    public void testLimitsFitThreads() {
+        LoadShedder shedder = new LoadShedder();
+        assertEquals(80, shedder.getMaxConcurrent(INTERNAL));
+        assertEquals(25, shedder.getMaxConcurrent(READ));
+        assertEquals(0, shedder.getMaxConcurrent(SPOKE));
+
+        HubProperties.setProperty("http.maxThreads", "200");
+        LoadShedder scaled = new LoadShedder();
+        HubProperties.setProperty("http.maxThreads", "400");
+        assertEquals(27, scaled.getMaxConcurrent(INTERNAL));
+        assertEquals(3, scaled.getMaxConcurrent(ADMIN));
+        assertEquals(8, scaled.getMaxConcurrent(READ));
+    }
+
+    @Test
+    public void testShedding() throws Exception {
+        HubProperties.setProperty("http.read.maxConcurrent", "2");
+        HubProperties.setProperty("http.read.maxQueued", "1");
+        HubProperties.setProperty("http.read.targetQueueMillis", "100");
+        LoadShedder shedder = new LoadShedder();
+        HubProperties.setProperty("http.read.maxConcurrent", "25");
+        HubProperties.setProperty("http.read.maxQueued", "10");
+        HubProperties.setProperty("http.read.targetQueueMillis", "250");
+        assertTrue(shedder.acquire(READ));
+        assertTrue(shedder.acquire(READ));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Boolean> queued = executor.submit(() -> shedder.acquire(READ));
+        Thread.sleep(20);
+        long start = System.currentTimeMillis();
+        assertFalse("over maxQueued", shedder.acquire(READ));
+        assertTrue(System.currentTimeMillis() - start < 50);
+        assertFalse("timed out", queued.get());
+        start = System.currentTimeMillis();
+        assertFalse("overloaded", shedder.acquire(READ));
+        assertTrue(System.currentTimeMillis() - start < 50);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(shedder.acquire(SPOKE));
+            assertTrue(shedder.acquire(WRITE));
+            assertTrue(shedder.acquire(INTERNAL));
+        }
+        shedder.release(READ);
+        assertTrue(shedder.acquire(READ));
+        executor.shutdown();
+    }
+}
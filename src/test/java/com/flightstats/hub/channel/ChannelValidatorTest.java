@@ -179,6 +179,17 @@ public class ChannelValidatorTest {
         validator.validate(ChannelConfig.builder().withName("storage").withStorage("stuff").build(), true, null);
     }
 
+    @Test
+    public void testCompression() {
+        validator.validate(ChannelConfig.builder().withName("compression").withCompression("lz4").build(), true, null);
+        validator.validate(ChannelConfig.builder().withName("compression").withCompression("AUTO").build(), true, null);
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void testInvalidCompression() {
+        validator.validate(ChannelConfig.builder().withName("compression").withCompression("zstd").build(), true, null);
+    }
+
     @Test
     public void testGlobal() {
         GlobalConfig globalConfig = new GlobalConfig();
@@ -250,4 +261,10 @@ public class ChannelValidatorTest {
         ChannelConfig configA = ChannelConfig.builder().withName("A").withHistorical(true).withMaxItems(10).build();
         validator.validate(configA, true, null);
     }
+
+    @Test(expected = InvalidRequestException.class)
+    public void testNegativeWriteLimit() throws Exception {
+        ChannelConfig config = ChannelConfig.builder().withName("A").withMaxBytesPerSecond(-1).build();
+        validator.validate(config, true, null);
+    }
 }
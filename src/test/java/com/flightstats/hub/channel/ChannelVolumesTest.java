@@ -0,0 +1,173 @@
+package com.flightstats.hub.channel;
+
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.io.Files;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChannelVolumesTest {
+
+    private final DateTime hour = TimeUtil.Unit.HOURS.round(TimeUtil.now()).minusHours(2);
+
+    /**
+     * @return volumes covering periods from since, with i items in each channel's ith period before the current one
+     */
+    public static ChannelVolumes.Volumes volumes(TimeUtil.Unit unit, DateTime since, int count, String... channels) {
+        ChannelVolumes channelVolumes = new ChannelVolumes(since.minusMinutes(1));
+        DateTime current = unit.round(TimeUtil.stable());
+        for (String channel : channels) {
+            for (int i = 1; i <= count; i++) {
+                long millis = current.minus(unit.getDuration().multipliedBy(i)).getMillis();
+                for (int item = 0; item < i; item++) {
+                    channelVolumes.record(channel, millis, 10);
+                }
+            }
+        }
+        return channelVolumes.getVolumes(unit);
+    }
+
+    @Test
+    public void testMinutesAndHours() {
+        ChannelVolumes channelVolumes = new ChannelVolumes(hour.minusHours(1));
+        channelVolumes.record("one", new ContentKey(hour.plusSeconds(1)), 10);
+        channelVolumes.record("one", new ContentKey(hour.plusSeconds(59)), 30);
+        channelVolumes.record("one", new ContentKey(hour.plusMinutes(1)), 5);
+        channelVolumes.record("one", new ContentKey(hour.plusMinutes(59)), 1);
+        channelVolumes.record("one", new ContentKey(hour.plusHours(1)), 1);
+        channelVolumes.record("two", hour.plusMinutes(30).getMillis(), 100);
+
+        assertEquals(new Volume(2, 40, 30), channelVolumes.get("one", TimeUtil.Unit.MINUTES, hour));
+        assertEquals(new Volume(1, 5, 5), channelVolumes.get("one", TimeUtil.Unit.MINUTES, hour.plusMinutes(1)));
+        assertEquals(Volume.EMPTY, channelVolumes.get("one", TimeUtil.Unit.MINUTES, hour.plusMinutes(2)));
+        assertEquals(Volume.EMPTY, channelVolumes.get("three", TimeUtil.Unit.MINUTES, hour));
+        assertEquals(new Volume(4, 46, 30), channelVolumes.get("one", TimeUtil.Unit.HOURS, hour));
+        assertEquals(new Volume(1, 1, 1), channelVolumes.get("one", TimeUtil.Unit.HOURS, hour.plusHours(1)));
+
+        ChannelVolumes.Volumes minutes = channelVolumes.getVolumes(TimeUtil.Unit.MINUTES);
+        assertEquals(2, minutes.getItems("one", hour));
+        assertEquals(1, minutes.getItems("two", hour.plusMinutes(30)));
+        assertEquals(0, minutes.getItems("three", hour));
+        assertEquals(1, channelVolumes.getVolumes(TimeUtil.Unit.HOURS).getItems("two", hour));
+    }
+
+    @Test
+    public void testSealing() {
+        ChannelVolumes channelVolumes = new ChannelVolumes(hour.minusHours(1));
+        channelVolumes.record("one", hour.getMillis(), 10);
+        channelVolumes.record("one", hour.plusMinutes(1).getMillis(), 20);
+        assertEquals(2, channelVolumes.seal(hour.plusDays(1).getMillis()).size());
+        channelVolumes.record("one", hour.plusMinutes(1).getMillis(), 30);
+        channelVolumes.record("one", hour.plusMinutes(2).getMillis(), 5);
+
+        assertEquals(new Volume(2, 50, 30), channelVolumes.get("one", TimeUtil.Unit.MINUTES, hour.plusMinutes(1)));
+        assertEquals(new Volume(4, 65, 30), channelVolumes.get("one", TimeUtil.Unit.HOURS, hour));
+        channelVolumes.seal(hour.plusDays(1).getMillis());
+        assertEquals(new Volume(1, 10, 10), channelVolumes.get("one", TimeUtil.Unit.MINUTES, hour));
+        assertEquals(new Volume(2, 50, 30), channelVolumes.get("one", TimeUtil.Unit.MINUTES, hour.plusMinutes(1)));
+        assertEquals(new Volume(4, 65, 30), channelVolumes.get("one", TimeUtil.Unit.HOURS, hour));
+    }
+
+    @Test
+    public void testSince() {
+        ChannelVolumes channelVolumes = new ChannelVolumes(hour.plusSeconds(30));
+        channelVolumes.record("one", hour.getMillis(), 1);
+        channelVolumes.record("one", hour.plusMinutes(1).getMillis(), 1);
+        ChannelVolumes.Volumes minutes = channelVolumes.getVolumes(TimeUtil.Unit.MINUTES);
+        assertEquals(-1, minutes.getItems("one", hour));
+        assertEquals(1, minutes.getItems("one", hour.plusMinutes(1)));
+        assertEquals(-1, channelVolumes.getVolumes(TimeUtil.Unit.HOURS).getItems("one", hour));
+        assertEquals(0, channelVolumes.getVolumes(TimeUtil.Unit.HOURS).getItems("one", hour.plusHours(1)));
+    }
+
+    @Test
+    public void testTrim() {
+        ChannelVolumes channelVolumes = new ChannelVolumes(hour.minusDays(3));
+        DateTime old = hour.minusHours(30);
+        DateTime older = hour.minusDays(3);
+        channelVolumes.record("one", older.getMillis(), 1);
+        channelVolumes.record("one", old.getMillis(), 1);
+        channelVolumes.record("one", hour.getMillis(), 1);
+        channelVolumes.record("two", older.getMillis(), 1);
+        channelVolumes.record("three", hour.getMillis(), 1);
+        channelVolumes.seal(hour.plusDays(1).getMillis());
+        channelVolumes.trim(hour.getMillis(), channel -> {
+            if (channel.equals("three")) {
+                return null;
+            }
+            return ChannelConfig.builder().withName(channel).withTtlDays(channel.equals("one") ? 2 : 10).build();
+        });
+        assertEquals(Volume.EMPTY, channelVolumes.get("one", TimeUtil.Unit.MINUTES, old));
+        assertEquals(1, channelVolumes.get("one", TimeUtil.Unit.HOURS, old).getItems());
+        assertEquals(Volume.EMPTY, channelVolumes.get("one", TimeUtil.Unit.HOURS, older));
+        assertEquals(1, channelVolumes.get("one", TimeUtil.Unit.MINUTES, hour).getItems());
+        assertEquals(1, channelVolumes.get("two", TimeUtil.Unit.HOURS, older).getItems());
+        assertEquals(Volume.EMPTY, channelVolumes.get("three", TimeUtil.Unit.MINUTES, hour));
+    }
+
+    @Test
+    public void testRestore() throws Exception {
+        VolumeLog log = new VolumeLog(new File(Files.createTempDir(), "volumes"));
+        ChannelVolumes first = new ChannelVolumes(hour.minusHours(1), log);
+        first.read(log);
+        first.record("one", hour.getMillis(), 10);
+        first.record("two", hour.getMillis(), 10);
+        first.append(log, first.seal(hour.plusDays(1).getMillis()));
+        first.compact(log);
+        first.record("one", hour.plusMinutes(1).getMillis(), 20);
+        first.delete("two");
+        first.append(log, first.seal(hour.plusDays(1).getMillis()));
+        first.record("one", hour.plusMinutes(2).getMillis(), 1000);
+        first.appendOpen(log);
+
+        ChannelVolumes second = new ChannelVolumes(TimeUtil.now(), log);
+        second.read(log);
+        assertEquals(new Volume(1, 10, 10), second.get("one", TimeUtil.Unit.MINUTES, hour));
+        assertEquals(new Volume(1, 20, 20), second.get("one", TimeUtil.Unit.MINUTES, hour.plusMinutes(1)));
+        assertEquals(new Volume(3, 1030, 1000), second.get("one", TimeUtil.Unit.HOURS, hour));
+        assertEquals(Volume.EMPTY, second.get("two", TimeUtil.Unit.HOURS, hour));
+        second.seal(hour.plusDays(1).getMillis());
+        assertEquals(new Volume(3, 1030, 1000), second.get("one", TimeUtil.Unit.HOURS, hour));
+
+        assertEquals(-1, second.getVolumes(TimeUtil.Unit.MINUTES).getItems("one", hour));
+        second.repaired(hour, TimeUtil.now());
+        assertEquals(1, second.getVolumes(TimeUtil.Unit.MINUTES).getItems("one", hour));
+        assertEquals(hour.minusHours(1).plusMinutes(1), second.getSince());
+    }
+
+    @Test
+    public void testRestoreAfterGap() throws Exception {
+        VolumeLog log = new VolumeLog(new File(Files.createTempDir(), "volumes"));
+        ChannelVolumes first = new ChannelVolumes(hour.minusHours(1), log);
+        first.record("one", hour.getMillis(), 10);
+        first.appendOpen(log);
+
+        DateTime now = TimeUtil.now();
+        ChannelVolumes second = new ChannelVolumes(now.plusMinutes(10), log);
+        second.repaired(now.plusMinutes(1), now.plusMinutes(10));
+        second.read(log);
+        assertEquals(1, second.get("one", TimeUtil.Unit.MINUTES, hour).getItems());
+        assertEquals(TimeUtil.Unit.MINUTES.round(now).plusMinutes(2), second.getSince());
+    }
+
+    @Test
+    public void testUncleanRestore() throws Exception {
+        VolumeLog log = new VolumeLog(new File(Files.createTempDir(), "volumes"));
+        ChannelVolumes first = new ChannelVolumes(hour.minusHours(1), log);
+        first.record("one", hour.getMillis(), 10);
+        first.append(log, first.seal(hour.plusDays(1).getMillis()));
+        first.record("one", hour.plusMinutes(1).getMillis(), 10);
+
+        DateTime start = TimeUtil.now();
+        ChannelVolumes second = new ChannelVolumes(start, log);
+        second.read(log);
+        second.repaired(hour, TimeUtil.now());
+        assertEquals(1, second.get("one", TimeUtil.Unit.HOURS, hour).getItems());
+        assertEquals(TimeUtil.Unit.MINUTES.round(start).plusMinutes(1), second.getSince());
+    }
+}
@@ -0,0 +1,99 @@
+package com.flightstats.hub.channel;
+
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HttpCacheTest {
+
+    private static final ChannelConfig DAYS = ChannelConfig.builder().withName("days").withTtlDays(10)
+            .withCreationDate(new Date(1000)).build();
+    private static final ChannelConfig ITEMS = ChannelConfig.builder().withName("items").withMaxItems(100).build();
+
+    private static HttpHeaders headers(String... namesAndValues) {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            values.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return (HttpHeaders) Proxy.newProxyInstance(HttpHeaders.class.getClassLoader(), new Class<?>[]{HttpHeaders.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getHeaderString")) {
+                        return values.get(args[0]);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static long maxAge(HttpCache cache) {
+        String cacheControl = cache.getCacheControl();
+        return Long.parseLong(cacheControl.replaceAll(".*max-age=(\\d+).*", "$1"));
+    }
+
+    @Test
+    public void testMatches() {
+        assertTrue(HttpCache.matches("\"abc\"", "\"abc\""));
+        assertTrue(HttpCache.matches("\"x\", W/\"abc\"", "\"abc\""));
+        assertFalse(HttpCache.matches("\"abcd\"", "\"abc\""));
+        assertFalse(HttpCache.matches(null, "\"abc\""));
+    }
+
+    @Test
+    public void testItem() {
+        ContentKey key = new ContentKey(TimeUtil.now().minusDays(3), "A");
+        HttpCache cache = HttpCache.item("channel/days/" + key.toUrl(), key, Collections.singletonList(DAYS), false, headers());
+        assertEquals(7 * 24 * 3600, maxAge(cache), 60);
+        assertTrue(cache.getCacheControl().endsWith("immutable"));
+
+        HttpCache gzip = HttpCache.item("channel/days/" + key.toUrl(), key, Collections.singletonList(DAYS), false,
+                headers(HttpHeaders.ACCEPT_ENCODING, "gzip"));
+        assertNotEquals(cache.getEntityTag(), gzip.getEntityTag());
+        assertTrue(gzip.isNotModified(headers(HttpHeaders.IF_NONE_MATCH, gzip.getEntityTag())));
+
+        Response response = gzip.notModified();
+        assertEquals(304, response.getStatus());
+        assertEquals(gzip.getEntityTag(), response.getHeaderString(HttpHeaders.ETAG));
+        assertEquals(HttpCache.ITEM_VARY, response.getHeaderString(HttpHeaders.VARY));
+
+        ContentKey expired = new ContentKey(TimeUtil.now().minusDays(11), "A");
+        assertNull(HttpCache.item("channel/days/" + expired.toUrl(), expired, Collections.singletonList(DAYS), false, headers()));
+        assertNull(HttpCache.item("channel/items/" + key.toUrl(), key, Collections.singletonList(ITEMS), false, headers()));
+        assertNull(HttpCache.item("tag/both/" + key.toUrl(), key, Arrays.asList(DAYS, ITEMS), true, headers()));
+    }
+
+    @Test
+    public void testListing() {
+        DateTime stable = TimeUtil.stable();
+        DateTime hour = TimeUtil.Unit.HOURS.round(stable).minusHours(1);
+        List<ChannelConfig> days = Collections.singletonList(DAYS);
+        HttpCache cache = HttpCache.listing("hour", hour, hour.plusHours(1), stable, days, false, headers());
+        assertEquals(10 * 24 * 3600 - 3600, maxAge(cache), 3600);
+        assertEquals(HttpCache.LISTING_VARY, cache.addTo(Response.ok()).build().getHeaderString(HttpHeaders.VARY));
+
+        DateTime current = TimeUtil.Unit.HOURS.round(stable);
+        assertNull(HttpCache.listing("hour", current, current.plusHours(1), stable, days, false, headers()));
+        assertNull(HttpCache.listing("hour", hour, hour.plusHours(1), stable, Arrays.asList(DAYS, ITEMS), false, headers()));
+        DateTime expired = hour.minusDays(11);
+        assertNull(HttpCache.listing("hour", expired, expired.plusHours(1), stable, days, false, headers()));
+
+        HttpCache tag = HttpCache.listing("hour", hour, hour.plusHours(1), stable, days, true, headers());
+        assertEquals("no-cache", tag.getCacheControl());
+        assertEquals(cache.getEntityTag(), tag.getEntityTag());
+        ChannelConfig recreated = ChannelConfig.builder().withName("days").withTtlDays(10).withCreationDate(new Date(2000)).build();
+        HttpCache other = HttpCache.listing("hour", hour, hour.plusHours(1), stable, Collections.singletonList(recreated), true, headers());
+        assertNotEquals(cache.getEntityTag(), other.getEntityTag());
+    }
+}
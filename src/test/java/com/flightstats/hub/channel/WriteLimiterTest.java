@@ -0,0 +1,79 @@
+package com.flightstats.hub.channel;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.exception.TooManyRequestsException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteLimiterTest {
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        HubProperties.setProperty("channel.limitSyncSeconds", "0");
+    }
+
+    @Test
+    public void testItems() {
+        WriteLimiter limiter = new WriteLimiter();
+        int admitted = admit(limiter, "items", 10, 0, 100, 10);
+        assertEquals(20, admitted, 1);
+    }
+
+    @Test
+    public void testBytesRefundsItems() {
+        WriteLimiter limiter = new WriteLimiter();
+        limiter.admit("bytes", 1000, 1000, 1, 5000);
+        try {
+            limiter.admit("bytes", 1000, 1000, 1, 10);
+            fail("expected bytes limit");
+        } catch (TooManyRequestsException e) {
+            assertTrue(e.getRetryAfterSeconds() >= 3);
+        }
+        limiter.sync();
+        assertEquals(1, (long) limiter.getCounts().get("bytes"));
+    }
+
+    @Test
+    public void testUnlimited() {
+        WriteLimiter limiter = new WriteLimiter();
+        assertEquals(1000, admit(limiter, "none", 0, 0, 1000, 100));
+        assertTrue(limiter.getCounts().isEmpty());
+    }
+
+    @Test
+    public void testShares() {
+        WriteLimiter limiter = new WriteLimiter();
+        admit(limiter, "busy", 100, 0, 10, 0);
+        admit(limiter, "quiet", 100, 0, 10, 0);
+        limiter.sync();
+        Map<String, Long> totals = new HashMap<>();
+        totals.put("busy", 40L);
+        totals.put("quiet", 0L);
+        limiter.updateShares(totals, 2);
+        assertEquals(10, (long) limiter.getCounts().get("busy"));
+        int admitted = admit(limiter, "busy", 100, 0, 1000, 0);
+        assertEquals(100 * (0.8 * 10 / 40 + 0.1) * 2, admitted, 10);
+        admitted = admit(limiter, "quiet", 100, 0, 1000, 0);
+        assertEquals(100, admitted, 10);
+    }
+
+    private int admit(WriteLimiter limiter, String channel, long maxItems, long maxBytes, int requests, long bytes) {
+        int admitted = 0;
+        for (int i = 0; i < requests; i++) {
+            try {
+                limiter.admit(channel, maxItems, maxBytes, 1, bytes);
+                admitted++;
+            } catch (TooManyRequestsException e) {
+                assertTrue(e.getRetryAfterSeconds() >= 1);
+            }
+        }
+        return admitted;
+    }
+}
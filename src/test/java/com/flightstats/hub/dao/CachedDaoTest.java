@@ -0,0 +1,117 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.cluster.WatchManager;
+import com.flightstats.hub.model.ChannelConfig;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class CachedDaoTest {
+
+    private final WatchManager watchManager = mock(WatchManager.class);
+
+    private static class MapDao implements Dao<ChannelConfig> {
+        private final Map<String, ChannelConfig> configs = new ConcurrentHashMap<>();
+        private final AtomicInteger gets = new AtomicInteger();
+        private final CountDownLatch scanning = new CountDownLatch(1);
+        private final CountDownLatch scanned = new CountDownLatch(1);
+        private volatile boolean blockScan;
+
+        @Override
+        public void upsert(ChannelConfig config) {
+            configs.put(config.getName(), config);
+        }
+
+        @Override
+        public ChannelConfig get(String name) {
+            gets.incrementAndGet();
+            return configs.get(name);
+        }
+
+        @Override
+        public Collection<ChannelConfig> getAll(boolean useCache) {
+            try {
+                if (blockScan) {
+                    scanning.await(10, TimeUnit.SECONDS);
+                }
+                return new ArrayList<>(configs.values());
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                scanned.countDown();
+            }
+        }
+
+        @Override
+        public void delete(String name) {
+            configs.remove(name);
+        }
+    }
+
+    private static class MemorySnapshot implements ConfigSnapshot<ChannelConfig> {
+        private volatile Collection<ChannelConfig> items = new ArrayList<>();
+
+        @Override
+        public Collection<ChannelConfig> load() {
+            return items;
+        }
+
+        @Override
+        public void save(Collection<ChannelConfig> items) {
+            this.items = new ArrayList<>(items);
+        }
+    }
+
+    private static ChannelConfig config(String name, String owner) {
+        return ChannelConfig.builder().withName(name).withOwner(owner).build();
+    }
+
+    @Test
+    public void testLoadWithoutSnapshot() {
+        MapDao delegate = new MapDao();
+        delegate.upsert(config("one", "a"));
+        delegate.upsert(config("two", "a"));
+        CachedDao<ChannelConfig> dao = new CachedDao<>(delegate, watchManager, "/test");
+        dao.load();
+        assertEquals(2, dao.getAll(true).size());
+        assertEquals("a", dao.getCached("one").getOwner());
+        assertEquals(0, delegate.gets.get());
+    }
+
+    @Test
+    public void testLoadFromSnapshotAndReconcile() throws Exception {
+        MapDao delegate = new MapDao();
+        delegate.upsert(config("one", "new"));
+        delegate.upsert(config("three", "new"));
+        MemorySnapshot snapshot = new MemorySnapshot();
+        snapshot.save(Arrays.asList(config("one", "old"), config("two", "old")));
+        delegate.blockScan = true;
+        CachedDao<ChannelConfig> dao = new CachedDao<>(delegate, watchManager, "/test", snapshot);
+        dao.load();
+        assertEquals("old", dao.getCached("one").getOwner());
+        assertEquals("old", dao.getCached("two").getOwner());
+        assertEquals(0, delegate.gets.get());
+
+        delegate.scanning.countDown();
+        assertTrue(delegate.scanned.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100 && !dao.getAll(true).contains(delegate.configs.get("three")); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("new", dao.getCached("one").getOwner());
+        assertEquals("new", dao.getCached("three").getOwner());
+        assertEquals(2, dao.getAll(true).size());
+        for (int i = 0; i < 100 && !snapshot.load().contains(delegate.configs.get("three")); i++) {
+            Thread.sleep(10);
+        }
+        Set<String> names = new TreeSet<>();
+        snapshot.load().forEach(config -> names.add(config.getName()));
+        assertEquals(new TreeSet<>(Arrays.asList("one", "three")), names);
+    }
+}
@@ -0,0 +1,134 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.channel.ZipBulkBuilder;
+import com.flightstats.hub.exception.FailedWriteException;
+import com.flightstats.hub.exception.InvalidRequestException;
+import com.flightstats.hub.model.BulkContent;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class HistoricalBackfillTest {
+
+    private final DateTime start = TimeUtil.Unit.MINUTES.round(TimeUtil.now().minusDays(10));
+
+    private Content content(DateTime time, String data) {
+        return Content.builder()
+                .withContentKey(new ContentKey(time, data))
+                .withContentType("text/plain")
+                .withData(data.getBytes())
+                .build();
+    }
+
+    @Test
+    public void testParseZip() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream output = new ZipOutputStream(bytes)) {
+            ZipBulkBuilder.createZipEntry(output, content(start.plusSeconds(2), "two"));
+            ZipBulkBuilder.createZipEntry(output, content(start.plusSeconds(1), "one"));
+            ZipBulkBuilder.createZipEntry(output, content(start.plusMinutes(1), "three"));
+        }
+        BulkContent bulkContent = BulkContent.builder()
+                .channel("testParseZip")
+                .contentType("application/zip")
+                .stream(new ByteArrayInputStream(bytes.toByteArray()))
+                .build();
+        List<Content> items = HistoricalBackfill.parse(bulkContent);
+        assertEquals(3, items.size());
+        assertEquals(new ContentKey(start.plusSeconds(1), "one"), items.get(0).getContentKey().get());
+        assertEquals("one", new String(items.get(0).getData()));
+        assertEquals("text/plain", items.get(0).getContentType().get());
+        assertEquals("two", new String(items.get(1).getData()));
+        assertEquals("three", new String(items.get(2).getData()));
+    }
+
+    @Test
+    public void testParseMultiPart() throws Exception {
+        String data = "--frontier\r\n" +
+                "Content-Type: application/json\r\n" +
+                "Content-Key: http://hub/channel/testParseMultiPart/2016/04/20/11/41/00/000/b\r\n" +
+                "\r\n" +
+                "{\"b\":1}\r\n" +
+                "--frontier\r\n" +
+                "Content-Key: http://hub/channel/testParseMultiPart/2016/04/20/11/40/59/000/a\r\n" +
+                "\r\n" +
+                "a\r\n" +
+                "--frontier--";
+        BulkContent bulkContent = BulkContent.builder()
+                .channel("testParseMultiPart")
+                .contentType("multipart/mixed; boundary=frontier")
+                .stream(new ByteArrayInputStream(data.getBytes()))
+                .build();
+        List<Content> items = HistoricalBackfill.parse(bulkContent);
+        assertEquals(2, items.size());
+        assertEquals("a", items.get(0).getContentKey().get().getHash());
+        assertEquals("a", new String(items.get(0).getData()));
+        assertEquals("application/json", items.get(1).getContentType().get());
+        assertEquals("{\"b\":1}", new String(items.get(1).getData()));
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void testParseRequiresKeys() throws Exception {
+        String data = "--frontier\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "\r\n" +
+                "no key\r\n" +
+                "--frontier--";
+        BulkContent bulkContent = BulkContent.builder()
+                .channel("testParseRequiresKeys")
+                .contentType("multipart/mixed; boundary=frontier")
+                .stream(new ByteArrayInputStream(data.getBytes()))
+                .build();
+        HistoricalBackfill.parse(bulkContent);
+    }
+
+    @Test
+    public void testWriteByMinute() {
+        List<Content> items = new ArrayList<>();
+        for (int i = 0; i < 180; i++) {
+            items.add(content(start.plusSeconds(i), "item" + i));
+        }
+        Map<MinutePath, List<Content>> written = new ConcurrentHashMap<>();
+        SortedSet<ContentKey> keys = HistoricalBackfill.write("testWriteByMinute", items, written::put);
+        assertEquals(180, keys.size());
+        assertEquals(3, written.size());
+        for (int minute = 0; minute < 3; minute++) {
+            List<Content> minuteItems = written.get(new MinutePath(start.plusMinutes(minute)));
+            assertEquals(60, minuteItems.size());
+            for (int i = 0; i < 60; i++) {
+                assertEquals(items.get(minute * 60 + i).getContentKey(), minuteItems.get(i).getContentKey());
+            }
+        }
+    }
+
+    @Test
+    public void testWriteFailure() {
+        List<Content> items = Arrays.asList(content(start, "first"), content(start.plusMinutes(1), "second"));
+        MinutePath failing = new MinutePath(start.plusMinutes(1));
+        try {
+            HistoricalBackfill.write("testWriteFailure", items, (minute, minuteItems) -> {
+                if (minute.equals(failing)) {
+                    throw new RuntimeException("failed " + minute);
+                }
+            });
+            fail("expected FailedWriteException");
+        } catch (FailedWriteException e) {
+            assertTrue(e.getMessage().contains("testWriteFailure"));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.flightstats.hub.dao;
+
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.DirectionQuery;
+import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryCacheTest {
+
+    private static final String CHANNEL = "testQueryCache";
+
+    private QueryCache queryCache;
+    private DateTime stable;
+    private DateTime hour;
+    private SortedSet<ContentKey> keys;
+    private AtomicInteger reads;
+
+    @Before
+    public void setUp() {
+        queryCache = new QueryCache(true, 1024 * 1024, 60);
+        stable = TimeUtil.stable();
+        hour = TimeUtil.Unit.HOURS.round(stable).minusHours(2);
+        keys = new TreeSet<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(new ContentKey(hour.plusSeconds(i * 30), "A" + i));
+        }
+        reads = new AtomicInteger();
+    }
+
+    private Collection<ContentKey> read() {
+        reads.incrementAndGet();
+        return keys;
+    }
+
+    private Collection<ContentKey> queryByTime(DateTime start, TimeUtil.Unit unit) {
+        TimeQuery query = TimeQuery.builder().channelName(CHANNEL).startTime(start).unit(unit).build();
+        return queryCache.queryByTime(query, null, stable, this::read);
+    }
+
+    private Collection<ContentKey> queryNext(ContentKey contentKey, int count) {
+        DirectionQuery query = DirectionQuery.builder().channelName(CHANNEL).contentKey(contentKey)
+                .count(count).next(true).ttlTime(hour.minusDays(1)).build();
+        return queryCache.queryDirection(query, null, stable, this::read);
+    }
+
+    @Test
+    public void testMaxItemsNotCached() {
+        ChannelConfig maxItems = ChannelConfig.builder().withName(CHANNEL).withMaxItems(10).build();
+        TimeQuery query = TimeQuery.builder().channelName(CHANNEL).startTime(hour).unit(TimeUtil.Unit.HOURS).build();
+        queryCache.queryByTime(query, maxItems, stable, this::read);
+        queryCache.queryByTime(query, maxItems, stable, this::read);
+        DirectionQuery next = DirectionQuery.builder().channelName(CHANNEL).contentKey(keys.first())
+                .count(10).next(true).ttlTime(hour.minusDays(1)).build();
+        queryCache.queryDirection(next, maxItems, stable, this::read);
+        queryCache.queryDirection(next, maxItems, stable, this::read);
+        assertEquals(4, reads.get());
+        assertEquals(0, queryCache.size());
+    }
+
+    @Test
+    public void testStableTimeQuery() {
+        assertEquals(keys, queryByTime(hour, TimeUtil.Unit.HOURS));
+        assertEquals(keys, queryByTime(hour, TimeUtil.Unit.HOURS));
+        assertEquals(1, reads.get());
+        assertEquals(1, queryCache.getHits());
+        queryByTime(hour.plusHours(1), TimeUtil.Unit.MINUTES);
+        queryByTime(hour.plusHours(1), TimeUtil.Unit.MINUTES);
+        assertEquals(2, queryCache.getHits());
+
+        queryByTime(TimeUtil.Unit.HOURS.round(stable), TimeUtil.Unit.HOURS);
+        queryByTime(TimeUtil.Unit.HOURS.round(stable), TimeUtil.Unit.HOURS);
+        assertEquals(4, reads.get());
+        assertEquals(2, queryCache.getHits());
+    }
+
+    @Test
+    public void testDirectionQuery() {
+        ContentKey first = keys.first();
+        assertEquals(keys, queryNext(first, 10));
+        SortedSet<ContentKey> cached = (SortedSet<ContentKey>) queryNext(first, 10);
+        assertEquals(1, reads.get());
+        assertEquals(keys.stream().skip(1).limit(10).collect(Collectors.toCollection(TreeSet::new)), cached);
+
+        queryNext(first, 200);
+        queryNext(first, 200);
+        assertEquals(3, reads.get());
+    }
+
+    @Test
+    public void testInvalidation() {
+        queryByTime(hour, TimeUtil.Unit.HOURS);
+        queryCache.invalidateAfter(CHANNEL, hour.plusHours(1));
+        queryByTime(hour, TimeUtil.Unit.HOURS);
+        assertEquals(1, reads.get());
+
+        queryCache.invalidateAfter(CHANNEL, hour.plusMinutes(30));
+        queryByTime(hour, TimeUtil.Unit.HOURS);
+        assertEquals(2, reads.get());
+
+        queryCache.invalidateBefore(CHANNEL, hour);
+        queryByTime(hour, TimeUtil.Unit.HOURS);
+        assertEquals(2, reads.get());
+
+        queryCache.invalidateBefore(CHANNEL, hour.plusMinutes(1));
+        queryByTime(hour, TimeUtil.Unit.HOURS);
+        assertEquals(3, reads.get());
+
+        queryCache.delete(CHANNEL);
+        assertEquals(0, queryCache.size());
+        queryByTime(hour, TimeUtil.Unit.HOURS);
+        assertEquals(4, reads.get());
+    }
+}
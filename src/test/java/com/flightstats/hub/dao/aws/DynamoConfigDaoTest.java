@@ -0,0 +1,130 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.GlobalConfig;
+import com.flightstats.hub.webhook.Webhook;
+import com.google.inject.Guice;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class DynamoConfigDaoTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private LocalDynamo localDynamo;
+    private DynamoUtils dynamoUtils;
+    private DynamoChannelConfigDao channelDao;
+    private DynamoWebhookDao webhookDao;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        HubProperties.loadProperties("useDefault");
+    }
+
+    @Before
+    public void setUp() {
+        localDynamo = new LocalDynamo();
+        dynamoUtils = new DynamoUtils(localDynamo, "test", "hub");
+        localDynamo.table(dynamoUtils.getTableName("channelMetaData"), "key");
+        localDynamo.table(dynamoUtils.getTableName("GroupConfig"), "name");
+        channelDao = Guice.createInjector(binder -> {
+            binder.bind(AmazonDynamoDBClient.class).toInstance(localDynamo);
+            binder.bind(DynamoUtils.class).toInstance(dynamoUtils);
+        }).getInstance(DynamoChannelConfigDao.class);
+        webhookDao = new DynamoWebhookDao(localDynamo, dynamoUtils);
+    }
+
+    private ChannelConfig channel(int i) {
+        return ChannelConfig.builder()
+                .withName(String.format("channel%05d", i))
+                .withDescription(StringUtils.repeat("description ", 100))
+                .withTags(Arrays.asList("tag" + (i % 10), "other"))
+                .withOwner("owner" + i)
+                .withMaxItemsPerSecond(i)
+                .build();
+    }
+
+    private Webhook webhook(int i) {
+        return Webhook.builder()
+                .name("webhook" + i)
+                .callbackUrl("http://client/callback/" + i)
+                .channelUrl("http://hub/channel/channel" + i)
+                .build().withDefaults();
+    }
+
+    @Test
+    public void testScanPagesAndSegments() {
+        int count = 10000;
+        for (int i = 0; i < count; i++) {
+            channelDao.upsert(channel(i));
+        }
+        localDynamo.resetCalls();
+        Collection<ChannelConfig> all = channelDao.getAll(false);
+        assertEquals(count, all.size());
+        assertEquals(count, all.stream().map(ChannelConfig::getName).distinct().count());
+        assertTrue("scans " + localDynamo.calls("scan"), localDynamo.calls("scan") > 8);
+    }
+
+    @Test
+    public void testWebhookScanPages() {
+        HubProperties.setProperty("dynamo.scanSegments", "1");
+        try {
+            webhookDao = new DynamoWebhookDao(localDynamo, new DynamoUtils(localDynamo, "test", "hub"));
+            int count = 8000;
+            for (int i = 0; i < count; i++) {
+                webhookDao.upsert(webhook(i));
+            }
+            localDynamo.resetCalls();
+            assertEquals(count, webhookDao.getAll(false).size());
+            assertTrue("scans " + localDynamo.calls("scan"), localDynamo.calls("scan") > 1);
+        } finally {
+            HubProperties.setProperty("dynamo.scanSegments", "8");
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        GlobalConfig global = new GlobalConfig();
+        global.setMaster("http://master/");
+        global.addSatellites(Collections.singletonList("http://satellite/"));
+        global.setIsMaster(true);
+        ChannelConfig globalChannel = ChannelConfig.builder().withName("global").withGlobal(global).build();
+        List<ChannelConfig> channels = Arrays.asList(channel(1), channel(2), globalChannel);
+        File file = new File(temporaryFolder.getRoot(), "snapshot/channels.json");
+        assertTrue(channelDao.snapshot(file).load().isEmpty());
+        channelDao.snapshot(file).save(channels);
+
+        assertEquals(toStrings(channels), toStrings(channelDao.snapshot(file).load()));
+        assertTrue(webhookDao.snapshot(file).load().isEmpty());
+
+        Files.write(file.toPath(), new String(Files.readAllBytes(file.toPath()))
+                .replace("\"version\":" + DynamoSnapshot.VERSION, "\"version\":0").getBytes());
+        assertTrue(channelDao.snapshot(file).load().isEmpty());
+    }
+
+    @Test
+    public void testWebhookSnapshot() {
+        List<Webhook> webhooks = Arrays.asList(webhook(1), webhook(2).withPaused(true).withParallelCalls(5));
+        File file = new File(temporaryFolder.getRoot(), "webhooks.json");
+        webhookDao.snapshot(file).save(webhooks);
+        assertEquals(toStrings(webhooks), toStrings(webhookDao.snapshot(file).load()));
+    }
+
+    private static List<String> toStrings(Collection<?> items) {
+        return items.stream().map(Object::toString).sorted().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,134 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.model.*;
+import com.flightstats.hub.util.Sleeper;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in memory stand in for the Dynamo calls the config daos make, with Dynamo's limit of 1 MB per scan page.
+ * It counts each call, and can add latency to them.
+ */
+class LocalDynamo extends AmazonDynamoDBClient {
+
+    private static final int PAGE_BYTES = 1024 * 1024;
+
+    private final Map<String, String> keyNames = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<String, Map<String, AttributeValue>>> tables = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> calls = new ConcurrentHashMap<>();
+    private final Map<String, Long> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong scannedBytes = new AtomicLong();
+
+    LocalDynamo() {
+        super(new BasicAWSCredentials("local", "local"));
+    }
+
+    void table(String tableName, String keyName) {
+        keyNames.put(tableName, keyName);
+        tables.put(tableName, new ConcurrentSkipListMap<>());
+    }
+
+    int size(String tableName) {
+        return tables.get(tableName).size();
+    }
+
+    void latency(String method, long millis) {
+        latencies.put(method, millis);
+    }
+
+    long calls(String method) {
+        AtomicLong count = calls.get(method);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return the approximate size of the items every scan has returned since resetCalls
+     */
+    long scannedBytes() {
+        return scannedBytes.get();
+    }
+
+    void resetCalls() {
+        calls.clear();
+        scannedBytes.set(0);
+    }
+
+    private void call(String method) {
+        calls.computeIfAbsent(method, k -> new AtomicLong()).incrementAndGet();
+        Sleeper.sleep(latencies.getOrDefault(method, 0L));
+    }
+
+    private ConcurrentSkipListMap<String, Map<String, AttributeValue>> getTable(String tableName) {
+        ConcurrentSkipListMap<String, Map<String, AttributeValue>> table = tables.get(tableName);
+        if (table == null) {
+            throw new ResourceNotFoundException(tableName);
+        }
+        return table;
+    }
+
+    @Override
+    public PutItemResult putItem(PutItemRequest request) {
+        call("putItem");
+        String keyName = keyNames.get(request.getTableName());
+        getTable(request.getTableName()).put(request.getItem().get(keyName).getS(), new HashMap<>(request.getItem()));
+        return new PutItemResult();
+    }
+
+    @Override
+    public GetItemResult getItem(GetItemRequest request) {
+        call("getItem");
+        String key = request.getKey().values().iterator().next().getS();
+        return new GetItemResult().withItem(getTable(request.getTableName()).get(key));
+    }
+
+    @Override
+    public DeleteItemResult deleteItem(DeleteItemRequest request) {
+        call("deleteItem");
+        getTable(request.getTableName()).remove(request.getKey().values().iterator().next().getS());
+        return new DeleteItemResult();
+    }
+
+    @Override
+    public ScanResult scan(ScanRequest request) {
+        call("scan");
+        ConcurrentSkipListMap<String, Map<String, AttributeValue>> table = getTable(request.getTableName());
+        NavigableMap<String, Map<String, AttributeValue>> remaining = table;
+        if (request.getExclusiveStartKey() != null) {
+            String start = request.getExclusiveStartKey().values().iterator().next().getS();
+            remaining = table.tailMap(start, false);
+        }
+        List<Map<String, AttributeValue>> items = new ArrayList<>();
+        int bytes = 0;
+        String lastKey = null;
+        for (Map.Entry<String, Map<String, AttributeValue>> entry : remaining.entrySet()) {
+            if (request.getTotalSegments() != null
+                    && Math.floorMod(entry.getKey().hashCode(), request.getTotalSegments()) != request.getSegment()) {
+                continue;
+            }
+            if (bytes >= PAGE_BYTES) {
+                scannedBytes.addAndGet(bytes);
+                String keyName = keyNames.get(request.getTableName());
+                return new ScanResult().withItems(items)
+                        .withLastEvaluatedKey(Collections.singletonMap(keyName, new AttributeValue(lastKey)));
+            }
+            items.add(entry.getValue());
+            bytes += size(entry.getValue());
+            lastKey = entry.getKey();
+        }
+        scannedBytes.addAndGet(bytes);
+        return new ScanResult().withItems(items);
+    }
+
+    private static int size(Map<String, AttributeValue> item) {
+        int size = 0;
+        for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+            size += entry.getKey().length() + entry.getValue().toString().length();
+        }
+        return size;
+    }
+}
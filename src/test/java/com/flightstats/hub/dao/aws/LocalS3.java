@@ -0,0 +1,99 @@
+package com.flightstats.hub.dao.aws;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import com.flightstats.hub.util.Sleeper;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in memory stand in for the S3 calls the daos make.  It counts each call, and can add latency to them.
+ */
+class LocalS3 {
+
+    final ConcurrentSkipListMap<String, byte[]> objects = new ConcurrentSkipListMap<>();
+    private final Map<String, AtomicLong> calls = new ConcurrentHashMap<>();
+    private final Map<String, Long> latencies = new ConcurrentHashMap<>();
+
+    AmazonS3 client() {
+        return (AmazonS3) Proxy.newProxyInstance(AmazonS3.class.getClassLoader(), new Class<?>[]{AmazonS3.class},
+                (proxy, method, args) -> invoke(method, args));
+    }
+
+    void latency(String method, long millis) {
+        latencies.put(method, millis);
+    }
+
+    long calls(String method) {
+        AtomicLong count = calls.get(method);
+        return count == null ? 0 : count.get();
+    }
+
+    void resetCalls() {
+        calls.clear();
+    }
+
+    private Object invoke(Method method, Object[] args) throws Exception {
+        String name = method.getName();
+        if (method.getDeclaringClass().equals(Object.class)) {
+            return method.invoke(this, args);
+        }
+        calls.computeIfAbsent(name, k -> new AtomicLong()).incrementAndGet();
+        Sleeper.sleep(latencies.getOrDefault(name, 0L));
+        switch (name) {
+            case "putObject":
+                PutObjectRequest put = (PutObjectRequest) args[0];
+                objects.put(put.getKey(), ByteStreams.toByteArray(put.getInputStream()));
+                return new PutObjectResult();
+            case "getObject":
+                byte[] bytes = objects.get((String) args[1]);
+                if (bytes == null) {
+                    AmazonS3Exception exception = new AmazonS3Exception("not found");
+                    exception.setStatusCode(404);
+                    throw exception;
+                }
+                S3Object object = new S3Object();
+                object.setKey((String) args[1]);
+                object.setObjectMetadata(new ObjectMetadata());
+                object.setObjectContent(new ByteArrayInputStream(bytes));
+                return object;
+            case "listObjects":
+                return list((ListObjectsRequest) args[0]);
+            case "deleteObjects":
+                for (DeleteObjectsRequest.KeyVersion key : ((DeleteObjectsRequest) args[0]).getKeys()) {
+                    objects.remove(key.getKey());
+                }
+                return new DeleteObjectsResult(new ArrayList<>());
+            default:
+                throw new UnsupportedOperationException(name);
+        }
+    }
+
+    private ObjectListing list(ListObjectsRequest request) {
+        String prefix = request.getPrefix() == null ? "" : request.getPrefix();
+        String start = request.getMarker() == null || request.getMarker().compareTo(prefix) < 0 ? prefix : request.getMarker();
+        int maxKeys = request.getMaxKeys() == null ? 1000 : request.getMaxKeys();
+        ObjectListing listing = new ObjectListing();
+        for (String key : objects.tailMap(start, !start.equals(request.getMarker())).keySet()) {
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            if (listing.getObjectSummaries().size() == maxKeys) {
+                listing.setTruncated(true);
+                break;
+            }
+            S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setKey(key);
+            listing.getObjectSummaries().add(summary);
+        }
+        return listing;
+    }
+}
@@ -0,0 +1,92 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.NoOpMetricsSender;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class S3BackfillTest {
+
+    private LocalS3 localS3;
+    private DateTime minute;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        HubProperties.loadProperties("useDefault");
+    }
+
+    @Before
+    public void setUp() {
+        localS3 = new LocalS3();
+        minute = TimeUtil.Unit.MINUTES.round(TimeUtil.now().minusDays(3));
+    }
+
+    private List<Content> items(int count) {
+        List<Content> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(Content.builder()
+                    .withContentKey(new ContentKey(minute.plusMillis(i * 100), "item" + i))
+                    .withContentType("text/plain")
+                    .withData(("data" + i).getBytes())
+                    .build());
+        }
+        return items;
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        S3BatchContentDao dao = new S3BatchContentDao(localS3.client(), new S3BucketName("local", "hub-v2"), new NoOpMetricsSender());
+        List<Content> items = items(10);
+        dao.backfill("testBatch", new MinutePath(minute), items);
+        assertEquals(2, localS3.calls("putObject"));
+        for (int i = 0; i < items.size(); i++) {
+            Content content = dao.get("testBatch", items.get(i).getContentKey().get());
+            assertEquals("data" + i, new String(content.getData()));
+            assertEquals("text/plain", content.getContentType().get());
+        }
+    }
+
+    @Test
+    public void testBatchMerges() throws Exception {
+        S3BatchContentDao dao = new S3BatchContentDao(localS3.client(), new S3BucketName("local", "hub-v2"), new NoOpMetricsSender());
+        List<Content> items = items(10);
+        dao.backfill("testBatchMerges", new MinutePath(minute), items.subList(0, 6));
+        dao.backfill("testBatchMerges", new MinutePath(minute), items.subList(6, 10));
+        TimeQuery query = TimeQuery.builder().channelName("testBatchMerges").startTime(minute).unit(TimeUtil.Unit.MINUTES).build();
+        assertEquals(10, dao.queryByTime(query).size());
+        for (int i = 0; i < items.size(); i++) {
+            Content content = dao.get("testBatchMerges", items.get(i).getContentKey().get());
+            assertEquals("data" + i, new String(content.getData()));
+        }
+    }
+
+    @Test
+    public void testSingleDeletesManifest() throws Exception {
+        S3SingleContentDao dao = new S3SingleContentDao(localS3.client(), new S3BucketName("local", "hub-v2"), new NoOpMetricsSender());
+        DateTime hour = TimeUtil.Unit.HOURS.round(minute);
+        TimeQuery query = TimeQuery.builder().channelName("testSingle").startTime(hour).unit(TimeUtil.Unit.HOURS).build();
+        assertTrue(dao.queryByTime(query).isEmpty());
+        assertNotNull(localS3.objects.get(S3HourManifests.getS3Key("testSingle", hour)));
+
+        List<Content> items = items(5);
+        dao.backfill("testSingle", new MinutePath(minute), items);
+        assertNull(localS3.objects.get(S3HourManifests.getS3Key("testSingle", hour)));
+        SortedSet<ContentKey> expected = new TreeSet<>();
+        items.forEach(item -> expected.add(item.getContentKey().get()));
+        assertEquals(expected, dao.queryByTime(query));
+    }
+}
@@ -0,0 +1,140 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class S3DeleterTest {
+
+    private LocalS3 localS3;
+    private S3Deleter deleter;
+    private DateTime start;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        HubProperties.loadProperties("useDefault");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        localS3 = new LocalS3();
+        deleter = new S3Deleter(localS3.client(), "bucket", null);
+        start = TimeUtil.Unit.DAYS.round(TimeUtil.now().minusDays(10));
+    }
+
+    @Test
+    public void testPartitions() {
+        ContentKey limitKey = new ContentKey(start.plusDays(5).plusHours(3).plusMinutes(30), "A");
+        List<S3Deleter.Partition> partitions = S3Deleter.getPartitions("ch/", start.plusHours(7), limitKey);
+        assertEquals(4 + 24 + 4, partitions.size());
+        assertEquals(TimeUtil.days(start), partitions.get(0).timePath);
+        assertEquals(TimeUtil.days(start.plusDays(3)), partitions.get(3).timePath);
+        assertEquals(TimeUtil.hours(start.plusDays(4)), partitions.get(4).timePath);
+        S3Deleter.Partition last = partitions.get(partitions.size() - 1);
+        assertEquals(TimeUtil.hours(start.plusDays(5).plusHours(3)), last.timePath);
+        assertEquals(limitKey.getTime(), last.end);
+    }
+
+    @Test
+    public void testPartitionsRecent() {
+        ContentKey limitKey = new ContentKey(start.plusHours(5), "A");
+        List<S3Deleter.Partition> partitions = S3Deleter.getPartitions("ch/", start.plusHours(2).plusMinutes(10), limitKey);
+        assertEquals(3, partitions.size());
+        assertEquals(TimeUtil.hours(start.plusHours(2)), partitions.get(0).timePath);
+    }
+
+    @Test
+    public void testDeleteSingle() {
+        for (int minute = 0; minute < 3 * 24 * 60; minute += 7) {
+            localS3.objects.put("ch/" + new ContentKey(start.plusMinutes(minute)).toUrl(), new byte[0]);
+            localS3.objects.put("other/" + new ContentKey(start.plusMinutes(minute)).toUrl(), new byte[0]);
+        }
+        localS3.objects.put("ch.manifest/" + TimeUtil.hours(start), new byte[0]);
+        ContentKey limitKey = new ContentKey(start.plusDays(2).plusHours(6).plusMinutes(3), "A");
+        S3Deleter.Result result = deleter.delete("ch", "/", limitKey, "/checkpoint/");
+        for (String key : localS3.objects.keySet()) {
+            if (key.startsWith("ch/")) {
+                assertTrue(key, ContentKey.fromUrl(key.substring(3)).get().compareTo(limitKey) >= 0);
+            }
+        }
+        long remaining = localS3.objects.keySet().stream().filter(key -> key.startsWith("ch/")).count();
+        assertEquals(3 * 24 * 60 / 7 + 1 - result.objects.get(), remaining);
+        assertEquals(3 * 24 * 60 / 7 + 1, localS3.objects.keySet().stream().filter(key -> key.startsWith("other/")).count());
+        assertTrue(localS3.objects.containsKey("ch.manifest/" + TimeUtil.hours(start)));
+        assertEquals(1 + 1 + 24 + 7, result.lists.get());
+    }
+
+    @Test
+    public void testDeleteBatch() {
+        for (int minute = 0; minute < 2 * 24 * 60; minute++) {
+            localS3.objects.put("chBatch/items/" + new MinutePath(start.plusMinutes(minute)).toUrl(), new byte[0]);
+        }
+        ContentKey limitKey = new ContentKey(start.plusDays(1).plusHours(12), "A");
+        S3Deleter.Result result = deleter.delete("ch", "Batch/items/", limitKey, null);
+        assertEquals(36 * 60, result.objects.get());
+        assertEquals(12 * 60, localS3.objects.size());
+        assertEquals(MinutePath.fromUrl(localS3.objects.firstKey().substring("chBatch/items/".length())).get(),
+                new MinutePath(limitKey.getTime()));
+    }
+
+    @Test
+    public void testCheckpoint() {
+        Map<String, ContentPath> checkpoints = new HashMap<>();
+        LastContentPath lastContentPath = new LastContentPath(null) {
+            @Override
+            public ContentPath getOrNull(String name, String basePath) {
+                return checkpoints.get(basePath + name);
+            }
+
+            @Override
+            public void updateIncrease(ContentPath nextPath, String name, String basePath) {
+                checkpoints.merge(basePath + name, nextPath, (a, b) -> a.compareTo(b) > 0 ? a : b);
+            }
+        };
+        AtomicLong now = new AtomicLong(System.currentTimeMillis());
+        deleter = new S3Deleter(localS3.client(), "bucket", lastContentPath, now::get);
+        for (int minute = 0; minute < 3 * 24 * 60; minute += 7) {
+            localS3.objects.put("ch/" + new ContentKey(start.plusMinutes(minute)).toUrl(), new byte[0]);
+        }
+        ContentKey limitKey = new ContentKey(start.plusDays(2).plusMinutes(30), "A");
+        deleter.delete("ch", "/", limitKey, "/checkpoint/");
+        assertEquals(new MinutePath(limitKey.getTime()), checkpoints.get("/checkpoint/ch"));
+
+        S3Deleter.Result result = deleter.delete("ch", "/", new ContentKey(start.plusDays(2).plusHours(2), "A"), "/checkpoint/");
+        assertEquals(2, result.lists.get());
+        assertEquals(new MinutePath(start.plusDays(2).plusHours(2)), checkpoints.get("/checkpoint/ch"));
+
+        String rewritten = "ch/" + new ContentKey(start.plusHours(1)).toUrl();
+        localS3.objects.put(rewritten, new byte[0]);
+        ContentKey laterKey = new ContentKey(start.plusDays(2).plusHours(3), "A");
+        deleter.delete("ch", "/", laterKey, "/checkpoint/");
+        assertTrue(localS3.objects.containsKey(rewritten));
+        now.addAndGet(TimeUnit.HOURS.toMillis(25));
+        deleter.delete("ch", "/", laterKey, "/checkpoint/");
+        assertFalse(localS3.objects.containsKey(rewritten));
+    }
+
+    @Test
+    public void testNothingToDelete() {
+        S3Deleter.Result result = deleter.delete("empty", "/", new ContentKey(), null);
+        assertEquals(0, result.objects.get());
+        assertEquals(1, result.lists.get());
+    }
+}
@@ -0,0 +1,121 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.metrics.NoOpMetricsSender;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.TimeQuery;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.base.Optional;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class S3HourManifestsTest {
+
+    private LocalS3 localS3;
+    private S3HourManifests manifests;
+    private S3SingleContentDao dao;
+    private DateTime day;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        HubProperties.loadProperties("useDefault");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        localS3 = new LocalS3();
+        manifests = new S3HourManifests(localS3.client(), "hub-v2-local");
+        dao = new S3SingleContentDao(localS3.client(), new S3BucketName("local", "hub-v2"), new NoOpMetricsSender());
+        day = TimeUtil.Unit.DAYS.round(TimeUtil.now().minusDays(3));
+    }
+
+    private SortedSet<ContentKey> addItems(String channel, DateTime start, int hours, int perHour) {
+        SortedSet<ContentKey> keys = new TreeSet<>();
+        for (int hour = 0; hour < hours; hour++) {
+            for (int i = 0; i < perHour; i++) {
+                ContentKey key = new ContentKey(start.plusHours(hour).plusSeconds(i * 3600 / perHour));
+                localS3.objects.put(channel + "/" + key.toUrl(), new byte[0]);
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private TimeQuery.TimeQueryBuilder query(String channel, DateTime start, TimeUtil.Unit unit) {
+        return TimeQuery.builder().channelName(channel).startTime(start).unit(unit);
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        SortedSet<ContentKey> keys = addItems("testWriteRead", day, 1, 100);
+        manifests.write("testWriteRead", day, keys);
+        assertEquals(keys, manifests.read("testWriteRead", day).get());
+        assertFalse(manifests.read("testWriteRead", day.plusHours(1)).isPresent());
+        assertTrue(localS3.objects.containsKey("testWriteRead.manifest/" + TimeUtil.hours(day)));
+    }
+
+    @Test
+    public void testQueryDay() throws Exception {
+        SortedSet<ContentKey> keys = addItems("testQueryDay", day, 24, 1500);
+        addItems("testQueryDay", day.plusDays(1), 1, 10);
+        assertEquals(keys, dao.queryByTime(query("testQueryDay", day.plusHours(5), TimeUtil.Unit.DAYS).build()));
+        assertEquals(24, localS3.calls("putObject"));
+        localS3.resetCalls();
+
+        assertEquals(keys, dao.queryByTime(query("testQueryDay", day, TimeUtil.Unit.DAYS).build()));
+        assertEquals(0, localS3.calls("listObjects"));
+        assertEquals(24, localS3.calls("getObject"));
+        assertEquals(0, localS3.calls("putObject"));
+    }
+
+    @Test
+    public void testQueryRange() throws Exception {
+        SortedSet<ContentKey> keys = addItems("testQueryRange", day, 48, 10);
+        dao.queryByTime(query("testQueryRange", day, TimeUtil.Unit.DAYS).build());
+        localS3.resetCalls();
+
+        DateTime end = day.plusHours(30).plusMinutes(30);
+        TimeQuery timeQuery = query("testQueryRange", day.plusHours(2), TimeUtil.Unit.HOURS).endTime(end).build();
+        assertEquals(keys.subSet(new ContentKey(day.plusHours(2), "0"), new ContentKey(end, "0")), dao.queryByTime(timeQuery));
+        assertEquals(22, localS3.calls("getObject") - localS3.calls("putObject"));
+        assertEquals(7, localS3.calls("putObject"));
+    }
+
+    @Test
+    public void testMissingManifest() throws Exception {
+        SortedSet<ContentKey> keys = addItems("testMissingManifest", day, 2, 10);
+        manifests.write("testMissingManifest", day, Collections.emptySortedSet());
+        manifests.write("testMissingManifest", day.plusHours(1), keys.tailSet(new ContentKey(day.plusHours(1), "0")));
+        assertEquals(keys.tailSet(new ContentKey(day.plusHours(1), "0")),
+                dao.queryByTime(query("testMissingManifest", day, TimeUtil.Unit.DAYS).build()));
+    }
+
+    @Test
+    public void testRecentHoursAreListed() throws Exception {
+        DateTime hour = TimeUtil.Unit.HOURS.round(TimeUtil.now());
+        SortedSet<ContentKey> keys = addItems("testRecentHoursAreListed", hour, 1, 10);
+        assertEquals(keys, dao.queryByTime(query("testRecentHoursAreListed", hour, TimeUtil.Unit.HOURS).build()));
+        assertEquals(0, localS3.calls("getObject"));
+        assertEquals(0, localS3.calls("putObject"));
+    }
+
+    @Test
+    public void testDeleteBefore() throws Exception {
+        addItems("testDeleteBefore", day, 3, 10);
+        dao.queryByTime(query("testDeleteBefore", day, TimeUtil.Unit.DAYS).build());
+        manifests.deleteBefore("testDeleteBefore", day.plusHours(1).plusMinutes(30));
+        assertFalse(manifests.read("testDeleteBefore", day).isPresent());
+        assertFalse(manifests.read("testDeleteBefore", day.plusHours(1)).isPresent());
+        Optional<SortedSet<ContentKey>> last = manifests.read("testDeleteBefore", day.plusHours(2));
+        assertTrue(last.isPresent());
+        assertEquals(10, last.get().size());
+    }
+}
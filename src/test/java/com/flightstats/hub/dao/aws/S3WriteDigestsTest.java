@@ -0,0 +1,64 @@
+package com.flightstats.hub.dao.aws;
+
+import com.flightstats.hub.dao.KeyDigest;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class S3WriteDigestsTest {
+
+    private final DateTime start = new MinutePath(TimeUtil.now().minusMinutes(20)).getTime();
+
+    @Test
+    public void testRecord() {
+        S3WriteDigests digests = new S3WriteDigests();
+        ContentKey first = new ContentKey(start, "first");
+        ContentKey second = new ContentKey(start.plusSeconds(30), "second");
+        ContentKey later = new ContentKey(start.plusMinutes(5), "later");
+        digests.record("testRecord", first);
+        digests.record("testRecord", second);
+        digests.record("testRecord", later);
+        digests.record("other", later);
+
+        SortedMap<String, KeyDigest> minutes = digests.get("testRecord", start, start.plusMinutes(4));
+        assertEquals(1, minutes.size());
+        KeyDigest digest = minutes.get(TimeUtil.minutes(start));
+        assertEquals(2, digest.getCount());
+        assertEquals(KeyDigest.of(Arrays.asList(second.toUrl(), first.toUrl())).getValue(), digest.getValue());
+        assertEquals(2, digests.get("testRecord", start, start.plusMinutes(5)).size());
+    }
+
+    @Test
+    public void testMismatchedMinutes() {
+        String firstMinute = TimeUtil.minutes(start);
+        String secondMinute = TimeUtil.minutes(start.plusMinutes(1));
+        String thirdMinute = TimeUtil.minutes(start.plusMinutes(2));
+        List<String> keys = Arrays.asList(new ContentKey(start, "A").toUrl(), new ContentKey(start, "B").toUrl());
+        long spokeValue = KeyDigest.of(keys).getValue();
+
+        SortedMap<String, Long> serverOne = new TreeMap<>();
+        serverOne.put(firstMinute, spokeValue);
+        serverOne.put(secondMinute, spokeValue);
+        SortedMap<String, Long> serverTwo = new TreeMap<>(serverOne);
+        serverTwo.put(thirdMinute, spokeValue);
+
+        KeyDigest fromOneWriter = KeyDigest.of(keys.subList(0, 1));
+        KeyDigest fromOtherWriter = KeyDigest.of(keys.subList(1, 2));
+        SortedMap<String, KeyDigest> s3 = new TreeMap<>();
+        s3.put(firstMinute, new KeyDigest());
+        s3.get(firstMinute).add(fromOneWriter);
+        s3.get(firstMinute).add(fromOtherWriter);
+        s3.put(secondMinute, fromOneWriter);
+
+        Collection<MinutePath> mismatched = S3Verifier.getMismatchedMinutes(start, start.plusMinutes(3),
+                Arrays.asList(serverOne, serverTwo), s3);
+        assertEquals(Arrays.asList(new MinutePath(start.plusMinutes(1)), new MinutePath(start.plusMinutes(2))),
+                new ArrayList<>(mismatched));
+    }
+}
@@ -0,0 +1,27 @@
+package com.flightstats.hub.filter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StoredGzipInterceptorTest {
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(StoredGzipInterceptor.acceptsGzip("gzip"));
+        assertTrue(StoredGzipInterceptor.acceptsGzip("deflate, gzip"));
+        assertTrue(StoredGzipInterceptor.acceptsGzip("GZIP;q=0.5, deflate"));
+        assertTrue(StoredGzipInterceptor.acceptsGzip("br, gzip ; q=1.0"));
+    }
+
+    @Test
+    public void testRejectsGzip() {
+        assertFalse(StoredGzipInterceptor.acceptsGzip(null));
+        assertFalse(StoredGzipInterceptor.acceptsGzip(""));
+        assertFalse(StoredGzipInterceptor.acceptsGzip("deflate"));
+        assertFalse(StoredGzipInterceptor.acceptsGzip("x-gzip-ish"));
+        assertFalse(StoredGzipInterceptor.acceptsGzip("gzip;q=0, deflate"));
+        assertFalse(StoredGzipInterceptor.acceptsGzip("gzip; q=0.0"));
+    }
+}
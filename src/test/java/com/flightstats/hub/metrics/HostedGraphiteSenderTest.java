@@ -0,0 +1,78 @@
+package com.flightstats.hub.metrics;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HostedGraphiteSenderTest {
+
+    @Test
+    public void testAggregator() {
+        MetricsAggregator aggregator = new MetricsAggregator();
+        aggregator.send("timer", 10);
+        aggregator.send("timer", 21);
+        aggregator.count("counter", 1);
+        aggregator.count("counter", 5);
+        aggregator.gauge("gauge", 3);
+        aggregator.gauge("gauge", 0.25);
+        Map<String, String> flushed = new HashMap<>();
+        assertEquals(3, aggregator.flush(flushed::put));
+        assertEquals("15.500", flushed.get("timer"));
+        assertEquals("6", flushed.get("counter"));
+        assertEquals("0.250", flushed.get("gauge"));
+
+        flushed.clear();
+        aggregator.count("counter", 2);
+        assertEquals(1, aggregator.flush(flushed::put));
+        assertEquals("2", flushed.get("counter"));
+        assertEquals(0, aggregator.flush(flushed::put));
+    }
+
+    @Test
+    public void testBatchAndBacklog() throws Exception {
+        int port;
+        try (ServerSocket closed = new ServerSocket(0)) {
+            port = closed.getLocalPort();
+        }
+        HostedGraphiteSender sender = new HostedGraphiteSender("localhost", port, "key.hub.test", 10, 200);
+        for (int i = 0; i < 10; i++) {
+            sender.count("channel.one.items", 1);
+            sender.flush();
+        }
+        assertTrue(sender.getBacklogSize() > 0);
+        assertTrue(sender.getBacklogSize() <= 200);
+
+        try (ServerSocket server = new ServerSocket(port)) {
+            sender.count("channel.one.items", 3);
+            sender.count("channel.two.test", 3);
+            sender.flush();
+            assertEquals(0, sender.getBacklogSize());
+            try (Socket socket = server.accept();
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+                Map<String, String> last = new HashMap<>();
+                long dropped = 0;
+                String line;
+                while (last.size() < 3 || !"3".equals(last.get("key.hub.test.channel.one.items"))) {
+                    line = reader.readLine();
+                    assertNotNull(line);
+                    String[] split = line.split(" ");
+                    assertEquals(3, split.length);
+                    last.put(split[0], split[1]);
+                    if (split[0].endsWith("graphite.dropped")) {
+                        dropped += Long.parseLong(split[1]);
+                    }
+                }
+                assertTrue(dropped > 0);
+                assertFalse(last.containsKey("key.hub.test.channel.two.test"));
+            }
+        }
+    }
+}
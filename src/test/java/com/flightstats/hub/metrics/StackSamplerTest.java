@@ -0,0 +1,71 @@
+package com.flightstats.hub.metrics;
+
+import org.junit.Test;
+
+import java.util.SortedMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class StackSamplerTest {
+
+    @Test
+    public void testPool() {
+        assertEquals("RemoteSpokeStore", StackSampler.pool("RemoteSpokeStore-12"));
+        assertEquals("S3WriteQueue", StackSampler.pool("S3WriteQueue-0"));
+        assertEquals("jetty", StackSampler.pool("qtp1740000325-41"));
+        assertEquals("webhook", StackSampler.pool("single-webhook-name-3"));
+        assertEquals("webhook", StackSampler.pool("SECOND-webhook-name-0"));
+        assertEquals("pool", StackSampler.pool("pool-3-thread-5"));
+        assertEquals("HubServices-PRE_START", StackSampler.pool("HubServices-PRE_START-0"));
+        assertEquals("main", StackSampler.pool("main"));
+        assertEquals("Signal_Dispatcher", StackSampler.pool("Signal Dispatcher"));
+    }
+
+    @Test
+    public void testSample() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                //done
+            }
+        }, "StackSamplerTest-7");
+        thread.start();
+        try {
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+            StackSampler sampler = new StackSampler(10, 0.5, 128, 60, 2, 10_000);
+            assertTrue(sampler.sample() >= 10);
+            sampler.sample();
+            assertEquals(2, sampler.getSamples());
+            assertEquals(2, (long) sampler.getPools(2).get("StackSamplerTest"));
+            SortedMap<String, Long> folded = sampler.getFolded(2, "StackSamplerTest", false);
+            assertEquals(1, folded.size());
+            String stack = folded.firstKey();
+            assertTrue(stack, stack.startsWith("StackSamplerTest;java.lang.Thread.run;"));
+            assertFalse(stack, stack.contains("/"));
+            assertTrue(stack, stack.contains(";java.util.concurrent.CountDownLatch.await;"));
+            assertTrue(stack, stack.endsWith(";sun.misc.Unsafe.park"));
+            assertEquals(2, (long) folded.get(stack));
+            assertTrue(sampler.getFolded(2, "StackSamplerTest", true).isEmpty());
+            assertFalse(sampler.getFolded(2, null, false).keySet().stream().anyMatch(key -> key.contains("StackSampler.sample")));
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void testLimits() {
+        StackSampler sampler = new StackSampler(10, 0.5, 3, 60, 2, 1);
+        sampler.sample();
+        for (String stack : sampler.getFolded(1, null, false).keySet()) {
+            String[] frames = stack.split(";");
+            assertTrue(stack, frames.length == 2 && frames[1].equals(StackSampler.OTHER)
+                    || frames.length <= 5 && (frames.length < 5 || frames[1].equals(StackSampler.TRUNCATED)));
+        }
+        assertEquals(1, sampler.getWindows(2).size());
+    }
+}
@@ -33,6 +33,7 @@ public class ChannelConfigTest {
         assertEquals("", config.getReplicationSource());
         assertEquals("SINGLE", config.getStorage());
         assertEquals(null, config.getGlobal());
+        assertEquals("AUTO", config.getCompression());
     }
 
     @Test
@@ -90,6 +91,18 @@ public class ChannelConfigTest {
         assertFalse(config.hasChanged(copy));
     }
 
+    @Test
+    public void testCompressionCopy() throws IOException {
+        ChannelConfig config = ChannelConfig.builder().withCompression("deflate_fast").build();
+        assertEquals("DEFLATE_FAST", config.getCompression());
+        ChannelConfig copy = getBuilder(config).build();
+        assertEquals("DEFLATE_FAST", copy.getCompression());
+        assertFalse(config.hasChanged(copy));
+        assertEquals("DEFLATE_FAST", ChannelConfig.fromJson(config.toJson()).getCompression());
+        ChannelConfig updated = getBuilder(config).withUpdateJson("{\"compression\": \"NONE\"}").build();
+        assertEquals("NONE", updated.getCompression());
+    }
+
     @Test
     public void testHasChanged() {
         ChannelConfig defaults = ChannelConfig.builder().withName("defaults").build();
@@ -116,6 +129,9 @@ public class ChannelConfigTest {
 
         ChannelConfig tags = getBuilder(hasCheez).withTags(Sets.newHashSet("one", "two")).build();
         assertTrue(tags.hasChanged(defaults));
+
+        ChannelConfig compression = getBuilder(hasCheez).withCompression("lz4").build();
+        assertTrue(compression.hasChanged(defaults));
     }
 
     @Test
@@ -0,0 +1,169 @@
+package com.flightstats.hub.replication;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.cluster.LastContentPath;
+import com.flightstats.hub.cluster.Leadership;
+import com.flightstats.hub.dao.ChannelService;
+import com.flightstats.hub.model.BulkContent;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.Content;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.SecondPath;
+import com.flightstats.hub.util.TimeUtil;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static com.flightstats.hub.dao.LocalChannelService.REPLICATED_LAST_UPDATED;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class PullReplicatorTest {
+
+    private final TreeSet<ContentKey> sourceKeys = new TreeSet<>();
+    private final List<ContentPath> checkpoints = new ArrayList<>();
+    private ContentPath lastReplicated;
+    private DateTime sourceStable;
+    private Leadership leadership;
+    private LastContentPath lastContentPath;
+    private int pulls;
+
+    @Before
+    public void setUp() {
+        HubProperties.setProperty("replication.idleMillis", "10");
+        sourceStable = TimeUtil.stable();
+        leadership = new Leadership();
+        leadership.setLeadership(true);
+        lastContentPath = new LastContentPath(null) {
+            @Override
+            public ContentPath get(String name, ContentPath defaultPath, String basePath) {
+                return lastReplicated == null ? defaultPath : lastReplicated;
+            }
+
+            @Override
+            public void updateIncrease(ContentPath nextPath, String name, String basePath) {
+                assertEquals(REPLICATED_LAST_UPDATED, basePath);
+                checkpoints.add(nextPath);
+                lastReplicated = nextPath;
+            }
+        };
+    }
+
+    private PullReplicator.Source source() {
+        return (key, count) -> {
+            pulls++;
+            BulkContent bulkContent = BulkContent.builder().channel("dest").isNew(false).build();
+            for (ContentKey contentKey : sourceKeys.tailSet(key, false)) {
+                if (bulkContent.getItems().size() == count) {
+                    break;
+                }
+                bulkContent.getItems().add(Content.builder().withContentKey(contentKey).build());
+            }
+            if (bulkContent.getItems().isEmpty()) {
+                leadership.close();
+                return new PullReplicator.Pull(null, sourceStable);
+            }
+            return new PullReplicator.Pull(bulkContent, sourceStable);
+        };
+    }
+
+    private PullReplicator replicator(ChannelService channelService) {
+        ChannelConfig channel = ChannelConfig.builder().withName("dest").withReplicationSource("http://source/channel/src").build();
+        return new PullReplicator(channel, source(), channelService::insert, lastContentPath, "dest", REPLICATED_LAST_UPDATED);
+    }
+
+    @Test
+    public void testPullsInBatches() throws Exception {
+        DateTime start = TimeUtil.now().minusHours(1);
+        lastReplicated = new SecondPath(start);
+        for (int i = 0; i < 2500; i++) {
+            sourceKeys.add(new ContentKey(start.plusMillis(1000 + i), "A"));
+        }
+        sourceKeys.add(new ContentKey(start, "before"));
+        List<ContentKey> inserted = new ArrayList<>();
+        ChannelService channelService = mock(ChannelService.class);
+        when(channelService.insert(any(BulkContent.class))).thenAnswer(invocation -> {
+            List<ContentKey> keys = new ArrayList<>();
+            BulkContent bulkContent = (BulkContent) invocation.getArguments()[0];
+            bulkContent.getItems().forEach(content -> keys.add(content.getContentKey().get()));
+            inserted.addAll(keys);
+            return keys;
+        });
+        assertFalse(replicator(channelService).replicate(leadership));
+
+        assertEquals(2500, inserted.size());
+        assertEquals(sourceKeys.last(), inserted.get(inserted.size() - 1));
+        assertEquals(4, pulls);
+        verify(channelService, times(3)).insert(any(BulkContent.class));
+        assertTrue(checkpoints.size() <= 2);
+        assertTrue(lastReplicated.compareTo(sourceKeys.last()) >= 0);
+    }
+
+    @Test
+    public void testCaughtUpAdvancesToSourceStable() throws Exception {
+        lastReplicated = new SecondPath(TimeUtil.now().minusMinutes(10));
+        sourceStable = TimeUtil.now().minusMinutes(5);
+        ChannelService channelService = mock(ChannelService.class);
+        replicator(channelService).replicate(leadership);
+        verify(channelService, never()).insert(any(BulkContent.class));
+        assertEquals(1, checkpoints.size());
+        assertEquals(ContentKey.lastKey(sourceStable), lastReplicated);
+    }
+
+    @Test
+    public void testCaughtUpWithoutSourceStable() throws Exception {
+        ContentPath start = new SecondPath(TimeUtil.now().minusMinutes(10));
+        lastReplicated = start;
+        sourceStable = null;
+        ChannelService channelService = mock(ChannelService.class);
+        replicator(channelService).replicate(leadership);
+        assertTrue(checkpoints.isEmpty());
+        assertEquals(start, lastReplicated);
+    }
+
+    @Test
+    public void testCatchUpStopsOnceCaughtUp() throws Exception {
+        DateTime start = TimeUtil.now().minusHours(1);
+        lastReplicated = new SecondPath(start);
+        for (int i = 0; i < 1500; i++) {
+            sourceKeys.add(new ContentKey(start.plusSeconds(1 + i), "A"));
+        }
+        ChannelService channelService = mock(ChannelService.class);
+        when(channelService.insert(any(BulkContent.class))).thenAnswer(invocation -> {
+            List<ContentKey> keys = new ArrayList<>();
+            ((BulkContent) invocation.getArguments()[0]).getItems().forEach(content -> keys.add(content.getContentKey().get()));
+            return keys;
+        });
+        PullReplicator replicator = replicator(channelService).catchUp(() -> {
+        });
+        assertTrue(replicator.replicate(leadership));
+        assertTrue(leadership.hasLeadership());
+        assertEquals(2, pulls);
+        assertEquals(1, checkpoints.size());
+        assertTrue(lastReplicated.compareTo(sourceKeys.last()) > 0);
+    }
+
+    @Test
+    public void testToKey() {
+        DateTime time = new DateTime(2016, 5, 4, 3, 2, 1, 0, DateTimeZone.UTC);
+        ContentKey key = PullReplicator.toKey(new SecondPath(time));
+        assertTrue(key.compareTo(new ContentKey(time.plusMillis(999), "ZZZ")) > 0);
+        assertTrue(key.compareTo(new ContentKey(time.plusSeconds(1), "0")) < 0);
+        ContentKey contentKey = new ContentKey(time, "abc");
+        assertEquals(contentKey, PullReplicator.toKey(contentKey));
+    }
+
+    @Test
+    public void testNextUrl() {
+        ContentKey key = new ContentKey(new DateTime(2016, 5, 4, 3, 2, 1, 9, DateTimeZone.UTC), "abc");
+        assertEquals("http://source/channel/src/2016/05/04/03/02/01/009/abc/next/1000?bulk=true&stable=true",
+                PullReplicator.getNextUrl("http://source/channel/src", key, 1000));
+    }
+}
@@ -0,0 +1,152 @@
+package com.flightstats.hub.replication;
+
+import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.ContentPath;
+import com.flightstats.hub.model.SecondPath;
+import com.flightstats.hub.util.TimeUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReplicationLagMonitorTest {
+
+    private ReplicationLagMonitor monitor;
+
+    @Before
+    public void setUp() {
+        HubProperties.setProperty("replication.lagSeconds", "0");
+        HubProperties.setProperty("replication.catchUpSeconds", "60");
+        HubProperties.setProperty("replication.lagCountLimit", "100");
+        HubProperties.setProperty("replication.lagCounts", "5");
+        monitor = new ReplicationLagMonitor();
+    }
+
+    @Test
+    public void testLag() {
+        TestReplicator current = new TestReplicator("current", new SecondPath(TimeUtil.stable().minusSeconds(2)), 3);
+        TestReplicator behind = new TestReplicator("behind", new SecondPath(TimeUtil.stable().minusMinutes(10)), 500);
+        TestReplicator empty = new TestReplicator("empty", null, 0);
+        monitor.update(Arrays.asList(current, behind, empty));
+
+        List<ReplicationLag> lags = new ArrayList<>(monitor.getLags());
+        assertEquals(2, lags.size());
+        ReplicationLag behindLag = lags.get(0);
+        assertEquals("behind", behindLag.getName());
+        assertEquals(100, behindLag.getLagItems());
+        assertTrue(behindLag.getLagMillis() >= 10 * 60 * 1000);
+        ReplicationLag currentLag = lags.get(1);
+        assertEquals("current", currentLag.getName());
+        assertEquals(3, currentLag.getLagItems());
+        assertTrue(currentLag.getLagMillis() < 60 * 1000);
+
+        assertEquals(0, current.catchUps);
+        assertEquals(1, behind.catchUps);
+        assertEquals(0, empty.catchUps);
+    }
+
+    @Test
+    public void testCatchUpOnce() {
+        TestReplicator behind = new TestReplicator("behind", new SecondPath(TimeUtil.stable().minusMinutes(10)), 500);
+        monitor.update(Collections.singletonList(behind));
+        monitor.update(Collections.singletonList(behind));
+        assertEquals(1, behind.catchUps);
+        assertTrue(monitor.getLags().iterator().next().isCatchingUp());
+
+        behind.catchingUp = false;
+        behind.lastReplicated = new SecondPath(TimeUtil.stable());
+        monitor.update(Collections.singletonList(behind));
+        assertEquals(1, behind.catchUps);
+        assertFalse(monitor.getLags().iterator().next().isCatchingUp());
+    }
+
+    @Test
+    public void testCountsPerPass() {
+        HubProperties.setProperty("replication.lagCounts", "1");
+        monitor = new ReplicationLagMonitor();
+        TestReplicator one = new TestReplicator("one", new SecondPath(TimeUtil.stable().minusSeconds(5)), 3);
+        TestReplicator two = new TestReplicator("two", new SecondPath(TimeUtil.stable().minusSeconds(5)), 4);
+        List<Replicator> replicators = Arrays.asList(one, two);
+        monitor.update(replicators);
+        assertEquals(1, one.countCalls + two.countCalls);
+        monitor.update(replicators);
+        assertEquals(1, one.countCalls);
+        assertEquals(1, two.countCalls);
+        List<ReplicationLag> lags = new ArrayList<>(monitor.getLags());
+        assertEquals(3, lags.get(0).getLagItems());
+        assertEquals(4, lags.get(1).getLagItems());
+
+        one.behind = 2;
+        monitor.update(replicators);
+        monitor.update(replicators);
+        assertEquals(2, one.countCalls);
+        assertEquals(2, two.countCalls);
+        assertEquals(2, monitor.getLags().iterator().next().getLagItems());
+    }
+
+    @Test
+    public void testRemoved() {
+        TestReplicator replicator = new TestReplicator("one", new SecondPath(TimeUtil.stable()), 0);
+        monitor.update(Collections.singletonList(replicator));
+        assertEquals(1, monitor.getLags().size());
+        monitor.update(Collections.emptyList());
+        assertTrue(monitor.getLags().isEmpty());
+    }
+
+    private static class TestReplicator implements Replicator {
+        private final String name;
+        private int behind;
+        private ContentPath lastReplicated;
+        private boolean catchingUp;
+        private int catchUps;
+        private int countCalls;
+
+        private TestReplicator(String name, ContentPath lastReplicated, int behind) {
+            this.name = name;
+            this.lastReplicated = lastReplicated;
+            this.behind = behind;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public ChannelConfig getChannel() {
+            return ChannelConfig.builder().withName(name).build();
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public ContentPath getLastReplicated() {
+            return lastReplicated;
+        }
+
+        @Override
+        public int countAfter(ContentPath path, int limit) {
+            countCalls++;
+            return Math.min(behind, limit);
+        }
+
+        @Override
+        public boolean isCatchingUp() {
+            return catchingUp;
+        }
+
+        @Override
+        public void catchUp() {
+            catchUps++;
+            catchingUp = true;
+        }
+    }
+}
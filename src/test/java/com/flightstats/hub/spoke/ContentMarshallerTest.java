@@ -1,18 +1,40 @@
 package com.flightstats.hub.spoke;
 
 import com.flightstats.hub.dao.ContentMarshaller;
+import com.flightstats.hub.dao.PayloadCodec;
+import com.flightstats.hub.model.ChannelConfig;
+import com.flightstats.hub.model.CompressedPayload;
 import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.util.BufferPoolLeaks;
+import com.flightstats.hub.util.PayloadBuffer;
+import com.google.common.io.ByteStreams;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.Rule;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class ContentMarshallerTest {
 
+    @Rule
+    public final BufferPoolLeaks leaks = new BufferPoolLeaks();
+
     @Test
     public void testAllFieldsSmall() throws IOException {
         verify(getContent(10), 10);
@@ -33,6 +55,124 @@ public class ContentMarshallerTest {
         verify(content, 1024);
     }
 
+    @Test
+    public void testAllCodecs() throws IOException {
+        for (PayloadCodec codec : PayloadCodec.values()) {
+            for (int size : new int[]{0, 10, 1000, 100 * 1024}) {
+                ChannelConfig config = ChannelConfig.builder().withName("codecs").withCompression(codec.name()).build();
+                Content content = getContent(size);
+                Content cycled = ContentMarshaller.toContent(ContentMarshaller.toBytes(content, config), content.getContentKey().get());
+                assertTrue(content.equals(cycled));
+                assertEquals(codec + " " + size, size, cycled.getData().length);
+            }
+        }
+    }
+
+    @Test
+    public void testJsonDictionary() throws IOException {
+        String json = "{\"id\":\"12345\",\"type\":\"arrival\",\"status\":\"landed\",\"timestamp\":\"2016-07-01T12:00:00Z\"}";
+        Content content = Content.builder()
+                .withContentType("application/json")
+                .withData(json.getBytes())
+                .withContentKey(new ContentKey())
+                .build();
+        Content cycled = ContentMarshaller.toContent(ContentMarshaller.toBytes(content), content.getContentKey().get());
+        assertEquals(json, new String(cycled.getData()));
+    }
+
+    @Test
+    public void testLegacyZip() throws IOException {
+        byte[] data = RandomStringUtils.randomAlphanumeric(2048).getBytes();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ZipOutputStream zipOut = new ZipOutputStream(baos);
+        zipOut.setLevel(Deflater.BEST_COMPRESSION);
+        zipOut.putNextEntry(new ZipEntry("meta"));
+        zipOut.write("{\"contentType\":\"text/plain\"}".getBytes());
+        zipOut.putNextEntry(new ZipEntry("payload"));
+        zipOut.write(data);
+        zipOut.close();
+        Content content = ContentMarshaller.toContent(baos.toByteArray(), new ContentKey());
+        assertEquals("text/plain", content.getContentType().get());
+        assertArrayEquals(data, content.getData());
+    }
+
+    @Test
+    public void testCompressedGzip() throws IOException {
+        ChannelConfig config = ChannelConfig.builder().withName("gzip").withCompression("DEFLATE_FAST").build();
+        Content content = getContent(100 * 1024);
+        byte[] data = content.getData();
+        Content cycled = ContentMarshaller.toContent(ContentMarshaller.toBytes(content, config), content.getContentKey().get());
+        CompressedPayload compressed = cycled.getCompressed().get();
+        assertEquals(data.length, compressed.getSize());
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        compressed.writeGzip(gzip);
+        assertEquals(compressed.getGzipLength(), gzip.size());
+        assertArrayEquals(data, ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzip.toByteArray()))));
+        assertArrayEquals(data, cycled.getData());
+    }
+
+    @Test
+    public void testNotCompressedGzip() throws IOException {
+        for (String compression : new String[]{"NONE", "LZ4", "JSON_DICTIONARY"}) {
+            ChannelConfig config = ChannelConfig.builder().withName("gzip").withCompression(compression).build();
+            Content content = getContent(1000);
+            Content cycled = ContentMarshaller.toContent(ContentMarshaller.toBytes(content, config), content.getContentKey().get());
+            assertFalse(cycled.getCompressed().isPresent());
+            assertEquals(1000, cycled.getData().length);
+        }
+    }
+
+    @Test
+    public void testStreamingLarge() throws IOException {
+        byte[] data = RandomStringUtils.randomAlphanumeric(12 * 1024 * 1024).getBytes();
+        for (String compression : new String[]{"NONE", "DEFLATE_FAST", "LZ4"}) {
+            ChannelConfig config = ChannelConfig.builder().withName("stream").withCompression(compression).build();
+            Content content = Content.builder().withData(data).withContentKey(new ContentKey()).build();
+            PayloadBuffer buffer = ContentMarshaller.toBuffer(content, config, true);
+            AtomicBoolean closed = new AtomicBoolean();
+            InputStream input = new FilterInputStream(buffer.asByteSource().openStream()) {
+                @Override
+                public void close() throws IOException {
+                    closed.set(true);
+                    super.close();
+                }
+            };
+            Content cycled = ContentMarshaller.toContent(input, content.getContentKey().get());
+            assertFalse(closed.get());
+            assertFalse(cycled.getCompressed().isPresent());
+            assertArrayEquals(compression, data, cycled.getData());
+            assertTrue(closed.get());
+            buffer.reset();
+        }
+    }
+
+    @Test
+    public void testStreamingSmall() throws IOException {
+        Content content = getContent(1000);
+        byte[] data = content.getData();
+        PayloadBuffer buffer = ContentMarshaller.toBuffer(content, null, false);
+        Content cycled = ContentMarshaller.toContent(buffer.asByteSource().openStream(), content.getContentKey().get());
+        buffer.reset();
+        assertEquals("application/json", cycled.getContentType().get());
+        assertArrayEquals(data, cycled.getData());
+        assertNull(ContentMarshaller.toContent(new ByteArrayInputStream(new byte[0]), new ContentKey()));
+    }
+
+    @Test
+    public void testWriteClosesStream() throws IOException {
+        AtomicBoolean closed = new AtomicBoolean();
+        InputStream input = new FilterInputStream(new ByteArrayInputStream(new byte[10000])) {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+        Content content = Content.builder().withStream(input).withContentKey(new ContentKey()).build();
+        ContentMarshaller.toBuffer(content, null, false).reset();
+        assertTrue(closed.get());
+    }
+
     private void verify(Content content, int size) throws IOException {
         Content cycled = ContentMarshaller.toContent(ContentMarshaller.toBytes(content), content.getContentKey().get());
         assertTrue(content.equals(cycled));
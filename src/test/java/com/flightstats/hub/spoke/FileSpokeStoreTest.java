@@ -1,18 +1,26 @@
 package com.flightstats.hub.spoke;
 
 import com.flightstats.hub.app.HubProperties;
+import com.flightstats.hub.channel.ChannelVolumes;
+import com.flightstats.hub.dao.ContentMarshaller;
+import com.flightstats.hub.model.Content;
 import com.flightstats.hub.model.ContentKey;
 import com.flightstats.hub.model.ContentKeyUtil;
+import com.flightstats.hub.util.BufferPoolLeaks;
 import com.flightstats.hub.util.TimeUtil;
 import com.google.common.io.Files;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.Mockito;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -21,6 +29,9 @@ import java.util.Collection;
 import java.util.List;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 public class FileSpokeStoreTest {
     public static final byte[] BYTES = new byte[]{0, 2, 3, 4, 5, 6};
@@ -29,6 +40,9 @@ public class FileSpokeStoreTest {
     private FileSpokeStore spokeStore;
     private static final int ttlMinutes = HubProperties.getProperty("spoke.ttlMinutes", 60);
 
+    @Rule
+    public final BufferPoolLeaks leaks = new BufferPoolLeaks();
+
     @Before
     public void setUp() throws Exception {
         tempDir = Files.createTempDir().getPath();
@@ -43,6 +57,53 @@ public class FileSpokeStoreTest {
         assertArrayEquals(BYTES, read);
     }
 
+    @Test
+    public void testRecordsNewItems() throws Exception {
+        ChannelVolumes channelVolumes = mock(ChannelVolumes.class);
+        FileSpokeStore store = new FileSpokeStore(tempDir, channelVolumes);
+        ContentKey key = new ContentKey();
+        assertTrue(store.insert("channelRNI/" + key.toUrl(), BYTES));
+        assertTrue(store.insert("channelRNI/" + key.toUrl(), BYTES));
+        Mockito.verify(channelVolumes, times(1)).record("channelRNI", key, BYTES.length);
+        verifyNoMoreInteractions(channelVolumes);
+    }
+
+    @Test
+    public void testRecordsPayloadSize() throws Exception {
+        ChannelVolumes channelVolumes = mock(ChannelVolumes.class);
+        FileSpokeStore store = new FileSpokeStore(tempDir, channelVolumes);
+        ContentKey key = new ContentKey();
+        byte[] payload = new byte[10_000];
+        Content content = Content.builder().withContentKey(key).withContentType("text/plain").withData(payload).build();
+        byte[] bytes = ContentMarshaller.toBytes(content);
+        assertNotEquals(payload.length, bytes.length);
+        assertTrue(store.insert("channelRPS/" + key.toUrl(), bytes));
+        Mockito.verify(channelVolumes).record("channelRPS", key, payload.length);
+    }
+
+    @Test
+    public void testReadAll() throws Exception {
+        ContentKey first = new ContentKey();
+        ContentKey missing = new ContentKey(first.getTime(), "missing");
+        ContentKey second = new ContentKey(first.getTime().plusMillis(1), "second");
+        assertTrue(spokeStore.insert("channelRA/" + first.toUrl(), BYTES));
+        assertTrue(spokeStore.insert("channelRA/" + second.toUrl(), "second".getBytes()));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        spokeStore.readAll("channelRA", new String[]{first.toUrl(), missing.toUrl(), second.toUrl()}, baos);
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        assertEquals(first.toUrl(), new String(readFrame(input)));
+        assertArrayEquals(BYTES, readFrame(input));
+        assertEquals(second.toUrl(), new String(readFrame(input)));
+        assertEquals("second", new String(readFrame(input)));
+        assertEquals(-1, input.readInt());
+    }
+
+    private byte[] readFrame(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
     @Test
     public void testPathTranslation() throws Exception {
         String incoming = "/test_0_4274725520517677/2014/11/18/00/57/24/015/NV2cl5";
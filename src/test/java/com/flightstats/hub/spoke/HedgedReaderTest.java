@@ -0,0 +1,81 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.util.Sleeper;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class HedgedReaderTest {
+
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+
+    @Test
+    public void testNoHedge() {
+        HedgedReader reader = new HedgedReader(executorService, 95, 100, 100);
+        List<String> called = new CopyOnWriteArrayList<>();
+        String value = reader.read(Arrays.asList("A", "B"), server -> {
+            called.add(server);
+            return "value" + server;
+        }, discarded -> fail("nothing to discard"));
+        assertEquals("valueA", value);
+        assertEquals(Arrays.asList("A"), called);
+        assertEquals(0, reader.getHedges());
+    }
+
+    @Test
+    public void testHedge() {
+        HedgedReader reader = new HedgedReader(executorService, 95, 20, 20);
+        List<String> discarded = new CopyOnWriteArrayList<>();
+        AtomicBoolean interrupted = new AtomicBoolean();
+        long start = System.currentTimeMillis();
+        String value = reader.read(Arrays.asList("slow", "fast"), server -> {
+            if (server.equals("slow")) {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+            }
+            return server;
+        }, discarded::add);
+        assertEquals("fast", value);
+        assertTrue(System.currentTimeMillis() - start < 400);
+        assertEquals(1, reader.getHedges());
+        assertEquals(1, reader.getHedgeWins());
+        Sleeper.sleep(200);
+        assertTrue(interrupted.get());
+        assertEquals(Arrays.asList("slow"), discarded);
+    }
+
+    @Test
+    public void testMissing() {
+        HedgedReader reader = new HedgedReader(executorService, 95, 100, 100);
+        List<String> called = new CopyOnWriteArrayList<>();
+        String value = reader.read(Arrays.asList("A", "B", "C"), server -> {
+            called.add(server);
+            return server.equals("C") ? "C" : null;
+        }, discarded -> fail("nothing to discard"));
+        assertEquals("C", value);
+        assertEquals(Arrays.asList("A", "B", "C"), called);
+    }
+
+    @Test
+    public void testDelayPercentile() {
+        HedgedReader reader = new HedgedReader(executorService, 90, 1, 1000);
+        for (int i = 1; i <= 100; i++) {
+            reader.record(i);
+        }
+        assertEquals(91, reader.getDelayMillis());
+        for (int i = 0; i < 1000; i++) {
+            reader.record(5000);
+        }
+        assertEquals(1000, reader.getDelayMillis());
+    }
+}
@@ -0,0 +1,30 @@
+package com.flightstats.hub.spoke;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencySamplerTest {
+
+    @Test
+    public void testRecalculates() {
+        LatencySampler sampler = new LatencySampler(10, 5, 50);
+        for (int i = 1; i < 5; i++) {
+            assertEquals(-1, sampler.add(i));
+        }
+        assertEquals(3, sampler.add(5));
+        for (int i = 6; i < 25; i++) {
+            sampler.add(i);
+        }
+        assertEquals(21, sampler.add(25));
+    }
+
+    @Test
+    public void testKeepsRecalculating() {
+        LatencySampler sampler = new LatencySampler(3, 2, 99);
+        for (int i = 0; i < 1_000_000; i++) {
+            long percentile = sampler.add(i);
+            assertEquals(i % 2 == 1 ? i : -1, percentile);
+        }
+    }
+}
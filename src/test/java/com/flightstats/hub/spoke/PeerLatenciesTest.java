@@ -0,0 +1,79 @@
+package com.flightstats.hub.spoke;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PeerLatenciesTest {
+
+    private static final List<String> SERVERS = Arrays.asList("A", "B", "C");
+
+    @Test
+    public void testUnknownWaitsMax() {
+        PeerLatencies latencies = new PeerLatencies(3, 100, 2);
+        assertEquals(5000, latencies.getQuorumWaitMillis(SERVERS, 2, 50, 5000));
+        record(latencies, "A", 10, 100);
+        record(latencies, "B", 10, 100);
+        assertEquals(5000, latencies.getQuorumWaitMillis(SERVERS, 2, 50, 5000));
+    }
+
+    @Test
+    public void testQuorumWait() {
+        PeerLatencies latencies = new PeerLatencies(3, 100, 2);
+        record(latencies, "A", 10, 100);
+        record(latencies, "B", 40, 100);
+        record(latencies, "C", 60, 100);
+        assertEquals(Collections.emptySet(), latencies.getDegraded(SERVERS));
+        assertEquals(80, latencies.getQuorumWaitMillis(SERVERS, 2, 50, 5000));
+        assertEquals(50, latencies.getQuorumWaitMillis(SERVERS, 1, 50, 5000));
+        assertEquals(70, latencies.getQuorumWaitMillis(SERVERS, 2, 50, 70));
+    }
+
+    @Test
+    public void testSlowServerDegraded() {
+        PeerLatencies latencies = new PeerLatencies(3, 100, 2);
+        record(latencies, "A", 10, 100);
+        record(latencies, "B", 20, 100);
+        record(latencies, "C", 1500, 100);
+        assertEquals(Collections.singleton("C"), latencies.getDegraded(SERVERS));
+        assertEquals(Arrays.asList("A", "B", "C"), latencies.preferHealthy(Arrays.asList("C", "A", "B")));
+        assertEquals(50, latencies.getQuorumWaitMillis(SERVERS, 2, 50, 5000));
+        record(latencies, "C", 20, 100);
+        assertEquals(Collections.emptySet(), latencies.getDegraded(SERVERS));
+    }
+
+    @Test
+    public void testSlowMajorityNotDegraded() {
+        PeerLatencies latencies = new PeerLatencies(3, 100, 2);
+        record(latencies, "A", 10, 100);
+        record(latencies, "B", 1000, 100);
+        record(latencies, "C", 1000, 100);
+        assertEquals(Collections.emptySet(), latencies.getDegraded(SERVERS));
+        assertEquals(2000, latencies.getQuorumWaitMillis(SERVERS, 2, 50, 5000));
+    }
+
+    @Test
+    public void testFailures() {
+        PeerLatencies latencies = new PeerLatencies(3, 100, 2);
+        record(latencies, "A", 10, 100);
+        record(latencies, "B", 10, 100);
+        latencies.failure("C");
+        latencies.failure("C");
+        assertEquals(Collections.emptySet(), latencies.getDegraded(SERVERS));
+        latencies.failure("C");
+        assertEquals(Collections.singleton("C"), latencies.getDegraded(SERVERS));
+        assertEquals(50, latencies.getQuorumWaitMillis(SERVERS, 2, 50, 5000));
+        latencies.success("C", 10);
+        assertEquals(Collections.emptySet(), latencies.getDegraded(SERVERS));
+    }
+
+    private void record(PeerLatencies latencies, String server, long millis, int count) {
+        for (int i = 0; i < count; i++) {
+            latencies.success(server, millis);
+        }
+    }
+}
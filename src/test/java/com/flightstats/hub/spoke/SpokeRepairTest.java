@@ -0,0 +1,96 @@
+package com.flightstats.hub.spoke;
+
+import com.flightstats.hub.dao.KeyDigest;
+import com.flightstats.hub.model.ContentKey;
+import com.flightstats.hub.model.MinutePath;
+import com.flightstats.hub.util.TimeUtil;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.RateLimiter;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.SortedMap;
+
+import static org.junit.Assert.*;
+
+public class SpokeRepairTest {
+
+    private FileSpokeStore local;
+    private FileSpokeStore peer;
+    private DateTime start;
+    private DateTime end;
+
+    @Before
+    public void setUp() throws Exception {
+        local = new FileSpokeStore(Files.createTempDir().getPath());
+        peer = new FileSpokeStore(Files.createTempDir().getPath());
+        end = new MinutePath(TimeUtil.now().minusMinutes(2)).getTime();
+        start = end.minusMinutes(10);
+    }
+
+    @Test
+    public void testRepair() {
+        ContentKey both = new ContentKey(start.plusMinutes(1), "both");
+        ContentKey missing = new ContentKey(start.plusMinutes(1).plusSeconds(5), "missing");
+        ContentKey otherMinute = new ContentKey(start.plusMinutes(7), "other");
+        ContentKey localOnly = new ContentKey(start.plusMinutes(3), "localOnly");
+        ContentKey outside = new ContentKey(end.plusSeconds(10), "outside");
+        for (ContentKey key : Arrays.asList(both, missing, otherMinute, outside)) {
+            assertTrue(peer.insert("repair/" + key.toUrl(), key.getHash().getBytes()));
+        }
+        assertTrue(local.insert("repair/" + both.toUrl(), both.getHash().getBytes()));
+        assertTrue(local.insert("repair/" + localOnly.toUrl(), localOnly.getHash().getBytes()));
+        assertNotEquals(local.getChannelDigests(start, end), peer.getChannelDigests(start, end));
+
+        SpokeRepair.Result result = repair("repair");
+        assertEquals(2, result.items.get());
+        assertArrayEquals("missing".getBytes(), local.read("repair/" + missing.toUrl()));
+        assertArrayEquals("other".getBytes(), local.read("repair/" + otherMinute.toUrl()));
+        assertNull(local.openStream("repair/" + outside.toUrl()));
+        SortedMap<String, Long> localMinutes = local.getMinuteDigests("repair", start, end);
+        peer.getMinuteDigests("repair", start, end)
+                .forEach((minute, digest) -> assertEquals(digest, localMinutes.get(minute)));
+
+        assertEquals(0, repair("repair").items.get());
+    }
+
+    @Test
+    public void testDigestMatchesKeys() {
+        ContentKey first = new ContentKey(start.plusMinutes(4), "first");
+        ContentKey second = new ContentKey(start.plusMinutes(4).plusSeconds(1), "second");
+        assertTrue(local.insert("digest/" + first.toUrl(), "first".getBytes()));
+        assertTrue(local.insert("digest/" + second.toUrl(), "second".getBytes()));
+        long expected = KeyDigest.of(Arrays.asList(second.toUrl(), first.toUrl())).getValue();
+        assertEquals(expected, (long) local.getMinuteDigests("digest", start, end).get(TimeUtil.minutes(first.getTime())));
+    }
+
+    @Test
+    public void testIncomplete() {
+        ContentKey key = new ContentKey(start.plusMinutes(2), "incomplete");
+        String path = "repair/" + key.toUrl();
+        assertTrue(peer.insert(path, "complete".getBytes()));
+        assertTrue(local.insert(path, "comp".getBytes()));
+        File file = local.spokeFilePathPart(path);
+        assertTrue(file.setExecutable(false));
+        assertEquals(1, repair("repair").items.get());
+        assertArrayEquals("complete".getBytes(), local.read(path));
+    }
+
+    @Test
+    public void testUnknownChannel() {
+        ContentKey key = new ContentKey(start.plusMinutes(2), "deleted");
+        assertTrue(peer.insert("deleted/" + key.toUrl(), "deleted".getBytes()));
+        assertEquals(0, repair("repair").items.get());
+    }
+
+    private SpokeRepair.Result repair(String channel) {
+        SpokeRepair.Result result = new SpokeRepair.Result();
+        SpokeRepair.repair(local, local.getChannelDigests(start, end), peer, new HashSet<>(Arrays.asList(channel)),
+                start, end, RateLimiter.create(Double.MAX_VALUE), result);
+        return result;
+    }
+}
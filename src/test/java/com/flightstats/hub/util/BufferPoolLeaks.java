@@ -0,0 +1,28 @@
+package com.flightstats.hub.util;
+
+import org.junit.rules.ExternalResource;
+
+import java.util.List;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Fails a test which borrows a buffer from the BufferPool without releasing it, or releases one twice.
+ */
+public class BufferPoolLeaks extends ExternalResource {
+
+    @Override
+    protected void before() {
+        BufferPool.setTrackLeaks(true);
+    }
+
+    @Override
+    protected void after() {
+        List<Throwable> leaks = BufferPool.getLeaks();
+        BufferPool.setTrackLeaks(false);
+        if (!leaks.isEmpty()) {
+            leaks.forEach(Throwable::printStackTrace);
+            fail(leaks.size() + " buffers were not released");
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.flightstats.hub.util;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    @Rule
+    public final BufferPoolLeaks leaks = new BufferPoolLeaks();
+
+    @Test
+    public void testSizeClasses() {
+        byte[] small = BufferPool.borrow(1);
+        assertEquals(4 * 1024, small.length);
+        byte[] middle = BufferPool.borrow(4 * 1024 + 1);
+        assertEquals(8 * 1024, middle.length);
+        byte[] max = BufferPool.borrow(BufferPool.MAX_POOLED);
+        assertEquals(BufferPool.MAX_POOLED, max.length);
+        byte[] large = BufferPool.borrow(BufferPool.MAX_POOLED + 1);
+        assertEquals(BufferPool.MAX_POOLED + 1, large.length);
+        long pooled = BufferPool.getPooledBytes();
+        BufferPool.release(small);
+        BufferPool.release(middle);
+        BufferPool.release(max);
+        assertEquals(pooled + small.length + middle.length + max.length, BufferPool.getPooledBytes());
+        BufferPool.release(large);
+        assertEquals(pooled + small.length + middle.length + max.length, BufferPool.getPooledBytes());
+    }
+
+    @Test
+    public void testLeaksAndDoubleRelease() {
+        byte[] buffer = BufferPool.borrow(100);
+        assertEquals(1, BufferPool.getLeaks().size());
+        BufferPool.release(buffer);
+        assertTrue(BufferPool.getLeaks().isEmpty());
+        try {
+            BufferPool.release(buffer);
+            fail("released twice");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testPayloadBuffer() throws IOException {
+        for (int size : new int[]{0, 1, 4096, 4097, 100_000, 3 * 1024 * 1024}) {
+            byte[] data = new byte[size];
+            new Random(size).nextBytes(data);
+            PayloadBuffer buffer = new PayloadBuffer(Integer.MAX_VALUE);
+            buffer.write(data, 0, Math.min(size, 10));
+            if (size > 10) {
+                buffer.write(data, 10, size - 10);
+            }
+            buffer.close();
+            assertTrue(buffer.isInMemory());
+            assertEquals(size, buffer.size());
+            assertEquals(size, buffer.asByteSource().size());
+            assertArrayEquals(data, buffer.toByteArray());
+            assertArrayEquals(data, ByteStreams.toByteArray(buffer.asByteSource().openStream()));
+            try (InputStream input = buffer.asByteSource().openStream()) {
+                assertEquals(size, input.available());
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                int read;
+                while ((read = input.read()) >= 0) {
+                    output.write(read);
+                }
+                assertArrayEquals(data, output.toByteArray());
+            }
+            buffer.reset();
+            assertEquals(0, buffer.size());
+        }
+    }
+
+    @Test
+    public void testPayloadBufferSpills() throws IOException {
+        byte[] data = new byte[100_000];
+        new Random(1).nextBytes(data);
+        PayloadBuffer buffer = new PayloadBuffer(50_000);
+        buffer.write(data, 0, 40_000);
+        assertTrue(buffer.isInMemory());
+        buffer.write(data, 40_000, 60_000);
+        buffer.close();
+        assertFalse(buffer.isInMemory());
+        assertEquals(100_000, buffer.asByteSource().size());
+        assertArrayEquals(data, ByteStreams.toByteArray(buffer.asByteSource().openStream()));
+        assertArrayEquals(data, buffer.toByteArray());
+        buffer.reset();
+    }
+
+    @Test
+    public void testToByteArray() throws IOException {
+        byte[] data = new byte[200_000];
+        new Random(2).nextBytes(data);
+        assertArrayEquals(data, BufferPool.toByteArray(new ByteArrayInputStream(data)));
+        assertEquals(0, BufferPool.toByteArray(new ByteArrayInputStream(new byte[0])).length);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(data.length, BufferPool.copy(new ByteArrayInputStream(data), output));
+        assertArrayEquals(data, output.toByteArray());
+    }
+}
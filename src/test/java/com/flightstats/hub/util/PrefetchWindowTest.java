@@ -0,0 +1,110 @@
+package com.flightstats.hub.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PrefetchWindowTest {
+
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+
+    @Test
+    public void testOrder() {
+        List<Integer> results = new ArrayList<>();
+        PrefetchWindow<Integer> window = new PrefetchWindow<>(executorService, 4, results::add);
+        for (int i = 0; i < 20; i++) {
+            int value = i;
+            window.submit(() -> {
+                Sleeper.sleep((20 - value) % 5);
+                return value;
+            });
+        }
+        window.finish();
+        assertEquals(20, results.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, (int) results.get(i));
+        }
+    }
+
+    @Test
+    public void testBounded() {
+        AtomicInteger started = new AtomicInteger();
+        List<Integer> maxAhead = new ArrayList<>();
+        List<Integer> results = new ArrayList<>();
+        PrefetchWindow<Integer> window = new PrefetchWindow<>(executorService, 3, value -> {
+            maxAhead.add(started.get() - results.size());
+            results.add(value);
+        });
+        for (int i = 0; i < 10; i++) {
+            int value = i;
+            window.submit(() -> {
+                started.incrementAndGet();
+                return value;
+            });
+        }
+        window.finish();
+        assertEquals(10, results.size());
+        for (Integer ahead : maxAhead) {
+            assertTrue("ahead " + ahead, ahead <= 3);
+        }
+    }
+
+    @Test
+    public void testFailure() {
+        List<Integer> results = new ArrayList<>();
+        PrefetchWindow<Integer> window = new PrefetchWindow<>(executorService, 2, results::add);
+        window.submit(() -> 1);
+        window.submit(() -> {
+            throw new IllegalStateException("failed");
+        });
+        try {
+            window.finish();
+            fail("expected exception");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(1, results.size());
+    }
+
+    @Test
+    public void testDiscard() throws Exception {
+        List<Integer> results = new ArrayList<>();
+        List<Integer> discarded = Collections.synchronizedList(new ArrayList<>());
+        PrefetchWindow<Integer> window = new PrefetchWindow<>(executorService, 3, value -> {
+            if (value == 2) {
+                throw new IllegalStateException("disconnected");
+            }
+            results.add(value);
+        }, discarded::add);
+        CountDownLatch completed = new CountDownLatch(1);
+        window.submit(() -> 1);
+        window.submit(() -> 2);
+        window.submit(() -> {
+            completed.countDown();
+            return 3;
+        });
+        completed.await();
+        try {
+            window.finish();
+            fail("expected exception");
+        } catch (IllegalStateException e) {
+            assertEquals("disconnected", e.getMessage());
+        }
+        assertEquals(Collections.singletonList(1), results);
+        for (int i = 0; i < 100 && discarded.size() < 2; i++) {
+            Sleeper.sleep(10);
+        }
+        assertEquals(Arrays.asList(2, 3), discarded);
+    }
+}
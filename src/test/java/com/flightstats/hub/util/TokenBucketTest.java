@@ -0,0 +1,52 @@
+package com.flightstats.hub.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurst() {
+        TokenBucket bucket = new TokenBucket(10, 2, 0);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(0, bucket.tryAcquire(1, 0));
+        }
+        assertTrue(bucket.tryAcquire(1, 0) > 0);
+        assertEquals(0, bucket.tryAcquire(1, SECOND / 10));
+        assertTrue(bucket.tryAcquire(1, SECOND / 10) > 0);
+    }
+
+    @Test
+    public void testRefillIsCapped() {
+        TokenBucket bucket = new TokenBucket(10, 1, 0);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, bucket.tryAcquire(1, 100 * SECOND));
+        }
+        assertTrue(bucket.tryAcquire(1, 100 * SECOND) > 0);
+    }
+
+    @Test
+    public void testDebt() {
+        TokenBucket bucket = new TokenBucket(100, 1, 0);
+        assertEquals(0, bucket.tryAcquire(400, 0));
+        long wait = bucket.tryAcquire(1, 0);
+        assertTrue("" + wait, wait >= 3000 && wait <= 3002);
+        assertTrue(bucket.tryAcquire(1, 2 * SECOND) > 0);
+        assertEquals(0, bucket.tryAcquire(1, 3 * SECOND + SECOND / 100));
+    }
+
+    @Test
+    public void testCharge() {
+        TokenBucket bucket = new TokenBucket(10, 1, 0);
+        bucket.charge(15, 0);
+        assertTrue(bucket.tryAcquire(1, 0) > 0);
+        bucket.charge(-10, 0);
+        assertEquals(0, bucket.tryAcquire(1, 0));
+    }
+}